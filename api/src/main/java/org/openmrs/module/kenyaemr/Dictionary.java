@@ -29,7 +29,10 @@ public class Dictionary extends Metadata.Concept {
 	 * @throws org.openmrs.module.metadatadeploy.MissingMetadataException if the concept could not be found
 	 */
 	public static Concept getConcept(String identifier) {
-		Concept concept;
+		Concept concept = getCachedConcept(identifier);
+		if (concept != null) {
+			return concept;
+		}
 
 		if (identifier.contains(":")) {
 			String[] tokens = identifier.split(":");
@@ -53,6 +56,40 @@ public class Dictionary extends Metadata.Concept {
 			}
 		}
 
+		DictionaryCache.put(identifier, concept);
+
+		return concept;
+	}
+
+	/**
+	 * Gets the id of a concept by an identifier (mapping or UUID)
+	 * @param identifier the identifier
+	 * @return the concept id
+	 * @throws org.openmrs.module.metadatadeploy.MissingMetadataException if the concept could not be found
+	 */
+	public static Integer getConceptId(String identifier) {
+		Integer conceptId = DictionaryCache.getConceptId(identifier);
+		return conceptId != null ? conceptId : getConcept(identifier).getConceptId();
+	}
+
+	/**
+	 * Loads a concept using a previously cached resolution of its identifier
+	 * @param identifier the identifier
+	 * @return the concept or null if identifier isn't cached or no longer resolves
+	 */
+	private static Concept getCachedConcept(String identifier) {
+		Integer conceptId = DictionaryCache.getConceptId(identifier);
+		if (conceptId == null) {
+			return null;
+		}
+
+		Concept concept = DictionaryCache.isNumeric(conceptId)
+				? Context.getConceptService().getConceptNumeric(conceptId)
+				: Context.getConceptService().getConcept(conceptId);
+
+		if (concept == null) {
+			DictionaryCache.evict(identifier);
+		}
 		return concept;
 	}
 
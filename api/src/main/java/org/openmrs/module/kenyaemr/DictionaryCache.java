@@ -0,0 +1,126 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Concept;
+import org.openmrs.module.metadatadeploy.MissingMetadataException;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Module-wide cache of concept identifiers (mappings or UUIDs) to concept ids. Resolving a mapping requires a query
+ * against the concept reference tables, whereas loading by id is a primary key lookup which Hibernate can serve from
+ * its own caches. Entries are cleared whenever a concept is saved, retired or purged.
+ */
+public class DictionaryCache {
+
+	protected static final Log log = LogFactory.getLog(DictionaryCache.class);
+
+	private static final Map<String, Integer> conceptIds = new ConcurrentHashMap<String, Integer>();
+
+	private static final Set<Integer> numericConceptIds = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+	/**
+	 * Gets the cached concept id for the given identifier
+	 * @param identifier the identifier (mapping or UUID)
+	 * @return the concept id or null if identifier hasn't been resolved yet
+	 */
+	public static Integer getConceptId(String identifier) {
+		return conceptIds.get(identifier);
+	}
+
+	/**
+	 * Gets whether the given concept id was resolved as a numeric concept
+	 * @param conceptId the concept id
+	 * @return true if concept is numeric
+	 */
+	public static boolean isNumeric(Integer conceptId) {
+		return numericConceptIds.contains(conceptId);
+	}
+
+	/**
+	 * Records the resolution of an identifier
+	 * @param identifier the identifier
+	 * @param concept the resolved concept
+	 */
+	public static void put(String identifier, Concept concept) {
+		conceptIds.put(identifier, concept.getConceptId());
+
+		if (concept.getDatatype() != null && concept.getDatatype().isNumeric()) {
+			numericConceptIds.add(concept.getConceptId());
+		}
+	}
+
+	/**
+	 * Removes a single identifier, e.g. if it no longer resolves
+	 * @param identifier the identifier
+	 */
+	public static void evict(String identifier) {
+		Integer conceptId = conceptIds.remove(identifier);
+		if (conceptId != null) {
+			numericConceptIds.remove(conceptId);
+		}
+	}
+
+	/**
+	 * Clears all cached identifiers
+	 */
+	public static void clear() {
+		conceptIds.clear();
+		numericConceptIds.clear();
+	}
+
+	/**
+	 * Gets the number of cached identifiers
+	 * @return the size
+	 */
+	public static int size() {
+		return conceptIds.size();
+	}
+
+	/**
+	 * Resolves every concept identifier constant declared by {@link Dictionary} so that the first requests after
+	 * startup don't pay for the mapping lookups. Identifiers which don't resolve are skipped.
+	 */
+	public static void warm() {
+		clear();
+
+		int resolved = 0;
+		for (Field field : Dictionary.class.getFields()) {
+			int modifiers = field.getModifiers();
+			if (!Modifier.isStatic(modifiers) || !String.class.equals(field.getType())) {
+				continue;
+			}
+
+			try {
+				String identifier = (String) field.get(null);
+				if (identifier != null) {
+					Dictionary.getConcept(identifier);
+					resolved++;
+				}
+			}
+			catch (MissingMetadataException ex) {
+				log.debug("Skipping missing concept " + field.getName());
+			}
+			catch (IllegalAccessException ex) {
+				log.debug("Unable to read " + field.getName(), ex);
+			}
+		}
+
+		log.info("Warmed concept cache with " + resolved + " concepts");
+	}
+}
@@ -15,8 +15,16 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.log4j.Level;
 import org.apache.log4j.LogManager;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.DaemonTokenAware;
 import org.openmrs.module.ModuleActivator;
 import org.openmrs.module.kenyacore.CoreContext;
+import org.openmrs.module.kenyaemr.attendance.AttendanceTracker;
+import org.openmrs.module.kenyaemr.event.EncounterEventQueue;
+import org.openmrs.module.kenyaemr.identifier.IdentifierPool;
+import org.openmrs.module.kenyaemr.metadata.MetadataFingerprints;
+import org.openmrs.module.kenyaemr.reporting.ReportExecutor;
+import org.openmrs.module.kenyaemr.reporting.ReportPrecomputer;
 import org.openmrs.module.reporting.report.service.ReportService;
 import org.openmrs.util.OpenmrsUtil;
 
@@ -26,16 +34,26 @@ import java.io.IOException;
 /**
  * This class contains the logic that is run every time this module is either started or stopped.
  */
-public class EmrActivator implements ModuleActivator {
+public class EmrActivator implements ModuleActivator, DaemonTokenAware {
 
 	protected static final Log log = LogFactory.getLog(EmrActivator.class);
 
+	private static DaemonToken daemonToken;
+
 	static {
 		// Possibly bad practice but we really want to see these startup log messages
 		LogManager.getLogger("org.openmrs.module.kenyacore").setLevel(Level.INFO);
 		LogManager.getLogger("org.openmrs.module.kenyaemr").setLevel(Level.INFO);
 	}
 
+	/**
+	 * @see DaemonTokenAware#setDaemonToken(org.openmrs.module.DaemonToken)
+	 */
+	@Override
+	public void setDaemonToken(DaemonToken token) {
+		daemonToken = token;
+	}
+
 	/**
 	 * @see ModuleActivator#willRefreshContext()
 	 */
@@ -60,6 +78,11 @@ public class EmrActivator implements ModuleActivator {
 
 		try {
 			CoreContext.getInstance().refresh();
+
+			// All metadata has now been installed so a forced install shouldn't be repeated on the next startup
+			getMetadataFingerprints().clearForced();
+
+			DictionaryCache.warm();
 		}
 		catch (Exception ex) {
 			// If an error occurs during core refresh, we need KenyaEMR to still start so that the error can be
@@ -76,6 +99,15 @@ public class EmrActivator implements ModuleActivator {
 	 */
 	public void started() {
 		Context.getService(ReportService.class).deleteOldReportRequests();
+
+		getEncounterEventQueue().start(daemonToken);
+		getIdentifierPool().start(daemonToken);
+		getReportExecutor().start(daemonToken);
+		getReportPrecomputer().start(daemonToken);
+		getAttendanceTracker().start(daemonToken);
+
+		Context.getAdministrationService().addGlobalPropertyListener(getFacilityContext());
+
 		log.info("KenyaEMR started");
 	}
 
@@ -83,6 +115,14 @@ public class EmrActivator implements ModuleActivator {
 	 * @see ModuleActivator#willStop()
 	 */
 	public void willStop() {
+		getEncounterEventQueue().stop();
+		getAttendanceTracker().stop();
+		getIdentifierPool().stop();
+		getReportPrecomputer().stop();
+		getReportExecutor().stop();
+
+		Context.getAdministrationService().removeGlobalPropertyListener(getFacilityContext());
+
 		log.info("KenyaEMR stopping...");
 	}
 
@@ -92,4 +132,60 @@ public class EmrActivator implements ModuleActivator {
 	public void stopped() {
 		log.info("KenyaEMR stopped");
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Gets the queue of encounter side effects
+	 * @return the queue
+	 */
+	protected EncounterEventQueue getEncounterEventQueue() {
+		return Context.getRegisteredComponents(EncounterEventQueue.class).get(0);
+	}
+
+	/**
+	 * Gets the cached facility details
+	 * @return the facility context
+	 */
+	protected FacilityContext getFacilityContext() {
+		return Context.getRegisteredComponents(FacilityContext.class).get(0);
+	}
+
+	/**
+	 * Gets the pool of reserved identifiers
+	 * @return the pool
+	 */
+	protected IdentifierPool getIdentifierPool() {
+		return Context.getRegisteredComponents(IdentifierPool.class).get(0);
+	}
+
+	/**
+	 * Gets the executor of report requests
+	 * @return the executor
+	 */
+	protected ReportExecutor getReportExecutor() {
+		return Context.getRegisteredComponents(ReportExecutor.class).get(0);
+	}
+
+	/**
+	 * Gets the nightly pre-computation of reports
+	 * @return the pre-computer
+	 */
+	protected ReportPrecomputer getReportPrecomputer() {
+		return Context.getRegisteredComponents(ReportPrecomputer.class).get(0);
+	}
+
+	/**
+	 * Gets the tracker of patient attendance
+	 * @return the tracker
+	 */
+	protected AttendanceTracker getAttendanceTracker() {
+		return Context.getRegisteredComponents(AttendanceTracker.class).get(0);
+	}
+
+	/**
+	 * Gets the record of installed metadata
+	 * @return the metadata fingerprints
+	 */
+	protected MetadataFingerprints getMetadataFingerprints() {
+		return Context.getRegisteredComponents(MetadataFingerprints.class).get(0);
+	}
+}
@@ -49,6 +49,10 @@ public class EmrConstants {
 	public static final String GP_EXTERNAL_HELP_URL = MODULE_ID + ".externalHelpUrl";
 	public static final String GP_DHIS2_DATASET_MAPPING = MODULE_ID + ".adxDatasetMapping";
 	public static final String GP_3PM_DATASET_MAPPING = KP_MODULE_ID + ".adx3pmDatasetMapping";
+	public static final String GP_REPORT_WORKERS = MODULE_ID + ".reportWorkers";
+	public static final String GP_PRECOMPUTED_REPORTS = MODULE_ID + ".precomputedReports";
+	public static final String GP_PRECOMPUTE_REPORTS_HOUR = MODULE_ID + ".precomputeReportsHour";
+	public static final String GP_FORCE_METADATA_INSTALL = MODULE_ID + ".forceMetadataInstall";
 
 	/**
 	 * Default global property values
@@ -0,0 +1,195 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr;
+
+import org.openmrs.GlobalProperty;
+import org.openmrs.Location;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.wrapper.Facility;
+import org.openmrs.util.PrivilegeConstants;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Module-wide cache of the facility this installation is configured for. The default location global property is
+ * read once and the facility details are kept until the property or the location changes. The location itself is
+ * still loaded from the current session so that callers never receive a detached object.
+ */
+@Component
+public class FacilityContext implements GlobalPropertyListener {
+
+	/**
+	 * Immutable details of the default location
+	 */
+	public static class Details {
+
+		private Integer locationId;
+
+		private String name;
+
+		private String mflCode;
+
+		private String county;
+
+		private String district;
+
+		/**
+		 * Creates details from a location
+		 * @param location the location (may be null)
+		 */
+		protected Details(Location location) {
+			if (location != null) {
+				Facility facility = new Facility(location);
+				this.locationId = location.getLocationId();
+				this.name = location.getName();
+				this.mflCode = facility.getMflCode();
+				this.county = facility.getCounty();
+				this.district = facility.getDistrict();
+			}
+		}
+
+		public Integer getLocationId() {
+			return locationId;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getMflCode() {
+			return mflCode;
+		}
+
+		public String getCounty() {
+			return county;
+		}
+
+		public String getDistrict() {
+			return district;
+		}
+	}
+
+	private volatile Details details;
+
+	/**
+	 * Gets the default location
+	 * @return the location or null if not configured
+	 */
+	public Location getDefaultLocation() {
+		Integer locationId = getDetails().getLocationId();
+		if (locationId == null) {
+			return null;
+		}
+
+		try {
+			Context.addProxyPrivilege(PrivilegeConstants.GET_LOCATIONS);
+
+			return Context.getLocationService().getLocation(locationId);
+		}
+		finally {
+			Context.removeProxyPrivilege(PrivilegeConstants.GET_LOCATIONS);
+		}
+	}
+
+	/**
+	 * Gets the MFL code of the default location
+	 * @return the MFL code or null if not configured
+	 */
+	public String getDefaultLocationMflCode() {
+		return getDetails().getMflCode();
+	}
+
+	/**
+	 * Gets the details of the default location, loading them if necessary
+	 * @return the details
+	 */
+	public Details getDetails() {
+		Details current = details;
+		if (current == null) {
+			current = loadDetails();
+			details = current;
+		}
+		return current;
+	}
+
+	/**
+	 * Discards the cached details. If called inside a transaction, they are discarded again when it completes, so
+	 * that details loaded from changes which are then rolled back aren't kept.
+	 */
+	public void invalidate() {
+		details = null;
+
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int status) {
+					details = null;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Invalidates the cached details if the given location is the default location
+	 * @param location the location
+	 */
+	public void locationChanged(Location location) {
+		Details current = details;
+		if (current != null && location.getLocationId() != null && location.getLocationId().equals(current.getLocationId())) {
+			invalidate();
+		}
+	}
+
+	/**
+	 * @see GlobalPropertyListener#supportsPropertyName(String)
+	 */
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return EmrConstants.GP_DEFAULT_LOCATION.equals(propertyName);
+	}
+
+	/**
+	 * @see GlobalPropertyListener#globalPropertyChanged(org.openmrs.GlobalProperty)
+	 */
+	@Override
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		invalidate();
+	}
+
+	/**
+	 * @see GlobalPropertyListener#globalPropertyDeleted(String)
+	 */
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		invalidate();
+	}
+
+	/**
+	 * Loads the details of the default location
+	 * @return the details
+	 */
+	protected Details loadDetails() {
+		try {
+			Context.addProxyPrivilege(PrivilegeConstants.GET_LOCATIONS);
+			Context.addProxyPrivilege(PrivilegeConstants.GET_GLOBAL_PROPERTIES);
+			Context.addProxyPrivilege(PrivilegeConstants.GET_LOCATION_ATTRIBUTE_TYPES);
+
+			GlobalProperty gp = Context.getAdministrationService().getGlobalPropertyObject(EmrConstants.GP_DEFAULT_LOCATION);
+			return new Details(gp != null ? (Location) gp.getValue() : null);
+		}
+		finally {
+			Context.removeProxyPrivilege(PrivilegeConstants.GET_LOCATIONS);
+			Context.removeProxyPrivilege(PrivilegeConstants.GET_GLOBAL_PROPERTIES);
+			Context.removeProxyPrivilege(PrivilegeConstants.GET_LOCATION_ATTRIBUTE_TYPES);
+		}
+	}
+}
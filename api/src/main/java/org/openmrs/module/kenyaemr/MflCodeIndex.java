@@ -0,0 +1,161 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Location;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.openmrs.module.kenyaemr.metadata.FacilityMetadata;
+import org.openmrs.module.kenyaemr.wrapper.Facility;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Module-wide index of Master Facility List codes to the ids of non-retired locations. The index is built by a single
+ * query the first time it's needed, updated whenever a location is saved, retired or purged, and rebuilt after the
+ * facility list is synchronized. Codes which aren't indexed are looked up individually.
+ */
+public class MflCodeIndex {
+
+	protected static final Log log = LogFactory.getLog(MflCodeIndex.class);
+
+	private static final Map<String, Integer> locationIds = new ConcurrentHashMap<String, Integer>();
+
+	private static volatile boolean built = false;
+
+	/**
+	 * Gets the id of the location with the given MFL code. A code which isn't indexed is looked up in the database, as
+	 * locations can be changed without going through the location service, e.g. by SQL scripts.
+	 * @param mflCode the MFL code
+	 * @return the location id or null if no non-retired location has that code
+	 */
+	public static Integer getLocationId(String mflCode) {
+		if (mflCode == null) {
+			return null;
+		}
+		if (!built) {
+			build();
+		}
+
+		Integer locationId = locationIds.get(mflCode);
+		if (locationId == null) {
+			locationId = lookup(mflCode);
+			if (locationId != null) {
+				locationIds.put(mflCode, locationId);
+			}
+		}
+		return locationId;
+	}
+
+	/**
+	 * Updates the entry of a location, e.g. after it has been saved
+	 * @param location the location
+	 */
+	public static void update(Location location) {
+		if (!built || location.getLocationId() == null) {
+			return;
+		}
+
+		remove(location.getLocationId());
+
+		String mflCode = location.isRetired() ? null : new Facility(location).getMflCode();
+		if (mflCode != null) {
+			locationIds.put(mflCode, location.getLocationId());
+		}
+	}
+
+	/**
+	 * Removes the entry of a location, e.g. after it has been purged
+	 * @param locationId the location id
+	 */
+	public static void remove(Integer locationId) {
+		for (Iterator<Map.Entry<String, Integer>> entries = locationIds.entrySet().iterator(); entries.hasNext(); ) {
+			if (entries.next().getValue().equals(locationId)) {
+				entries.remove();
+			}
+		}
+	}
+
+	/**
+	 * Clears the index so that it is rebuilt the next time it's needed
+	 */
+	public static void clear() {
+		built = false;
+		locationIds.clear();
+	}
+
+	/**
+	 * Gets the number of indexed codes
+	 * @return the size
+	 */
+	public static int size() {
+		return locationIds.size();
+	}
+
+	/**
+	 * Looks up the first non-retired location with the given MFL code in the location attribute table
+	 * @param mflCode the MFL code
+	 * @return the location id or null
+	 */
+	protected static Integer lookup(String mflCode) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("codeAttrTypeUuid", FacilityMetadata._LocationAttributeType.MASTER_FACILITY_CODE);
+		params.put("mflCode", mflCode);
+
+		List<Object> rows = Context.getService(KenyaEmrService.class).executeSqlQuery("select la.location_id"
+				+ " from location_attribute la"
+				+ " inner join location_attribute_type t on t.location_attribute_type_id = la.attribute_type_id"
+				+ " inner join location l on l.location_id = la.location_id"
+				+ " where t.uuid = :codeAttrTypeUuid and la.value_reference = :mflCode and la.voided = 0 and l.retired = 0"
+				+ " order by la.location_id", params);
+
+		return rows.isEmpty() ? null : ((Number) rows.get(0)).intValue();
+	}
+
+	/**
+	 * Builds the index from the location attribute table
+	 */
+	protected static synchronized void build() {
+		if (built) {
+			return;
+		}
+
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("codeAttrTypeUuid", FacilityMetadata._LocationAttributeType.MASTER_FACILITY_CODE);
+
+		List<Object> rows = Context.getService(KenyaEmrService.class).executeSqlQuery("select la.value_reference, la.location_id"
+				+ " from location_attribute la"
+				+ " inner join location_attribute_type t on t.location_attribute_type_id = la.attribute_type_id"
+				+ " inner join location l on l.location_id = la.location_id"
+				+ " where t.uuid = :codeAttrTypeUuid and la.voided = 0 and l.retired = 0"
+				+ " order by la.location_id", params);
+
+		locationIds.clear();
+		for (Object row : rows) {
+			Object[] values = (Object[]) row;
+			String mflCode = (String) values[0];
+
+			// Keep the first location with each code, as the previous attribute query did
+			if (mflCode != null && !locationIds.containsKey(mflCode)) {
+				locationIds.put(mflCode, ((Number) values[1]).intValue());
+			}
+		}
+
+		built = true;
+
+		log.info("Indexed " + locationIds.size() + " MFL codes");
+	}
+}
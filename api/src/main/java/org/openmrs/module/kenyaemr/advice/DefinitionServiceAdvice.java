@@ -0,0 +1,60 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.advice;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.openmrs.module.kenyaemr.reporting.profiler.EvaluationProfiler;
+import org.openmrs.module.reporting.evaluation.Definition;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.parameter.Mapped;
+
+/**
+ * Records cohort, data set, data and indicator evaluations against the evaluation profile of the report being run on
+ * the current thread (if any)
+ */
+public class DefinitionServiceAdvice implements MethodInterceptor {
+
+	/**
+	 * @see MethodInterceptor#invoke(org.aopalliance.intercept.MethodInvocation)
+	 */
+	@Override
+	public Object invoke(MethodInvocation invocation) throws Throwable {
+		Object[] args = invocation.getArguments();
+
+		boolean profiled = EvaluationProfiler.isActive()
+				&& invocation.getMethod().getName().equals("evaluate")
+				&& args.length > 0
+				&& (args[0] instanceof Definition || args[0] instanceof Mapped);
+
+		if (!profiled) {
+			return invocation.proceed();
+		}
+
+		EvaluationContext context = null;
+		for (Object arg : args) {
+			if (arg instanceof EvaluationContext) {
+				context = (EvaluationContext) arg;
+			}
+		}
+
+		EvaluationProfiler.profileCache(context);
+		EvaluationProfiler.enter();
+		long start = System.currentTimeMillis();
+		Object result = null;
+		try {
+			result = invocation.proceed();
+			return result;
+		}
+		finally {
+			EvaluationProfiler.exit(args[0], result, System.currentTimeMillis() - start);
+		}
+	}
+}
@@ -0,0 +1,45 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.advice;
+
+import org.openmrs.Encounter;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.event.EncounterEventHandler;
+import org.openmrs.module.kenyaemr.event.EncounterEventQueue;
+import org.springframework.aop.AfterReturningAdvice;
+
+import java.lang.reflect.Method;
+
+/**
+ * Queues encounter side effects, e.g. registration of babies from delivery forms, to be processed once the encounter
+ * save has been committed
+ */
+public class EncounterEventAdvice implements AfterReturningAdvice {
+
+	/**
+	 * @see AfterReturningAdvice#afterReturning(Object, java.lang.reflect.Method, Object[], Object)
+	 */
+	@Override
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) throws Throwable {
+		if (method.getName().equals("saveEncounter")) {
+			Encounter encounter = (Encounter) args[0];
+
+			if (encounter != null && encounter.getEncounterId() != null && !encounter.isVoided()) {
+				EncounterEventQueue queue = Context.getRegisteredComponents(EncounterEventQueue.class).get(0);
+
+				for (EncounterEventHandler handler : queue.getHandlers()) {
+					if (handler.handles(encounter)) {
+						queue.enqueue(encounter, handler);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,53 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.advice;
+
+import org.openmrs.Location;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.FacilityContext;
+import org.openmrs.module.kenyaemr.MflCodeIndex;
+import org.springframework.aop.AfterReturningAdvice;
+
+import java.lang.reflect.Method;
+
+/**
+ * Keeps the MFL code index and the cached facility details up to date whenever locations change
+ */
+public class LocationServiceAdvice implements AfterReturningAdvice {
+
+	/**
+	 * @see AfterReturningAdvice#afterReturning(Object, java.lang.reflect.Method, Object[], Object)
+	 */
+	@Override
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) throws Throwable {
+		String name = method.getName();
+
+		if (name.equals("saveLocation") || name.equals("retireLocation") || name.equals("unretireLocation")) {
+			if (returnValue instanceof Location) {
+				MflCodeIndex.update((Location) returnValue);
+				getFacilityContext().locationChanged((Location) returnValue);
+			}
+		}
+		else if (name.equals("purgeLocation")) {
+			if (args.length > 0 && args[0] instanceof Location) {
+				MflCodeIndex.remove(((Location) args[0]).getLocationId());
+				getFacilityContext().locationChanged((Location) args[0]);
+			}
+		}
+	}
+
+	/**
+	 * Gets the facility context
+	 * @return the facility context
+	 */
+	protected FacilityContext getFacilityContext() {
+		return Context.getRegisteredComponents(FacilityContext.class).get(0);
+	}
+}
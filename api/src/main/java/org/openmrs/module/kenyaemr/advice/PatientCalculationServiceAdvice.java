@@ -0,0 +1,54 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.advice;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.openmrs.calculation.patient.PatientCalculation;
+import org.openmrs.module.kenyaemr.metrics.Metrics;
+
+/**
+ * Times calculation evaluations. Nested evaluations are timed separately so each timer includes the time of any
+ * calculations it depends on.
+ */
+public class PatientCalculationServiceAdvice implements MethodInterceptor {
+
+	/**
+	 * @see MethodInterceptor#invoke(org.aopalliance.intercept.MethodInvocation)
+	 */
+	@Override
+	public Object invoke(MethodInvocation invocation) throws Throwable {
+		if (!invocation.getMethod().getName().equals("evaluate")) {
+			return invocation.proceed();
+		}
+
+		PatientCalculation calculation = null;
+		for (Object arg : invocation.getArguments()) {
+			if (arg instanceof PatientCalculation) {
+				calculation = (PatientCalculation) arg;
+			}
+		}
+
+		if (calculation == null) {
+			return invocation.proceed();
+		}
+
+		long start = System.currentTimeMillis();
+		boolean failed = true;
+		try {
+			Object result = invocation.proceed();
+			failed = false;
+			return result;
+		}
+		finally {
+			Metrics.timer(Metrics.GROUP_CALCULATION, calculation.getClass().getSimpleName()).record(System.currentTimeMillis() - start, failed);
+		}
+	}
+}
@@ -0,0 +1,54 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.advice;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.openmrs.module.kenyaemr.reporting.profiler.EvaluationProfiler;
+
+/**
+ * Records the time of queries run through the evaluation, cohort query and KenyaEMR services against the definition
+ * evaluation in progress on the current thread (if any)
+ */
+public class QueryTimingAdvice implements MethodInterceptor {
+
+	/**
+	 * @see MethodInterceptor#invoke(org.aopalliance.intercept.MethodInvocation)
+	 */
+	@Override
+	public Object invoke(MethodInvocation invocation) throws Throwable {
+		if (!EvaluationProfiler.isActive() || !isQuery(invocation)) {
+			return invocation.proceed();
+		}
+
+		long start = System.currentTimeMillis();
+		try {
+			return invocation.proceed();
+		}
+		finally {
+			EvaluationProfiler.recordQuery(System.currentTimeMillis() - start);
+		}
+	}
+
+	/**
+	 * Gets whether the invoked method runs a query
+	 * @param invocation the method invocation
+	 * @return true if method runs a query
+	 */
+	protected boolean isQuery(MethodInvocation invocation) {
+		String name = invocation.getMethod().getName();
+
+		if (KenyaEmrService.class.isAssignableFrom(invocation.getMethod().getDeclaringClass())) {
+			return name.equals("executeSqlQuery") || name.equals("executeHqlQuery");
+		}
+		return !name.equals("onStartup") && !name.equals("onShutdown");
+	}
+}
@@ -0,0 +1,48 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.advice;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.reporting.ReportExecutor;
+
+/**
+ * Routes the reporting module's processing of queued report requests through the {@link ReportExecutor}, so that
+ * waiting requests can't be run by the module ahead of higher priority requests or beyond the configured number of
+ * workers
+ */
+public class ReportQueueAdvice implements MethodInterceptor {
+
+	/**
+	 * @see MethodInterceptor#invoke(org.aopalliance.intercept.MethodInvocation)
+	 */
+	@Override
+	public Object invoke(MethodInvocation invocation) throws Throwable {
+		if (!invocation.getMethod().getName().equals("processNextQueuedReports")) {
+			return invocation.proceed();
+		}
+
+		// Requests queued before the executor starts are submitted when it does
+		ReportExecutor executor = getExecutor();
+		if (executor.isRunning()) {
+			executor.submitQueued();
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the report executor
+	 * @return the executor
+	 */
+	protected ReportExecutor getExecutor() {
+		return Context.getRegisteredComponents(ReportExecutor.class).get(0);
+	}
+}
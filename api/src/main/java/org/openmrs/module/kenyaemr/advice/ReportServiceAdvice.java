@@ -0,0 +1,58 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.advice;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.openmrs.module.kenyaemr.metrics.Metrics;
+import org.openmrs.module.kenyaemr.reporting.profiler.EvaluationProfile;
+import org.openmrs.module.kenyaemr.reporting.profiler.EvaluationProfiler;
+import org.openmrs.module.reporting.report.ReportRequest;
+
+/**
+ * Times report evaluations and profiles the definition evaluations of each report request
+ */
+public class ReportServiceAdvice implements MethodInterceptor {
+
+	/**
+	 * @see MethodInterceptor#invoke(org.aopalliance.intercept.MethodInvocation)
+	 */
+	@Override
+	public Object invoke(MethodInvocation invocation) throws Throwable {
+		Object[] args = invocation.getArguments();
+
+		if (!invocation.getMethod().getName().equals("runReport") || args.length != 1 || !(args[0] instanceof ReportRequest)) {
+			return invocation.proceed();
+		}
+
+		ReportRequest request = (ReportRequest) args[0];
+		String reportName = request.getReportDefinition() != null && request.getReportDefinition().getParameterizable() != null
+				? request.getReportDefinition().getParameterizable().getName()
+				: "Unknown";
+
+		EvaluationProfiler.start(request.getUuid(), reportName);
+
+		long start = System.currentTimeMillis();
+		boolean failed = true;
+		try {
+			Object result = invocation.proceed();
+			failed = false;
+			return result;
+		}
+		finally {
+			Metrics.timer(Metrics.GROUP_REPORT, reportName).record(System.currentTimeMillis() - start, failed);
+
+			EvaluationProfile profile = EvaluationProfiler.stop();
+			if (profile != null) {
+				EvaluationProfiler.save(profile);
+			}
+		}
+	}
+}
@@ -72,6 +72,13 @@ public interface KenyaEmrService extends OpenmrsService {
 	 */
 	String getNextHivUniquePatientNumber(String comment);
 
+	/**
+	 * Takes the next OpenMRS ID identifier value from the pool of reserved identifiers
+	 * @param comment the reference comment
+	 * @return the identifier value
+	 */
+	String getNextOpenmrsIdentifier(String comment);
+
 	/**
 	 * Gets the visits that occurred for the given patient on the given date
 	 * @param patient the patient
@@ -81,6 +88,17 @@ public interface KenyaEmrService extends OpenmrsService {
 	@Transactional(readOnly = true)
 	List<Visit> getVisitsByPatientAndDay(Patient patient, Date date);
 
+	/**
+	 * Gets the visits that occurred for the given patient on the given date, and which an encounter at the given
+	 * location could belong to, i.e. visits without a location or at that location or one of its ancestors
+	 * @param patient the patient
+	 * @param date the day
+	 * @param location the encounter location (if null, only visits without a location are returned)
+	 * @return the visits ordered by start date
+	 */
+	@Transactional(readOnly = true)
+	List<Visit> getVisitsByPatientAndDay(Patient patient, Date date, Location location);
+
 	/**
 	 * Setup the medical record number identifier source
 	 * @param startFrom the base identifier to start from
@@ -95,4 +113,13 @@ public interface KenyaEmrService extends OpenmrsService {
 
 	public List<Object> executeSqlQuery(String query, Map<String, Object> substitutions);
 	public List<Object> executeHqlQuery(String query, Map<String, Object> substitutions);
+
+	/**
+	 * Executes a SQL insert, update or delete statement. Unlike queries, date parameters are bound as timestamps.
+	 * Collection and array parameters are expanded for use in an 'in' clause.
+	 * @param statement the SQL statement
+	 * @param substitutions the parameter values
+	 * @return the number of affected rows
+	 */
+	public int executeSqlUpdate(String statement, Map<String, Object> substitutions);
 }
\ No newline at end of file
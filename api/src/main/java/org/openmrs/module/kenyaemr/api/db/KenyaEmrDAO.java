@@ -9,6 +9,12 @@
  */
 package org.openmrs.module.kenyaemr.api.db;
 
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.Visit;
+
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
@@ -18,4 +24,6 @@ import java.util.Map;
 public interface KenyaEmrDAO {
 	public List<Object> executeSqlQuery(String query, Map<String, Object> substitutions);
 	public List<Object> executeHqlQuery(String query, Map<String, Object> substitutions);
+	public int executeSqlUpdate(String statement, Map<String, Object> substitutions);
+	public List<Visit> getVisitsOverlapping(Patient patient, Date from, Date to, Collection<Location> locations);
 }
\ No newline at end of file
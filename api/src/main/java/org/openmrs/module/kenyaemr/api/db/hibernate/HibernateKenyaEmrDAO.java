@@ -14,6 +14,9 @@ import org.hibernate.SQLQuery;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.openmrs.Cohort;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.Visit;
 import org.openmrs.module.kenyaemr.api.db.KenyaEmrDAO;
 
 import java.util.Collection;
@@ -82,6 +85,46 @@ public class HibernateKenyaEmrDAO implements KenyaEmrDAO {
 		return q.list();
 	}
 
+	@Override
+	public int executeSqlUpdate(String statement, Map<String, Object> substitutions) {
+		SQLQuery q = sessionFactory.getCurrentSession().createSQLQuery(statement);
+
+		for (Map.Entry<String, Object> e : substitutions.entrySet()) {
+			if (e.getValue() instanceof Collection) {
+				q.setParameterList(e.getKey(), (Collection) e.getValue());
+			} else if (e.getValue() instanceof Object[]) {
+				q.setParameterList(e.getKey(), (Object[]) e.getValue());
+			} else if (e.getValue() instanceof Date) {
+				q.setTimestamp(e.getKey(), (Date) e.getValue());
+			} else {
+				q.setParameter(e.getKey(), e.getValue());
+			}
+		}
+
+		return q.executeUpdate();
+	}
+
+	@Override
+	public List<Visit> getVisitsOverlapping(Patient patient, Date from, Date to, Collection<Location> locations) {
+		StringBuilder hql = new StringBuilder("from Visit v where v.patient = :patient and v.voided = false"
+				+ " and v.startDatetime <= :to and (v.stopDatetime is null or v.stopDatetime >= :from)");
+
+		if (locations != null) {
+			hql.append(locations.isEmpty() ? " and v.location is null" : " and (v.location is null or v.location in (:locations))");
+		}
+		hql.append(" order by v.startDatetime asc, v.visitId asc");
+
+		Query q = sessionFactory.getCurrentSession().createQuery(hql.toString());
+		q.setParameter("patient", patient);
+		q.setTimestamp("from", from);
+		q.setTimestamp("to", to);
+		if (locations != null && !locations.isEmpty()) {
+			q.setParameterList("locations", locations);
+		}
+
+		return q.list();
+	}
+
 	private void applySubstitutions(Query q, Map<String, Object> substitutions) {
 		for (Map.Entry<String, Object> e : substitutions.entrySet()) {
 			if (e.getValue() instanceof Collection) {
@@ -13,7 +13,6 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.GlobalProperty;
 import org.openmrs.Location;
-import org.openmrs.LocationAttributeType;
 import org.openmrs.Patient;
 import org.openmrs.PatientIdentifierType;
 import org.openmrs.Visit;
@@ -22,26 +21,25 @@ import org.openmrs.api.LocationService;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.impl.BaseOpenmrsService;
 import org.openmrs.module.idgen.AutoGenerationOption;
-import org.openmrs.module.idgen.IdentifierSource;
 import org.openmrs.module.idgen.SequentialIdentifierGenerator;
 import org.openmrs.module.idgen.service.IdentifierSourceService;
 import org.openmrs.module.idgen.validator.LuhnModNIdentifierValidator;
 import org.openmrs.module.kenyacore.identifier.IdentifierManager;
 import org.openmrs.module.kenyaemr.EmrConstants;
+import org.openmrs.module.kenyaemr.FacilityContext;
+import org.openmrs.module.kenyaemr.MflCodeIndex;
 import org.openmrs.module.kenyaemr.api.KenyaEmrService;
 import org.openmrs.module.kenyaemr.api.db.KenyaEmrDAO;
+import org.openmrs.module.kenyaemr.identifier.IdentifierPool;
 import org.openmrs.module.kenyaemr.metadata.CommonMetadata;
-import org.openmrs.module.kenyaemr.metadata.FacilityMetadata;
 import org.openmrs.module.kenyaemr.metadata.HivMetadata;
 import org.openmrs.module.kenyaemr.wrapper.Facility;
 import org.openmrs.module.metadatadeploy.MetadataUtils;
 import org.openmrs.util.OpenmrsUtil;
-import org.openmrs.util.PrivilegeConstants;
 import org.springframework.beans.factory.annotation.Autowired;
 
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -61,6 +59,12 @@ public class KenyaEmrServiceImpl extends BaseOpenmrsService implements KenyaEmrS
 	@Autowired
 	private LocationService locationService;
 
+	@Autowired
+	private FacilityContext facilityContext;
+
+	@Autowired
+	private IdentifierPool identifierPool;
+
 	private boolean setupRequired = true;
 
 	private KenyaEmrDAO dao;
@@ -100,6 +104,8 @@ public class KenyaEmrServiceImpl extends BaseOpenmrsService implements KenyaEmrS
 		GlobalProperty gp = Context.getAdministrationService().getGlobalPropertyObject(EmrConstants.GP_DEFAULT_LOCATION);
 		gp.setValue(location);
 		Context.getAdministrationService().saveGlobalProperty(gp);
+
+		facilityContext.invalidate();
 	}
 	
 	/**
@@ -107,17 +113,7 @@ public class KenyaEmrServiceImpl extends BaseOpenmrsService implements KenyaEmrS
 	 */
 	@Override
 	public Location getDefaultLocation() {
-		try {
-			Context.addProxyPrivilege(PrivilegeConstants.GET_LOCATIONS);
-			Context.addProxyPrivilege(PrivilegeConstants.GET_GLOBAL_PROPERTIES);
-
-			GlobalProperty gp = Context.getAdministrationService().getGlobalPropertyObject(EmrConstants.GP_DEFAULT_LOCATION);
-			return gp != null ? ((Location) gp.getValue()) : null;
-		}
-		finally {
-			Context.removeProxyPrivilege(PrivilegeConstants.GET_LOCATIONS);
-			Context.removeProxyPrivilege(PrivilegeConstants.GET_GLOBAL_PROPERTIES);
-		}
+		return facilityContext.getDefaultLocation();
 	}
 	
 	/**
@@ -125,15 +121,7 @@ public class KenyaEmrServiceImpl extends BaseOpenmrsService implements KenyaEmrS
 	 */
 	@Override
 	public String getDefaultLocationMflCode() {
-		try {
-			Context.addProxyPrivilege(PrivilegeConstants.GET_LOCATION_ATTRIBUTE_TYPES);
-
-			Location location = getDefaultLocation();
-			return (location != null) ? new Facility(location).getMflCode() : null;
-		}
-		finally {
-			Context.removeProxyPrivilege(PrivilegeConstants.GET_LOCATION_ATTRIBUTE_TYPES);
-		}
+		return facilityContext.getDefaultLocationMflCode();
 	}
 
 	/**
@@ -141,13 +129,32 @@ public class KenyaEmrServiceImpl extends BaseOpenmrsService implements KenyaEmrS
 	 */
 	@Override
 	public Location getLocationByMflCode(String mflCode) {
-		LocationAttributeType mflCodeAttrType = MetadataUtils.existing(LocationAttributeType.class, FacilityMetadata._LocationAttributeType.MASTER_FACILITY_CODE);
-		Map<LocationAttributeType, Object> attrVals = new HashMap<LocationAttributeType, Object>();
-		attrVals.put(mflCodeAttrType, mflCode);
+		Integer locationId = MflCodeIndex.getLocationId(mflCode);
+		Location location = locationId != null ? locationService.getLocation(locationId) : null;
+
+		// Rebuild the index if the hit is stale, e.g. if the location was changed outside of the location service
+		if (location != null && !hasMflCode(location, mflCode)) {
+			MflCodeIndex.clear();
+			locationId = MflCodeIndex.getLocationId(mflCode);
+			location = locationId != null ? locationService.getLocation(locationId) : null;
+
+			// Changes may not have been flushed yet, so the rebuilt index can still be behind the session
+			if (location != null && !hasMflCode(location, mflCode)) {
+				location = null;
+			}
+		}
 
-		List<Location> locations = locationService.getLocations(null, null, attrVals, false, null, null);
+		return location;
+	}
 
-		return locations.size() > 0 ? locations.get(0) : null;
+	/**
+	 * Checks that a location is not retired and has the given MFL code
+	 * @param location the location
+	 * @param mflCode the MFL code
+	 * @return true if location has that code
+	 */
+	protected boolean hasMflCode(Location location, String mflCode) {
+		return !location.isRetired() && mflCode.equals(new Facility(location).getMflCode());
 	}
 
 	/**
@@ -160,13 +167,25 @@ public class KenyaEmrServiceImpl extends BaseOpenmrsService implements KenyaEmrS
 		}
 
 		PatientIdentifierType upnType = MetadataUtils.existing(PatientIdentifierType.class, HivMetadata._PatientIdentifierType.UNIQUE_PATIENT_NUMBER);
-		IdentifierSource source = identifierManager.getIdentifierSource(upnType);
 
-		String prefix = Context.getService(KenyaEmrService.class).getDefaultLocationMflCode();
-		String sequentialNumber = Context.getService(IdentifierSourceService.class).generateIdentifier(source, comment);
+		String prefix = facilityContext.getDefaultLocationMflCode();
+		String sequentialNumber = identifierPool.nextIdentifier(upnType, comment);
 		return prefix+sequentialNumber;
 	}
 
+	/**
+	 * @see org.openmrs.module.kenyaemr.api.KenyaEmrService#getNextOpenmrsIdentifier(String)
+	 */
+	@Override
+	public String getNextOpenmrsIdentifier(String comment) {
+		if (comment == null) {
+			comment = "KenyaEMR Service";
+		}
+
+		PatientIdentifierType openmrsIdType = MetadataUtils.existing(PatientIdentifierType.class, CommonMetadata._PatientIdentifierType.OPENMRS_ID);
+		return identifierPool.nextIdentifier(openmrsIdType, comment);
+	}
+
 	/**
 	 * @see KenyaEmrService#getVisitsByPatientAndDay(org.openmrs.Patient, java.util.Date)
 	 */
@@ -176,9 +195,24 @@ public class KenyaEmrServiceImpl extends BaseOpenmrsService implements KenyaEmrS
 		Date endOfDay = OpenmrsUtil.getLastMomentOfDay(date);
 
 		// look for visits that started before endOfDay and ended after startOfDay
-		List<Visit> visits = Context.getVisitService().getVisits(null, Collections.singleton(patient), null, null, null, endOfDay, startOfDay, null, null, true, false);
-		Collections.reverse(visits); // We want by date asc
-		return visits;
+		return dao.getVisitsOverlapping(patient, startOfDay, endOfDay, null);
+	}
+
+	/**
+	 * @see KenyaEmrService#getVisitsByPatientAndDay(org.openmrs.Patient, java.util.Date, org.openmrs.Location)
+	 */
+	@Override
+	public List<Visit> getVisitsByPatientAndDay(Patient patient, Date date, Location location) {
+		Date startOfDay = OpenmrsUtil.firstSecondOfDay(date);
+		Date endOfDay = OpenmrsUtil.getLastMomentOfDay(date);
+
+		// An encounter can belong to a visit at its own location or any ancestor of that location
+		List<Location> locations = new ArrayList<Location>();
+		for (Location l = location; l != null; l = l.getParentLocation()) {
+			locations.add(l);
+		}
+
+		return dao.getVisitsOverlapping(patient, startOfDay, endOfDay, locations);
 	}
 
 	/**
@@ -258,4 +292,9 @@ public class KenyaEmrServiceImpl extends BaseOpenmrsService implements KenyaEmrS
 	public List<Object> executeHqlQuery(String query, Map<String, Object> substitutions) {
 		return dao.executeHqlQuery(query, substitutions);
 	}
+
+	@Override
+	public int executeSqlUpdate(String statement, Map<String, Object> substitutions) {
+		return dao.executeSqlUpdate(statement, substitutions);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,100 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.attendance;
+
+import org.joda.time.DateTime;
+import org.joda.time.Days;
+
+import java.util.Date;
+
+/**
+ * The attendance of a single patient as recorded in the kenyaemr_attendance_state table
+ */
+public class AttendanceState {
+
+	private final Integer patientId;
+
+	private final Date lastHivVisit;
+
+	private final Date nextAppointment;
+
+	private final Date lastReturnVisit;
+
+	private final Date ltfuDate;
+
+	private final Integer discontinuationReasonId;
+
+	public AttendanceState(Integer patientId, Date lastHivVisit, Date nextAppointment, Date lastReturnVisit, Date ltfuDate, Integer discontinuationReasonId) {
+		this.patientId = patientId;
+		this.lastHivVisit = lastHivVisit;
+		this.nextAppointment = nextAppointment;
+		this.lastReturnVisit = lastReturnVisit;
+		this.ltfuDate = ltfuDate;
+		this.discontinuationReasonId = discontinuationReasonId;
+	}
+
+	public Integer getPatientId() {
+		return patientId;
+	}
+
+	/**
+	 * Gets the date of the last HIV consultation encounter
+	 * @return the date (may be null)
+	 */
+	public Date getLastHivVisit() {
+		return lastHivVisit;
+	}
+
+	/**
+	 * Gets the return visit date recorded on the last HIV followup form
+	 * @return the date (may be null)
+	 */
+	public Date getNextAppointment() {
+		return nextAppointment;
+	}
+
+	/**
+	 * Gets the value of the latest return visit date obs on any form
+	 * @return the date (may be null)
+	 */
+	public Date getLastReturnVisit() {
+		return lastReturnVisit;
+	}
+
+	/**
+	 * Gets the date on which the patient is classified as lost to follow up if they don't return, i.e. the latest
+	 * return visit date plus the LTFU threshold
+	 * @return the date (may be null)
+	 */
+	public Date getLtfuDate() {
+		return ltfuDate;
+	}
+
+	/**
+	 * Gets the coded answer of the latest reason for program discontinuation obs
+	 * @return the concept id (may be null)
+	 */
+	public Integer getDiscontinuationReasonId() {
+		return discontinuationReasonId;
+	}
+
+	/**
+	 * Gets the number of days between the next appointment and the given date. This isn't stored as it changes
+	 * every day.
+	 * @param now the date
+	 * @return the number of days or null if there is no next appointment
+	 */
+	public Integer getDaysLate(Date now) {
+		if (nextAppointment == null) {
+			return null;
+		}
+		return Math.abs(Days.daysBetween(new DateTime(nextAppointment.getTime()), new DateTime(now.getTime())).getDays());
+	}
+}
@@ -0,0 +1,466 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.attendance;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.EncounterType;
+import org.openmrs.Form;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.calculation.patient.PatientCalculationContext;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.kenyaemr.Dictionary;
+import org.openmrs.module.kenyaemr.HivConstants;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.openmrs.module.kenyaemr.event.AttendanceStateHandler;
+import org.openmrs.module.kenyaemr.event.EncounterEventQueue;
+import org.openmrs.module.kenyaemr.metadata.HivMetadata;
+import org.openmrs.module.metadatadeploy.MetadataUtils;
+import org.openmrs.module.reporting.common.DateUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps each patient's last HIV visit, next appointment, latest return visit date and LTFU classification date in the
+ * kenyaemr_attendance_state table, so that defaulter and LTFU calculations can look these up by patient rather than
+ * loading each patient's history.
+ *
+ * A patient's state is refreshed via the encounter event queue shortly after each of their encounters is saved, and
+ * the whole table is rebuilt in batches on startup and then daily, which also picks up changes made without saving an
+ * encounter such as voids. The state only describes the present, so calculations evaluated for a past date don't use it.
+ */
+@Component
+public class AttendanceTracker {
+
+	protected static final Log log = LogFactory.getLog(AttendanceTracker.class);
+
+	public static final int REBUILD_INTERVAL_HOURS = 24;
+
+	public static final int LOOKUP_BATCH_SIZE = 1000;
+
+	public static final int REBUILD_BATCH_SIZE = 500;
+
+	@Autowired
+	@Qualifier("transactionManager")
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private EncounterEventQueue queue;
+
+	private DaemonToken daemonToken;
+
+	private ScheduledExecutorService rebuilder;
+
+	private volatile boolean ready = false;
+
+	private Date lastRebuilt;
+
+	/**
+	 * Starts the rebuilding of the table, immediately and then every {@link #REBUILD_INTERVAL_HOURS} hours. States
+	 * aren't served until the first rebuild completes.
+	 * @param daemonToken the module's daemon token, used to rebuild as the daemon user
+	 */
+	public synchronized void start(DaemonToken daemonToken) {
+		if (rebuilder != null) {
+			return;
+		}
+
+		this.daemonToken = daemonToken;
+		this.rebuilder = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "kenyaemr-attendance-rebuild");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		rebuilder.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				runAsDaemon(new Runnable() {
+					@Override
+					public void run() {
+						rebuild();
+					}
+				});
+			}
+		}, 0, REBUILD_INTERVAL_HOURS, TimeUnit.HOURS);
+	}
+
+	/**
+	 * Stops the rebuilding of the table. States are no longer served as they won't be kept up to date.
+	 */
+	public synchronized void stop() {
+		if (rebuilder == null) {
+			return;
+		}
+
+		rebuilder.shutdownNow();
+		rebuilder = null;
+		daemonToken = null;
+		ready = false;
+	}
+
+	/**
+	 * Gets whether states can be used for calculations evaluated on the given date
+	 * @param now the evaluation date
+	 * @return true if the table has been built and the date is today or later
+	 */
+	public boolean isCurrent(Date now) {
+		return ready && !now.before(DateUtil.getStartOfDay(new Date()));
+	}
+
+	/**
+	 * Gets the states of the given patients if they can be used for the given calculation context
+	 * @param patientIds the patient ids
+	 * @param context the calculation context
+	 * @return the states by patient id, or null if the calculation should use patient histories
+	 */
+	public static Map<Integer, AttendanceState> getCurrentStates(Collection<Integer> patientIds, PatientCalculationContext context) {
+		AttendanceTracker tracker = Context.getRegisteredComponents(AttendanceTracker.class).get(0);
+		return tracker.isCurrent(context.getNow()) ? tracker.getStates(patientIds) : null;
+	}
+
+	/**
+	 * Gets the states of the given patients. Patients without a state have no attendance recorded.
+	 * @param patientIds the patient ids
+	 * @return the states by patient id
+	 */
+	public Map<Integer, AttendanceState> getStates(Collection<Integer> patientIds) {
+		Map<Integer, AttendanceState> states = new HashMap<Integer, AttendanceState>();
+		List<Integer> ids = new ArrayList<Integer>(patientIds);
+
+		for (int from = 0; from < ids.size(); from += LOOKUP_BATCH_SIZE) {
+			Map<String, Object> params = new HashMap<String, Object>();
+			params.put("patientIds", ids.subList(from, Math.min(from + LOOKUP_BATCH_SIZE, ids.size())));
+
+			List<Object> rows = getService().executeSqlQuery("select patient_id, last_hiv_visit, next_appointment, last_return_visit,"
+					+ " ltfu_date, discontinuation_reason from kenyaemr_attendance_state where patient_id in (:patientIds)", params);
+
+			for (Object row : rows) {
+				Object[] values = (Object[]) row;
+				Integer patientId = ((Number) values[0]).intValue();
+				states.put(patientId, new AttendanceState(patientId, toDate(values[1]), toDate(values[2]), toDate(values[3]), toDate(values[4]),
+						values[5] != null ? ((Number) values[5]).intValue() : null));
+			}
+		}
+		return states;
+	}
+
+	/**
+	 * Refreshes the state of a patient in the current transaction
+	 * @param patientId the patient id
+	 */
+	public void refresh(Integer patientId) {
+		refresh(Collections.singletonList(patientId), getStateParameters());
+	}
+
+	/**
+	 * Refreshes the states of the given patients in the current transaction
+	 * @param patientIds the patient ids
+	 */
+	public void refresh(Collection<Integer> patientIds) {
+		refresh(patientIds, getStateParameters());
+	}
+
+	/**
+	 * Rebuilds the states of all patients. Each batch of patients is rebuilt in its own transaction, so that refreshes
+	 * aren't held up for long. Patients refreshed since the rebuild started are skipped as their states are already
+	 * current. If a batch fails, the previous states of its patients are kept until the next rebuild.
+	 */
+	public void rebuild() {
+		long start = System.currentTimeMillis();
+		final Date since = new Date();
+		final Map<String, Object> stateParams = getStateParameters();
+
+		List<Object> rows = getService().executeSqlQuery("select patient_id from patient where voided = 0 order by patient_id", new HashMap<String, Object>());
+		List<Integer> patientIds = new ArrayList<Integer>();
+		for (Object row : rows) {
+			patientIds.add(((Number) row).intValue());
+		}
+
+		int failed = 0;
+		for (int from = 0; from < patientIds.size(); from += REBUILD_BATCH_SIZE) {
+			final List<Integer> batch = new ArrayList<Integer>(patientIds.subList(from, Math.min(from + REBUILD_BATCH_SIZE, patientIds.size())));
+
+			try {
+				getTransactionTemplate().execute(new TransactionCallbackWithoutResult() {
+					@Override
+					protected void doInTransactionWithoutResult(TransactionStatus status) {
+						batch.removeAll(getUpdatedSince(batch, since));
+						if (!batch.isEmpty()) {
+							refresh(batch, stateParams);
+						}
+					}
+				});
+			}
+			catch (Exception ex) {
+				failed += batch.size();
+				log.warn("Unable to rebuild attendance states of patients #" + batch.get(0) + " to #" + batch.get(batch.size() - 1), ex);
+			}
+			finally {
+				Context.clearSession();
+			}
+		}
+
+		// Remove the states of patients who have since been voided
+		getTransactionTemplate().execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				getService().executeSqlUpdate("delete from kenyaemr_attendance_state where not exists (select 1 from patient p"
+						+ " where p.patient_id = kenyaemr_attendance_state.patient_id and p.voided = 0)", new HashMap<String, Object>());
+
+				// Refreshes which completed before the rebuild started are no longer needed
+				queue.purgeCompleted(AttendanceStateHandler.HANDLER_ID, since);
+			}
+		});
+
+		ready = true;
+		lastRebuilt = new Date();
+
+		log.info("Rebuilt attendance states of " + (patientIds.size() - failed) + " patients in " + (System.currentTimeMillis() - start) + "ms"
+				+ (failed > 0 ? " (" + failed + " failed)" : ""));
+	}
+
+	/**
+	 * Gets the state of the tracker
+	 * @return whether states are served and when they were last rebuilt
+	 */
+	public Map<String, Object> getAllInformation() {
+		Map<String, Object> info = new LinkedHashMap<String, Object>();
+		info.put("ready", ready);
+		info.put("lastRebuilt", lastRebuilt);
+		return info;
+	}
+
+	/**
+	 * Sets whether states are served. This is set once the first rebuild completes.
+	 * @param ready true if states can be used
+	 */
+	void setReady(boolean ready) {
+		this.ready = ready;
+	}
+
+	/**
+	 * Replaces the states of the given patients in the current transaction
+	 * @param patientIds the patient ids
+	 * @param stateParams the parameters of the state query
+	 */
+	protected void refresh(Collection<Integer> patientIds, Map<String, Object> stateParams) {
+		Date now = new Date();
+		List<AttendanceState> states = calculateStates(patientIds, stateParams, now);
+
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("patientIds", patientIds);
+		getService().executeSqlUpdate("delete from kenyaemr_attendance_state where patient_id in (:patientIds)", params);
+
+		if (states.isEmpty()) {
+			return;
+		}
+
+		// Dates are bound as parameters and missing values are written as literal nulls
+		StringBuilder statement = new StringBuilder("insert into kenyaemr_attendance_state (patient_id, last_hiv_visit, next_appointment,"
+				+ " last_return_visit, ltfu_date, discontinuation_reason, date_updated) values ");
+		params.clear();
+		params.put("now", now);
+
+		for (int s = 0; s < states.size(); ++s) {
+			AttendanceState state = states.get(s);
+			statement.append(s > 0 ? ", (" : "(");
+			appendValue(statement, params, "patientId" + s, state.getPatientId());
+			appendValue(statement, params, "lastHivVisit" + s, state.getLastHivVisit());
+			appendValue(statement, params, "nextAppointment" + s, state.getNextAppointment());
+			appendValue(statement, params, "lastReturnVisit" + s, state.getLastReturnVisit());
+			appendValue(statement, params, "ltfuDate" + s, state.getLtfuDate());
+			appendValue(statement, params, "discontinuationReason" + s, state.getDiscontinuationReasonId());
+			statement.append(":now)");
+		}
+
+		getService().executeSqlUpdate(statement.toString(), params);
+	}
+
+	/**
+	 * Calculates the states of the given patients. Values match those which the calculations derive from patient
+	 * histories, i.e. the last HIV consultation, the return visit date on the last HIV followup form, and the latest
+	 * return visit date and discontinuation reason obs.
+	 * @param patientIds the patient ids
+	 * @param stateParams the parameters of the state query
+	 * @param now the current date
+	 * @return the states of patients which aren't voided
+	 */
+	protected List<AttendanceState> calculateStates(Collection<Integer> patientIds, Map<String, Object> stateParams, Date now) {
+		Map<String, Object> params = new HashMap<String, Object>(stateParams);
+		params.put("patientIds", patientIds);
+		params.put("now", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(now)); // Query date parameters lose their time
+
+		List<Object> rows = getService().executeSqlQuery("select p.patient_id,"
+				+ "   (select max(e.encounter_datetime) from encounter e"
+				+ "     where e.patient_id = p.patient_id and e.voided = 0 and e.encounter_type = :hivConsultation),"
+				+ "   (select o.value_datetime from obs o"
+				+ "     where o.encounter_id = (select e.encounter_id from encounter e"
+				+ "         where e.patient_id = p.patient_id and e.voided = 0 and e.encounter_type = :hivConsultation"
+				+ "           and e.form_id in (:greenCard, :visitSummary)"
+				+ "         order by e.encounter_datetime desc, e.encounter_id desc limit 1)"
+				+ "       and o.concept_id = :returnVisitDate and o.voided = 0"
+				+ "     order by o.obs_id desc limit 1),"
+				+ "   (select o.value_datetime from obs o"
+				+ "     where o.person_id = p.patient_id and o.concept_id = :returnVisitDate and o.voided = 0 and o.obs_datetime <= :now"
+				+ "     order by o.obs_datetime desc, o.obs_id desc limit 1),"
+				+ "   (select o.value_coded from obs o"
+				+ "     where o.person_id = p.patient_id and o.concept_id = :discontinuationReason and o.voided = 0 and o.obs_datetime <= :now"
+				+ "     order by o.obs_datetime desc, o.obs_id desc limit 1)"
+				+ " from patient p"
+				+ " where p.voided = 0 and p.patient_id in (:patientIds)", params);
+
+		List<AttendanceState> states = new ArrayList<AttendanceState>();
+		for (Object row : rows) {
+			Object[] values = (Object[]) row;
+			Date lastReturnVisit = toDate(values[3]);
+
+			Date ltfuDate = null;
+			if (lastReturnVisit != null) {
+				Calendar calendar = Calendar.getInstance();
+				calendar.setTime(lastReturnVisit);
+				calendar.add(Calendar.DATE, HivConstants.LOST_TO_FOLLOW_UP_THRESHOLD_DAYS);
+				ltfuDate = calendar.getTime();
+			}
+
+			states.add(new AttendanceState(((Number) values[0]).intValue(), toDate(values[1]), toDate(values[2]), lastReturnVisit, ltfuDate,
+					values[4] != null ? ((Number) values[4]).intValue() : null));
+		}
+		return states;
+	}
+
+	/**
+	 * Gets which of the given patients have had their states updated since the given date
+	 * @param patientIds the patient ids
+	 * @param since the date
+	 * @return the patient ids
+	 */
+	protected List<Integer> getUpdatedSince(Collection<Integer> patientIds, Date since) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("patientIds", patientIds);
+		params.put("since", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(since));
+
+		List<Object> rows = getService().executeSqlQuery("select patient_id from kenyaemr_attendance_state"
+				+ " where patient_id in (:patientIds) and date_updated >= :since", params);
+
+		List<Integer> updated = new ArrayList<Integer>();
+		for (Object row : rows) {
+			updated.add(((Number) row).intValue());
+		}
+		return updated;
+	}
+
+	/**
+	 * Gets the parameters of the state query which don't change between patients
+	 * @return the parameters
+	 */
+	protected Map<String, Object> getStateParameters() {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("hivConsultation", MetadataUtils.existing(EncounterType.class, HivMetadata._EncounterType.HIV_CONSULTATION).getEncounterTypeId());
+		params.put("greenCard", MetadataUtils.existing(Form.class, HivMetadata._Form.HIV_GREEN_CARD).getFormId());
+		params.put("visitSummary", MetadataUtils.existing(Form.class, HivMetadata._Form.MOH_257_VISIT_SUMMARY).getFormId());
+		params.put("returnVisitDate", Dictionary.getConceptId(Dictionary.RETURN_VISIT_DATE));
+		params.put("discontinuationReason", Dictionary.getConceptId(Dictionary.REASON_FOR_PROGRAM_DISCONTINUATION));
+		return params;
+	}
+
+	/**
+	 * Appends a value to an insert statement, as a parameter or as a literal null
+	 * @param statement the statement
+	 * @param params the statement parameters
+	 * @param name the parameter name
+	 * @param value the value (may be null)
+	 */
+	private static void appendValue(StringBuilder statement, Map<String, Object> params, String name, Object value) {
+		if (value != null) {
+			statement.append(":").append(name).append(", ");
+			params.put(name, value);
+		}
+		else {
+			statement.append("null, ");
+		}
+	}
+
+	/**
+	 * Runs a task in a daemon thread, i.e. with an open session and as the daemon user, and waits for it to complete
+	 * @param task the task
+	 */
+	protected void runAsDaemon(final Runnable task) {
+		Thread thread = Daemon.runInDaemonThread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					task.run();
+				}
+				catch (Exception ex) {
+					log.error("Error in attendance tracker", ex);
+				}
+			}
+		}, daemonToken);
+
+		try {
+			thread.join();
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Creates a template for running work in a new transaction
+	 * @return the template
+	 */
+	protected TransactionTemplate getTransactionTemplate() {
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		template.setPropagationBehavior(TransactionTemplate.PROPAGATION_REQUIRES_NEW);
+		return template;
+	}
+
+	/**
+	 * Convenience method to get the KenyaEMR service
+	 * @return the service
+	 */
+	protected KenyaEmrService getService() {
+		return Context.getService(KenyaEmrService.class);
+	}
+
+	/**
+	 * Converts a datetime column value
+	 * @param value the value (may be null)
+	 * @return the date
+	 */
+	private static Date toDate(Object value) {
+		return value != null ? new Date(((Date) value).getTime()) : null;
+	}
+}
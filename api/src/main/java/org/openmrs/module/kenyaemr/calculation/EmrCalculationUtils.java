@@ -26,6 +26,7 @@ import org.openmrs.module.kenyacore.calculation.CalculationUtils;
 import org.openmrs.module.kenyaemr.regimen.RegimenDefinition;
 import org.openmrs.module.kenyaemr.regimen.RegimenManager;
 import org.openmrs.module.kenyaemr.regimen.RegimenOrder;
+import org.openmrs.module.kenyaemr.wrapper.PatientSnapshot;
 import org.openmrs.util.OpenmrsUtil;
 
 import java.util.Date;
@@ -44,6 +45,11 @@ public class EmrCalculationUtils {
 	 * @return the calculation result
 	 */
 	public static CalculationResult evaluateForPatient(Class <? extends PatientCalculation> calculationClass, String configuration, Patient patient) {
+		// Share results between everything displaying this patient in the current request
+		if (PatientSnapshot.isScopeActive()) {
+			return PatientSnapshot.forPatient(patient).evaluate(calculationClass, configuration);
+		}
+
 		PatientCalculation calculation = CalculationUtils.instantiateCalculation(calculationClass, configuration);
 		return Context.getService(PatientCalculationService.class).evaluate(patient.getId(), calculation);
 	}
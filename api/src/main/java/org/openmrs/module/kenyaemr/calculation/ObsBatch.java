@@ -0,0 +1,241 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.calculation;
+
+import org.openmrs.Concept;
+import org.openmrs.Obs;
+import org.openmrs.api.context.Context;
+import org.openmrs.calculation.patient.PatientCalculationContext;
+import org.openmrs.calculation.result.CalculationResultMap;
+import org.openmrs.calculation.result.ListResult;
+import org.openmrs.calculation.result.ObsResult;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Multi-concept equivalents of {@link org.openmrs.module.kenyacore.calculation.Calculations#firstObs},
+ * {@link org.openmrs.module.kenyacore.calculation.Calculations#lastObs} and
+ * {@link org.openmrs.module.kenyacore.calculation.Calculations#allObs}. Rather than one obs query per concept, the
+ * obs of all the given concepts are selected by a single query per batch of patients, and the results are returned
+ * in the same form as the single concept methods, keyed by concept.
+ */
+public class ObsBatch {
+
+	/**
+	 * The maximum number of patient or obs ids in each query
+	 */
+	public static final int BATCH_SIZE = 1000;
+
+	/**
+	 * Evaluates the first obs of each of the given concepts
+	 * @param concepts the concepts
+	 * @param cohort the patient ids
+	 * @param context the calculation context
+	 * @return the obs results keyed by concept
+	 */
+	public static Map<Concept, CalculationResultMap> firstObs(Collection<Concept> concepts, Collection<Integer> cohort, PatientCalculationContext context) {
+		return firstOrLastObs(concepts, cohort, context, false);
+	}
+
+	/**
+	 * Evaluates the last obs of each of the given concepts
+	 * @param concepts the concepts
+	 * @param cohort the patient ids
+	 * @param context the calculation context
+	 * @return the obs results keyed by concept
+	 */
+	public static Map<Concept, CalculationResultMap> lastObs(Collection<Concept> concepts, Collection<Integer> cohort, PatientCalculationContext context) {
+		return firstOrLastObs(concepts, cohort, context, true);
+	}
+
+	/**
+	 * Evaluates all obs of each of the given concepts
+	 * @param concepts the concepts
+	 * @param cohort the patient ids
+	 * @param context the calculation context
+	 * @return the list results (of obs results in date order) keyed by concept
+	 */
+	public static Map<Concept, CalculationResultMap> allObs(Collection<Concept> concepts, Collection<Integer> cohort, PatientCalculationContext context) {
+		Map<Integer, Map<Integer, ListResult>> byConcept = new HashMap<Integer, Map<Integer, ListResult>>();
+
+		String query = "select o.obs_id from obs o"
+				+ " where o.voided = 0 and o.person_id in (:patientIds) and o.concept_id in (:conceptIds) and o.obs_datetime <= :onOrBefore"
+				+ " order by o.obs_datetime, o.obs_id";
+
+		for (List<Integer> patientIds : partition(cohort)) {
+			List<Integer> obsIds = queryIds(query, patientIds, concepts, context);
+
+			for (Obs obs : loadObs(obsIds)) {
+				Map<Integer, ListResult> byPatient = byConcept.get(obs.getConcept().getConceptId());
+				if (byPatient == null) {
+					byPatient = new HashMap<Integer, ListResult>();
+					byConcept.put(obs.getConcept().getConceptId(), byPatient);
+				}
+				ListResult results = byPatient.get(obs.getPersonId());
+				if (results == null) {
+					results = new ListResult();
+					byPatient.put(obs.getPersonId(), results);
+				}
+				results.add(new ObsResult(obs, null, context));
+			}
+		}
+
+		Map<Concept, CalculationResultMap> ret = new LinkedHashMap<Concept, CalculationResultMap>();
+		for (Concept concept : concepts) {
+			Map<Integer, ListResult> byPatient = byConcept.get(concept.getConceptId());
+			CalculationResultMap resultMap = new CalculationResultMap();
+			for (Integer ptId : cohort) {
+				ListResult results = byPatient != null ? byPatient.get(ptId) : null;
+				resultMap.put(ptId, results != null ? results : new ListResult());
+			}
+			ret.put(concept, resultMap);
+		}
+		return ret;
+	}
+
+	/**
+	 * Evaluates the first or last obs of each of the given concepts. The earliest or latest obs datetime of each
+	 * (patient, concept) pair is found by a grouped sub-query so only one obs per pair is loaded.
+	 * @param concepts the concepts
+	 * @param cohort the patient ids
+	 * @param context the calculation context
+	 * @param last true for the last obs, false for the first
+	 * @return the obs results keyed by concept
+	 */
+	protected static Map<Concept, CalculationResultMap> firstOrLastObs(Collection<Concept> concepts, Collection<Integer> cohort, PatientCalculationContext context, boolean last) {
+		Map<Integer, Map<Integer, Obs>> byConcept = new HashMap<Integer, Map<Integer, Obs>>();
+
+		String aggregate = last ? "max" : "min";
+		String query = "select o.obs_id from obs o inner join ("
+				+ "  select person_id, concept_id, " + aggregate + "(obs_datetime) as obs_datetime from obs"
+				+ "  where voided = 0 and person_id in (:patientIds) and concept_id in (:conceptIds) and obs_datetime <= :onOrBefore"
+				+ "  group by person_id, concept_id"
+				+ ") t on t.person_id = o.person_id and t.concept_id = o.concept_id and t.obs_datetime = o.obs_datetime"
+				+ " where o.voided = 0"
+				+ " order by o.obs_id";
+
+		for (List<Integer> patientIds : partition(cohort)) {
+			List<Integer> obsIds = queryIds(query, patientIds, concepts, context);
+
+			for (Obs obs : loadObs(obsIds)) {
+				Map<Integer, Obs> byPatient = byConcept.get(obs.getConcept().getConceptId());
+				if (byPatient == null) {
+					byPatient = new HashMap<Integer, Obs>();
+					byConcept.put(obs.getConcept().getConceptId(), byPatient);
+				}
+
+				// Obs with the same datetime are resolved by obs id, i.e. the first or last to be entered
+				Obs existing = byPatient.get(obs.getPersonId());
+				if (existing == null || (last && obs.getObsId() > existing.getObsId()) || (!last && obs.getObsId() < existing.getObsId())) {
+					byPatient.put(obs.getPersonId(), obs);
+				}
+			}
+		}
+
+		Map<Concept, CalculationResultMap> ret = new LinkedHashMap<Concept, CalculationResultMap>();
+		for (Concept concept : concepts) {
+			Map<Integer, Obs> byPatient = byConcept.get(concept.getConceptId());
+			CalculationResultMap resultMap = new CalculationResultMap();
+			for (Integer ptId : cohort) {
+				Obs obs = byPatient != null ? byPatient.get(ptId) : null;
+				resultMap.put(ptId, obs != null ? new ObsResult(obs, null, context) : null);
+			}
+			ret.put(concept, resultMap);
+		}
+		return ret;
+	}
+
+	/**
+	 * Executes an obs id query for a batch of patients
+	 * @param query the SQL query
+	 * @param patientIds the patient ids
+	 * @param concepts the concepts
+	 * @param context the calculation context
+	 * @return the obs ids
+	 */
+	protected static List<Integer> queryIds(String query, List<Integer> patientIds, Collection<Concept> concepts, PatientCalculationContext context) {
+		List<Integer> conceptIds = new ArrayList<Integer>();
+		for (Concept concept : concepts) {
+			conceptIds.add(concept.getConceptId());
+		}
+
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("patientIds", patientIds);
+		params.put("conceptIds", conceptIds);
+		// Passed as a string as date parameters are truncated to the day
+		params.put("onOrBefore", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(context.getNow()));
+
+		List<Integer> ids = new ArrayList<Integer>();
+		for (Object row : Context.getService(KenyaEmrService.class).executeSqlQuery(query, params)) {
+			ids.add(((Number) row).intValue());
+		}
+		return ids;
+	}
+
+	/**
+	 * Loads obs by id
+	 * @param obsIds the obs ids
+	 * @return the obs ordered as the ids
+	 */
+	protected static List<Obs> loadObs(List<Integer> obsIds) {
+		if (obsIds.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		Map<Integer, Obs> byId = new HashMap<Integer, Obs>();
+		for (List<Integer> batch : partition(obsIds)) {
+			Map<String, Object> params = new HashMap<String, Object>();
+			params.put("obsIds", batch);
+
+			for (Object row : Context.getService(KenyaEmrService.class).executeHqlQuery("from Obs o where o.obsId in (:obsIds)", params)) {
+				Obs obs = (Obs) row;
+				byId.put(obs.getObsId(), obs);
+			}
+		}
+
+		List<Obs> ordered = new ArrayList<Obs>();
+		for (Integer obsId : obsIds) {
+			Obs obs = byId.get(obsId);
+			if (obs != null) {
+				ordered.add(obs);
+			}
+		}
+		return ordered;
+	}
+
+	/**
+	 * Splits ids into batches
+	 * @param ids the ids
+	 * @return the batches
+	 */
+	protected static List<List<Integer>> partition(Collection<Integer> ids) {
+		List<List<Integer>> batches = new ArrayList<List<Integer>>();
+		List<Integer> batch = new ArrayList<Integer>();
+		for (Integer id : ids) {
+			batch.add(id);
+			if (batch.size() == BATCH_SIZE) {
+				batches.add(batch);
+				batch = new ArrayList<Integer>();
+			}
+		}
+		if (!batch.isEmpty()) {
+			batches.add(batch);
+		}
+		return batches;
+	}
+}
@@ -23,6 +23,8 @@ import org.openmrs.module.kenyacore.calculation.Calculations;
 import org.openmrs.module.kenyacore.calculation.Filters;
 import org.openmrs.module.kenyacore.calculation.PatientFlagCalculation;
 import org.openmrs.module.kenyaemr.Dictionary;
+import org.openmrs.module.kenyaemr.attendance.AttendanceState;
+import org.openmrs.module.kenyaemr.attendance.AttendanceTracker;
 import org.openmrs.module.kenyaemr.calculation.EmrCalculationUtils;
 import org.openmrs.module.kenyaemr.calculation.library.hiv.LastReturnVisitDateCalculation;
 import org.openmrs.module.kenyaemr.calculation.library.hiv.LostToFollowUpCalculation;
@@ -65,8 +67,13 @@ public class MissedLastAppointmentCalculation extends AbstractPatientCalculation
 
 		CalculationResultMap lastReturnDateMap = Context.getService(PatientCalculationService.class).evaluate(inHivProgram, new LastReturnVisitDateCalculation(), context);
 
-		EncounterType lastHivVisit = Context.getEncounterService().getEncounterTypeByUuid(HivMetadata._EncounterType.HIV_CONSULTATION);
-		CalculationResultMap lastEncounters = Calculations.lastEncounter(lastHivVisit, cohort, context);
+		// Use tracked attendance if evaluating for today, otherwise derive it from patient histories
+		Map<Integer, AttendanceState> states = AttendanceTracker.getCurrentStates(cohort, context);
+		CalculationResultMap lastEncounters = null;
+		if (states == null) {
+			EncounterType lastHivVisit = Context.getEncounterService().getEncounterTypeByUuid(HivMetadata._EncounterType.HIV_CONSULTATION);
+			lastEncounters = Calculations.lastEncounter(lastHivVisit, cohort, context);
+		}
 		Set<Integer> ltfu = CalculationUtils.patientsThatPass(calculate(new LostToFollowUpCalculation(), cohort, context));
 		Set<Integer> transferredOut = CalculationUtils.patientsThatPass(calculate(new IsTransferOutCalculation(), cohort, context));
 		CalculationResultMap ret = new CalculationResultMap();
@@ -80,10 +87,17 @@ public class MissedLastAppointmentCalculation extends AbstractPatientCalculation
 				// Does patient have a scheduled return visit in the past
 				if (lastScheduledReturnDate != null && EmrCalculationUtils.daysSince(lastScheduledReturnDate, context) > 0) {
 					// Has patient returned since
-					Encounter lastEncounter = EmrCalculationUtils.encounterResultForPatient(lastEncounters, ptId);
-					Date lastActualReturnDate = lastEncounter != null ? lastEncounter.getEncounterDatetime() : null;
+					Date lastActualReturnDate;
+					if (states != null) {
+						AttendanceState state = states.get(ptId);
+						lastActualReturnDate = state != null ? state.getLastHivVisit() : null;
+					}
+					else {
+						Encounter lastEncounter = EmrCalculationUtils.encounterResultForPatient(lastEncounters, ptId);
+						lastActualReturnDate = lastEncounter != null ? lastEncounter.getEncounterDatetime() : null;
+					}
 					missedVisit = lastActualReturnDate == null || lastActualReturnDate.before(lastScheduledReturnDate);
-					if(missedVisit && lastEncounter != null && lastEncounter.getEncounterDatetime().after(DateUtil.adjustDate(DateUtil.getStartOfMonth(context.getNow()), -1, DurationUnit.DAYS)) && lastEncounter.getEncounterDatetime().before(DateUtil.adjustDate(context.getNow(), 1, DurationUnit.DAYS))){
+					if(missedVisit && lastActualReturnDate != null && lastActualReturnDate.after(DateUtil.adjustDate(DateUtil.getStartOfMonth(context.getNow()), -1, DurationUnit.DAYS)) && lastActualReturnDate.before(DateUtil.adjustDate(context.getNow(), 1, DurationUnit.DAYS))){
 						missedVisit = false;
 					}
 				}
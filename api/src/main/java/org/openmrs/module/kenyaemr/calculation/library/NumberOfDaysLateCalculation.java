@@ -15,6 +15,8 @@ import org.openmrs.calculation.patient.PatientCalculationContext;
 import org.openmrs.calculation.result.CalculationResultMap;
 import org.openmrs.calculation.result.SimpleResult;
 import org.openmrs.module.kenyacore.calculation.AbstractPatientCalculation;
+import org.openmrs.module.kenyaemr.attendance.AttendanceState;
+import org.openmrs.module.kenyaemr.attendance.AttendanceTracker;
 import org.openmrs.module.kenyaemr.calculation.EmrCalculationUtils;
 import org.openmrs.module.kenyaemr.calculation.library.hiv.LastReturnVisitDateCalculation;
 
@@ -30,6 +32,17 @@ public class NumberOfDaysLateCalculation extends AbstractPatientCalculation {
     public CalculationResultMap evaluate(Collection<Integer> cohort, Map<String, Object> map, PatientCalculationContext context) {
 
         CalculationResultMap ret = new CalculationResultMap();
+
+        // Use tracked attendance if evaluating for today
+        Map<Integer, AttendanceState> states = AttendanceTracker.getCurrentStates(cohort, context);
+        if (states != null) {
+            for (Integer ptId : cohort) {
+                AttendanceState state = states.get(ptId);
+                ret.put(ptId, new SimpleResult(state != null ? state.getDaysLate(context.getNow()) : null, this));
+            }
+            return ret;
+        }
+
         CalculationResultMap returnDate = calculate(new LastReturnVisitDateCalculation(), cohort, context);
         for(Integer ptId: cohort){
             Integer days = null;
@@ -20,6 +20,8 @@ import org.openmrs.module.kenyacore.calculation.Calculations;
 import org.openmrs.module.kenyacore.calculation.Filters;
 import org.openmrs.module.kenyaemr.Dictionary;
 import org.openmrs.module.kenyaemr.HivConstants;
+import org.openmrs.module.kenyaemr.attendance.AttendanceState;
+import org.openmrs.module.kenyaemr.attendance.AttendanceTracker;
 import org.openmrs.module.kenyaemr.calculation.EmrCalculationUtils;
 import org.openmrs.module.kenyaemr.metadata.HivMetadata;
 import org.openmrs.module.metadatadeploy.MetadataUtils;
@@ -45,8 +47,15 @@ public class DateClassifiedLTFUCalculation extends AbstractPatientCalculation {
 
 		Set<Integer> alive = Filters.alive(cohort, context);
 		Set<Integer> inHivProgram = Filters.inProgram(hivProgram, alive, context);
-		CalculationResultMap lastReturnDateObss = Calculations.lastObs(Dictionary.getConcept(Dictionary.RETURN_VISIT_DATE), inHivProgram, context);
-		CalculationResultMap lastProgramDiscontinuation = Calculations.lastObs(reasonForDiscontinuation, cohort, context);
+
+		// Use tracked attendance if evaluating for today, otherwise derive it from patient histories
+		Map<Integer, AttendanceState> states = AttendanceTracker.getCurrentStates(inHivProgram, context);
+		CalculationResultMap lastReturnDateObss = null;
+		CalculationResultMap lastProgramDiscontinuation = null;
+		if (states == null) {
+			lastReturnDateObss = Calculations.lastObs(Dictionary.getConcept(Dictionary.RETURN_VISIT_DATE), inHivProgram, context);
+			lastProgramDiscontinuation = Calculations.lastObs(reasonForDiscontinuation, cohort, context);
+		}
 
 		CalculationResultMap ret = new CalculationResultMap();
 
@@ -54,11 +63,21 @@ public class DateClassifiedLTFUCalculation extends AbstractPatientCalculation {
 			Date dateClassifiedLTFU = null;
 			// Is patient alive and in the HIV program
 			if (inHivProgram.contains(ptId)) {
-				Date lastScheduledReturnDate = EmrCalculationUtils.datetimeObsResultForPatient(lastReturnDateObss, ptId);
-				Obs discontinuation = EmrCalculationUtils.obsResultForPatient(lastProgramDiscontinuation, ptId);
+				Date lastScheduledReturnDate;
+				boolean discontinued;
+				if (states != null) {
+					AttendanceState state = states.get(ptId);
+					lastScheduledReturnDate = state != null ? state.getLastReturnVisit() : null;
+					discontinued = state != null && state.getDiscontinuationReasonId() != null;
+				}
+				else {
+					lastScheduledReturnDate = EmrCalculationUtils.datetimeObsResultForPatient(lastReturnDateObss, ptId);
+					Obs discontinuation = EmrCalculationUtils.obsResultForPatient(lastProgramDiscontinuation, ptId);
+					discontinued = discontinuation != null;
+				}
 				if (lastScheduledReturnDate != null) {
 					if (daysSince(lastScheduledReturnDate, context) > HivConstants.LOST_TO_FOLLOW_UP_THRESHOLD_DAYS) {
-						if (discontinuation == null) {
+						if (!discontinued) {
 							Calendar dateClassified = Calendar.getInstance();
 							dateClassified.setTime(lastScheduledReturnDate);
 							dateClassified.add(Calendar.DATE, HivConstants.LOST_TO_FOLLOW_UP_THRESHOLD_DAYS);
@@ -18,24 +18,20 @@ import org.joda.time.Months;
 import org.openmrs.Concept;
 import org.openmrs.Encounter;
 import org.openmrs.EncounterType;
-import org.openmrs.Form;
 import org.openmrs.Obs;
 import org.openmrs.Patient;
 import org.openmrs.Program;
-import org.openmrs.api.ConceptService;
-import org.openmrs.api.EncounterService;
-import org.openmrs.api.FormService;
 import org.openmrs.api.PatientService;
 import org.openmrs.api.context.Context;
 import org.openmrs.calculation.patient.PatientCalculationContext;
 import org.openmrs.calculation.result.CalculationResultMap;
 import org.openmrs.calculation.result.SimpleResult;
 import org.openmrs.module.kenyacore.calculation.CalculationUtils;
-import org.openmrs.module.kenyacore.calculation.Calculations;
 import org.openmrs.module.kenyacore.calculation.Filters;
 import org.openmrs.module.kenyaemr.Dictionary;
 import org.openmrs.module.kenyaemr.calculation.BaseEmrCalculation;
 import org.openmrs.module.kenyaemr.calculation.EmrCalculationUtils;
+import org.openmrs.module.kenyaemr.calculation.ObsBatch;
 import org.openmrs.module.kenyaemr.calculation.library.IsBreastFeedingCalculation;
 import org.openmrs.module.kenyaemr.calculation.library.IsPregnantCalculation;
 import org.openmrs.module.kenyaemr.metadata.HivMetadata;
@@ -87,8 +83,9 @@ public class GreenCardVelocityCalculation extends BaseEmrCalculation {
         Concept OnAntiTbQuestion = Context.getConceptService().getConcept(164948);
         Concept StartAntiTbQuestion = Context.getConceptService().getConcept(162309);
 
-        CalculationResultMap tbCurrent = Calculations.lastObs(OnAntiTbQuestion, cohort, context);
-        CalculationResultMap tbStarted = Calculations.lastObs(StartAntiTbQuestion, cohort, context);
+        Map<Concept, CalculationResultMap> lastTbObs = ObsBatch.lastObs(Arrays.asList(OnAntiTbQuestion, StartAntiTbQuestion), cohort, context);
+        CalculationResultMap tbCurrent = lastTbObs.get(OnAntiTbQuestion);
+        CalculationResultMap tbStarted = lastTbObs.get(StartAntiTbQuestion);
 
          //Viral load
         Concept latestVL = Dictionary.getConcept(Dictionary.HIV_VIRAL_LOAD);
@@ -97,20 +94,31 @@ public class GreenCardVelocityCalculation extends BaseEmrCalculation {
         //Checking adherence
         Concept AdherenceQuestion = Context.getConceptService().getConcept(1658);
 
-        CalculationResultMap lastVLObs = Calculations.lastObs(latestVL, inHivProgram, context);
-        CalculationResultMap lastLDLObs = Calculations.lastObs(LDLQuestion, inHivProgram, context);
-        CalculationResultMap lastAdherenceObs = Calculations.lastObs(AdherenceQuestion, inHivProgram, context);
+        Map<Concept, CalculationResultMap> lastHivObs = ObsBatch.lastObs(Arrays.asList(latestVL, LDLQuestion, AdherenceQuestion), inHivProgram, context);
+        CalculationResultMap lastVLObs = lastHivObs.get(latestVL);
+        CalculationResultMap lastLDLObs = lastHivObs.get(LDLQuestion);
+        CalculationResultMap lastAdherenceObs = lastHivObs.get(AdherenceQuestion);
 
         // Get active ART regimen of each patient
+        Map<Integer, Encounter> lastDrugRegimenEditorEncounters = EncounterBasedRegimenUtils.getLastEncountersForCategory(cohort, "ARV");
+        Map<Integer, Encounter> firstDrugRegimenEditorEncounters = EncounterBasedRegimenUtils.getFirstEncountersForCategory(cohort, "ARV");
 
         //find pregnant women
         Set<Integer> pregnantWomen = CalculationUtils.patientsThatPass(calculate(new IsPregnantCalculation(), cohort, context));
         //find breastfeeding women
        Set<Integer> breastFeeding = CalculationUtils.patientsThatPass(calculate(new IsBreastFeedingCalculation(), cohort, context));
 
+        // Metadata used for every patient
+        EncounterType hivEnrollmentType = MetadataUtils.existing(EncounterType.class, HivMetadata._EncounterType.HIV_ENROLLMENT);
+        EncounterType iptOutcomeType = MetadataUtils.existing(EncounterType.class, IPTMetadata._EncounterType.IPT_OUTCOME);
+        Concept IptOutcomeQuestionConcept = Context.getConceptService().getConcept(161555);
+        Concept IptCompletionOutcomeConcept = Context.getConceptService().getConcept(1267);
+        PatientService patientService = Context.getPatientService();
+
         CalculationResultMap ret = new CalculationResultMap();
-        StringBuilder sb = new StringBuilder();
         for (Integer ptId : cohort) {
+            StringBuilder sb = new StringBuilder();
+            Patient pt = patientService.getPatient(ptId);
             //TB and ART patients
             boolean patientInTBProgram = false;
             boolean patientDueForTBEnrollment = false;
@@ -126,8 +134,6 @@ public class GreenCardVelocityCalculation extends BaseEmrCalculation {
             boolean isBreastFeeding = false;
             Integer adherenceDiffDays = 0;
             Integer  goodAdherenceAnswer = 159405;
-            Integer  iptOutcomeQuestion = 161555;
-            Integer  iptCompletionAnswer = 1267;
             //ART calculations
             String artStartObsDate = null;
             Date artStartDate = null;
@@ -206,23 +212,13 @@ public class GreenCardVelocityCalculation extends BaseEmrCalculation {
             }
 
             //Currently in HIV
-            EncounterService encounterService = Context.getEncounterService();
-            FormService formService = Context.getFormService();
-            PatientService patientService = Context.getPatientService();
-            EncounterType et = encounterService.getEncounterTypeByUuid(HivMetadata._EncounterType.HIV_ENROLLMENT);
-            Form form = formService.getFormByUuid(HivMetadata._Form.HIV_ENROLLMENT);
-            Patient pt = patientService.getPatient(ptId);
-            Encounter lastHivEnrollmentEncounter = EmrUtils.lastEncounter(pt, et);
+            Encounter lastHivEnrollmentEncounter = EmrUtils.lastEncounter(pt, hivEnrollmentType);
             if (lastHivEnrollmentEncounter != null ) {
                     patientEverInHivProgram = true;
             }
 
             //Completed IPT 6 months cycle
-            ConceptService cs = Context.getConceptService();
-            Concept IptOutcomeQuestionConcept = cs.getConcept(iptOutcomeQuestion);
-            Concept IptCompletionOutcomeConcept = cs.getConcept(iptCompletionAnswer);
-
-            Encounter lastIptOutcomeEncounter = EmrUtils.lastEncounter(Context.getPatientService().getPatient(ptId), Context.getEncounterService().getEncounterTypeByUuid(IPTMetadata._EncounterType.IPT_OUTCOME));   //last ipt outcome encounter
+            Encounter lastIptOutcomeEncounter = EmrUtils.lastEncounter(pt, iptOutcomeType);   //last ipt outcome encounter
             boolean patientHasCompletedIPTOutcome = lastIptOutcomeEncounter != null ? EmrUtils.encounterThatPassCodedAnswer(lastIptOutcomeEncounter, IptOutcomeQuestionConcept, IptCompletionOutcomeConcept) : false;
 
             if(patientHasCompletedIPTOutcome) {
@@ -231,7 +227,7 @@ public class GreenCardVelocityCalculation extends BaseEmrCalculation {
 
 
             //On ART -- find if client has active ART
-            Encounter lastDrugRegimenEditorEncounter = EncounterBasedRegimenUtils.getLastEncounterForCategory(Context.getPatientService().getPatient(ptId), "ARV");   //last DRUG_REGIMEN_EDITOR encounter
+            Encounter lastDrugRegimenEditorEncounter = lastDrugRegimenEditorEncounters.get(ptId);   //last DRUG_REGIMEN_EDITOR encounter
             if (lastDrugRegimenEditorEncounter != null) {
                 SimpleObject o = EncounterBasedRegimenUtils.buildRegimenChangeObject(lastDrugRegimenEditorEncounter.getAllObs(), lastDrugRegimenEditorEncounter);
                 regimenName = o.get("regimenShortDisplay").toString();
@@ -240,7 +236,7 @@ public class GreenCardVelocityCalculation extends BaseEmrCalculation {
                 }
             }
 
-            Encounter firstDrugRegimenEditorEncounter = EncounterBasedRegimenUtils.getFirstEncounterForCategory(Context.getPatientService().getPatient(ptId), "ARV");   //first DRUG_REGIMEN_EDITOR encounter
+            Encounter firstDrugRegimenEditorEncounter = firstDrugRegimenEditorEncounters.get(ptId);   //first DRUG_REGIMEN_EDITOR encounter
             if (firstDrugRegimenEditorEncounter != null) {
                 SimpleObject o = EncounterBasedRegimenUtils.buildRegimenChangeObject(firstDrugRegimenEditorEncounter.getAllObs(), firstDrugRegimenEditorEncounter);
                 artStartObsDate =o.get("startDate").toString();
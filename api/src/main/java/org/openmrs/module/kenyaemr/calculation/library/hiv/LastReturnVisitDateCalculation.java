@@ -21,6 +21,8 @@ import org.openmrs.calculation.result.SimpleResult;
 import org.openmrs.module.kenyacore.calculation.AbstractPatientCalculation;
 import org.openmrs.module.kenyacore.calculation.Calculations;
 import org.openmrs.module.kenyaemr.Dictionary;
+import org.openmrs.module.kenyaemr.attendance.AttendanceState;
+import org.openmrs.module.kenyaemr.attendance.AttendanceTracker;
 import org.openmrs.module.kenyaemr.calculation.EmrCalculationUtils;
 import org.openmrs.module.kenyaemr.metadata.HivMetadata;
 import org.openmrs.module.kenyaemr.util.EmrUtils;
@@ -42,6 +44,17 @@ public class LastReturnVisitDateCalculation extends AbstractPatientCalculation {
         Integer latestTCA = 5096;
         CalculationResultMap ret = new CalculationResultMap();
 
+        // Use tracked attendance if evaluating for today, otherwise load each patient's last followup
+        Map<Integer, AttendanceState> states = AttendanceTracker.getCurrentStates(cohort, context);
+        if (states != null) {
+            for (AttendanceState state : states.values()) {
+                if (state.getNextAppointment() != null) {
+                    ret.put(state.getPatientId(), new SimpleResult(state.getNextAppointment(), this));
+                }
+            }
+            return ret;
+        }
+
         Form pocHivFollowup = MetadataUtils.existing(Form.class, HivMetadata._Form.HIV_GREEN_CARD);
         Form rdeHivFollowup = MetadataUtils.existing(Form.class, HivMetadata._Form.MOH_257_VISIT_SUMMARY);
         EncounterType hivFollowup = MetadataUtils.existing(EncounterType.class, HivMetadata._EncounterType.HIV_CONSULTATION);
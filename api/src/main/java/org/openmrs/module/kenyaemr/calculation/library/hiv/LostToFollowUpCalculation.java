@@ -21,6 +21,8 @@ import org.openmrs.module.kenyacore.calculation.Filters;
 import org.openmrs.module.kenyacore.calculation.PatientFlagCalculation;
 import org.openmrs.module.kenyaemr.Dictionary;
 import org.openmrs.module.kenyaemr.HivConstants;
+import org.openmrs.module.kenyaemr.attendance.AttendanceState;
+import org.openmrs.module.kenyaemr.attendance.AttendanceTracker;
 import org.openmrs.module.kenyaemr.calculation.EmrCalculationUtils;
 import org.openmrs.module.kenyaemr.metadata.HivMetadata;
 import org.openmrs.module.metadatadeploy.MetadataUtils;
@@ -60,9 +62,15 @@ public class LostToFollowUpCalculation extends AbstractPatientCalculation implem
 		Set<Integer> alive = Filters.alive(cohort, context);
 		Set<Integer> inHivProgram = Filters.inProgram(hivProgram, alive, context);
 
-		//CalculationResultMap lastEncounters = Calculations.lastEncounter(null, inHivProgram, context);
-		CalculationResultMap lastReturnDateObss = Calculations.lastObs(Dictionary.getConcept(Dictionary.RETURN_VISIT_DATE), inHivProgram, context);
-		CalculationResultMap lastProgramDiscontinuation = Calculations.lastObs(reasonForDiscontinuation, cohort, context);
+		// Use tracked attendance if evaluating for today, otherwise derive it from patient histories
+		Map<Integer, AttendanceState> states = AttendanceTracker.getCurrentStates(inHivProgram, context);
+		CalculationResultMap lastReturnDateObss = null;
+		CalculationResultMap lastProgramDiscontinuation = null;
+		if (states == null) {
+			//CalculationResultMap lastEncounters = Calculations.lastEncounter(null, inHivProgram, context);
+			lastReturnDateObss = Calculations.lastObs(Dictionary.getConcept(Dictionary.RETURN_VISIT_DATE), inHivProgram, context);
+			lastProgramDiscontinuation = Calculations.lastObs(reasonForDiscontinuation, cohort, context);
+		}
 
 		CalculationResultMap ret = new CalculationResultMap();
 		for (Integer ptId : cohort) {
@@ -73,13 +81,23 @@ public class LostToFollowUpCalculation extends AbstractPatientCalculation implem
 
 				// Patient is lost if no encounters in last X days
 				//Encounter lastEncounter = EmrCalculationUtils.encounterResultForPatient(lastEncounters, ptId);
-				Date lastScheduledReturnDate = EmrCalculationUtils.datetimeObsResultForPatient(lastReturnDateObss, ptId);
-				Obs discontuation = EmrCalculationUtils.obsResultForPatient(lastProgramDiscontinuation, ptId);
+				Date lastScheduledReturnDate;
+				boolean transferredOut;
+				if (states != null) {
+					AttendanceState state = states.get(ptId);
+					lastScheduledReturnDate = state != null ? state.getLastReturnVisit() : null;
+					transferredOut = state != null && transferout.getConceptId().equals(state.getDiscontinuationReasonId());
+				}
+				else {
+					lastScheduledReturnDate = EmrCalculationUtils.datetimeObsResultForPatient(lastReturnDateObss, ptId);
+					Obs discontuation = EmrCalculationUtils.obsResultForPatient(lastProgramDiscontinuation, ptId);
+					transferredOut = discontuation != null && discontuation.getValueCoded().equals(transferout);
+				}
 				if (lastScheduledReturnDate != null) {
 					if(daysSince(lastScheduledReturnDate, context) > HivConstants.LOST_TO_FOLLOW_UP_THRESHOLD_DAYS){
 						lost = true;
 					}
-					if(discontuation != null && discontuation.getValueCoded().equals(transferout)) {
+					if(transferredOut) {
 						lost = false;
 					}
 				}
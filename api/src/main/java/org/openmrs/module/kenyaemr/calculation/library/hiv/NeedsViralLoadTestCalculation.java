@@ -13,6 +13,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.joda.time.DateTime;
 import org.joda.time.Months;
+import org.openmrs.Concept;
 import org.openmrs.Obs;
 import org.openmrs.Order;
 import org.openmrs.OrderType;
@@ -30,6 +31,7 @@ import org.openmrs.module.kenyacore.calculation.Filters;
 import org.openmrs.module.kenyacore.calculation.PatientFlagCalculation;
 import org.openmrs.module.kenyaemr.Dictionary;
 import org.openmrs.module.kenyaemr.calculation.EmrCalculationUtils;
+import org.openmrs.module.kenyaemr.calculation.ObsBatch;
 import org.openmrs.module.kenyaemr.calculation.library.hiv.art.InitialArtStartDateCalculation;
 import org.openmrs.module.kenyaemr.calculation.library.hiv.art.OnArtCalculation;
 import org.openmrs.module.kenyaemr.metadata.HivMetadata;
@@ -37,6 +39,7 @@ import org.openmrs.module.metadatadeploy.MetadataUtils;
 import org.openmrs.module.reporting.common.DateUtil;
 import org.openmrs.module.reporting.common.DurationUnit;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
@@ -70,19 +73,26 @@ public class NeedsViralLoadTestCalculation extends AbstractPatientCalculation im
         Set<Integer> onArt = CalculationUtils.patientsThatPass(calculate(new OnArtCalculation(), cohort, context));
         // need to exclude those with vl orders
         Set<Integer> pendingVlResults = CalculationUtils.patientsThatPass(calculate(new PendingViralLoadResultCalculation(), cohort, context));
+        Concept viralLoad = Dictionary.getConcept(Dictionary.HIV_VIRAL_LOAD);
+        Concept viralLoadQualitative = Dictionary.getConcept(Dictionary.HIV_VIRAL_LOAD_QUALITATIVE);
+        List<Concept> viralLoadConcepts = Arrays.asList(viralLoad, viralLoadQualitative);
+
+        Map<Concept, CalculationResultMap> lastViralLoadObs = ObsBatch.lastObs(viralLoadConcepts, cohort, context);
+        Map<Concept, CalculationResultMap> allViralLoadObs = ObsBatch.allObs(viralLoadConcepts, cohort, context);
         //check for last viral load recorded
-        CalculationResultMap viralLoadLast = Calculations.lastObs(Dictionary.getConcept(Dictionary.HIV_VIRAL_LOAD), cohort, context);
+        CalculationResultMap viralLoadLast = lastViralLoadObs.get(viralLoad);
         //check for last ldl
-        CalculationResultMap ldlLast = Calculations.lastObs(Dictionary.getConcept(Dictionary.HIV_VIRAL_LOAD_QUALITATIVE), cohort, context);
+        CalculationResultMap ldlLast = lastViralLoadObs.get(viralLoadQualitative);
         //get a list of all the viral load
-        CalculationResultMap viralLoadList = Calculations.allObs(Dictionary.getConcept(Dictionary.HIV_VIRAL_LOAD), cohort, context);
+        CalculationResultMap viralLoadList = allViralLoadObs.get(viralLoad);
         //check for non detectables
-        CalculationResultMap ldlViralLoad = Calculations.allObs(Dictionary.getConcept(Dictionary.HIV_VIRAL_LOAD_QUALITATIVE), cohort, context);
+        CalculationResultMap ldlViralLoad = allViralLoadObs.get(viralLoadQualitative);
 
         CalculationResultMap pregStatusObss = Calculations.lastObs(Dictionary.getConcept(Dictionary.PREGNANCY_STATUS), aliveAndFemale, context);
 
         //get the initial art start date
         CalculationResultMap artStartDate = calculate(new InitialArtStartDateCalculation(), cohort, context);
+        Concept yes = Dictionary.getConcept(Dictionary.YES);
         CalculationResultMap ret = new CalculationResultMap();
         for(Integer ptId:cohort) {
             OrderService orderService = Context.getOrderService();
@@ -126,7 +136,7 @@ public class NeedsViralLoadTestCalculation extends AbstractPatientCalculation im
                 }
 
                 //check for pregnancy and artInitiation
-                if(pregnantStatus != null && pregnantStatus.getValueCoded().equals(Dictionary.getConcept(Dictionary.YES)) && dateInitiated != null) {
+                if(pregnantStatus != null && pregnantStatus.getValueCoded().equals(yes) && dateInitiated != null) {
                     Date whenVLWillBeDue = DateUtil.adjustDate(DateUtil.adjustDate(dateInitiated, 6, DurationUnit.MONTHS), -1, DurationUnit.DAYS);
 
                     // vl flag should be 6 months after art start date if no previous vl
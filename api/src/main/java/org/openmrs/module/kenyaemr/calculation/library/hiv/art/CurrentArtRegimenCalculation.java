@@ -10,7 +10,6 @@
 package org.openmrs.module.kenyaemr.calculation.library.hiv.art;
 
 import org.openmrs.Encounter;
-import org.openmrs.api.context.Context;
 import org.openmrs.calculation.patient.PatientCalculationContext;
 import org.openmrs.calculation.result.CalculationResultMap;
 import org.openmrs.calculation.result.SimpleResult;
@@ -36,8 +35,9 @@ public class CurrentArtRegimenCalculation extends BaseEmrCalculation {
 
 		String regimenName = null;
 		CalculationResultMap ret = new CalculationResultMap();
+		Map<Integer, Encounter> lastDrugRegimenEditorEncounters = EncounterBasedRegimenUtils.getLastEncountersForCategory(cohort, "ARV");
 		for (Integer ptId : cohort) {
-			Encounter lastDrugRegimenEditorEncounter = EncounterBasedRegimenUtils.getLastEncounterForCategory(Context.getPatientService().getPatient(ptId), "ARV");   //last DRUG_REGIMEN_EDITOR encounter
+			Encounter lastDrugRegimenEditorEncounter = lastDrugRegimenEditorEncounters.get(ptId);   //last DRUG_REGIMEN_EDITOR encounter
 
 			if (lastDrugRegimenEditorEncounter != null) {
 				SimpleObject o = EncounterBasedRegimenUtils.buildRegimenChangeObject(lastDrugRegimenEditorEncounter.getAllObs(), lastDrugRegimenEditorEncounter);
@@ -42,12 +42,12 @@ public class FacilityNameCalculation extends AbstractPatientCalculation {
 
 		CalculationResultMap havingHivEnrollment = Calculations.lastEncounter(hivEnrollment, cohort, context);
 
+		Location facility = Context.getService(KenyaEmrService.class).getDefaultLocation();
+		String loc = facility.getName();
+
 		CalculationResultMap ret = new CalculationResultMap();
 
 		for(Integer ptId: cohort) {
-			String loc;
-			Location facility = Context.getService(KenyaEmrService.class).getDefaultLocation();
-			loc = facility.getName();
 			ret.put(ptId, new SimpleResult(loc, this));
 
 		}
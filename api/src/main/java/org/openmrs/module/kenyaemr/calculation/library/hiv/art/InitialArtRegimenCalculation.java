@@ -12,7 +12,6 @@ package org.openmrs.module.kenyaemr.calculation.library.hiv.art;
 import org.openmrs.Concept;
 import org.openmrs.DrugOrder;
 import org.openmrs.Encounter;
-import org.openmrs.api.context.Context;
 import org.openmrs.calculation.patient.PatientCalculationContext;
 import org.openmrs.calculation.result.CalculationResultMap;
 import org.openmrs.calculation.result.ListResult;
@@ -42,8 +41,9 @@ public class InitialArtRegimenCalculation extends BaseEmrCalculation {
 	                                     PatientCalculationContext context) {
 		String regimenName = null;
 		CalculationResultMap ret = new CalculationResultMap();
+		Map<Integer, Encounter> firstDrugRegimenEditorEncounters = EncounterBasedRegimenUtils.getFirstEncountersForCategory(cohort, "ARV");
 		for (Integer ptId : cohort) {
-			Encounter firstDrugRegimenEditorEncounter = EncounterBasedRegimenUtils.getFirstEncounterForCategory(Context.getPatientService().getPatient(ptId), "ARV");   //last DRUG_REGIMEN_EDITOR encounter
+			Encounter firstDrugRegimenEditorEncounter = firstDrugRegimenEditorEncounters.get(ptId);   //first DRUG_REGIMEN_EDITOR encounter
 
 			if (firstDrugRegimenEditorEncounter != null) {
 				SimpleObject o = EncounterBasedRegimenUtils.buildRegimenChangeObject(firstDrugRegimenEditorEncounter.getAllObs(), firstDrugRegimenEditorEncounter);
@@ -11,7 +11,6 @@ package org.openmrs.module.kenyaemr.calculation.library.hiv.art;
 
 import org.openmrs.Encounter;
 import org.openmrs.Obs;
-import org.openmrs.api.context.Context;
 import org.openmrs.calculation.patient.PatientCalculationContext;
 import org.openmrs.calculation.result.CalculationResultMap;
 import org.openmrs.calculation.result.SimpleResult;
@@ -45,6 +44,7 @@ public class InitialArtStartDateCalculation extends BaseEmrCalculation {
 
 		CalculationResultMap ret = new CalculationResultMap();
 		CalculationResultMap tiArtStartDate = Calculations.firstObs(Dictionary.getConcept(Dictionary.ANTIRETROVIRAL_TREATMENT_START_DATE), cohort, context);
+		Map<Integer, Encounter> firstDrugRegimenEditorEncounters = EncounterBasedRegimenUtils.getFirstEncountersForCategory(cohort, "ARV");
 
 		for (Integer ptId : cohort) {
 
@@ -55,7 +55,7 @@ public class InitialArtStartDateCalculation extends BaseEmrCalculation {
 				dateTiStartedArt = tiStartDate.getValueDatetime();
 			}
 
-			Encounter firstDrugRegimenEditorEncounter = EncounterBasedRegimenUtils.getFirstEncounterForCategory(Context.getPatientService().getPatient(ptId), "ARV");   //last DRUG_REGIMEN_EDITOR encounter
+			Encounter firstDrugRegimenEditorEncounter = firstDrugRegimenEditorEncounters.get(ptId);   //first DRUG_REGIMEN_EDITOR encounter
 
 			if (firstDrugRegimenEditorEncounter != null) {
 				SimpleObject o = EncounterBasedRegimenUtils.buildRegimenChangeObject(firstDrugRegimenEditorEncounter.getAllObs(), firstDrugRegimenEditorEncounter);
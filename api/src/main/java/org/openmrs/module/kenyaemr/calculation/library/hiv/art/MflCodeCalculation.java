@@ -15,7 +15,6 @@ import org.openmrs.calculation.result.CalculationResultMap;
 import org.openmrs.calculation.result.SimpleResult;
 import org.openmrs.module.kenyacore.calculation.AbstractPatientCalculation;
 import org.openmrs.module.kenyaemr.api.KenyaEmrService;
-import org.openmrs.module.kenyaemr.wrapper.Facility;
 
 import java.util.Collection;
 import java.util.Map;
@@ -27,13 +26,11 @@ public class MflCodeCalculation extends AbstractPatientCalculation {
 	@Override
 	public CalculationResultMap evaluate(Collection<Integer> cohort, Map<String, Object> parameterValues, PatientCalculationContext context) {
 
-		CalculationResultMap location = calculate(new FacilityNameCalculation(), cohort, context);
+		String mflCode = Context.getService(KenyaEmrService.class).getDefaultLocationMflCode();
 
 		CalculationResultMap ret = new CalculationResultMap();
 		for (Integer ptId: cohort) {
-			Facility facility = new Facility(Context.getService(KenyaEmrService.class).getDefaultLocation());
-
-			ret.put(ptId, new SimpleResult(facility.getMflCode(), this));
+			ret.put(ptId, new SimpleResult(mflCode, this));
 		}
 		return ret;
 	}
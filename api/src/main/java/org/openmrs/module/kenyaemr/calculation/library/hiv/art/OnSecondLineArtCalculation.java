@@ -12,7 +12,6 @@ package org.openmrs.module.kenyaemr.calculation.library.hiv.art;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.Encounter;
-import org.openmrs.api.context.Context;
 import org.openmrs.calculation.patient.PatientCalculationContext;
 import org.openmrs.calculation.result.CalculationResultMap;
 import org.openmrs.calculation.result.SimpleResult;
@@ -45,11 +44,13 @@ public class OnSecondLineArtCalculation extends AbstractPatientCalculation {
 
 		Set<Integer> ltfu = CalculationUtils.patientsThatPass(calculate(new LostToFollowUpCalculation(), cohort, context));
 
+		Map<Integer, Encounter> lastDrugRegimenEditorEncounters = EncounterBasedRegimenUtils.getLastEncountersForCategory(cohort, "ARV");
+
 		CalculationResultMap ret = new CalculationResultMap();
 		for (Integer ptId : cohort) {
 			boolean onSecondLine = false;
 			String regimenLine = null;
-			Encounter lastDrugRegimenEditorEncounter = EncounterBasedRegimenUtils.getLastEncounterForCategory(Context.getPatientService().getPatient(ptId), "ARV");   //last DRUG_REGIMEN_EDITOR encounter
+			Encounter lastDrugRegimenEditorEncounter = lastDrugRegimenEditorEncounters.get(ptId);   //last DRUG_REGIMEN_EDITOR encounter
 			if (lastDrugRegimenEditorEncounter != null) {
 				SimpleObject o = EncounterBasedRegimenUtils.buildRegimenChangeObject(lastDrugRegimenEditorEncounter.getAllObs(), lastDrugRegimenEditorEncounter);
 				regimenLine = o.get("regimenLine").toString();
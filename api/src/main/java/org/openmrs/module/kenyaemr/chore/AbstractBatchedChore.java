@@ -0,0 +1,283 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.chore;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyacore.chore.AbstractChore;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base class for chores which process a potentially large set of rows. Row ids are fetched in keyset-paged batches
+ * (i.e. "id > last id" rather than offsets) and each batch is processed in its own transaction, after which the
+ * Hibernate session is cleared. The last id of each completed batch is saved as a checkpoint in a global property so
+ * that a chore which fails part way through resumes from where it stopped the next time it is run.
+ */
+public abstract class AbstractBatchedChore extends AbstractChore {
+
+	protected static final Log log = LogFactory.getLog(AbstractBatchedChore.class);
+
+	public static final int DEFAULT_BATCH_SIZE = 500;
+
+	public static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+	@Autowired
+	@Qualifier("transactionManager")
+	private PlatformTransactionManager transactionManager;
+
+	private int batchPropagation = TransactionTemplate.PROPAGATION_REQUIRES_NEW;
+
+	/**
+	 * @see org.openmrs.module.kenyacore.chore.AbstractChore#perform(java.io.PrintWriter)
+	 */
+	@Override
+	public void perform(final PrintWriter output) {
+		if (!initialize(output)) {
+			return;
+		}
+
+		// Make sure any pending changes are visible to the id queries
+		Context.flushSession();
+
+		Integer lastId = getCheckpoint();
+		if (lastId != null) {
+			output.println("Resuming from id " + lastId);
+		}
+
+		int batchSize = getBatchSize();
+		int processed = 0;
+		long started = System.currentTimeMillis();
+
+		ChoreProgress progress = ChoreMonitor.started(getId(), getTotal(lastId));
+
+		try {
+			while (true) {
+				final List<Integer> batch = getNextBatch(lastId, batchSize);
+				if (batch.isEmpty()) {
+					break;
+				}
+
+				final Integer batchLastId = batch.get(batch.size() - 1);
+				long batchStarted = System.currentTimeMillis();
+
+				getTransactionTemplate().execute(new TransactionCallbackWithoutResult() {
+					@Override
+					protected void doInTransactionWithoutResult(TransactionStatus status) {
+						processBatch(batch, output);
+						saveCheckpoint(batchLastId);
+					}
+				});
+
+				Context.flushSession();
+				Context.clearSession();
+
+				lastId = batchLastId;
+				processed += batch.size();
+
+				long batchTime = System.currentTimeMillis() - batchStarted;
+				progress.batchCompleted(batch.size(), batchTime, batchLastId);
+
+				String message = "Processed " + processed + " rows (batch of " + batch.size() + " in " + batchTime + "ms, " + Math.round(progress.getRate()) + " rows/sec)";
+				log.info(getId() + ": " + message);
+				output.println(message);
+				output.flush();
+
+				if (batch.size() < batchSize) {
+					break;
+				}
+			}
+
+			complete(output);
+
+			clearCheckpoint();
+		}
+		catch (RuntimeException ex) {
+			progress.failed(ex);
+			log.error(getId() + " failed after " + processed + " rows (last completed id " + lastId + ")", ex);
+			throw ex;
+		}
+
+		progress.completed();
+
+		output.println("Processed " + processed + " rows in " + (System.currentTimeMillis() - started) + "ms");
+	}
+
+	/**
+	 * Invoked before any batches are fetched
+	 * @param output the output
+	 * @return false if the chore has nothing to do
+	 */
+	protected boolean initialize(PrintWriter output) {
+		return true;
+	}
+
+	/**
+	 * Fetches the ids of the next batch of rows to process. Implementations should usually delegate to
+	 * {@link #fetchIds(String, Integer, int, java.util.Map)}
+	 * @param lastId the last id processed (null if no rows have been processed)
+	 * @param batchSize the maximum number of ids to return
+	 * @return the ids in ascending order
+	 */
+	protected abstract List<Integer> getNextBatch(Integer lastId, int batchSize);
+
+	/**
+	 * Processes a batch of rows. This is invoked inside a transaction.
+	 * @param ids the row ids
+	 * @param output the output
+	 */
+	protected abstract void processBatch(List<Integer> ids, PrintWriter output);
+
+	/**
+	 * Invoked after all batches have been processed
+	 * @param output the output
+	 */
+	protected void complete(PrintWriter output) {
+	}
+
+	/**
+	 * Gets the number of rows remaining to process, used to estimate time to completion. Implementations should usually
+	 * delegate to {@link #countRows(String, Integer, java.util.Map)}
+	 * @param lastId the last id processed (null if no rows have been processed)
+	 * @return the number of rows or null if unknown
+	 */
+	protected Long getTotal(Integer lastId) {
+		return null;
+	}
+
+	/**
+	 * Gets the number of rows to process in each batch
+	 * @return the batch size
+	 */
+	protected int getBatchSize() {
+		return DEFAULT_BATCH_SIZE;
+	}
+
+	/**
+	 * Helper method to fetch a page of ids. The query must select a single integer column, contain a condition of the
+	 * form "id > :lastId" and be ordered by that id. The limit clause is appended by this method.
+	 * @param query the SQL query
+	 * @param lastId the last id processed (null if no rows have been processed)
+	 * @param batchSize the maximum number of ids to return
+	 * @param substitutions any other query parameters
+	 * @return the ids
+	 */
+	protected List<Integer> fetchIds(String query, Integer lastId, int batchSize, Map<String, Object> substitutions) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		if (substitutions != null) {
+			params.putAll(substitutions);
+		}
+		params.put("lastId", lastId != null ? lastId : 0);
+
+		List<Object> rows = Context.getService(KenyaEmrService.class).executeSqlQuery(query + " limit " + batchSize, params);
+
+		List<Integer> ids = new ArrayList<Integer>();
+		for (Object row : rows) {
+			ids.add(((Number) row).intValue());
+		}
+		return ids;
+	}
+
+	/**
+	 * Helper method to count rows. The query must select a single count and contain a condition of the form
+	 * "id > :lastId".
+	 * @param query the SQL query
+	 * @param lastId the last id processed (null if no rows have been processed)
+	 * @param substitutions any other query parameters
+	 * @return the count
+	 */
+	protected Long countRows(String query, Integer lastId, Map<String, Object> substitutions) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		if (substitutions != null) {
+			params.putAll(substitutions);
+		}
+		params.put("lastId", lastId != null ? lastId : 0);
+
+		List<Object> rows = Context.getService(KenyaEmrService.class).executeSqlQuery(query, params);
+		return rows.isEmpty() || rows.get(0) == null ? null : ((Number) rows.get(0)).longValue();
+	}
+
+	/**
+	 * Gets the name of the global property used to store this chore's checkpoint
+	 * @return the property name
+	 */
+	protected String getCheckpointProperty() {
+		return getId() + CHECKPOINT_SUFFIX;
+	}
+
+	/**
+	 * Gets the last id of the last completed batch of a previous run
+	 * @return the id or null if there is no checkpoint
+	 */
+	protected Integer getCheckpoint() {
+		String value = Context.getAdministrationService().getGlobalProperty(getCheckpointProperty());
+		return StringUtils.isNotBlank(value) ? Integer.valueOf(value.trim()) : null;
+	}
+
+	/**
+	 * Saves the last id of a completed batch
+	 * @param lastId the id
+	 */
+	protected void saveCheckpoint(Integer lastId) {
+		AdministrationService adminService = Context.getAdministrationService();
+		GlobalProperty property = adminService.getGlobalPropertyObject(getCheckpointProperty());
+		if (property == null) {
+			property = new GlobalProperty(getCheckpointProperty(), null, "Last id processed by an incomplete run of this chore");
+		}
+		property.setPropertyValue(String.valueOf(lastId));
+		adminService.saveGlobalProperty(property);
+	}
+
+	/**
+	 * Removes the checkpoint once the chore has completed
+	 */
+	protected void clearCheckpoint() {
+		AdministrationService adminService = Context.getAdministrationService();
+		GlobalProperty property = adminService.getGlobalPropertyObject(getCheckpointProperty());
+		if (property != null) {
+			adminService.purgeGlobalProperty(property);
+		}
+	}
+
+	/**
+	 * Sets the propagation behaviour of batch transactions. Tests use PROPAGATION_REQUIRED so that batches run inside
+	 * the test transaction.
+	 * @param batchPropagation the propagation behaviour
+	 */
+	void setBatchPropagation(int batchPropagation) {
+		this.batchPropagation = batchPropagation;
+	}
+
+	/**
+	 * Gets a transaction template for each batch. Batches always run in a new transaction, even if the chore is
+	 * running inside one, so that each batch and its checkpoint are committed before the next batch starts.
+	 * @return the transaction template
+	 */
+	protected TransactionTemplate getTransactionTemplate() {
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		template.setPropagationBehavior(batchPropagation);
+		return template;
+	}
+}
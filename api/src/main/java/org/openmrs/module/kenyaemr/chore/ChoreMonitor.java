@@ -0,0 +1,107 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.chore;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of the progress of batched chores so that long running upgrades can be monitored
+ */
+public class ChoreMonitor {
+
+	protected static final Log log = LogFactory.getLog(ChoreMonitor.class);
+
+	private static final Map<String, ChoreProgress> progresses = new LinkedHashMap<String, ChoreProgress>();
+
+	/**
+	 * Records the start of a chore run
+	 * @param choreId the chore id
+	 * @param total the total number of rows to process (may be null if unknown)
+	 * @return the progress
+	 */
+	public static synchronized ChoreProgress started(String choreId, Long total) {
+		ChoreProgress progress = new ChoreProgress(choreId, total);
+		progresses.remove(choreId);
+		progresses.put(choreId, progress);
+		return progress;
+	}
+
+	/**
+	 * Gets the progress of the most recent run of a chore
+	 * @param choreId the chore id
+	 * @return the progress or null if chore hasn't run since startup
+	 */
+	public static synchronized ChoreProgress getProgress(String choreId) {
+		return progresses.get(choreId);
+	}
+
+	/**
+	 * Gets the progress of all chore runs since startup
+	 * @return the progresses
+	 */
+	public static synchronized List<ChoreProgress> getAllProgress() {
+		return new ArrayList<ChoreProgress>(progresses.values());
+	}
+
+	/**
+	 * Gets the checkpoints of chores which didn't complete. These are read by a query rather than the administration
+	 * service, as the system monitor calls this without an authenticated user.
+	 * @return the map of chore ids to last processed ids
+	 */
+	public static Map<String, String> getCheckpoints() {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("pattern", "%" + AbstractBatchedChore.CHECKPOINT_SUFFIX);
+
+		List<Object> rows = Context.getService(KenyaEmrService.class).executeSqlQuery("select property, property_value"
+				+ " from global_property where property like :pattern order by property", params);
+
+		Map<String, String> checkpoints = new LinkedHashMap<String, String>();
+		for (Object row : rows) {
+			Object[] values = (Object[]) row;
+			String property = (String) values[0];
+			if (property.endsWith(AbstractBatchedChore.CHECKPOINT_SUFFIX)) {
+				checkpoints.put(property.substring(0, property.length() - AbstractBatchedChore.CHECKPOINT_SUFFIX.length()), (String) values[1]);
+			}
+		}
+		return checkpoints;
+	}
+
+	/**
+	 * Gets all monitoring information suitable for JSON serialization. The runs are still returned if the checkpoints
+	 * can't be read.
+	 * @return the information
+	 */
+	public static Map<String, Object> getAllInformation() {
+		List<Map<String, Object>> runs = new ArrayList<Map<String, Object>>();
+		for (ChoreProgress progress : getAllProgress()) {
+			runs.add(progress.toMap());
+		}
+
+		Map<String, Object> info = new LinkedHashMap<String, Object>();
+		info.put("runs", runs);
+		try {
+			info.put("checkpoints", getCheckpoints());
+		}
+		catch (Exception ex) {
+			log.warn("Unable to read chore checkpoints", ex);
+			info.put("checkpoints", null);
+		}
+		return info;
+	}
+}
@@ -0,0 +1,150 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.chore;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Progress of a single run of a batched chore
+ */
+public class ChoreProgress {
+
+	public enum Status { RUNNING, COMPLETED, FAILED }
+
+	private final String choreId;
+
+	private final Date started = new Date();
+
+	private Date finished;
+
+	private Status status = Status.RUNNING;
+
+	private Long total;
+
+	private long processed;
+
+	private long batches;
+
+	private long lastBatchTime;
+
+	private Integer lastId;
+
+	private int errors;
+
+	private String lastError;
+
+	/**
+	 * Creates a new progress
+	 * @param choreId the chore id
+	 * @param total the total number of rows to process (may be null if unknown)
+	 */
+	public ChoreProgress(String choreId, Long total) {
+		this.choreId = choreId;
+		this.total = total;
+	}
+
+	/**
+	 * Records a completed batch
+	 * @param size the number of rows in the batch
+	 * @param time the time taken in milliseconds
+	 * @param lastId the last id in the batch
+	 */
+	public synchronized void batchCompleted(int size, long time, Integer lastId) {
+		this.processed += size;
+		this.batches++;
+		this.lastBatchTime = time;
+		this.lastId = lastId;
+	}
+
+	/**
+	 * Records a failure
+	 * @param ex the exception
+	 */
+	public synchronized void failed(Throwable ex) {
+		this.errors++;
+		this.lastError = ex.getClass().getSimpleName() + ": " + ex.getMessage();
+		this.status = Status.FAILED;
+		this.finished = new Date();
+	}
+
+	/**
+	 * Records completion
+	 */
+	public synchronized void completed() {
+		this.status = Status.COMPLETED;
+		this.finished = new Date();
+	}
+
+	/**
+	 * Gets the processing rate
+	 * @return the rate in rows per second
+	 */
+	public synchronized double getRate() {
+		long end = (finished != null) ? finished.getTime() : System.currentTimeMillis();
+		long elapsed = Math.max(end - started.getTime(), 1);
+		return (processed * 1000.0) / elapsed;
+	}
+
+	/**
+	 * Gets the estimated time to completion
+	 * @return the time in seconds or null if this can't be estimated
+	 */
+	public synchronized Long getEta() {
+		double rate = getRate();
+		if (status != Status.RUNNING || total == null || rate <= 0) {
+			return null;
+		}
+		return (long) (Math.max(total - processed, 0) / rate);
+	}
+
+	/**
+	 * Converts this progress to a map suitable for JSON serialization
+	 * @return the map
+	 */
+	public synchronized Map<String, Object> toMap() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("chore", choreId);
+		map.put("status", status.name());
+		map.put("started", started);
+		map.put("finished", finished);
+		map.put("processed", processed);
+		map.put("total", total);
+		map.put("batches", batches);
+		map.put("rate", Math.round(getRate() * 10) / 10.0);
+		map.put("eta", getEta());
+		map.put("lastBatchTime", lastBatchTime);
+		map.put("lastId", lastId);
+		map.put("errors", errors);
+		map.put("lastError", lastError);
+		return map;
+	}
+
+	public String getChoreId() {
+		return choreId;
+	}
+
+	public synchronized Status getStatus() {
+		return status;
+	}
+
+	public synchronized long getProcessed() {
+		return processed;
+	}
+
+	public synchronized Long getTotal() {
+		return total;
+	}
+
+	public synchronized Integer getLastId() {
+		return lastId;
+	}
+}
@@ -15,8 +15,8 @@ import org.openmrs.PatientIdentifier;
 import org.openmrs.PatientIdentifierType;
 import org.openmrs.PersonAttribute;
 import org.openmrs.PersonAttributeType;
+import org.openmrs.api.LocationService;
 import org.openmrs.api.PatientService;
-import org.openmrs.module.kenyacore.chore.AbstractChore;
 import org.openmrs.module.kenyacore.chore.Requires;
 import org.openmrs.module.kenyaemr.api.KenyaEmrService;
 import org.openmrs.module.kenyaemr.metadata.CommonMetadata;
@@ -25,8 +25,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.io.PrintWriter;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -35,7 +37,7 @@ import java.util.Set;
  */
 @Component("kenyaemr.chore.convertNationalIdAttributes")
 @Requires({FixMissingOpenmrsIdentifiers.class})
-public class ConvertNationalIdAttributes extends AbstractChore {
+public class ConvertNationalIdAttributes extends AbstractBatchedChore {
 
 	@Autowired
 	private KenyaEmrService kenyaEmrService;
@@ -43,26 +45,76 @@ public class ConvertNationalIdAttributes extends AbstractChore {
 	@Autowired
 	private PatientService patientService;
 
+	@Autowired
+	private LocationService locationService;
+
+	private PersonAttributeType nidPerAttrType;
+
+	private Integer nidPatIdTypeId;
+
+	private Integer defaultLocationId;
+
+	private Set<String> takenNidValues;
+
+	private int converted;
+
 	/**
-	 * @see org.openmrs.module.kenyacore.chore.AbstractChore#perform(java.io.PrintWriter)
+	 * @see AbstractBatchedChore#initialize(java.io.PrintWriter)
 	 */
 	@Override
-	public void perform(PrintWriter output) {
-		PersonAttributeType nidPerAttrType = MetadataUtils.possible(PersonAttributeType.class, "73d34479-2f9e-4de3-a5e6-1f79a17459bb");
+	protected boolean initialize(PrintWriter output) {
+		nidPerAttrType = MetadataUtils.possible(PersonAttributeType.class, "73d34479-2f9e-4de3-a5e6-1f79a17459bb");
 		if (nidPerAttrType == null) {
-			return; // Don't need to do anything as this must be a 13.3+ clean install
+			return false; // Don't need to do anything as this must be a 13.3+ clean install
 		}
 
+		// Batches run in their own transactions and sessions, so these are loaded by id in each batch
 		PatientIdentifierType nidPatIdType = MetadataUtils.existing(PatientIdentifierType.class, CommonMetadata._PatientIdentifierType.NATIONAL_ID);
 		Location defaultLocation = kenyaEmrService.getDefaultLocation();
+		nidPatIdTypeId = nidPatIdType.getPatientIdentifierTypeId();
+		defaultLocationId = defaultLocation != null ? defaultLocation.getLocationId() : null;
+		takenNidValues = initializeTakenNidValues(nidPatIdType);
+		converted = 0;
+		return true;
+	}
 
-		List<Patient> allPatients = patientService.getAllPatients();
+	/**
+	 * @see AbstractBatchedChore#getNextBatch(Integer, int)
+	 */
+	@Override
+	protected List<Integer> getNextBatch(Integer lastId, int batchSize) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("attrTypeId", nidPerAttrType.getPersonAttributeTypeId());
+
+		return fetchIds("select distinct pa.person_id from person_attribute pa"
+				+ " inner join patient p on p.patient_id = pa.person_id"
+				+ " where pa.person_attribute_type_id = :attrTypeId and pa.voided = 0 and p.voided = 0 and pa.person_id > :lastId"
+				+ " order by pa.person_id", lastId, batchSize, params);
+	}
 
-		Set<String> takenNidValues = initializeTakenNidValues(allPatients, nidPatIdType);
+	/**
+	 * @see AbstractBatchedChore#getTotal(Integer)
+	 */
+	@Override
+	protected Long getTotal(Integer lastId) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("attrTypeId", nidPerAttrType.getPersonAttributeTypeId());
 
-		int converted = 0;
+		return countRows("select count(distinct pa.person_id) from person_attribute pa"
+				+ " inner join patient p on p.patient_id = pa.person_id"
+				+ " where pa.person_attribute_type_id = :attrTypeId and pa.voided = 0 and p.voided = 0 and pa.person_id > :lastId", lastId, params);
+	}
 
-		for (Patient patient : allPatients) {
+	/**
+	 * @see AbstractBatchedChore#processBatch(java.util.List, java.io.PrintWriter)
+	 */
+	@Override
+	protected void processBatch(List<Integer> ids, PrintWriter output) {
+		PatientIdentifierType nidPatIdType = patientService.getPatientIdentifierType(nidPatIdTypeId);
+		Location defaultLocation = defaultLocationId != null ? locationService.getLocation(defaultLocationId) : null;
+
+		for (Integer patientId : ids) {
+			Patient patient = patientService.getPatient(patientId);
 			PatientIdentifier nidPatId = patient.getPatientIdentifier(nidPatIdType);
 			PersonAttribute nidPerAttr = patient.getAttribute(nidPerAttrType);
 
@@ -85,7 +137,13 @@ public class ConvertNationalIdAttributes extends AbstractChore {
 				patientService.savePatient(patient);
 			}
 		}
+	}
 
+	/**
+	 * @see AbstractBatchedChore#complete(java.io.PrintWriter)
+	 */
+	@Override
+	protected void complete(PrintWriter output) {
 		output.println("Converted " + converted + " national ID attributes to identifiers");
 	}
 
@@ -100,22 +158,25 @@ public class ConvertNationalIdAttributes extends AbstractChore {
 	}
 
 	/**
-	 * Fetch all National ID identifiers that are already in use so that no attempt is made to allocate them to another
-	 * patient.
+	 * Fetch all National ID identifiers that are already in use by non-voided patients so that no attempt is made to
+	 * allocate them to another patient.
 	 *
-	 * @param allPatients  all patients in the database
 	 * @param nidPatIdType the {@link org.openmrs.PatientIdentifierType} for National ID patient identifiers
 	 *
 	 * @return all National ID identifies that are already in use
 	 */
-	protected Set<String> initializeTakenNidValues(List<Patient> allPatients, PatientIdentifierType nidPatIdType) {
+	protected Set<String> initializeTakenNidValues(PatientIdentifierType nidPatIdType) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("idTypeId", nidPatIdType.getPatientIdentifierTypeId());
+
+		List<Object> rows = kenyaEmrService.executeSqlQuery("select pi.identifier from patient_identifier pi"
+				+ " inner join patient p on p.patient_id = pi.patient_id"
+				+ " where pi.identifier_type = :idTypeId and pi.voided = 0 and p.voided = 0", params);
+
 		Set<String> takenNidValues = new HashSet<String>();
-		for (Patient patient : allPatients) {
-			PatientIdentifier nidPatId = patient.getPatientIdentifier(nidPatIdType);
-			if (nidPatId != null) {
-				takenNidValues.add(nidPatId.getIdentifier());
-			}
+		for (Object row : rows) {
+			takenNidValues.add((String) row);
 		}
 		return takenNidValues;
 	}
-}
\ No newline at end of file
+}
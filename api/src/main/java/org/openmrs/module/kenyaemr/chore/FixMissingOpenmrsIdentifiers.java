@@ -13,10 +13,10 @@ import org.openmrs.Location;
 import org.openmrs.Patient;
 import org.openmrs.PatientIdentifier;
 import org.openmrs.PatientIdentifierType;
+import org.openmrs.api.LocationService;
 import org.openmrs.api.PatientService;
 import org.openmrs.module.idgen.IdentifierSource;
 import org.openmrs.module.idgen.service.IdentifierSourceService;
-import org.openmrs.module.kenyacore.chore.AbstractChore;
 import org.openmrs.module.kenyacore.chore.Requires;
 import org.openmrs.module.kenyaemr.api.KenyaEmrService;
 import org.openmrs.module.kenyaemr.metadata.CommonMetadata;
@@ -25,9 +25,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.io.PrintWriter;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Prior to 13.3.1, the EditPatientFragmentController appears to have sometimes saved a patient without properly saving
@@ -35,7 +34,7 @@ import java.util.Map;
  */
 @Component("kenyaemr.chore.fixMissingOpenmrsIdentifiers")
 @Requires({ VoidDuplicateIdentifiers.class })
-public class FixMissingOpenmrsIdentifiers extends AbstractChore {
+public class FixMissingOpenmrsIdentifiers extends AbstractBatchedChore {
 
 	@Autowired
 	private KenyaEmrService kenyaEmrService;
@@ -43,47 +42,90 @@ public class FixMissingOpenmrsIdentifiers extends AbstractChore {
 	@Autowired
 	private PatientService patientService;
 
+	@Autowired
+	private LocationService locationService;
+
 	@Autowired
 	private IdentifierSourceService idgenService;
 
+	private Integer defaultLocationId;
+
+	private Integer openmrsIdTypeId;
+
+	private Integer openmrsIdSourceId;
+
+	private int fixedMissing, fixedNoPreferred;
+
 	/**
-	 * @see org.openmrs.module.kenyacore.chore.AbstractChore#perform(java.io.PrintWriter)
+	 * @see AbstractBatchedChore#initialize(java.io.PrintWriter)
 	 */
 	@Override
-	public void perform(PrintWriter output) {
+	protected boolean initialize(PrintWriter output) {
 		Location defaultLocation = kenyaEmrService.getDefaultLocation();
 
 		if (defaultLocation == null) {
-			return; // Database is obviously clean as this hasn't yet been configured
+			return false; // Database is obviously clean as this hasn't yet been configured
 		}
 
+		// Batches run in their own transactions and sessions, so these are loaded by id in each batch
 		PatientIdentifierType openmrsIdType = MetadataUtils.existing(PatientIdentifierType.class, CommonMetadata._PatientIdentifierType.OPENMRS_ID);
-		IdentifierSource openmrsIdSource = idgenService.getAutoGenerationOption(openmrsIdType).getSource();
+		defaultLocationId = defaultLocation.getLocationId();
+		openmrsIdTypeId = openmrsIdType.getPatientIdentifierTypeId();
+		openmrsIdSourceId = idgenService.getAutoGenerationOption(openmrsIdType).getSource().getId();
+		fixedMissing = 0;
+		fixedNoPreferred = 0;
+		return true;
+	}
 
-		List<Patient> allPatients = patientService.getAllPatients();
-		Map<Patient, PatientIdentifier> patientsWithOpenmrsID = new HashMap<Patient, PatientIdentifier>();
+	/**
+	 * @see AbstractBatchedChore#getNextBatch(Integer, int)
+	 */
+	@Override
+	protected List<Integer> getNextBatch(Integer lastId, int batchSize) {
+		return fetchIds("select patient_id from patient where voided = 0 and patient_id > :lastId order by patient_id", lastId, batchSize, null);
+	}
 
-		for (Patient patient : allPatients) {
-			PatientIdentifier openmrsID = patient.getPatientIdentifier(openmrsIdType);
-			if (openmrsID != null) {
-				patientsWithOpenmrsID.put(patient, patient.getPatientIdentifier(openmrsIdType));
+	/**
+	 * @see AbstractBatchedChore#getTotal(Integer)
+	 */
+	@Override
+	protected Long getTotal(Integer lastId) {
+		return countRows("select count(*) from patient where voided = 0 and patient_id > :lastId", lastId, null);
+	}
+
+	/**
+	 * @see AbstractBatchedChore#processBatch(java.util.List, java.io.PrintWriter)
+	 */
+	@Override
+	protected void processBatch(List<Integer> ids, PrintWriter output) {
+		Location defaultLocation = locationService.getLocation(defaultLocationId);
+		PatientIdentifierType openmrsIdType = patientService.getPatientIdentifierType(openmrsIdTypeId);
+		IdentifierSource openmrsIdSource = idgenService.getIdentifierSource(openmrsIdSourceId);
+
+		List<Patient> patients = new ArrayList<Patient>();
+		int missingOpenmrsIDs = 0;
+
+		for (Integer patientId : ids) {
+			Patient patient = patientService.getPatient(patientId);
+			if (patient.getPatientIdentifier(openmrsIdType) == null) {
+				missingOpenmrsIDs++;
 			}
+			patients.add(patient);
 		}
 
-		int missingOpenmrsIDs = allPatients.size() - patientsWithOpenmrsID.size();
-
 		// Batch generation of identifiers is a lot faster than one-by-one generation
-		List<String> generatedIds = idgenService.generateIdentifiers(openmrsIdSource, missingOpenmrsIDs, FixMissingOpenmrsIdentifiers.class.getSimpleName());
+		List<String> generatedIds = missingOpenmrsIDs > 0
+				? idgenService.generateIdentifiers(openmrsIdSource, missingOpenmrsIDs, FixMissingOpenmrsIdentifiers.class.getSimpleName())
+				: new ArrayList<String>();
+		int generatedIndex = 0;
 
-		int fixedMissing = 0, fixedNoPreferred = 0;
-
-		for (Patient patient : allPatients) {
-			PatientIdentifier openmrsID = patientsWithOpenmrsID.get(patient);
+		for (Patient patient : patients) {
+			PatientIdentifier openmrsID = patient.getPatientIdentifier(openmrsIdType);
 			boolean needsSaved = false;
 
 			// Generate new OpenMRS ID if needed
 			if (openmrsID == null) {
-				String generated = generatedIds.get(fixedMissing);
+				String generated = generatedIds.get(generatedIndex++);
 				openmrsID = new PatientIdentifier(generated, openmrsIdType, defaultLocation);
 				patient.addIdentifier(openmrsID);
 
@@ -103,7 +145,13 @@ public class FixMissingOpenmrsIdentifiers extends AbstractChore {
 				patientService.savePatientIdentifier(openmrsID);
 			}
 		}
+	}
 
+	/**
+	 * @see AbstractBatchedChore#complete(java.io.PrintWriter)
+	 */
+	@Override
+	protected void complete(PrintWriter output) {
 		output.println("Fixed " + fixedMissing + " missing OpenMRS IDs");
 		output.println("Fixed " + fixedNoPreferred + " patients with no preferred ID");
 	}
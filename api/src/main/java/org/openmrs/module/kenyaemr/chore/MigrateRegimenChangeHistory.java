@@ -11,7 +11,6 @@ package org.openmrs.module.kenyaemr.chore;
 
 import org.apache.commons.lang.ObjectUtils;
 import org.apache.commons.lang.time.StopWatch;
-import org.openmrs.Cohort;
 import org.openmrs.Concept;
 import org.openmrs.DrugOrder;
 import org.openmrs.Encounter;
@@ -20,14 +19,12 @@ import org.openmrs.Form;
 import org.openmrs.Obs;
 import org.openmrs.Patient;
 import org.openmrs.Person;
-import org.openmrs.User;
 import org.openmrs.api.AdministrationService;
 import org.openmrs.api.ConceptService;
 import org.openmrs.api.EncounterService;
 import org.openmrs.api.FormService;
 import org.openmrs.api.PatientService;
 import org.openmrs.api.context.Context;
-import org.openmrs.module.kenyacore.chore.AbstractChore;
 import org.openmrs.module.kenyaemr.metadata.CommonMetadata;
 import org.openmrs.module.kenyaemr.regimen.DrugReference;
 import org.openmrs.module.kenyaemr.regimen.RegimenChange;
@@ -63,7 +60,7 @@ import java.util.Set;
  * handles migration of orders to populate model for DrugRegimenHistory
  */
 @Component("kenyaemr.chore.migrateRegimenChangeHistory")
-public class MigrateRegimenChangeHistory extends AbstractChore {
+public class MigrateRegimenChangeHistory extends AbstractBatchedChore {
 
     private Map<String, Integer> masterSetConcepts = new LinkedHashMap<String, Integer>();
 
@@ -71,35 +68,64 @@ public class MigrateRegimenChangeHistory extends AbstractChore {
 
     private Map<String, List<RegimenDefinitionGroup>> regimenGroups = new LinkedHashMap<String, List<RegimenDefinitionGroup>>();
 
+    private Integer encTypeId;
+
+    private Integer formId;
+
+    /**
+     * @see AbstractBatchedChore#initialize(PrintWriter)
+     */
+    @Override
+    protected boolean initialize(PrintWriter out) {
+        EncounterService encounterService = Context.getEncounterService();
+        FormService formService = Context.getFormService();
+
+        encTypeId = encounterService.getEncounterTypeByUuid(CommonMetadata._EncounterType.DRUG_REGIMEN_EDITOR).getEncounterTypeId();
+        formId = formService.getFormByUuid(CommonMetadata._Form.DRUG_REGIMEN_EDITOR).getFormId();
+
+        refresh();
+        return true;
+    }
+
     /**
-     * @see AbstractChore#perform(PrintWriter)
+     * @see AbstractBatchedChore#getNextBatch(Integer, int)
      */
+    @Override
+    protected List<Integer> getNextBatch(Integer lastId, int batchSize) {
+        return fetchIds("select distinct o.patient_id from orders o inner join drug_order d on d.order_id = o.order_id" +
+                " where o.voided = 0 and o.patient_id > :lastId order by o.patient_id", lastId, batchSize, null);
+    }
 
+    /**
+     * @see AbstractBatchedChore#getTotal(Integer)
+     */
     @Override
-    public void perform(PrintWriter out) {
+    protected Long getTotal(Integer lastId) {
+        return countRows("select count(distinct o.patient_id) from orders o inner join drug_order d on d.order_id = o.order_id" +
+                " where o.voided = 0 and o.patient_id > :lastId", lastId, null);
+    }
 
+    /**
+     * @see AbstractBatchedChore#processBatch(List, PrintWriter)
+     */
+    @Override
+    protected void processBatch(List<Integer> ids, PrintWriter out) {
         ConceptService conceptService = Context.getConceptService();
-        Concept ARVRegimenConcept = conceptService.getConcept(1085);
-        Concept TBRegimenConcept = conceptService.getConcept(160021);
         PatientService patientService = Context.getPatientService();
-        EncounterService encounterService = Context.getEncounterService();
-        FormService formService = Context.getFormService();
-        User defaultUser = Context.getUserService().getUser(1);
-
-        EncounterType encType = encounterService.getEncounterTypeByUuid(CommonMetadata._EncounterType.DRUG_REGIMEN_EDITOR);
-        Form form = formService.getFormByUuid(CommonMetadata._Form.DRUG_REGIMEN_EDITOR);
 
         int tbRegimenConceptId = 160021;
         int arvRegimenConceptId = 1085;
 
-        refresh();
-
-        int counter=0;
+        // Session is cleared between batches so these are loaded again for each batch
+        Concept arvRegimenConcept = conceptService.getConcept(arvRegimenConceptId);
+        Concept tbRegimenConcept = conceptService.getConcept(tbRegimenConceptId);
+        EncounterType encType = Context.getEncounterService().getEncounterType(encTypeId);
+        Form form = Context.getFormService().getForm(formId);
 
-        for (Integer patientId : getPatientsWithOrders()) {
+        for (Integer patientId : ids) {
             Patient patient = patientService.getPatient(patientId);
-            RegimenChangeHistory tbRegimenHistory = RegimenChangeHistory.forPatient(patient, TBRegimenConcept);
-            RegimenChangeHistory hivRegimenHistory = RegimenChangeHistory.forPatient(patient, ARVRegimenConcept);
+            RegimenChangeHistory tbRegimenHistory = RegimenChangeHistory.forPatient(patient, tbRegimenConcept);
+            RegimenChangeHistory hivRegimenHistory = RegimenChangeHistory.forPatient(patient, arvRegimenConcept);
 
             List<RegimenChange> tbRegimenChanges = tbRegimenHistory.getChanges();
             List<RegimenChange> arvRegimenChanges = hivRegimenHistory.getChanges();
@@ -114,27 +140,22 @@ public class MigrateRegimenChangeHistory extends AbstractChore {
 
             if (arvRegimenChanges.size() > 0) {
                 processRegimenChanges(patient, arvRegimenConceptId, arvRegimenChanges, form, encType);
-
             }
-            counter++;
-
-            if ((counter%400)==0) {
-                Context.flushSession();
-                Context.clearSession();
-                counter=0;
-
-            }
-
         }
+    }
+
+    /**
+     * @see AbstractBatchedChore#complete(PrintWriter)
+     */
+    @Override
+    protected void complete(PrintWriter out) {
         out.println("Completed migration for drug regimen history");
         out.println("Voiding encounters with null regimen....");
         voidAllEncountersWithNullRegimen();
         discontinueAllActiveOrders();
         out.println("Successfully completed all drug regimen migration operations");
-
     }
 
-
     private void processRegimenChanges(Person patient, int masterSet, List<RegimenChange> changes, Form form, EncounterType encounterType) {
         PatientService patientService = Context.getPatientService();
         String program = masterSet == 1085 ? "ARV" : "TB";
@@ -365,11 +386,6 @@ public class MigrateRegimenChangeHistory extends AbstractChore {
         return matches;
     }
 
-    protected Set<Integer> getPatientsWithOrders() {
-        Cohort patientsHavingDrugOrder = Context.getPatientSetService().getPatientsHavingDrugOrder(null, null, null, null, null, null, null, null);
-        return patientsHavingDrugOrder.getMemberIds();
-    }
-
     protected void voidAllEncountersWithNullRegimen(){
 
         String encountersWithNullRegimenQry = "update encounter e inner join \n" +
@@ -9,26 +9,19 @@
  */
 package org.openmrs.module.kenyaemr.chore;
 
-import org.openmrs.Cohort;
 import org.openmrs.Concept;
 import org.openmrs.Encounter;
 import org.openmrs.EncounterType;
 import org.openmrs.Form;
 import org.openmrs.Obs;
-import org.openmrs.Order;
 import org.openmrs.Patient;
 import org.openmrs.api.ConceptService;
 import org.openmrs.api.EncounterService;
-import org.openmrs.api.FormService;
-import org.openmrs.api.OrderService;
 import org.openmrs.api.PatientService;
 import org.openmrs.api.context.Context;
-import org.openmrs.module.kenyacore.chore.AbstractChore;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
 import org.openmrs.module.kenyaemr.metadata.CommonMetadata;
 import org.openmrs.module.kenyaemr.util.EmrUtils;
-import org.openmrs.module.reporting.cohort.definition.SqlCohortDefinition;
-import org.openmrs.module.reporting.cohort.definition.service.CohortDefinitionService;
-import org.openmrs.module.reporting.evaluation.EvaluationException;
 import org.springframework.stereotype.Component;
 
 import java.io.PrintWriter;
@@ -43,55 +36,64 @@ import java.util.Set;
  * updates reason and date regimen stopped for migrated orders
  */
 @Component("kenyaemr.chore.UpdateRegimenChangeReasonAndDate")
-public class UpdateRegimenChangeReasonAndDate extends AbstractChore {
+public class UpdateRegimenChangeReasonAndDate extends AbstractBatchedChore {
+
+    private static final String REASON_REGIMEN_STOPPED_CODED = "1252AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
+    private static final String DATE_REGIMEN_STOPPED = "1191AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
+    private static final String REASON_REGIMEN_STOPPED_NON_CODED = "5622AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
+
+    private Integer encTypeId;
+
+    private Integer formId;
 
     /**
-     * @see AbstractChore#perform(PrintWriter)
+     * @see AbstractBatchedChore#initialize(PrintWriter)
      */
+    @Override
+    protected boolean initialize(PrintWriter out) {
+        encTypeId = Context.getEncounterService().getEncounterTypeByUuid(CommonMetadata._EncounterType.DRUG_REGIMEN_EDITOR).getEncounterTypeId();
+        formId = Context.getFormService().getFormByUuid(CommonMetadata._Form.DRUG_REGIMEN_EDITOR).getFormId();
+        return true;
+    }
 
+    /**
+     * @see AbstractBatchedChore#getNextBatch(Integer, int)
+     */
+    @Override
+    protected List<Integer> getNextBatch(Integer lastId, int batchSize) {
+        return fetchIds("select distinct patient_id from orders where date_stopped is not null and voided = 0" +
+                " and patient_id > :lastId order by patient_id", lastId, batchSize, null);
+    }
+
+    /**
+     * @see AbstractBatchedChore#getTotal(Integer)
+     */
     @Override
-    public void perform(PrintWriter out) {
+    protected Long getTotal(Integer lastId) {
+        return countRows("select count(distinct patient_id) from orders where date_stopped is not null and voided = 0" +
+                " and patient_id > :lastId", lastId, null);
+    }
 
+    /**
+     * @see AbstractBatchedChore#processBatch(List, PrintWriter)
+     */
+    @Override
+    protected void processBatch(List<Integer> ids, PrintWriter out) {
         ConceptService conceptService = Context.getConceptService();
         PatientService patientService = Context.getPatientService();
         EncounterService encounterService = Context.getEncounterService();
-        FormService formService = Context.getFormService();
-        OrderService orderService = Context.getOrderService();
-        String REASON_REGIMEN_STOPPED_CODED = "1252AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
-        String DATE_REGIMEN_STOPPED = "1191AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
-        String REASON_REGIMEN_STOPPED_NON_CODED = "5622AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
-
 
+        EncounterType encType = encounterService.getEncounterType(encTypeId);
+        Form form = Context.getFormService().getForm(formId);
 
-
-        EncounterType encType = encounterService.getEncounterTypeByUuid(CommonMetadata._EncounterType.DRUG_REGIMEN_EDITOR);
-        Form form = formService.getFormByUuid(CommonMetadata._Form.DRUG_REGIMEN_EDITOR);
-
-
-        Map<Integer, Set<RegimenChangeReason>> records = new HashMap<Integer, Set<RegimenChangeReason>>();
-        for (Integer orderId : getDiscontinuedOrders().getMemberIds()) {
-            Order o = orderService.getOrder(orderId);
-            Integer patientId = orderService.getOrder(orderId).getPatient().getPatientId();
-            if (records.get(patientId) != null) {
-                records.get(patientId).add(new RegimenChangeReason(o.getPatient().getPatientId(), o.getDateActivated(), o.getDateStopped(), o.getOrderReason(), o.getOrderReasonNonCoded()));
-            } else {
-                Set<RegimenChangeReason> r = new HashSet<RegimenChangeReason>();
-                RegimenChangeReason cr = new RegimenChangeReason(o.getPatient().getPatientId(), o.getDateActivated(), o.getDateStopped(), o.getOrderReason(), o.getOrderReasonNonCoded());
-                r.add(cr);
-                records.put(patientId, r);
-            }
-        }
-
-
-        int counter = 0;
-        for (Map.Entry<Integer, Set<RegimenChangeReason>> entry : records.entrySet()) {
+        for (Map.Entry<Integer, Set<RegimenChangeReason>> entry : getDiscontinuedOrders(ids).entrySet()) {
 
             Patient p = patientService.getPatient(entry.getKey());
             Set<RegimenChangeReason> changeReasons = entry.getValue();
             List<Encounter> encounters = EmrUtils.AllEncounters(p, encType, form);
             Map<Date, Encounter> encMap = new HashMap<Date, Encounter>();
             for (Encounter e : encounters) {
-                encMap.put(e.getEncounterDatetime(), e);
+                encMap.put(new Date(e.getEncounterDatetime().getTime()), e);
             }
 
             for (RegimenChangeReason r : changeReasons) {
@@ -122,31 +124,52 @@ public class UpdateRegimenChangeReasonAndDate extends AbstractChore {
                    encounterService.saveEncounter(encounter);
                 }
             }
-            counter++;
-
-            if ((counter%500)==0) {
-                Context.flushSession();
-                Context.clearSession();
-                counter=0;
-            }
         }
+    }
 
+    /**
+     * @see AbstractBatchedChore#complete(PrintWriter)
+     */
+    @Override
+    protected void complete(PrintWriter out) {
         out.println("Completed updating migrated orders with reason for regimen change");
-
     }
 
+    /**
+     * Fetches the discontinued orders of the given patients with a single query rather than loading each order
+     * @param patientIds the patient ids
+     * @return the regimen change reasons by patient id
+     */
+    private Map<Integer, Set<RegimenChangeReason>> getDiscontinuedOrders(List<Integer> patientIds) {
+        String sqlQuery = "select patient_id, date_activated, date_stopped, order_reason, order_reason_non_coded from orders" +
+                " where date_stopped is not null and voided = 0 and patient_id in (:patientIds)";
+
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("patientIds", patientIds);
+
+        ConceptService conceptService = Context.getConceptService();
+        Map<Integer, Set<RegimenChangeReason>> records = new HashMap<Integer, Set<RegimenChangeReason>>();
+
+        for (Object row : Context.getService(KenyaEmrService.class).executeSqlQuery(sqlQuery, params)) {
+            Object[] values = (Object[]) row;
+            Integer patientId = ((Number) values[0]).intValue();
+            Date dateActivated = values[1] != null ? new Date(((Date) values[1]).getTime()) : null;
+            Date dateStopped = values[2] != null ? new Date(((Date) values[2]).getTime()) : null;
+            Concept reasonCoded = values[3] != null ? conceptService.getConcept(((Number) values[3]).intValue()) : null;
+            String reasonNonCoded = (String) values[4];
 
+            if (dateActivated == null) {
+                continue;
+            }
 
-    private Cohort getDiscontinuedOrders() {
-        String sqlQuery = "select order_id from orders where date_stopped is not null and voided=0;";
-        Cohort cohort = null;
-        SqlCohortDefinition cohortDefinition = new SqlCohortDefinition(sqlQuery);
-        try {
-            cohort = Context.getService(CohortDefinitionService.class).evaluate(cohortDefinition, null);
-        } catch (EvaluationException e) {
-            e.printStackTrace();
+            Set<RegimenChangeReason> r = records.get(patientId);
+            if (r == null) {
+                r = new HashSet<RegimenChangeReason>();
+                records.put(patientId, r);
+            }
+            r.add(new RegimenChangeReason(patientId, dateActivated, dateStopped, reasonCoded, reasonNonCoded));
         }
-        return cohort;
+        return records;
     }
 
     class RegimenChangeReason {
@@ -0,0 +1,61 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.event;
+
+import org.openmrs.Encounter;
+import org.openmrs.module.kenyaemr.attendance.AttendanceTracker;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Refreshes the attendance state of the patient of each saved encounter
+ */
+@Component
+public class AttendanceStateHandler implements EncounterEventHandler {
+
+	public static final String HANDLER_ID = "kenyaemr.attendanceState";
+
+	@Autowired
+	private AttendanceTracker tracker;
+
+	/**
+	 * @see EncounterEventHandler#getId()
+	 */
+	@Override
+	public String getId() {
+		return HANDLER_ID;
+	}
+
+	/**
+	 * @see EncounterEventHandler#handles(org.openmrs.Encounter)
+	 */
+	@Override
+	public boolean handles(Encounter encounter) {
+		return encounter.getPatient() != null;
+	}
+
+	/**
+	 * @see EncounterEventHandler#getIdempotencyKey(org.openmrs.Encounter)
+	 */
+	@Override
+	public String getIdempotencyKey(Encounter encounter) {
+		// Every save of the encounter may change the state, and refreshing is idempotent. Completed events are purged
+		// by each rebuild of the attendance states.
+		return getId() + ":" + encounter.getUuid() + ":" + System.currentTimeMillis();
+	}
+
+	/**
+	 * @see EncounterEventHandler#handle(org.openmrs.Encounter)
+	 */
+	@Override
+	public void handle(Encounter encounter) {
+		tracker.refresh(encounter.getPatient().getPatientId());
+	}
+}
@@ -7,14 +7,13 @@
  * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
  * graphic logo is a trademark of OpenMRS Inc.
  */
-package org.openmrs.module.kenyaemr.advice;
+package org.openmrs.module.kenyaemr.event;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.Concept;
 import org.openmrs.Encounter;
-import org.openmrs.GlobalProperty;
 import org.openmrs.Location;
 import org.openmrs.Obs;
 import org.openmrs.Patient;
@@ -25,16 +24,13 @@ import org.openmrs.PersonName;
 import org.openmrs.Relationship;
 import org.openmrs.RelationshipType;
 import org.openmrs.api.ConceptService;
-import org.openmrs.api.EncounterService;
 import org.openmrs.api.ObsService;
 import org.openmrs.api.PersonService;
 import org.openmrs.api.context.Context;
-import org.openmrs.module.idgen.service.IdentifierSourceService;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
 import org.openmrs.module.metadatadeploy.MetadataUtils;
-import org.openmrs.util.PrivilegeConstants;
-import org.springframework.aop.AfterReturningAdvice;
+import org.springframework.stereotype.Component;
 
-import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
@@ -42,76 +38,119 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-public class MCHMSDeliveryFormProcessor implements AfterReturningAdvice {
+/**
+ * Registers the babies recorded on a MCH delivery form as patients, related to the mother
+ */
+@Component
+public class DeliveryBabyRegistrationHandler implements EncounterEventHandler {
 
     private Log log = LogFactory.getLog(this.getClass());
     public static final String DELIVERY_FORMUUID = "496c7cc3-0eea-4e84-a04c-2292949e2f7f";
     public static final String OPENMRS_ID = "dfacd928-0370-4315-99d7-6ec1c9f7ae76";
+    public static final String PARENT_CHILD_RELATIONSHIP_TYPE = "8d91a210-c2cc-11de-8d13-0010c6dffd0f";
+
+    /**
+     * @see EncounterEventHandler#getId()
+     */
     @Override
-    public void afterReturning(Object returnValue, Method method, Object[] args, Object target) throws Throwable {
+    public String getId() {
+        return "kenyaemr.deliveryBabyRegistration";
+    }
+
+    /**
+     * @see EncounterEventHandler#handles(org.openmrs.Encounter)
+     */
+    @Override
+    public boolean handles(Encounter encounter) {
+        return encounter.getForm() != null && encounter.getForm().getUuid().equals(DELIVERY_FORMUUID);      //EncounterType 15 MCH
+    }
+
+    /**
+     * @see EncounterEventHandler#getIdempotencyKey(org.openmrs.Encounter)
+     */
+    @Override
+    public String getIdempotencyKey(Encounter encounter) {
+        return getId() + ":" + encounter.getUuid();
+    }
+
+    /**
+     * @see EncounterEventHandler#handle(org.openmrs.Encounter)
+     */
+    @Override
+    public void handle(Encounter enc) {
 
         String deliveryOutcomeGroupingConcept = "162588AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
-        EncounterService encounterService = Context.getEncounterService();
         ObsService obsService = Context.getObsService();
         ConceptService conceptService = Context.getConceptService();
         PersonService personService = Context.getPersonService();
-        if (method.getName().equals("saveEncounter")) {
-            Encounter enc = (Encounter) args[0];
-
-            if(enc != null && enc.getForm() != null && enc.getForm().getUuid().equals(DELIVERY_FORMUUID)) {      //EncounterType 15 MCH
-                boolean errorOccured = false;
-                Person parent = personService.getPerson(enc.getPatient().getPersonId());
-                // construct object for each baby and process
-                List<Obs> obs = obsService.getObservations(
-                        Arrays.asList(personService.getPerson(enc.getPatient().getPersonId())),
-                        Arrays.asList(enc),
-                        Arrays.asList(conceptService.getConceptByUuid(deliveryOutcomeGroupingConcept)),
-                        null,
-                        null,
-                        null,
-                        Arrays.asList("obsId"),
-                        null,
-                        null,
-                        null,
-                        null,
-                        false
-                );
-                for(Obs o: obs) {
-                    Patient baby = extractBabyRegistrationDetails(o.getGroupMembers());
-                    if (baby != null) {
-
-                        baby.setBirthdate(o.getObsDatetime());
-                        // Make sure everyone gets an OpenMRS ID
-                        PatientIdentifierType openmrsIdType = MetadataUtils.existing(PatientIdentifierType.class, OPENMRS_ID);
-                        PatientIdentifier openmrsId = baby.getPatientIdentifier(openmrsIdType);
-
-                        if (openmrsId == null) {
-                            String generated = Context.getService(IdentifierSourceService.class).generateIdentifier(openmrsIdType, "Registration");
-                            openmrsId = new PatientIdentifier(generated, openmrsIdType, getDefaultLocation());
-                            baby.addIdentifier(openmrsId);
-
-                            if (!baby.getPatientIdentifier().isPreferred()) {
-                                openmrsId.setPreferred(true);
-                            }
-                        }
-                        try {
-
-                           baby = Context.getPatientService().savePatient(baby);
-                           addRelationship(parent, baby);
-//                            System.out.println("Name: " + baby.getNames());
-//                            System.out.println("Dobb: " + baby.getBirthdate());
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                            errorOccured = true;
-                        }
+
+        Person parent = personService.getPerson(enc.getPatient().getPersonId());
+        // construct object for each baby and process
+        List<Obs> obs = obsService.getObservations(
+                Arrays.asList(parent),
+                Arrays.asList(enc),
+                Arrays.asList(conceptService.getConceptByUuid(deliveryOutcomeGroupingConcept)),
+                null,
+                null,
+                null,
+                Arrays.asList("obsId"),
+                null,
+                null,
+                null,
+                null,
+                false
+        );
+        for(Obs o: obs) {
+            Patient baby = extractBabyRegistrationDetails(o.getGroupMembers());
+            if (baby != null) {
+
+                baby.setBirthdate(o.getObsDatetime());
+
+                // Skip babies registered by a previous attempt
+                if (isRegistered(parent, baby)) {
+                    continue;
+                }
+
+                // Make sure everyone gets an OpenMRS ID
+                PatientIdentifierType openmrsIdType = MetadataUtils.existing(PatientIdentifierType.class, OPENMRS_ID);
+                PatientIdentifier openmrsId = baby.getPatientIdentifier(openmrsIdType);
+
+                if (openmrsId == null) {
+                    String generated = Context.getService(KenyaEmrService.class).getNextOpenmrsIdentifier("Registration");
+                    openmrsId = new PatientIdentifier(generated, openmrsIdType, getDefaultLocation());
+                    baby.addIdentifier(openmrsId);
+
+                    if (!baby.getPatientIdentifier().isPreferred()) {
+                        openmrsId.setPreferred(true);
                     }
                 }
 
+                baby = Context.getPatientService().savePatient(baby);
+                addRelationship(parent, baby);
+                log.info("Registered baby #" + baby.getPatientId() + " from delivery encounter #" + enc.getEncounterId());
             }
         }
+    }
 
-   }
+    /**
+     * Checks whether the parent already has a child with the same name and birth date as the given baby
+     * @param parent the parent
+     * @param baby the baby
+     * @return true if the baby has been registered
+     */
+    private boolean isRegistered(Person parent, Patient baby) {
+        PersonService personService = Context.getPersonService();
+        RelationshipType rType = personService.getRelationshipTypeByUuid(PARENT_CHILD_RELATIONSHIP_TYPE);
 
+        for (Relationship rel : personService.getRelationships(parent, null, rType)) {
+            Person child = rel.getPersonB();
+            if (child.getBirthdate() != null && child.getBirthdate().getTime() == baby.getBirthdate().getTime()
+                    && child.getPersonName() != null && child.getPersonName().getFullName().equals(baby.getPersonName().getFullName())) {
+                return true;
+            }
+        }
+        return false;
+    }
 
     private Patient fillBabyName(String fullName, Patient patient) {
         if (fullName != null && !fullName.equals("")) {
@@ -192,7 +231,7 @@ public class MCHMSDeliveryFormProcessor implements AfterReturningAdvice {
 +----------------------+--------------------------------------+------------+--------------+
 */
         PersonService personService = Context.getPersonService();
-        RelationshipType rType = personService.getRelationshipTypeByUuid("8d91a210-c2cc-11de-8d13-0010c6dffd0f");
+        RelationshipType rType = personService.getRelationshipTypeByUuid(PARENT_CHILD_RELATIONSHIP_TYPE);
 
         Relationship rel = new Relationship();
         rel.setRelationshipType(rType);
@@ -203,19 +242,9 @@ public class MCHMSDeliveryFormProcessor implements AfterReturningAdvice {
     }
 
     public Location getDefaultLocation() {
-        try {
-            Context.addProxyPrivilege(PrivilegeConstants.VIEW_LOCATIONS);
-            Context.addProxyPrivilege(PrivilegeConstants.VIEW_GLOBAL_PROPERTIES);
-            String GP_DEFAULT_LOCATION = "kenyaemr.defaultLocation";
-            GlobalProperty gp = Context.getAdministrationService().getGlobalPropertyObject(GP_DEFAULT_LOCATION);
-            return gp != null ? ((Location) gp.getValue()) : null;
-        }
-        finally {
-            Context.removeProxyPrivilege(PrivilegeConstants.VIEW_LOCATIONS);
-            Context.removeProxyPrivilege(PrivilegeConstants.VIEW_GLOBAL_PROPERTIES);
-        }
-
+        return Context.getService(KenyaEmrService.class).getDefaultLocation();
     }
+
     String sexConverter (Concept key) {
         ConceptService conceptService = Context.getConceptService();
 
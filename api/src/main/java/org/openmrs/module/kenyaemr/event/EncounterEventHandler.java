@@ -0,0 +1,47 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.event;
+
+import org.openmrs.Encounter;
+
+/**
+ * Interface for side effects of saving an encounter which are processed by the {@link EncounterEventQueue} after the
+ * save has been committed. Handlers should be registered as Spring components.
+ */
+public interface EncounterEventHandler {
+
+	/**
+	 * Gets the unique id of this handler, which is stored with each queued event
+	 * @return the id
+	 */
+	String getId();
+
+	/**
+	 * Gets whether this handler should process the given saved encounter
+	 * @param encounter the encounter
+	 * @return true if an event should be queued
+	 */
+	boolean handles(Encounter encounter);
+
+	/**
+	 * Gets the idempotency key of the event for the given encounter. An event is only queued once for each key, e.g.
+	 * a key based on the encounter UUID means subsequent edits of the encounter won't be processed again.
+	 * @param encounter the encounter
+	 * @return the key
+	 */
+	String getIdempotencyKey(Encounter encounter);
+
+	/**
+	 * Processes an event. This is invoked inside a transaction, and may be invoked again for the same encounter if a
+	 * previous attempt failed, so implementations should check for work that has already been done.
+	 * @param encounter the encounter
+	 */
+	void handle(Encounter encounter);
+}
@@ -0,0 +1,476 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.event;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Encounter;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outbox of encounter side effects. Events are written to the kenyaemr_encounter_event table in the same transaction
+ * as the encounter save, so they are only processed if the save is committed, and are not lost if the server stops
+ * before they are processed. Once the transaction commits a poll is requested, and pending events are processed by a
+ * small number of worker threads. Failed events are retried with an increasing delay up to {@link #MAX_ATTEMPTS} times.
+ */
+@Component
+public class EncounterEventQueue {
+
+	protected static final Log log = LogFactory.getLog(EncounterEventQueue.class);
+
+	public static final String STATUS_PENDING = "PENDING";
+
+	public static final String STATUS_PROCESSING = "PROCESSING";
+
+	public static final String STATUS_COMPLETED = "COMPLETED";
+
+	public static final String STATUS_FAILED = "FAILED";
+
+	public static final int MAX_ATTEMPTS = 5;
+
+	public static final int WORKER_THREADS = 2;
+
+	public static final int POLL_INTERVAL_SECONDS = 60;
+
+	public static final int POLL_BATCH_SIZE = 50;
+
+	@Autowired
+	@Qualifier("transactionManager")
+	private PlatformTransactionManager transactionManager;
+
+	private DaemonToken daemonToken;
+
+	private volatile boolean running = false;
+
+	private final List<Thread> threads = new ArrayList<Thread>();
+
+	private final BlockingQueue<Integer> due = new LinkedBlockingQueue<Integer>();
+
+	private final Set<Integer> queued = Collections.synchronizedSet(new HashSet<Integer>());
+
+	private final Semaphore pollSignal = new Semaphore(0);
+
+	/**
+	 * Starts the poller and worker threads. Each runs for the life of the queue as the daemon user, so events are
+	 * processed directly in the worker thread. Events left processing by a previous run are returned to pending.
+	 * @param daemonToken the module's daemon token, used to run events as the daemon user
+	 */
+	public synchronized void start(DaemonToken daemonToken) {
+		if (running) {
+			return;
+		}
+
+		this.daemonToken = daemonToken;
+		this.running = true;
+
+		threads.add(Daemon.runInDaemonThread(new Runnable() {
+			@Override
+			public void run() {
+				Thread.currentThread().setName("kenyaemr-encounter-event-poller");
+				pollLoop();
+			}
+		}, daemonToken));
+
+		for (int w = 1; w <= WORKER_THREADS; ++w) {
+			final String name = "kenyaemr-encounter-event-worker-" + w;
+			threads.add(Daemon.runInDaemonThread(new Runnable() {
+				@Override
+				public void run() {
+					Thread.currentThread().setName(name);
+					workLoop();
+				}
+			}, daemonToken));
+		}
+
+		log.info("Started encounter event queue with " + WORKER_THREADS + " workers");
+	}
+
+	/**
+	 * Stops the poller and worker threads. Events which haven't been processed remain in the table. The daemon token
+	 * is only released once every thread has terminated, as a worker may still be completing an event.
+	 */
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+
+		running = false;
+		pollSignal.release();
+
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+		try {
+			for (Thread thread : threads) {
+				thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+			}
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+
+		List<Thread> alive = new ArrayList<Thread>();
+		for (Thread thread : threads) {
+			if (thread.isAlive()) {
+				alive.add(thread);
+			}
+		}
+
+		threads.clear();
+		threads.addAll(alive);
+		due.clear();
+		queued.clear();
+
+		if (alive.isEmpty()) {
+			daemonToken = null;
+			log.info("Stopped encounter event queue");
+		}
+		else {
+			log.warn("Encounter event queue stopped with " + alive.size() + " threads still completing events");
+		}
+	}
+
+	/**
+	 * Gets the registered event handlers
+	 * @return the handlers
+	 */
+	public List<EncounterEventHandler> getHandlers() {
+		return Context.getRegisteredComponents(EncounterEventHandler.class);
+	}
+
+	/**
+	 * Gets the handler with the given id
+	 * @param handlerId the handler id
+	 * @return the handler or null
+	 */
+	public EncounterEventHandler getHandler(String handlerId) {
+		for (EncounterEventHandler handler : getHandlers()) {
+			if (handler.getId().equals(handlerId)) {
+				return handler;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Queues an event for the given encounter. This should be invoked in the transaction that saves the encounter.
+	 * @param encounter the saved encounter
+	 * @param handler the handler
+	 * @return true if the event was queued, false if an event with the same idempotency key already exists
+	 */
+	public boolean enqueue(Encounter encounter, EncounterEventHandler handler) {
+		String idempotencyKey = handler.getIdempotencyKey(encounter);
+
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("idempotencyKey", idempotencyKey);
+
+		List<Object> existing = getService().executeSqlQuery("select count(*) from kenyaemr_encounter_event where idempotency_key = :idempotencyKey", params);
+		if (((Number) existing.get(0)).intValue() > 0) {
+			return false;
+		}
+
+		Date now = new Date();
+		params.put("handler", handler.getId());
+		params.put("encounterId", encounter.getEncounterId());
+		params.put("status", STATUS_PENDING);
+		params.put("now", now);
+
+		getService().executeSqlUpdate("insert into kenyaemr_encounter_event"
+				+ " (idempotency_key, handler, encounter_id, status, attempts, next_attempt, date_created)"
+				+ " values (:idempotencyKey, :handler, :encounterId, :status, 0, :now, :now)", params);
+
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					requestPoll();
+				}
+			});
+		}
+		else {
+			requestPoll();
+		}
+		return true;
+	}
+
+	/**
+	 * Requests that pending events are polled for as soon as possible. Requests made while a poll is already waiting
+	 * to run are coalesced.
+	 */
+	public void requestPoll() {
+		if (running && pollSignal.availablePermits() == 0) {
+			pollSignal.release();
+		}
+	}
+
+	/**
+	 * Deletes the completed events of a handler, for handlers whose events are only needed until processed
+	 * @param handlerId the handler id
+	 * @param before only delete events processed before this date
+	 * @return the number of deleted events
+	 */
+	public int purgeCompleted(String handlerId, Date before) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("handler", handlerId);
+		params.put("status", STATUS_COMPLETED);
+		params.put("before", before);
+
+		return getService().executeSqlUpdate("delete from kenyaemr_encounter_event"
+				+ " where handler = :handler and status = :status and date_processed < :before", params);
+	}
+
+	/**
+	 * Gets the number of events in each status
+	 * @return the counts by status
+	 */
+	public Map<String, Object> getAllInformation() {
+		Map<String, Object> counts = new LinkedHashMap<String, Object>();
+		for (String status : new String[] { STATUS_PENDING, STATUS_PROCESSING, STATUS_COMPLETED, STATUS_FAILED }) {
+			counts.put(status.toLowerCase(), 0);
+		}
+
+		List<Object> rows = getService().executeSqlQuery("select status, count(*) from kenyaemr_encounter_event group by status", new HashMap<String, Object>());
+		for (Object row : rows) {
+			Object[] values = (Object[]) row;
+			counts.put(((String) values[0]).toLowerCase(), ((Number) values[1]).intValue());
+		}
+		return counts;
+	}
+
+	/**
+	 * Runs in the poller thread. Resumes interrupted events, then polls for due events every
+	 * {@link #POLL_INTERVAL_SECONDS} seconds or whenever a poll is requested.
+	 */
+	protected void pollLoop() {
+		try {
+			resumeProcessing();
+		}
+		catch (Exception ex) {
+			log.error("Unable to resume encounter events", ex);
+		}
+
+		while (running) {
+			try {
+				poll();
+			}
+			catch (Exception ex) {
+				log.error("Error polling encounter events", ex);
+			}
+			finally {
+				Context.clearSession();
+			}
+
+			try {
+				pollSignal.tryAcquire(POLL_INTERVAL_SECONDS, TimeUnit.SECONDS);
+				pollSignal.drainPermits();
+			}
+			catch (InterruptedException ex) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Runs in each worker thread. Takes due events and processes them until the queue is stopped.
+	 */
+	protected void workLoop() {
+		while (running) {
+			Integer eventId;
+			try {
+				eventId = due.poll(1, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException ex) {
+				return;
+			}
+
+			if (eventId == null) {
+				continue;
+			}
+
+			queued.remove(eventId);
+
+			try {
+				process(eventId);
+			}
+			catch (Exception ex) {
+				log.error("Error processing encounter event #" + eventId, ex);
+			}
+			finally {
+				Context.clearSession();
+			}
+		}
+	}
+
+	/**
+	 * Returns events left processing by a previous run to pending
+	 */
+	protected void resumeProcessing() {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("processing", STATUS_PROCESSING);
+		params.put("pending", STATUS_PENDING);
+		getService().executeSqlUpdate("update kenyaemr_encounter_event set status = :pending where status = :processing", params);
+	}
+
+	/**
+	 * Fetches the ids of events which are due and hands them to the workers. Events already waiting for a worker are
+	 * not handed over again.
+	 */
+	protected void poll() {
+		for (Integer eventId : fetchDueEvents()) {
+			if (queued.add(eventId)) {
+				due.add(eventId);
+			}
+		}
+	}
+
+	/**
+	 * Fetches the ids of pending events whose next attempt is due
+	 * @return the event ids, oldest first
+	 */
+	protected List<Integer> fetchDueEvents() {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("status", STATUS_PENDING);
+
+		List<Object> rows = getService().executeSqlQuery("select id from kenyaemr_encounter_event"
+				+ " where status = :status and next_attempt <= now() order by id limit " + POLL_BATCH_SIZE, params);
+
+		List<Integer> eventIds = new ArrayList<Integer>();
+		for (Object row : rows) {
+			eventIds.add(((Number) row).intValue());
+		}
+		return eventIds;
+	}
+
+	/**
+	 * Processes a single event. The event is first claimed so that it can't be processed concurrently, then the handler
+	 * is invoked and the event completed in a single transaction.
+	 * @param eventId the event id
+	 */
+	protected void process(final Integer eventId) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("id", eventId);
+		params.put("pending", STATUS_PENDING);
+		params.put("processing", STATUS_PROCESSING);
+
+		if (getService().executeSqlUpdate("update kenyaemr_encounter_event set status = :processing, attempts = attempts + 1"
+				+ " where id = :id and status = :pending", params) == 0) {
+			return; // Already claimed by another worker
+		}
+
+		List<Object> rows = getService().executeSqlQuery("select handler, encounter_id, attempts from kenyaemr_encounter_event where id = :id", params);
+		Object[] row = (Object[]) rows.get(0);
+		String handlerId = (String) row[0];
+		final Integer encounterId = ((Number) row[1]).intValue();
+		int attempts = ((Number) row[2]).intValue();
+
+		final EncounterEventHandler handler = getHandler(handlerId);
+		if (handler == null) {
+			finish(eventId, STATUS_FAILED, null, "No handler with id " + handlerId);
+			return;
+		}
+
+		try {
+			getTransactionTemplate().execute(new TransactionCallbackWithoutResult() {
+				@Override
+				protected void doInTransactionWithoutResult(TransactionStatus status) {
+					Encounter encounter = Context.getEncounterService().getEncounter(encounterId);
+					if (encounter != null && !encounter.isVoided()) {
+						handler.handle(encounter);
+					}
+
+					finish(eventId, STATUS_COMPLETED, null, null);
+				}
+			});
+		}
+		catch (Exception ex) {
+			Context.clearSession();
+
+			if (attempts >= MAX_ATTEMPTS) {
+				log.error("Encounter event #" + eventId + " (" + handlerId + ") failed after " + attempts + " attempts", ex);
+				finish(eventId, STATUS_FAILED, null, ex.toString());
+			}
+			else {
+				long delay = TimeUnit.MINUTES.toMillis(attempts * attempts);
+				log.warn("Encounter event #" + eventId + " (" + handlerId + ") failed, retrying in " + (delay / 60000) + " minutes", ex);
+				finish(eventId, STATUS_PENDING, new Date(System.currentTimeMillis() + delay), ex.toString());
+			}
+		}
+	}
+
+	/**
+	 * Updates the status of an event
+	 * @param eventId the event id
+	 * @param status the new status
+	 * @param nextAttempt the time of the next attempt, if event is to be retried
+	 * @param error the error message if event failed
+	 */
+	protected void finish(Integer eventId, String status, Date nextAttempt, String error) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("id", eventId);
+		params.put("status", status);
+		params.put("now", new Date());
+
+		StringBuilder statement = new StringBuilder("update kenyaemr_encounter_event set status = :status, date_processed = :now");
+		if (nextAttempt != null) {
+			statement.append(", next_attempt = :nextAttempt");
+			params.put("nextAttempt", nextAttempt);
+		}
+		if (error != null) {
+			statement.append(", last_error = :error");
+			params.put("error", StringUtils.abbreviate(error, 1024));
+		}
+		statement.append(" where id = :id");
+
+		getService().executeSqlUpdate(statement.toString(), params);
+	}
+
+	/**
+	 * Gets a transaction template for processing events
+	 * @return the transaction template
+	 */
+	protected TransactionTemplate getTransactionTemplate() {
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		template.setPropagationBehavior(TransactionTemplate.PROPAGATION_REQUIRES_NEW);
+		return template;
+	}
+
+	/**
+	 * Convenience method to get the KenyaEMR service
+	 * @return the service
+	 */
+	protected KenyaEmrService getService() {
+		return Context.getService(KenyaEmrService.class);
+	}
+}
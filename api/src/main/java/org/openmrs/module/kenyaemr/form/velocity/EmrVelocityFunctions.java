@@ -21,10 +21,10 @@ import org.openmrs.PatientIdentifierType;
 import org.openmrs.Person;
 import org.openmrs.api.AdministrationService;
 import org.openmrs.api.context.Context;
+import org.openmrs.calculation.patient.PatientCalculation;
 import org.openmrs.calculation.result.CalculationResult;
 import org.openmrs.module.htmlformentry.FormEntrySession;
 import org.openmrs.module.kenyaemr.Dictionary;
-import org.openmrs.module.kenyaemr.calculation.EmrCalculationUtils;
 import org.openmrs.module.kenyaemr.calculation.library.hiv.DiscontinuationVelocityCalculation;
 import org.openmrs.module.kenyaemr.calculation.library.hiv.GreenCardVelocityCalculation;
 import org.openmrs.module.kenyaemr.calculation.library.hiv.StablePatientsCalculation;
@@ -37,6 +37,7 @@ import org.openmrs.module.kenyaemr.calculation.library.tb.PatientDueForTbProgram
 import org.openmrs.module.kenyaemr.calculation.library.tb.PatientInTbProgramCalculation;
 import org.openmrs.module.kenyaemr.calculation.library.tb.TbDiscontinuationVelocityCalculation;
 import org.openmrs.module.kenyaemr.metadata.HivMetadata;
+import org.openmrs.module.kenyaemr.wrapper.PatientSnapshot;
 import org.openmrs.module.metadatadeploy.MetadataUtils;
 import org.openmrs.module.reporting.common.DateUtil;
 
@@ -50,6 +51,9 @@ import java.util.List;
 public class EmrVelocityFunctions {
 
 	private FormEntrySession session;
+
+	private PatientSnapshot snapshot;
+
 	protected static final Log log = LogFactory.getLog(EmrVelocityFunctions.class);
 	/**
 	 * Constructs a new functions provider
@@ -88,7 +92,7 @@ public class EmrVelocityFunctions {
 
 	public Boolean patientIsStable() {
 
-		CalculationResult stablePatient = EmrCalculationUtils.evaluateForPatient(StablePatientsCalculation.class, null,session.getPatient());
+		CalculationResult stablePatient = evaluateForPatient(StablePatientsCalculation.class);
 		return 	(Boolean) stablePatient.getValue();
 
 
@@ -101,7 +105,7 @@ public class EmrVelocityFunctions {
 
 	public Boolean currentInArt() {
 
-		CalculationResult patientCurrentInART = EmrCalculationUtils.evaluateForPatient(OnArtCalculation.class, null,session.getPatient());
+		CalculationResult patientCurrentInART = evaluateForPatient(OnArtCalculation.class);
 		return 	(Boolean) patientCurrentInART.getValue();
 
 	}
@@ -126,7 +130,7 @@ public class EmrVelocityFunctions {
 
 	public Boolean patientInTbProgram() {
 
-		CalculationResult patientEnrolledInTbProgram = EmrCalculationUtils.evaluateForPatient(PatientInTbProgramCalculation.class, null,session.getPatient());
+		CalculationResult patientEnrolledInTbProgram = evaluateForPatient(PatientInTbProgramCalculation.class);
 		return 	(Boolean) patientEnrolledInTbProgram.getValue();
 
 	}
@@ -138,7 +142,7 @@ public class EmrVelocityFunctions {
 
 	public Boolean patientDueForTbProgramEnrollment() {
 
-		CalculationResult patientEligibleForEnrollmentTbProgram = EmrCalculationUtils.evaluateForPatient(PatientDueForTbProgramEnrollmentCalculation.class, null,session.getPatient());
+		CalculationResult patientEligibleForEnrollmentTbProgram = evaluateForPatient(PatientDueForTbProgramEnrollmentCalculation.class);
 		return 	(Boolean) patientEligibleForEnrollmentTbProgram.getValue();
 
 	}
@@ -150,7 +154,7 @@ public class EmrVelocityFunctions {
 
 	public Boolean currentInIPT() {
 
-		CalculationResult patientEnrolledInIPTProgram = EmrCalculationUtils.evaluateForPatient(OnIptProgramCalculation.class, null,session.getPatient());
+		CalculationResult patientEnrolledInIPTProgram = evaluateForPatient(OnIptProgramCalculation.class);
 		return 	(Boolean) patientEnrolledInIPTProgram.getValue();
 
 	}
@@ -162,7 +166,7 @@ public class EmrVelocityFunctions {
 
 	public String GreenCardVelocityCalculation() {
 
-		CalculationResult greenCardVelocity = EmrCalculationUtils.evaluateForPatient(GreenCardVelocityCalculation.class, null,session.getPatient());
+		CalculationResult greenCardVelocity = evaluateForPatient(GreenCardVelocityCalculation.class);
 		return 	(String) greenCardVelocity.getValue();
 
 
@@ -170,7 +174,7 @@ public class EmrVelocityFunctions {
 
 	public String DiscontinuationVelocityCalculation() {
 
-		CalculationResult discontinuationVelocity = EmrCalculationUtils.evaluateForPatient(DiscontinuationVelocityCalculation.class, null,session.getPatient());
+		CalculationResult discontinuationVelocity = evaluateForPatient(DiscontinuationVelocityCalculation.class);
 		return 	(String) discontinuationVelocity.getValue();
 
 
@@ -178,14 +182,14 @@ public class EmrVelocityFunctions {
 
 	public String IptDiscontinuationVelocityCalculation() {
 
-		CalculationResult iptDiscontinuationVelocity = EmrCalculationUtils.evaluateForPatient(IptDiscontinuationVelocityCalculation.class, null,session.getPatient());
+		CalculationResult iptDiscontinuationVelocity = evaluateForPatient(IptDiscontinuationVelocityCalculation.class);
 		return 	(String) iptDiscontinuationVelocity.getValue();
 
 
 	}
 	public String TbDiscontinuationVelocityCalculation() {
 
-		CalculationResult tbDiscontinuationVelocity = EmrCalculationUtils.evaluateForPatient(TbDiscontinuationVelocityCalculation.class, null,session.getPatient());
+		CalculationResult tbDiscontinuationVelocity = evaluateForPatient(TbDiscontinuationVelocityCalculation.class);
 		return 	(String) tbDiscontinuationVelocity.getValue();
 
 
@@ -193,15 +197,28 @@ public class EmrVelocityFunctions {
 
 	public String OtzDiscontinuationVelocityCalculation() {
 
-		CalculationResult otzDiscontinuationVelocity = EmrCalculationUtils.evaluateForPatient(OtzDiscontinuationVelocityCalculation.class, null,session.getPatient());
+		CalculationResult otzDiscontinuationVelocity = evaluateForPatient(OtzDiscontinuationVelocityCalculation.class);
 		return 	(String) otzDiscontinuationVelocity.getValue();
 	}
 
 	public String OvcDiscontinuationVelocityCalculation() {
 
-		CalculationResult ovcDiscontinuationVelocity = EmrCalculationUtils.evaluateForPatient(OvcDiscontinuationVelocityCalculation.class, null,session.getPatient());
+		CalculationResult ovcDiscontinuationVelocity = evaluateForPatient(OvcDiscontinuationVelocityCalculation.class);
 		return 	(String) ovcDiscontinuationVelocity.getValue();
 	}
+	/**
+	 * Evaluates a calculation for the patient. Results are memoised for the form entry session so that each
+	 * calculation is evaluated at most once however many times a form references it.
+	 * @param calculationClass the calculation class
+	 * @return the calculation result
+	 */
+	protected CalculationResult evaluateForPatient(Class<? extends PatientCalculation> calculationClass) {
+		if (snapshot == null) {
+			snapshot = PatientSnapshot.forPatient(session.getPatient());
+		}
+		return snapshot.evaluate(calculationClass, null);
+	}
+
 	/**
 		 * Fetches a global property value by property name
 		 * @param name the property name
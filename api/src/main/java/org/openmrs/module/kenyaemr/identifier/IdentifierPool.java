@@ -0,0 +1,452 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.identifier;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.idgen.IdentifierSource;
+import org.openmrs.module.idgen.service.IdentifierSourceService;
+import org.openmrs.module.kenyacore.identifier.IdentifierManager;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.openmrs.module.metadatadeploy.MetadataUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Pool of identifiers reserved in advance from the idgen sources, so that registrations take identifiers from memory
+ * rather than each locking the source's sequence. Identifiers are reserved in blocks of {@link #BLOCK_SIZE} and
+ * recorded in the kenyaemr_identifier_reservation table, where they are marked as issued when handed out. When a pool
+ * runs low it is refilled in the background. Reservations which were never issued, e.g. because the server stopped,
+ * remain in the table and are returned to the pool on the next start.
+ */
+@Component
+public class IdentifierPool {
+
+	protected static final Log log = LogFactory.getLog(IdentifierPool.class);
+
+	public static final String STATUS_RESERVED = "RESERVED";
+
+	public static final String STATUS_ISSUED = "ISSUED";
+
+	public static final int BLOCK_SIZE = 50;
+
+	public static final int REFILL_THRESHOLD = 10;
+
+	private static final Object RESOURCE_KEY = IdentifierPool.class.getName();
+
+	@Autowired
+	@Qualifier("transactionManager")
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private IdentifierManager identifierManager;
+
+	private final ConcurrentMap<String, Queue<String>> pools = new ConcurrentHashMap<String, Queue<String>>();
+
+	private final Set<String> refilling = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private DaemonToken daemonToken;
+
+	private ExecutorService refiller;
+
+	/**
+	 * Starts background refilling and returns unissued reservations to the pools
+	 * @param daemonToken the module's daemon token, used to reserve identifiers as the daemon user
+	 */
+	public synchronized void start(DaemonToken daemonToken) {
+		if (refiller != null) {
+			return;
+		}
+
+		this.daemonToken = daemonToken;
+		this.refiller = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "kenyaemr-identifier-refill");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		runAsDaemon(new Runnable() {
+			@Override
+			public void run() {
+				recoverReservations();
+			}
+		});
+	}
+
+	/**
+	 * Stops background refilling. Identifiers left in the pools remain reserved in the table.
+	 */
+	public synchronized void stop() {
+		if (refiller == null) {
+			return;
+		}
+
+		refiller.shutdownNow();
+		refiller = null;
+		pools.clear();
+	}
+
+	/**
+	 * Takes the next identifier of the given type from the pool, reserving a block in the current transaction if the
+	 * pool is empty
+	 * @param idType the identifier type
+	 * @param comment the comment recorded against the issued identifier
+	 * @return the identifier value
+	 */
+	public String nextIdentifier(PatientIdentifierType idType, String comment) {
+		String typeUuid = idType.getUuid();
+		Queue<String> pool = getPool(typeUuid);
+
+		String identifier;
+		while ((identifier = pool.poll()) != null) {
+			if (markIssued(typeUuid, identifier, comment)) {
+				returnOnRollback(typeUuid, identifier);
+				break;
+			}
+		}
+
+		if (identifier == null) {
+			identifier = nextFromTransaction(idType, comment);
+		}
+
+		if (pool.size() < REFILL_THRESHOLD) {
+			requestRefill(idType);
+		}
+
+		return identifier;
+	}
+
+	/**
+	 * Gets the number of pooled, reserved and issued identifiers of each type
+	 * @return the counts by identifier type name
+	 */
+	public Map<String, Object> getAllInformation() {
+		Map<String, Object> info = new LinkedHashMap<String, Object>();
+
+		List<Object> rows = getService().executeSqlQuery("select identifier_type, status, count(*) from kenyaemr_identifier_reservation"
+				+ " group by identifier_type, status order by identifier_type", new HashMap<String, Object>());
+
+		for (Object row : rows) {
+			Object[] values = (Object[]) row;
+			PatientIdentifierType idType = MetadataUtils.possible(PatientIdentifierType.class, (String) values[0]);
+			String name = idType != null ? idType.getName() : (String) values[0];
+
+			Map<String, Object> counts = getCounts(info, name, (String) values[0]);
+			counts.put(((String) values[1]).toLowerCase(), ((Number) values[2]).intValue());
+		}
+		return info;
+	}
+
+	/**
+	 * Returns the identifiers of reservations which were never issued to the pools
+	 */
+	protected void recoverReservations() {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("status", STATUS_RESERVED);
+
+		List<Object> rows = getService().executeSqlQuery("select identifier_type, identifier from kenyaemr_identifier_reservation"
+				+ " where status = :status order by id", params);
+
+		for (Object row : rows) {
+			Object[] values = (Object[]) row;
+			getPool((String) values[0]).add((String) values[1]);
+		}
+
+		log.info("Returned " + rows.size() + " unissued identifier reservations to the pool");
+	}
+
+	/**
+	 * Returns an identifier taken from the pool to the pool if the current transaction rolls back, as its reservation
+	 * then reverts to unissued
+	 * @param typeUuid the identifier type UUID
+	 * @param identifier the identifier
+	 */
+	protected void returnOnRollback(final String typeUuid, final String identifier) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			return;
+		}
+
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCompletion(int status) {
+				if (status == STATUS_ROLLED_BACK) {
+					getPool(typeUuid).add(identifier);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Takes an identifier reserved earlier in the current transaction, reserving a new block if there is none. The
+	 * rest of the block is added to the pool only if the transaction commits, as otherwise the identifiers would be
+	 * generated again by the source.
+	 * @param idType the identifier type
+	 * @param comment the comment
+	 * @return the identifier value
+	 */
+	protected String nextFromTransaction(PatientIdentifierType idType, String comment) {
+		String typeUuid = idType.getUuid();
+		Queue<String> reserved = getTransactionReservations(typeUuid);
+
+		if (reserved == null || reserved.isEmpty()) {
+			List<String> block = reserve(idType, BLOCK_SIZE);
+			if (reserved == null) {
+				// Nothing to hold them until commit, and the reservation has already been committed
+				getPool(typeUuid).addAll(block.subList(1, block.size()));
+				reserved = new LinkedList<String>(block.subList(0, 1));
+			}
+			else {
+				reserved.addAll(block);
+			}
+		}
+
+		String identifier = reserved.poll();
+		if (!markIssued(typeUuid, identifier, comment)) {
+			throw new APIException("Unable to issue reserved identifier " + identifier);
+		}
+		return identifier;
+	}
+
+	/**
+	 * Gets the identifiers reserved by the current transaction which haven't been issued
+	 * @param typeUuid the identifier type UUID
+	 * @return the reserved identifiers or null if there is no transaction
+	 */
+	@SuppressWarnings("unchecked")
+	protected Queue<String> getTransactionReservations(final String typeUuid) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			return null;
+		}
+
+		Map<String, Queue<String>> reservations = (Map<String, Queue<String>>) TransactionSynchronizationManager.getResource(RESOURCE_KEY);
+		if (reservations == null) {
+			final Map<String, Queue<String>> created = new HashMap<String, Queue<String>>();
+			TransactionSynchronizationManager.bindResource(RESOURCE_KEY, created);
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					for (Map.Entry<String, Queue<String>> entry : created.entrySet()) {
+						getPool(entry.getKey()).addAll(entry.getValue());
+					}
+				}
+
+				@Override
+				public void afterCompletion(int status) {
+					TransactionSynchronizationManager.unbindResourceIfPossible(RESOURCE_KEY);
+				}
+			});
+			reservations = created;
+		}
+
+		Queue<String> reserved = reservations.get(typeUuid);
+		if (reserved == null) {
+			reserved = new LinkedList<String>();
+			reservations.put(typeUuid, reserved);
+		}
+		return reserved;
+	}
+
+	/**
+	 * Requests that the pool of the given type is refilled in the background. Requests made while a refill of that
+	 * type is already waiting or running are ignored.
+	 * @param idType the identifier type
+	 */
+	protected void requestRefill(final PatientIdentifierType idType) {
+		final ExecutorService refiller = this.refiller;
+		final String typeUuid = idType.getUuid();
+
+		if (refiller == null || !refilling.add(typeUuid)) {
+			return;
+		}
+
+		refiller.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					runAsDaemon(new Runnable() {
+						@Override
+						public void run() {
+							List<String> block = getTransactionTemplate().execute(new TransactionCallback<List<String>>() {
+								@Override
+								public List<String> doInTransaction(TransactionStatus status) {
+									PatientIdentifierType type = Context.getPatientService().getPatientIdentifierTypeByUuid(typeUuid);
+									return reserve(type, BLOCK_SIZE);
+								}
+							});
+							getPool(typeUuid).addAll(block);
+						}
+					});
+				}
+				finally {
+					refilling.remove(typeUuid);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Generates and records a block of identifiers
+	 * @param idType the identifier type
+	 * @param count the number of identifiers
+	 * @return the identifiers
+	 */
+	protected List<String> reserve(PatientIdentifierType idType, int count) {
+		IdentifierSource source = identifierManager.getIdentifierSource(idType);
+		if (source == null) {
+			throw new APIException("No identifier source configured for " + idType.getName());
+		}
+
+		List<String> identifiers = Context.getService(IdentifierSourceService.class).generateIdentifiers(source, count, "Reserved by KenyaEMR");
+
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("type", idType.getUuid());
+		params.put("status", STATUS_RESERVED);
+		params.put("now", new Date());
+
+		StringBuilder statement = new StringBuilder("insert into kenyaemr_identifier_reservation (identifier_type, identifier, status, date_reserved) values ");
+		for (int i = 0; i < identifiers.size(); ++i) {
+			statement.append(i > 0 ? ", " : "").append("(:type, :id").append(i).append(", :status, :now)");
+			params.put("id" + i, identifiers.get(i));
+		}
+		getService().executeSqlUpdate(statement.toString(), params);
+
+		log.debug("Reserved " + identifiers.size() + " identifiers of type " + idType.getName());
+
+		return identifiers;
+	}
+
+	/**
+	 * Marks a reserved identifier as issued in the current transaction
+	 * @param typeUuid the identifier type UUID
+	 * @param identifier the identifier
+	 * @param comment the comment
+	 * @return true if the identifier was reserved and is now issued
+	 */
+	protected boolean markIssued(String typeUuid, String identifier, String comment) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("type", typeUuid);
+		params.put("identifier", identifier);
+		params.put("reserved", STATUS_RESERVED);
+		params.put("issued", STATUS_ISSUED);
+		params.put("now", new Date());
+		params.put("comment", StringUtils.abbreviate(comment, 255));
+
+		return getService().executeSqlUpdate("update kenyaemr_identifier_reservation"
+				+ " set status = :issued, date_issued = :now, comment = :comment"
+				+ " where identifier_type = :type and identifier = :identifier and status = :reserved", params) == 1;
+	}
+
+	/**
+	 * Gets the in-memory pool for an identifier type, creating it if necessary
+	 * @param typeUuid the identifier type UUID
+	 * @return the pool
+	 */
+	protected Queue<String> getPool(String typeUuid) {
+		Queue<String> pool = pools.get(typeUuid);
+		if (pool == null) {
+			pools.putIfAbsent(typeUuid, new ConcurrentLinkedQueue<String>());
+			pool = pools.get(typeUuid);
+		}
+		return pool;
+	}
+
+	/**
+	 * Gets the counts of an identifier type, creating them if necessary
+	 * @param info the information map
+	 * @param name the identifier type name
+	 * @param typeUuid the identifier type UUID
+	 * @return the counts
+	 */
+	@SuppressWarnings("unchecked")
+	protected Map<String, Object> getCounts(Map<String, Object> info, String name, String typeUuid) {
+		Map<String, Object> counts = (Map<String, Object>) info.get(name);
+		if (counts == null) {
+			counts = new LinkedHashMap<String, Object>();
+			counts.put("pooled", getPool(typeUuid).size());
+			info.put(name, counts);
+		}
+		return counts;
+	}
+
+	/**
+	 * Runs a task in a daemon thread, i.e. with an open session and as the daemon user, and waits for it to complete
+	 * @param task the task
+	 */
+	protected void runAsDaemon(final Runnable task) {
+		Thread thread = Daemon.runInDaemonThread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					task.run();
+				}
+				catch (Exception ex) {
+					log.error("Error in identifier pool", ex);
+				}
+			}
+		}, daemonToken);
+
+		try {
+			thread.join();
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Gets a transaction template for reserving identifiers
+	 * @return the transaction template
+	 */
+	protected TransactionTemplate getTransactionTemplate() {
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		template.setPropagationBehavior(TransactionTemplate.PROPAGATION_REQUIRES_NEW);
+		return template;
+	}
+
+	/**
+	 * Convenience method to get the KenyaEMR service
+	 * @return the service
+	 */
+	protected KenyaEmrService getService() {
+		return Context.getService(KenyaEmrService.class);
+	}
+}
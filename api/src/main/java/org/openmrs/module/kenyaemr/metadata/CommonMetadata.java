@@ -17,6 +17,7 @@ import org.openmrs.module.kenyaemr.Metadata;
 import org.openmrs.module.kenyaemr.datatype.FormDatatype;
 import org.openmrs.module.kenyaemr.datatype.LocationDatatype;
 import org.openmrs.module.metadatadeploy.bundle.AbstractMetadataBundle;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import static org.openmrs.module.metadatadeploy.bundle.CoreConstructors.encounterType;
@@ -34,6 +35,9 @@ import static org.openmrs.module.metadatadeploy.bundle.CoreConstructors.visitTyp
 @Component
 public class CommonMetadata extends AbstractMetadataBundle {
 
+	@Autowired
+	private MetadataFingerprints fingerprints;
+
 	public static final class _EncounterType {
 		public static final String CONSULTATION = "465a92f2-baf8-42e9-9612-53064be868e8";
 		public static final String LAB_RESULTS = "17a381d1-7e29-406a-b782-aa903b963c28";
@@ -112,6 +116,10 @@ public class CommonMetadata extends AbstractMetadataBundle {
 	 */
 	@Override
 	public void install() {
+		if (!fingerprints.needsInstall(this)) {
+			return;
+		}
+
 		install(encounterType("Consultation", "Collection of clinical data during the main consultation", _EncounterType.CONSULTATION));
 		install(encounterType("Lab Results", "Collection of laboratory results", _EncounterType.LAB_RESULTS));
 		install(encounterType("Registration", "Initial data collection for a patient, not specific to any program", _EncounterType.REGISTRATION));
@@ -147,6 +155,12 @@ public class CommonMetadata extends AbstractMetadataBundle {
 		install(globalProperty(EmrConstants.GP_DHIS2_DATASET_MAPPING, "ADX Mapping for KenyaEMR and DHIS2 datasets", adxMappingString));
 		install(globalProperty(EmrConstants.GP_3PM_DATASET_MAPPING, "ADX Mapping for KenyaEMR and 3PM datasets", adx3pmMappingString));
 
+		install(globalProperty(EmrConstants.GP_REPORT_WORKERS, "Number of reports which can be run at the same time (applied on restart)", "2"));
+		install(globalProperty(EmrConstants.GP_PRECOMPUTED_REPORTS, "Comma separated UUIDs of reports which are evaluated every night for their last closed period",
+				"a66bf454-2a11-4e51-b28d-3d7ece76aa13,d6e5dd4c-e3f5-11e8-9f32-f2801f1b9fd1,351ac318-d875-11e9-8a34-2a2ae2dbcce4"));
+		install(globalProperty(EmrConstants.GP_PRECOMPUTE_REPORTS_HOUR, "Hour of the day (0-23) at which reports are pre-computed (applied on restart)", "2"));
+		install(globalProperty(EmrConstants.GP_FORCE_METADATA_INSTALL, "Whether to install all metadata on the next startup, even if unchanged (reset after startup)", "false"));
+
 		install(globalProperty("order.drugDosingUnitsConceptUuid", "Drug dosing units concept", "162384AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"));
 
 		install(patientIdentifierType("Old Identification Number", "Identifier given out prior to OpenMRS",
@@ -205,5 +219,7 @@ public class CommonMetadata extends AbstractMetadataBundle {
 
 		install(visitType("Outpatient", "Visit where the patient is not admitted to the hospital", _VisitType.OUTPATIENT));
 		uninstall(possible(PersonAttributeType.class, "73d34479-2f9e-4de3-a5e6-1f79a17459bb"), "Became patient identifier"); // National ID attribute type
+
+		fingerprints.recordInstall(this);
 	}
 }
\ No newline at end of file
@@ -29,9 +29,14 @@ import static org.openmrs.module.metadatadeploy.bundle.CoreConstructors.location
 @Requires({ CommonMetadata.class })
 public class FacilityMetadata extends AbstractMetadataBundle {
 
+	public static final String MFL_SOURCE = "metadata/mfl_2014-05-12.csv";
+
 	@Autowired
 	private LocationMflSynchronization mflSynchronization;
 
+	@Autowired
+	private MetadataFingerprints fingerprints;
+
 	public static final class _Location {
 		public static final String UNKNOWN = "8d6c993e-c2cc-11de-8d13-0010c6dffd0f";
 	}
@@ -81,9 +86,11 @@ public class FacilityMetadata extends AbstractMetadataBundle {
 				_LocationAttributeType.TELEPHONE_FAX
 		));
 
-		if (full) {
-			ObjectSource<Location> source = new LocationMflCsvSource("metadata/mfl_2014-05-12.csv");
-			sync(source, mflSynchronization);
+		// Synchronizing the whole facility list takes a while so only do it if the list has changed
+		if (full && fingerprints.needsInstall("mfl", MFL_SOURCE)) {
+			ObjectSource<Location> source = new LocationMflCsvSource(MFL_SOURCE);
+			mflSynchronization.synchronize(source);
+			fingerprints.recordInstall("mfl", MFL_SOURCE);
 		}
 	}
 }
\ No newline at end of file
@@ -14,6 +14,7 @@ import org.openmrs.module.kenyaemr.Dictionary;
 import org.openmrs.module.kenyaemr.Metadata;
 import org.openmrs.module.metadatadeploy.bundle.AbstractMetadataBundle;
 import org.openmrs.module.metadatadeploy.bundle.Requires;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import static org.openmrs.module.metadatadeploy.bundle.CoreConstructors.encounterType;
@@ -29,6 +30,9 @@ import static org.openmrs.module.metadatadeploy.bundle.CoreConstructors.program;
 @Requires({ CommonMetadata.class })
 public class HivMetadata extends AbstractMetadataBundle {
 
+	@Autowired
+	private MetadataFingerprints fingerprints;
+
 	public static final String MODULE_ID = "kenyaemr";
 	public static final String LDL_DEFAULT_VALUE = MODULE_ID + ".LDL_default_value";
 
@@ -77,6 +81,10 @@ public class HivMetadata extends AbstractMetadataBundle {
 	 */
 	@Override
 	public void install() {
+		if (!fingerprints.needsInstall(this)) {
+			return;
+		}
+
 		install(encounterType("HIV Enrollment", "Enrollment onto HIV program", _EncounterType.HIV_ENROLLMENT));
 		install(encounterType("HIV Consultation", "Collection of HIV-specific data during the main consultation", _EncounterType.HIV_CONSULTATION));
 		install(encounterType("HIV Discontinuation", "Discontinuation from HIV program", _EncounterType.HIV_DISCONTINUATION));
@@ -110,5 +118,7 @@ public class HivMetadata extends AbstractMetadataBundle {
 
 		install(program("HIV", "Treatment for HIV-positive patients", Dictionary.HIV_PROGRAM, _Program.HIV));
 		install(globalProperty(LDL_DEFAULT_VALUE, "Default value for LDL results. Required for graphing", "50"));
+
+		fingerprints.recordInstall(this);
 	}
 }
\ No newline at end of file
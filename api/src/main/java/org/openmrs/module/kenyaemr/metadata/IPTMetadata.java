@@ -14,6 +14,7 @@ import org.openmrs.module.kenyaemr.Dictionary;
 import org.openmrs.module.kenyaemr.Metadata;
 import org.openmrs.module.metadatadeploy.bundle.AbstractMetadataBundle;
 import org.openmrs.module.metadatadeploy.bundle.Requires;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import static org.openmrs.module.metadatadeploy.bundle.CoreConstructors.encounterType;
@@ -28,6 +29,9 @@ import static org.openmrs.module.metadatadeploy.bundle.CoreConstructors.program;
 @Requires({ CommonMetadata.class })
 public class IPTMetadata extends AbstractMetadataBundle {
 
+	@Autowired
+	private MetadataFingerprints fingerprints;
+
 	public static final class _EncounterType {
 		public static final String IPT_OUTCOME = "bb77c683-2144-48a5-a011-66d904d776c9";
 		public static final String IPT_INITIATION = "de5cacd4-7d15-4ad0-a1be-d81c77b6c37d";
@@ -53,6 +57,10 @@ public class IPTMetadata extends AbstractMetadataBundle {
 	 */
 	@Override
 	public void install() {
+		if (!fingerprints.needsInstall(this)) {
+			return;
+		}
+
 		install(encounterType("IPT Initiation", "Initiation into IPT ", _EncounterType.IPT_INITIATION));
 		install(encounterType("IPT Outcome", "Discontinuation from IPT", _EncounterType.IPT_OUTCOME));
 		install(encounterType("IPT FollowUp", "Follow up in IPT", _EncounterType.IPT_FOLLOWUP));
@@ -66,5 +74,7 @@ public class IPTMetadata extends AbstractMetadataBundle {
 				LocationBehavior.NOT_USED, false, _PatientIdentifierType.DISTRICT_REG_NUMBER));
 
 		install(program("IPT", "Isoniazid Preventive Therapy (IPT)", Dictionary.TUBERCULOSIS_TREATMENT_PROGRAM, _Program.IPT));
+
+		fingerprints.recordInstall(this);
 	}
 }
\ No newline at end of file
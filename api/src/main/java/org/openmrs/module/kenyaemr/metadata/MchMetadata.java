@@ -14,6 +14,7 @@ import org.openmrs.module.kenyaemr.Dictionary;
 import org.openmrs.module.kenyaemr.Metadata;
 import org.openmrs.module.metadatadeploy.bundle.AbstractMetadataBundle;
 import org.openmrs.module.metadatadeploy.bundle.Requires;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import static org.openmrs.module.metadatadeploy.bundle.CoreConstructors.encounterType;
@@ -28,6 +29,9 @@ import static org.openmrs.module.metadatadeploy.bundle.CoreConstructors.program;
 @Requires({CommonMetadata.class})
 public class MchMetadata extends AbstractMetadataBundle {
 
+	@Autowired
+	private MetadataFingerprints fingerprints;
+
 	public static final class _EncounterType {
 		public static final String MCHCS_CONSULTATION = "bcc6da85-72f2-4291-b206-789b8186a021";
 		public static final String MCHCS_DISCONTINUATION = "5feee3f1-aa16-4513-8bd0-5d9b27ef1208";
@@ -70,6 +74,10 @@ public class MchMetadata extends AbstractMetadataBundle {
 	 */
 	@Override
 	public void install() {
+		if (!fingerprints.needsInstall(this)) {
+			return;
+		}
+
 		///////////////////////////// MCH child services ////////////////////////////////
 
 		install(encounterType("CWC Enrollment", "Enrollment of child onto MCH program", _EncounterType.MCHCS_ENROLLMENT));
@@ -110,5 +118,7 @@ public class MchMetadata extends AbstractMetadataBundle {
 		install(form("MCH-MS Discontinuation", "MCH-MS discontinuation form", _EncounterType.MCHMS_DISCONTINUATION, "1.0", _Form.MCHMS_DISCONTINUATION));
 
 		install(program("MCH - Mother Services", "Treatment for mothers", Dictionary.MATERNAL_AND_CHILD_HEALTH_PROGRAM, _Program.MCHMS));
+
+		fingerprints.recordInstall(this);
 	}
 }
\ No newline at end of file
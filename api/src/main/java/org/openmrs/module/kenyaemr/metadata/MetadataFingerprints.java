@@ -0,0 +1,186 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.metadata;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.APIException;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.Module;
+import org.openmrs.module.ModuleFactory;
+import org.openmrs.module.kenyaemr.EmrConstants;
+import org.openmrs.module.metadatadeploy.bundle.MetadataBundle;
+import org.openmrs.util.OpenmrsClassLoader;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Records a fingerprint of each piece of metadata content when it is installed, i.e. a metadata bundle, a metadata
+ * sharing package or the MFL source, so that startup can skip content which hasn't changed since it was last
+ * installed. A bundle's fingerprint covers its compiled class and the module version, and a package or source's
+ * fingerprint covers the file itself.
+ *
+ * Content is checked with needsInstall and its fingerprint is only saved by recordInstall once it has installed.
+ * Fingerprints are saved as global properties in the same transaction as the install, so they are discarded if the
+ * install fails. Setting {@link EmrConstants#GP_FORCE_METADATA_INSTALL} to true makes everything install on the next
+ * startup.
+ */
+@Component
+public class MetadataFingerprints {
+
+	protected static final Log log = LogFactory.getLog(MetadataFingerprints.class);
+
+	public static final String GP_PREFIX = EmrConstants.MODULE_ID + ".metadataFingerprint.";
+
+	/**
+	 * Checks whether a bundle needs to be installed, i.e. it has changed since it was last installed or a full install
+	 * has been requested
+	 * @param bundle the bundle
+	 * @return true if the bundle should be installed
+	 */
+	public boolean needsInstall(MetadataBundle bundle) {
+		return needsInstall(bundle.getClass().getSimpleName(), fingerprint(bundle));
+	}
+
+	/**
+	 * Checks whether a resource file needs to be installed, i.e. it has changed since it was last installed or a full
+	 * install has been requested
+	 * @param key the key of the content, e.g. package.[group uuid]
+	 * @param resourcePath the path of the resource
+	 * @return true if the resource should be installed
+	 */
+	public boolean needsInstall(String key, String resourcePath) {
+		return needsInstall(key, fingerprint(null, resourcePath));
+	}
+
+	/**
+	 * Records the fingerprint of a bundle once it has been installed
+	 * @param bundle the bundle
+	 */
+	public void recordInstall(MetadataBundle bundle) {
+		record(bundle.getClass().getSimpleName(), fingerprint(bundle));
+	}
+
+	/**
+	 * Records the fingerprint of a resource file once it has been installed
+	 * @param key the key of the content
+	 * @param resourcePath the path of the resource
+	 */
+	public void recordInstall(String key, String resourcePath) {
+		record(key, fingerprint(null, resourcePath));
+	}
+
+	/**
+	 * Checks whether a full install has been requested
+	 * @return true if all content should be installed
+	 */
+	public boolean isForced() {
+		return "true".equalsIgnoreCase(getAdministrationService().getGlobalProperty(EmrConstants.GP_FORCE_METADATA_INSTALL));
+	}
+
+	/**
+	 * Clears the request for a full install, once one has completed
+	 */
+	public void clearForced() {
+		GlobalProperty property = getAdministrationService().getGlobalPropertyObject(EmrConstants.GP_FORCE_METADATA_INSTALL);
+		if (property != null && "true".equalsIgnoreCase(property.getPropertyValue())) {
+			property.setPropertyValue("false");
+			getAdministrationService().saveGlobalProperty(property);
+		}
+	}
+
+	/**
+	 * Compares a fingerprint with the recorded one
+	 * @param key the key of the content
+	 * @param fingerprint the current fingerprint
+	 * @return true if the content should be installed
+	 */
+	protected boolean needsInstall(String key, String fingerprint) {
+		String recorded = getAdministrationService().getGlobalProperty(GP_PREFIX + key);
+
+		if (fingerprint.equals(recorded) && !isForced()) {
+			log.info("Skipping " + key + " as it hasn't changed since it was installed");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Saves a fingerprint as the recorded one
+	 * @param key the key of the content
+	 * @param fingerprint the fingerprint
+	 */
+	protected void record(String key, String fingerprint) {
+		String propertyName = GP_PREFIX + key;
+
+		GlobalProperty property = getAdministrationService().getGlobalPropertyObject(propertyName);
+		if (property == null) {
+			property = new GlobalProperty(propertyName, null, "Fingerprint of the installed " + key + " metadata");
+		}
+		property.setPropertyValue(fingerprint);
+		getAdministrationService().saveGlobalProperty(property);
+	}
+
+	/**
+	 * Calculates the fingerprint of a bundle, which covers its compiled class and the module version
+	 * @param bundle the bundle
+	 * @return the fingerprint
+	 */
+	protected static String fingerprint(MetadataBundle bundle) {
+		return fingerprint(getModuleVersion(), bundle.getClass().getName().replace('.', '/') + ".class");
+	}
+
+	/**
+	 * Calculates the MD5 fingerprint of a resource
+	 * @param prefix a value to include in the fingerprint (may be null)
+	 * @param resourcePath the path of the resource
+	 * @return the fingerprint
+	 */
+	protected static String fingerprint(String prefix, String resourcePath) {
+		InputStream in = OpenmrsClassLoader.getInstance().getResourceAsStream(resourcePath);
+		if (in == null) {
+			throw new APIException("Unable to find metadata resource " + resourcePath);
+		}
+
+		try {
+			String hash = DigestUtils.md5Hex(in);
+			return prefix != null ? DigestUtils.md5Hex(prefix + ":" + hash) : hash;
+		}
+		catch (IOException ex) {
+			throw new APIException("Unable to read metadata resource " + resourcePath, ex);
+		}
+		finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Gets the version of this module, which changes whenever the libraries used to build bundles might have
+	 * @return the version, or an empty string if not running as a module (e.g. in unit tests)
+	 */
+	protected static String getModuleVersion() {
+		Module module = ModuleFactory.getModuleById(EmrConstants.MODULE_ID);
+		return module != null ? module.getVersion() : "";
+	}
+
+	/**
+	 * Convenience method to get the administration service
+	 * @return the service
+	 */
+	protected AdministrationService getAdministrationService() {
+		return Context.getAdministrationService();
+	}
+}
@@ -12,6 +12,7 @@ package org.openmrs.module.kenyaemr.metadata;
 import org.openmrs.module.kenyaemr.Metadata;
 import org.openmrs.module.metadatadeploy.bundle.AbstractMetadataBundle;
 import org.openmrs.module.metadatadeploy.bundle.Requires;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import static org.openmrs.module.metadatadeploy.bundle.CoreConstructors.*;
@@ -23,6 +24,9 @@ import static org.openmrs.module.metadatadeploy.bundle.CoreConstructors.*;
 @Requires({ CommonMetadata.class })
 public class OTZMetadata extends AbstractMetadataBundle {
 
+	@Autowired
+	private MetadataFingerprints fingerprints;
+
 	public static final class _EncounterType {
 		public static final String OTZ_DISCONTINUATION = "162382b8-0464-11ea-9a9f-362b9e155667";
 		public static final String OTZ_ENROLLMENT = "16238574-0464-11ea-9a9f-362b9e155667";
@@ -50,6 +54,10 @@ public class OTZMetadata extends AbstractMetadataBundle {
 	 */
 	@Override
 	public void install() {
+		if (!fingerprints.needsInstall(this)) {
+			return;
+		}
+
 		install(encounterType("OTZ Enrollment", "Enrollment onto OTZ program", _EncounterType.OTZ_ENROLLMENT));
 		install(encounterType("OTZ Discontinuation", "Discontinuation from OTZ program", _EncounterType.OTZ_DISCONTINUATION));
 		install(encounterType("OTZ Activity", "Consultation in OTZ Program", _EncounterType.OTZ_ACTIVITY));
@@ -61,6 +69,6 @@ public class OTZMetadata extends AbstractMetadataBundle {
 
 		install(program("OTZ", "OTZ program", _Concept.OTZ, _Program.OTZ));
 
-
+		fingerprints.recordInstall(this);
 	}
 }
\ No newline at end of file
@@ -13,6 +13,7 @@ import org.openmrs.PatientIdentifierType;
 import org.openmrs.module.kenyaemr.Metadata;
 import org.openmrs.module.metadatadeploy.bundle.AbstractMetadataBundle;
 import org.openmrs.module.metadatadeploy.bundle.Requires;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import static org.openmrs.module.metadatadeploy.bundle.CoreConstructors.encounterType;
@@ -28,6 +29,9 @@ import static org.openmrs.module.metadatadeploy.bundle.CoreConstructors.relation
 @Requires({ CommonMetadata.class })
 public class OVCMetadata extends AbstractMetadataBundle {
 
+	@Autowired
+	private MetadataFingerprints fingerprints;
+
 	public static final class _EncounterType {
 		public static final String OVC_DISCONTINUATION = "5cf00d9e-09da-11ea-8d71-362b9e155667";
 		public static final String OVC_ENROLLMENT = "5cf0124e-09da-11ea-8d71-362b9e155667";
@@ -63,6 +67,10 @@ public class OVCMetadata extends AbstractMetadataBundle {
 	 */
 	@Override
 	public void install() {
+		if (!fingerprints.needsInstall(this)) {
+			return;
+		}
+
 		install(encounterType("OVC Enrollment", "Enrollment onto OVC program", _EncounterType.OVC_ENROLLMENT));
 		install(encounterType("OVC Discontinuation", "Discontinuation from OVC program", _EncounterType.OVC_DISCONTINUATION));
 
@@ -80,6 +88,6 @@ public class OVCMetadata extends AbstractMetadataBundle {
 
 		install(program("OVC", "OVC program", _Concept.OVC, _Program.OVC));
 
-
+		fingerprints.recordInstall(this);
 	}
 }
\ No newline at end of file
@@ -10,6 +10,7 @@
 package org.openmrs.module.kenyaemr.metadata;
 
 import org.openmrs.module.metadatadeploy.bundle.AbstractMetadataBundle;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import static org.openmrs.module.metadatadeploy.bundle.CoreConstructors.packageFile;
@@ -26,13 +27,30 @@ public class PackagesMetadata extends AbstractMetadataBundle {
 		public static final String ORDER_SET = "e7d8aef4-e977-11e8-9f32-f2801f1b9fd1";
 	}
 
+	@Autowired
+	private MetadataFingerprints fingerprints;
+
 	/**
 	 * @see org.openmrs.module.metadatadeploy.bundle.AbstractMetadataBundle#install()
 	 */
 	@Override
 	public void install() {
-		install(packageFile("metadata/KenyaEMR_Drugs-3.zip", null, _Package.DRUGS));
-		install(packageFile("metadata/KenyaEMR_Misc-41.zip", null, _Package.MISC));
-		install(packageFile("metadata/Order_set_metadata-1.zip", null, _Package.ORDER_SET));
+		installPackage("metadata/KenyaEMR_Drugs-3.zip", _Package.DRUGS);
+		installPackage("metadata/KenyaEMR_Misc-41.zip", _Package.MISC);
+		installPackage("metadata/Order_set_metadata-1.zip", _Package.ORDER_SET);
+	}
+
+	/**
+	 * Installs a package unless the same file has already been installed. Importing a package is slow even when
+	 * nothing in it has changed, as every item is compared with the existing metadata.
+	 * @param filename the package filename
+	 * @param groupUuid the package group UUID
+	 */
+	protected void installPackage(String filename, String groupUuid) {
+		String key = "package." + groupUuid;
+		if (fingerprints.needsInstall(key, filename)) {
+			install(packageFile(filename, null, groupUuid));
+			fingerprints.recordInstall(key, filename);
+		}
 	}
 }
\ No newline at end of file
@@ -10,6 +10,7 @@
 package org.openmrs.module.kenyaemr.metadata;
 
 import org.openmrs.module.metadatadeploy.bundle.AbstractMetadataBundle;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import static org.openmrs.module.metadatadeploy.bundle.CoreConstructors.globalProperty;
@@ -20,6 +21,9 @@ import static org.openmrs.module.metadatadeploy.bundle.CoreConstructors.globalPr
 @Component
 public class RDQAMetadata extends AbstractMetadataBundle {
 
+	@Autowired
+	private MetadataFingerprints fingerprints;
+
 	public static final String MODULE_ID = "kenyaemr";
 	public static final String RDQA_DEFAULT_SAMPLE_CONFIGURATION = MODULE_ID + ".sampleSizeConfiguration";
     public static final String RDQA_DEFAULT_NO_OF_MONTHS = MODULE_ID + ".defaultNoOfMonths";
@@ -28,8 +32,13 @@ public class RDQAMetadata extends AbstractMetadataBundle {
 
 	@Override
 	public void install() throws Exception {
+		if (!fingerprints.needsInstall(this)) {
+			return;
+		}
+
 		install(globalProperty(RDQA_DEFAULT_SAMPLE_CONFIGURATION, "RDQA Sample size calculation configuration", defaultConfig));
         install(globalProperty(RDQA_DEFAULT_NO_OF_MONTHS, "RDQA No of previous months to consider in the report", "3"));
 
+		fingerprints.recordInstall(this);
 	}
 }
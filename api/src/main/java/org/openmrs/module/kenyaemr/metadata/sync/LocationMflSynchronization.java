@@ -9,15 +9,29 @@
  */
 package org.openmrs.module.kenyaemr.metadata.sync;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.openmrs.Location;
+import org.openmrs.LocationAttribute;
+import org.openmrs.LocationAttributeType;
 import org.openmrs.api.LocationService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.MflCodeIndex;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.openmrs.module.kenyaemr.metadata.FacilityMetadata;
 import org.openmrs.module.kenyaemr.wrapper.Facility;
+import org.openmrs.module.metadatadeploy.MetadataUtils;
+import org.openmrs.module.metadatadeploy.source.ObjectSource;
 import org.openmrs.module.metadatadeploy.sync.ObjectSynchronization;
 import org.openmrs.util.OpenmrsUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Synchronization operation to sync locations with a CSV copy of the Kenya Master Facility List
@@ -25,9 +39,212 @@ import java.util.List;
 @Component
 public class LocationMflSynchronization implements ObjectSynchronization<Location> {
 
+	protected static final Log log = LogFactory.getLog(LocationMflSynchronization.class);
+
+	/**
+	 * Number of locations saved between flushes of the session
+	 */
+	public static final int BATCH_SIZE = 500;
+
 	@Autowired
 	private LocationService locationService;
 
+	/**
+	 * Synchronizes locations with the given source. Unlike the generic synchronization runner, existing locations are
+	 * compared with the source by a single query on their field values, so only new and changed facilities are loaded
+	 * and saved, and the session is flushed and cleared in batches.
+	 * @param source the location source
+	 * @throws Exception if the source can't be read
+	 */
+	public void synchronize(ObjectSource<Location> source) throws Exception {
+		long start = System.currentTimeMillis();
+
+		LocationAttributeType codeAttrType = MetadataUtils.existing(LocationAttributeType.class, FacilityMetadata._LocationAttributeType.MASTER_FACILITY_CODE);
+		LocationAttributeType landlineAttrType = MetadataUtils.existing(LocationAttributeType.class, FacilityMetadata._LocationAttributeType.TELEPHONE_LANDLINE);
+		LocationAttributeType faxAttrType = MetadataUtils.existing(LocationAttributeType.class, FacilityMetadata._LocationAttributeType.TELEPHONE_FAX);
+		LocationAttributeType mobileAttrType = MetadataUtils.existing(LocationAttributeType.class, FacilityMetadata._LocationAttributeType.TELEPHONE_MOBILE);
+
+		Map<String, Object[]> existingByCode = fetchExistingValues(codeAttrType, landlineAttrType, faxAttrType, mobileAttrType);
+		Set<String> syncedCodes = new HashSet<String>();
+
+		int created = 0, updated = 0, retired = 0, unchanged = 0, saved = 0;
+
+		Location incoming;
+		while ((incoming = source.fetchNext()) != null) {
+			String code = getAttributeValue(incoming, codeAttrType);
+			if (code == null || !syncedCodes.add(code)) {
+				continue;
+			}
+
+			String[] values = {
+					incoming.getName(), incoming.getDescription(), incoming.getStateProvince(), incoming.getCountyDistrict(),
+					incoming.getAddress6(), incoming.getAddress5(), incoming.getPostalCode(),
+					getAttributeValue(incoming, landlineAttrType), getAttributeValue(incoming, faxAttrType), getAttributeValue(incoming, mobileAttrType)
+			};
+
+			Object[] existingRow = existingByCode.get(code);
+
+			if (existingRow == null) {
+				locationService.saveLocation(incoming);
+				created++;
+			}
+			else if (!isRetired(existingRow) && valuesMatch(values, existingRow)) {
+				unchanged++;
+				continue;
+			}
+			else {
+				Location existing = locationService.getLocation(((Number) existingRow[0]).intValue());
+				existing.setName(incoming.getName());
+				existing.setDescription(incoming.getDescription());
+				existing.setAddress5(incoming.getAddress5());
+				existing.setAddress6(incoming.getAddress6());
+				existing.setCountyDistrict(incoming.getCountyDistrict());
+				existing.setStateProvince(incoming.getStateProvince());
+				existing.setCountry(incoming.getCountry());
+				existing.setPostalCode(incoming.getPostalCode());
+				existing.setRetired(false);
+				existing.setRetiredBy(null);
+				existing.setDateRetired(null);
+				existing.setRetireReason(null);
+
+				updateAttribute(existing, landlineAttrType, values[7]);
+				updateAttribute(existing, faxAttrType, values[8]);
+				updateAttribute(existing, mobileAttrType, values[9]);
+
+				locationService.saveLocation(existing);
+				updated++;
+			}
+
+			if (++saved % BATCH_SIZE == 0) {
+				Context.flushSession();
+				Context.clearSession();
+			}
+		}
+
+		// Retire facilities which are no longer in the list
+		for (Map.Entry<String, Object[]> entry : existingByCode.entrySet()) {
+			if (!syncedCodes.contains(entry.getKey()) && !isRetired(entry.getValue())) {
+				Location existing = locationService.getLocation(((Number) entry.getValue()[0]).intValue());
+				locationService.retireLocation(existing, "Not in Master Facility List");
+				retired++;
+
+				if (++saved % BATCH_SIZE == 0) {
+					Context.flushSession();
+					Context.clearSession();
+				}
+			}
+		}
+
+		Context.flushSession();
+		MflCodeIndex.clear();
+
+		log.info("Synchronized facility list in " + (System.currentTimeMillis() - start) + "ms (created: " + created
+				+ ", updated: " + updated + ", retired: " + retired + ", unchanged: " + unchanged + ")");
+	}
+
+	/**
+	 * Fetches the synchronized field values of all locations with an MFL code, keyed by code
+	 * @return the rows of location id, retired, name, description, province, county, district, division, postcode,
+	 * landline, fax and mobile
+	 */
+	protected Map<String, Object[]> fetchExistingValues(LocationAttributeType codeAttrType, LocationAttributeType landlineAttrType,
+														LocationAttributeType faxAttrType, LocationAttributeType mobileAttrType) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("codeAttrTypeId", codeAttrType.getId());
+		params.put("landlineAttrTypeId", landlineAttrType.getId());
+		params.put("faxAttrTypeId", faxAttrType.getId());
+		params.put("mobileAttrTypeId", mobileAttrType.getId());
+
+		List<Object> rows = Context.getService(KenyaEmrService.class).executeSqlQuery("select l.location_id, l.retired,"
+				+ " l.name, l.description, l.state_province, l.county_district, l.address6, l.address5, l.postal_code,"
+				+ " landline.value_reference, fax.value_reference, mobile.value_reference, code.value_reference"
+				+ " from location l"
+				+ " inner join location_attribute code on code.location_id = l.location_id and code.voided = 0 and code.attribute_type_id = :codeAttrTypeId"
+				+ " left outer join location_attribute landline on landline.location_id = l.location_id and landline.voided = 0 and landline.attribute_type_id = :landlineAttrTypeId"
+				+ " left outer join location_attribute fax on fax.location_id = l.location_id and fax.voided = 0 and fax.attribute_type_id = :faxAttrTypeId"
+				+ " left outer join location_attribute mobile on mobile.location_id = l.location_id and mobile.voided = 0 and mobile.attribute_type_id = :mobileAttrTypeId"
+				+ " order by l.location_id", params);
+
+		Map<String, Object[]> existingByCode = new HashMap<String, Object[]>();
+		for (Object row : rows) {
+			Object[] values = (Object[]) row;
+			String code = (String) values[12];
+
+			// Prefer a non-retired location when several share a code
+			Object[] previous = existingByCode.get(code);
+			if (previous == null || (isRetired(previous) && !isRetired(values))) {
+				existingByCode.put(code, values);
+			}
+		}
+		return existingByCode;
+	}
+
+	/**
+	 * Checks whether the field values from the source match those of an existing location
+	 * @param values the source values
+	 * @param existingRow the existing row
+	 * @return true if all values match
+	 */
+	protected static boolean valuesMatch(String[] values, Object[] existingRow) {
+		for (int v = 0; v < values.length; ++v) {
+			if (!OpenmrsUtil.nullSafeEquals(values[v], existingRow[v + 2])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether an existing location row is retired
+	 * @param existingRow the existing row
+	 * @return true if retired
+	 */
+	protected static boolean isRetired(Object[] existingRow) {
+		Object retired = existingRow[1];
+		return retired instanceof Boolean ? (Boolean) retired : (retired instanceof Number && ((Number) retired).intValue() != 0);
+	}
+
+	/**
+	 * Gets the value of an active attribute of the given type
+	 * @param location the location
+	 * @param type the attribute type
+	 * @return the value or null
+	 */
+	protected static String getAttributeValue(Location location, LocationAttributeType type) {
+		for (LocationAttribute attr : location.getActiveAttributes()) {
+			if (attr.getAttributeType().getUuid().equals(type.getUuid())) {
+				return (String) attr.getValue();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Updates the value of an attribute if it has changed
+	 * @param location the location
+	 * @param type the attribute type
+	 * @param value the new value (may be null)
+	 */
+	protected static void updateAttribute(Location location, LocationAttributeType type, String value) {
+		String current = getAttributeValue(location, type);
+		if (OpenmrsUtil.nullSafeEquals(current, value)) {
+			return;
+		}
+
+		if (value != null) {
+			LocationAttribute attr = new LocationAttribute();
+			attr.setAttributeType(type);
+			attr.setValue(value);
+			location.setAttribute(attr);
+		}
+		else {
+			for (LocationAttribute attr : location.getActiveAttributes(type)) {
+				attr.setVoided(true);
+				attr.setVoidReason("Not in Master Facility List");
+			}
+		}
+	}
+
 	/**
 	 * @see org.openmrs.module.metadatadeploy.sync.ObjectSynchronization#fetchAllExisting()
 	 */
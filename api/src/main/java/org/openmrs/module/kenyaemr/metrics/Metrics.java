@@ -0,0 +1,66 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of application timers, grouped by the kind of operation being timed, e.g. "calculation" or "report"
+ */
+public class Metrics {
+
+	public static final String GROUP_CALCULATION = "calculation";
+
+	public static final String GROUP_REPORT = "report";
+
+	private static final ConcurrentMap<String, ConcurrentMap<String, Timer>> groups = new ConcurrentHashMap<String, ConcurrentMap<String, Timer>>();
+
+	/**
+	 * Gets or creates a timer
+	 * @param group the group, e.g. "calculation"
+	 * @param name the name, e.g. "OnArtCalculation"
+	 * @return the timer
+	 */
+	public static Timer timer(String group, String name) {
+		ConcurrentMap<String, Timer> timers = groups.get(group);
+		if (timers == null) {
+			groups.putIfAbsent(group, new ConcurrentHashMap<String, Timer>());
+			timers = groups.get(group);
+		}
+
+		Timer timer = timers.get(name);
+		if (timer == null) {
+			timers.putIfAbsent(name, new Timer());
+			timer = timers.get(name);
+		}
+		return timer;
+	}
+
+	/**
+	 * Gets all timers in a group
+	 * @param group the group
+	 * @return the timers sorted by name
+	 */
+	public static Map<String, Timer> getTimers(String group) {
+		Map<String, Timer> timers = groups.get(group);
+		return timers != null ? new TreeMap<String, Timer>(timers) : Collections.<String, Timer>emptyMap();
+	}
+
+	/**
+	 * Removes all timers
+	 */
+	public static void reset() {
+		groups.clear();
+	}
+}
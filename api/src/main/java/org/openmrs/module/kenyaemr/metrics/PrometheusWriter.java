@@ -0,0 +1,160 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.metrics;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Builds metrics in the Prometheus text exposition format (version 0.0.4)
+ */
+public class PrometheusWriter {
+
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+
+	private final StringBuilder builder = new StringBuilder();
+
+	/**
+	 * Writes a single unlabelled gauge
+	 */
+	public void gauge(String name, String help, Number value) {
+		gauges(name, help, Collections.<String[]>singletonList(null), Collections.singletonList(value));
+	}
+
+	/**
+	 * Writes a single labelled gauge
+	 */
+	public void gauge(String name, String help, String[] labels, Number value) {
+		gauges(name, help, Collections.singletonList(labels), Collections.singletonList(value));
+	}
+
+	/**
+	 * Writes a single unlabelled counter
+	 */
+	public void counter(String name, String help, Number value) {
+		counters(name, help, Collections.<String[]>singletonList(null), Collections.singletonList(value));
+	}
+
+	/**
+	 * Writes a gauge with multiple labelled samples
+	 */
+	public void gauges(String name, String help, List<String[]> labels, List<Number> values) {
+		write(name, help, "gauge", labels, values);
+	}
+
+	/**
+	 * Writes a counter with multiple labelled samples
+	 */
+	public void counters(String name, String help, List<String[]> labels, List<Number> values) {
+		write(name, help, "counter", labels, values);
+	}
+
+	/**
+	 * Writes a summary without quantiles, with multiple labelled samples. Each sample has a count and a sum, which are
+	 * written as the name_count and name_sum series of the one metric family.
+	 * @param name the metric name
+	 * @param help the help text
+	 * @param labels the label name/value pairs for each sample (null for no labels)
+	 * @param counts the count of each sample
+	 * @param sums the sum of each sample
+	 */
+	public void summaries(String name, String help, List<String[]> labels, List<Number> counts, List<Number> sums) {
+		if (counts.isEmpty()) {
+			return;
+		}
+
+		writeHeader(name, help, "summary");
+
+		for (int s = 0; s < counts.size(); s++) {
+			if (counts.get(s) == null || sums.get(s) == null) {
+				continue;
+			}
+
+			writeSample(name + "_count", labels.get(s), counts.get(s));
+			writeSample(name + "_sum", labels.get(s), sums.get(s));
+		}
+	}
+
+	/**
+	 * Writes a metric family
+	 * @param name the metric name
+	 * @param help the help text
+	 * @param type the metric type
+	 * @param labels the label name/value pairs for each sample (null for no labels)
+	 * @param values the value of each sample
+	 */
+	protected void write(String name, String help, String type, List<String[]> labels, List<Number> values) {
+		if (values.isEmpty()) {
+			return;
+		}
+
+		writeHeader(name, help, type);
+
+		for (int s = 0; s < values.size(); s++) {
+			Number value = values.get(s);
+			if (value == null) {
+				continue;
+			}
+
+			writeSample(name, labels.get(s), value);
+		}
+	}
+
+	/**
+	 * Writes the help and type lines of a metric family
+	 * @param name the metric name
+	 * @param help the help text
+	 * @param type the metric type
+	 */
+	protected void writeHeader(String name, String help, String type) {
+		builder.append("# HELP ").append(name).append(" ").append(help).append("\n");
+		builder.append("# TYPE ").append(name).append(" ").append(type).append("\n");
+	}
+
+	/**
+	 * Writes a sample
+	 * @param name the sample name
+	 * @param labels the label name/value pairs (null for no labels)
+	 * @param value the value
+	 */
+	protected void writeSample(String name, String[] labels, Number value) {
+		builder.append(name);
+
+		if (labels != null) {
+			builder.append("{");
+			for (int l = 0; l < labels.length; l += 2) {
+				if (l > 0) {
+					builder.append(",");
+				}
+				builder.append(labels[l]).append("=\"").append(escape(labels[l + 1])).append("\"");
+			}
+			builder.append("}");
+		}
+
+		builder.append(" ").append(value).append("\n");
+	}
+
+	/**
+	 * Escapes a label value
+	 * @param value the value
+	 * @return the escaped value
+	 */
+	protected static String escape(String value) {
+		return value != null ? value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") : "";
+	}
+
+	/**
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return builder.toString();
+	}
+}
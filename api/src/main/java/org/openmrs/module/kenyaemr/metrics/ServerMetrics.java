@@ -0,0 +1,316 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.metrics;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.openmrs.module.reporting.report.ReportRequest;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Utility class for fetching JVM and application metrics. Values are returned as nested maps like those of
+ * {@link org.openmrs.module.kenyaemr.util.ServerInformation}
+ */
+public class ServerMetrics {
+
+	protected static final Log log = LogFactory.getLog(ServerMetrics.class);
+
+	/**
+	 * C3P0 registers each pooled data source as an MBean with this name pattern
+	 */
+	private static final String C3P0_MBEAN_PATTERN = "com.mchange.v2.c3p0:type=PooledDataSource*,*";
+
+	/**
+	 * Gets a map of all metric sections
+	 * @return the metric sections
+	 */
+	public static Map<String, Object> getAllMetrics() {
+		Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+		metrics.put("memory", getMemoryMetrics());
+		metrics.put("gc", getGarbageCollectionMetrics());
+		metrics.put("threads", getThreadMetrics());
+		metrics.put("hibernate", getHibernateMetrics());
+		metrics.put("connectionPools", getConnectionPoolMetrics());
+		metrics.put("reportQueue", getReportQueueMetrics());
+		metrics.put("reports", getTimerMetrics(Metrics.GROUP_REPORT));
+		metrics.put("calculations", getTimerMetrics(Metrics.GROUP_CALCULATION));
+		return metrics;
+	}
+
+	/**
+	 * Gets heap and memory pool usage
+	 * @return the data points
+	 */
+	public static Map<String, Object> getMemoryMetrics() {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+		Map<String, Object> pools = new LinkedHashMap<String, Object>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			pools.put(pool.getName(), usage(pool.getUsage()));
+		}
+
+		Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+		metrics.put("heap", usage(memory.getHeapMemoryUsage()));
+		metrics.put("nonHeap", usage(memory.getNonHeapMemoryUsage()));
+		metrics.put("pools", pools);
+		return metrics;
+	}
+
+	/**
+	 * Gets garbage collection counts and accumulated pause times
+	 * @return the data points
+	 */
+	public static Map<String, Object> getGarbageCollectionMetrics() {
+		Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			Map<String, Object> collectorMetrics = new LinkedHashMap<String, Object>();
+			collectorMetrics.put("count", collector.getCollectionCount());
+			collectorMetrics.put("time", collector.getCollectionTime());
+			metrics.put(collector.getName(), collectorMetrics);
+		}
+		return metrics;
+	}
+
+	/**
+	 * Gets thread counts
+	 * @return the data points
+	 */
+	public static Map<String, Object> getThreadMetrics() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+		Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+		metrics.put("live", threads.getThreadCount());
+		metrics.put("daemon", threads.getDaemonThreadCount());
+		metrics.put("peak", threads.getPeakThreadCount());
+		metrics.put("started", threads.getTotalStartedThreadCount());
+		return metrics;
+	}
+
+	/**
+	 * Gets Hibernate session and query statistics. These are only collected if statistics are enabled on the session
+	 * factory.
+	 * @return the data points
+	 */
+	public static Map<String, Object> getHibernateMetrics() {
+		Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+
+		List<SessionFactory> factories = Context.getRegisteredComponents(SessionFactory.class);
+		if (factories.isEmpty()) {
+			return metrics;
+		}
+
+		Statistics statistics = factories.get(0).getStatistics();
+		metrics.put("enabled", statistics.isStatisticsEnabled());
+
+		if (statistics.isStatisticsEnabled()) {
+			metrics.put("sessionsOpened", statistics.getSessionOpenCount());
+			metrics.put("sessionsClosed", statistics.getSessionCloseCount());
+			metrics.put("transactions", statistics.getTransactionCount());
+			metrics.put("flushes", statistics.getFlushCount());
+			metrics.put("statementsPrepared", statistics.getPrepareStatementCount());
+			metrics.put("queries", statistics.getQueryExecutionCount());
+			metrics.put("queryMaxTime", statistics.getQueryExecutionMaxTime());
+			metrics.put("queryMaxTimeQuery", statistics.getQueryExecutionMaxTimeQueryString());
+			metrics.put("entitiesLoaded", statistics.getEntityLoadCount());
+			metrics.put("entitiesFetched", statistics.getEntityFetchCount());
+			metrics.put("cacheHits", statistics.getSecondLevelCacheHitCount());
+			metrics.put("cacheMisses", statistics.getSecondLevelCacheMissCount());
+		}
+		return metrics;
+	}
+
+	/**
+	 * Gets database connection pool usage from any C3P0 pools registered with the platform MBean server
+	 * @return the data points by pool name
+	 */
+	public static Map<String, Object> getConnectionPoolMetrics() {
+		Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+		try {
+			for (ObjectName name : server.queryNames(new ObjectName(C3P0_MBEAN_PATTERN), null)) {
+				Map<String, Object> poolMetrics = new LinkedHashMap<String, Object>();
+				poolMetrics.put("connections", server.getAttribute(name, "numConnectionsAllUsers"));
+				poolMetrics.put("busy", server.getAttribute(name, "numBusyConnectionsAllUsers"));
+				poolMetrics.put("idle", server.getAttribute(name, "numIdleConnectionsAllUsers"));
+				poolMetrics.put("max", server.getAttribute(name, "maxPoolSize"));
+				poolMetrics.put("waiting", server.getAttribute(name, "numThreadsAwaitingCheckoutDefaultUser"));
+				metrics.put(name.getKeyProperty("name") != null ? name.getKeyProperty("name") : name.getKeyProperty("identityToken"), poolMetrics);
+			}
+		}
+		catch (Exception ex) {
+			log.debug("Unable to read connection pool metrics", ex);
+		}
+		return metrics;
+	}
+
+	/**
+	 * Gets the number of queued and running report requests. These are counted by the database rather than by loading
+	 * the requests, and the query doesn't require an authenticated user.
+	 * @return the data points
+	 */
+	public static Map<String, Object> getReportQueueMetrics() {
+		Map<String, Object> substitutions = new HashMap<String, Object>();
+		substitutions.put("requested", ReportRequest.Status.REQUESTED.name());
+		substitutions.put("processing", ReportRequest.Status.PROCESSING.name());
+
+		List<Object> rows = Context.getService(KenyaEmrService.class).executeSqlQuery("select status, count(*) from reporting_report_request"
+				+ " where status in (:requested, :processing) group by status", substitutions);
+
+		Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+		metrics.put("requested", 0);
+		metrics.put("processing", 0);
+
+		for (Object row : rows) {
+			Object[] values = (Object[]) row;
+			metrics.put(((String) values[0]).toLowerCase(), ((Number) values[1]).intValue());
+		}
+		return metrics;
+	}
+
+	/**
+	 * Gets the timers for the given group
+	 * @param group the group
+	 * @return the data points by timer name
+	 */
+	public static Map<String, Object> getTimerMetrics(String group) {
+		Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+		for (Map.Entry<String, Timer> entry : Metrics.getTimers(group).entrySet()) {
+			metrics.put(entry.getKey(), entry.getValue().toMap());
+		}
+		return metrics;
+	}
+
+	/**
+	 * Converts memory usage to a map
+	 * @param usage the usage
+	 * @return the map
+	 */
+	private static Map<String, Object> usage(MemoryUsage usage) {
+		Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+		metrics.put("used", usage.getUsed());
+		metrics.put("committed", usage.getCommitted());
+		metrics.put("max", usage.getMax());
+		return metrics;
+	}
+
+	/**
+	 * Formats all metrics in the Prometheus text exposition format
+	 * @return the formatted metrics
+	 */
+	public static String toPrometheus() {
+		PrometheusWriter writer = new PrometheusWriter();
+
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		writer.gauge("kenyaemr_jvm_memory_heap_used_bytes", "Used heap memory", memory.getHeapMemoryUsage().getUsed());
+		writer.gauge("kenyaemr_jvm_memory_heap_committed_bytes", "Committed heap memory", memory.getHeapMemoryUsage().getCommitted());
+		writer.gauge("kenyaemr_jvm_memory_heap_max_bytes", "Maximum heap memory", memory.getHeapMemoryUsage().getMax());
+		writer.gauge("kenyaemr_jvm_memory_nonheap_used_bytes", "Used non-heap memory", memory.getNonHeapMemoryUsage().getUsed());
+
+		List<String[]> poolLabels = new ArrayList<String[]>();
+		List<Number> poolValues = new ArrayList<Number>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			poolLabels.add(new String[] { "pool", pool.getName() });
+			poolValues.add(pool.getUsage().getUsed());
+		}
+		writer.gauges("kenyaemr_jvm_memory_pool_used_bytes", "Used memory by pool", poolLabels, poolValues);
+
+		List<String[]> gcLabels = new ArrayList<String[]>();
+		List<Number> gcCounts = new ArrayList<Number>();
+		List<Number> gcTimes = new ArrayList<Number>();
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcLabels.add(new String[] { "gc", collector.getName() });
+			gcCounts.add(collector.getCollectionCount());
+			gcTimes.add(collector.getCollectionTime() / 1000.0);
+		}
+		writer.counters("kenyaemr_jvm_gc_collections_total", "Garbage collections", gcLabels, gcCounts);
+		writer.counters("kenyaemr_jvm_gc_pause_seconds_total", "Accumulated garbage collection time", gcLabels, gcTimes);
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		writer.gauge("kenyaemr_jvm_threads_live", "Live threads", threads.getThreadCount());
+		writer.gauge("kenyaemr_jvm_threads_daemon", "Daemon threads", threads.getDaemonThreadCount());
+		writer.gauge("kenyaemr_jvm_threads_peak", "Peak live threads", threads.getPeakThreadCount());
+
+		Map<String, Object> hibernate = getHibernateMetrics();
+		if (Boolean.TRUE.equals(hibernate.get("enabled"))) {
+			writer.counter("kenyaemr_hibernate_sessions_opened_total", "Hibernate sessions opened", (Number) hibernate.get("sessionsOpened"));
+			writer.counter("kenyaemr_hibernate_transactions_total", "Hibernate transactions", (Number) hibernate.get("transactions"));
+			writer.counter("kenyaemr_hibernate_statements_prepared_total", "JDBC statements prepared", (Number) hibernate.get("statementsPrepared"));
+			writer.counter("kenyaemr_hibernate_queries_total", "Hibernate queries executed", (Number) hibernate.get("queries"));
+			writer.gauge("kenyaemr_hibernate_query_max_seconds", "Slowest Hibernate query", ((Number) hibernate.get("queryMaxTime")).longValue() / 1000.0);
+			writer.counter("kenyaemr_hibernate_entities_loaded_total", "Entities loaded", (Number) hibernate.get("entitiesLoaded"));
+			writer.counter("kenyaemr_hibernate_cache_hits_total", "Second level cache hits", (Number) hibernate.get("cacheHits"));
+			writer.counter("kenyaemr_hibernate_cache_misses_total", "Second level cache misses", (Number) hibernate.get("cacheMisses"));
+		}
+
+		for (Map.Entry<String, Object> pool : getConnectionPoolMetrics().entrySet()) {
+			Map<String, Object> poolMetrics = (Map<String, Object>) pool.getValue();
+			String[] labels = { "pool", pool.getKey() };
+			writer.gauge("kenyaemr_db_pool_connections", "Pooled connections", labels, (Number) poolMetrics.get("connections"));
+			writer.gauge("kenyaemr_db_pool_busy", "Busy pooled connections", labels, (Number) poolMetrics.get("busy"));
+			writer.gauge("kenyaemr_db_pool_waiting", "Threads waiting for a connection", labels, (Number) poolMetrics.get("waiting"));
+		}
+
+		Map<String, Object> queue = getReportQueueMetrics();
+		writer.gauge("kenyaemr_report_queue_requested", "Report requests waiting to be processed", (Number) queue.get("requested"));
+		writer.gauge("kenyaemr_report_queue_processing", "Report requests being processed", (Number) queue.get("processing"));
+
+		writeTimers(writer, "kenyaemr_report_evaluation", "Report evaluation", "report", Metrics.getTimers(Metrics.GROUP_REPORT));
+		writeTimers(writer, "kenyaemr_calculation_evaluation", "Calculation evaluation", "calculation", Metrics.getTimers(Metrics.GROUP_CALCULATION));
+
+		return writer.toString();
+	}
+
+	/**
+	 * Writes a group of timers as Prometheus summaries without quantiles
+	 * @param writer the writer
+	 * @param name the metric name prefix
+	 * @param help the help text
+	 * @param label the label name which holds the timer name
+	 * @param timers the timers
+	 */
+	private static void writeTimers(PrometheusWriter writer, String name, String help, String label, Map<String, Timer> timers) {
+		List<String[]> labels = new ArrayList<String[]>();
+		List<Number> counts = new ArrayList<Number>();
+		List<Number> sums = new ArrayList<Number>();
+		List<Number> maxes = new ArrayList<Number>();
+		List<Number> errors = new ArrayList<Number>();
+
+		for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+			Timer timer = entry.getValue();
+			labels.add(new String[] { label, entry.getKey() });
+			counts.add(timer.getCount());
+			sums.add(timer.getTotalTime() / 1000.0);
+			maxes.add(timer.getMaxTime() / 1000.0);
+			errors.add(timer.getErrors());
+		}
+
+		writer.summaries(name + "_seconds", help + " time", labels, counts, sums);
+		writer.gauges(name + "_seconds_max", help + " maximum time", labels, maxes);
+		writer.counters(name + "_errors_total", help + " failures", labels, errors);
+	}
+}
@@ -0,0 +1,89 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Accumulates the durations of a repeated operation
+ */
+public class Timer {
+
+	private long count;
+
+	private long errors;
+
+	private long totalTime;
+
+	private long maxTime;
+
+	private long lastTime;
+
+	/**
+	 * Records an invocation
+	 * @param time the time taken in milliseconds
+	 * @param failed whether the invocation failed
+	 */
+	public synchronized void record(long time, boolean failed) {
+		count++;
+		totalTime += time;
+		lastTime = time;
+		if (time > maxTime) {
+			maxTime = time;
+		}
+		if (failed) {
+			errors++;
+		}
+	}
+
+	public synchronized long getCount() {
+		return count;
+	}
+
+	public synchronized long getErrors() {
+		return errors;
+	}
+
+	public synchronized long getTotalTime() {
+		return totalTime;
+	}
+
+	public synchronized long getMaxTime() {
+		return maxTime;
+	}
+
+	public synchronized long getLastTime() {
+		return lastTime;
+	}
+
+	/**
+	 * Gets the mean time
+	 * @return the mean time in milliseconds
+	 */
+	public synchronized long getMeanTime() {
+		return count > 0 ? totalTime / count : 0;
+	}
+
+	/**
+	 * Converts this timer to a map suitable for JSON serialization
+	 * @return the map
+	 */
+	public synchronized Map<String, Object> toMap() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("count", count);
+		map.put("errors", errors);
+		map.put("total", totalTime);
+		map.put("mean", getMeanTime());
+		map.put("max", maxTime);
+		map.put("last", lastTime);
+		return map;
+	}
+}
@@ -0,0 +1,216 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.regimen;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang.StringUtils;
+import org.codehaus.jackson.node.ArrayNode;
+import org.codehaus.jackson.node.JsonNodeFactory;
+import org.codehaus.jackson.node.ObjectNode;
+import org.openmrs.Concept;
+import org.openmrs.Drug;
+import org.openmrs.OrderFrequency;
+import org.openmrs.OrderSet;
+import org.openmrs.api.context.Context;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Catalogue of regimen definitions in the JSON form used by the prescription UI. Entries are added as the regimen
+ * configuration is parsed by {@link RegimenManager}, with drug ids, order set ids, order frequencies and dose units
+ * resolved once at that point rather than on every page load. Once compiled the catalogue is serialized to JSON with an
+ * ETag so that clients can cache it.
+ */
+public class RegimenCatalogue {
+
+	private final Map<String, Map<String, List<ObjectNode>>> entries = new LinkedHashMap<String, Map<String, List<ObjectNode>>>();
+
+	private final ArrayNode allEntries = JsonNodeFactory.instance.arrayNode();
+
+	private List<OrderFrequency> frequencies;
+
+	private Map<Integer, String> drugIds = new HashMap<Integer, String>();
+
+	private String json;
+
+	private String etag;
+
+	/**
+	 * Creates a component entry, resolving the dose units, order frequency and drug
+	 * @param drugCode the drug code
+	 * @param dose the dose as specified in the configuration
+	 * @param units the dose units as specified in the configuration, e.g. "mg"
+	 * @param frequency the frequency as specified in the configuration, e.g. "OD"
+	 * @param drug the drug reference
+	 * @return the component entry
+	 */
+	public ObjectNode createComponent(String drugCode, String dose, String units, String frequency, DrugReference drug) {
+		Concept unitsConcept = getConcept(RegimenConversionUtil.getConceptIdFromDoseUnitString(units));
+		Concept frequencyConcept = getConcept(RegimenConversionUtil.getConceptIdFromFrequencyString(frequency));
+		String orderFrequencyUuid = frequencyConcept != null ? getOrderFrequencyUuid(frequencyConcept) : null;
+		String drugId = getDrugId(drug.getConcept());
+
+		ObjectNode component = JsonNodeFactory.instance.objectNode();
+		component.put("name", drugCode);
+		component.put("dose", dose != null ? dose : "");
+		component.put("units", units != null ? units : "");
+		component.put("units_uuid", unitsConcept != null ? unitsConcept.getUuid() : "");
+		component.put("frequency", orderFrequencyUuid != null ? orderFrequencyUuid : "");
+		component.put("drug_id", drugId != null ? drugId : "");
+		return component;
+	}
+
+	/**
+	 * Adds a regimen entry
+	 * @param category the category code, e.g. "ARV"
+	 * @param definition the regimen definition
+	 * @param components the component entries
+	 */
+	public synchronized void addRegimen(String category, RegimenDefinition definition, ArrayNode components) {
+		String conceptRef = definition.getConceptRef() != null ? definition.getConceptRef() : "";
+
+		ObjectNode entry = JsonNodeFactory.instance.objectNode();
+		entry.put("regimenName", definition.getName());
+		entry.put("program", category);
+		entry.put("groupCodeName", definition.getGroup().getName());
+		entry.put("conceptRef", conceptRef);
+		entry.put("orderSetId", getOrderSetId(definition.getOrderSetRef()));
+		entry.put("orderSetComponents", components);
+
+		Map<String, List<ObjectNode>> byConceptRef = entries.get(category);
+		if (byConceptRef == null) {
+			byConceptRef = new HashMap<String, List<ObjectNode>>();
+			entries.put(category, byConceptRef);
+		}
+		List<ObjectNode> matching = byConceptRef.get(conceptRef);
+		if (matching == null) {
+			matching = new ArrayList<ObjectNode>();
+			byConceptRef.put(conceptRef, matching);
+		}
+		matching.add(entry);
+		allEntries.add(entry);
+
+		json = null;
+		etag = null;
+	}
+
+	/**
+	 * Serializes the catalogue and calculates its ETag. The lookups used while adding entries are released.
+	 */
+	public synchronized void compile() {
+		json = allEntries.toString();
+		etag = "\"" + DigestUtils.md5Hex(json) + "\"";
+
+		frequencies = null;
+		drugIds = new HashMap<Integer, String>();
+	}
+
+	/**
+	 * Gets the entries of regimens with the given concept
+	 * @param category the category code, e.g. "ARV"
+	 * @param conceptRef the regimen concept UUID
+	 * @return the entries (never null)
+	 */
+	public synchronized List<ObjectNode> getEntries(String category, String conceptRef) {
+		Map<String, List<ObjectNode>> byConceptRef = entries.get(category);
+		List<ObjectNode> matching = (byConceptRef != null && conceptRef != null) ? byConceptRef.get(conceptRef) : null;
+		return matching != null ? Collections.unmodifiableList(matching) : Collections.<ObjectNode>emptyList();
+	}
+
+	/**
+	 * Gets the entire catalogue as JSON
+	 * @return the JSON array of entries
+	 */
+	public synchronized String getJson() {
+		if (json == null) {
+			compile();
+		}
+		return json;
+	}
+
+	/**
+	 * Gets the ETag of the serialized catalogue
+	 * @return the quoted ETag value
+	 */
+	public synchronized String getETag() {
+		if (etag == null) {
+			compile();
+		}
+		return etag;
+	}
+
+	/**
+	 * Gets the number of regimen entries
+	 * @return the number of entries
+	 */
+	public synchronized int size() {
+		return allEntries.size();
+	}
+
+	/**
+	 * Gets a concept by id
+	 * @param conceptId the concept id (may be null)
+	 * @return the concept or null
+	 */
+	protected Concept getConcept(Integer conceptId) {
+		return conceptId != null ? Context.getConceptService().getConcept(conceptId) : null;
+	}
+
+	/**
+	 * Gets the UUID of the order frequency for the given concept
+	 * @param frequencyConcept the frequency concept
+	 * @return the order frequency UUID or null
+	 */
+	protected String getOrderFrequencyUuid(Concept frequencyConcept) {
+		if (frequencies == null) {
+			frequencies = Context.getOrderService().getOrderFrequencies(false);
+		}
+		for (OrderFrequency frequency : frequencies) {
+			if (frequency.getConcept().equals(frequencyConcept)) {
+				return frequency.getUuid();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the id of the first drug for the given concept
+	 * @param concept the drug concept
+	 * @return the drug id or null
+	 */
+	protected String getDrugId(Concept concept) {
+		if (concept == null) {
+			return null;
+		}
+		if (!drugIds.containsKey(concept.getConceptId())) {
+			List<Drug> drugs = Context.getConceptService().getDrugs(String.valueOf(concept.getConceptId()));
+			drugIds.put(concept.getConceptId(), (drugs != null && drugs.size() > 0) ? String.valueOf(drugs.get(0).getDrugId()) : null);
+		}
+		return drugIds.get(concept.getConceptId());
+	}
+
+	/**
+	 * Gets the id of the given order set
+	 * @param orderSetRef the order set UUID
+	 * @return the order set id or empty string
+	 */
+	protected String getOrderSetId(String orderSetRef) {
+		if (StringUtils.isEmpty(orderSetRef)) {
+			return "";
+		}
+		OrderSet orderSet = Context.getOrderSetService().getOrderSetByUuid(orderSetRef);
+		return orderSet != null ? String.valueOf(orderSet.getOrderSetId()) : "";
+	}
+}
@@ -10,6 +10,9 @@
 package org.openmrs.module.kenyaemr.regimen;
 
 import org.apache.commons.lang.ObjectUtils;
+import org.apache.commons.lang.StringUtils;
+import org.codehaus.jackson.node.ArrayNode;
+import org.codehaus.jackson.node.JsonNodeFactory;
 import org.openmrs.Concept;
 import org.openmrs.DrugOrder;
 import org.openmrs.api.ConceptService;
@@ -29,6 +32,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -48,6 +52,10 @@ public class RegimenManager implements ContentManager {
 
 	private Map<String, List<RegimenDefinitionGroup>> regimenGroups = new LinkedHashMap<String, List<RegimenDefinitionGroup>>();
 
+	private Map<String, Map<String, List<RegimenDefinition>>> definitionsBySignature = new HashMap<String, Map<String, List<RegimenDefinition>>>();
+
+	private RegimenCatalogue catalogue = new RegimenCatalogue();
+
 	/**
 	 * @see org.openmrs.module.kenyacore.ContentManager#getPriority()
 	 */
@@ -64,6 +72,8 @@ public class RegimenManager implements ContentManager {
 		masterSetConcepts.clear();
 		drugs.clear();
 		regimenGroups.clear();
+		definitionsBySignature.clear();
+		catalogue = new RegimenCatalogue();
 
 		for (RegimenConfiguration configuration : Context.getRegisteredComponents(RegimenConfiguration.class)) {
 			try {
@@ -77,6 +87,8 @@ public class RegimenManager implements ContentManager {
 				throw new RuntimeException("Unable to load " + configuration.getModuleId() + ":" + configuration.getDefinitionsPath(), ex);
 			}
 		}
+
+		catalogue.compile();
 	}
 
 	/**
@@ -117,60 +129,117 @@ public class RegimenManager implements ContentManager {
 	}
 
 	/**
-	 * Finds definitions that match the given regimen
+	 * Gets the catalogue of regimen definitions used by the prescription UI
+	 * @return the catalogue
+	 */
+	public RegimenCatalogue getCatalogue() {
+		return catalogue;
+	}
+
+	/**
+	 * Finds definitions that match the given regimen. Candidates are found by looking up the signature of the regimen's
+	 * drugs in an index built when definitions are loaded, so only those definitions need to be checked for dose,
+	 * units and frequency.
 	 * @param category the category, e.g. "ARV"
 	 * @param regimenOrder the regimen
 	 * @param exact whether matches must be exact (includes dose, units and frequency)
 	 * @return the definitions
 	 */
 	public List<RegimenDefinition> findDefinitions(String category, RegimenOrder regimenOrder, boolean exact) {
-		List<RegimenDefinitionGroup> groups = regimenGroups.get(category);
-		if (groups == null) {
+		Map<String, List<RegimenDefinition>> categoryIndex = definitionsBySignature.get(category);
+		if (categoryIndex == null) {
 			throw new IllegalArgumentException("No such category: " + category);
 		}
 
-		List<RegimenDefinition> matches = new ArrayList<RegimenDefinition>();
+		Map<DrugReference, List<DrugOrder>> ordersByDrugRef = new HashMap<DrugReference, List<DrugOrder>>();
+		for (DrugOrder order : regimenOrder.getDrugOrders()) {
+			DrugReference orderDrugRef = DrugReference.fromDrugOrder(order);
+			List<DrugOrder> orders = ordersByDrugRef.get(orderDrugRef);
+			if (orders == null) {
+				orders = new ArrayList<DrugOrder>();
+				ordersByDrugRef.put(orderDrugRef, orders);
+			}
+			orders.add(order);
+		}
 
-		for (RegimenDefinitionGroup group : groups) {
-			outer:
-			for (RegimenDefinition definition : group.getRegimens()) {
-				List<RegimenComponent> regimen = definition.getComponents();
-				Set<DrugOrder> orders = regimenOrder.getDrugOrders();
+		List<RegimenDefinition> candidates = categoryIndex.get(getSignature(ordersByDrugRef));
+		if (candidates == null) {
+			return new ArrayList<RegimenDefinition>();
+		}
+		if (!exact) {
+			return new ArrayList<RegimenDefinition>(candidates);
+		}
 
-				// Skip if regimen doesn't have same number of orders
-				if (regimen.size() != orders.size()) {
-					continue;
-				}
+		List<RegimenDefinition> matches = new ArrayList<RegimenDefinition>();
 
-				// Check each component has an equivalent drug order
-				for (RegimenComponent component : regimen) {
+		outer:
+		for (RegimenDefinition definition : candidates) {
+			// Check each component has a drug order with the same dose, units and frequency
+			for (RegimenComponent component : definition.getComponents()) {
+				boolean regimenHasComponent = false;
+				for (DrugOrder order : ordersByDrugRef.get(component.getDrugRef())) {
+					if (ObjectUtils.equals(order.getDose(), component.getDose()) && order.getDoseUnits().equals(component.getUnits()) && order.getFrequency().getConcept().equals(component.getFrequency())) {
+						regimenHasComponent = true;
+						break;
+					}
+				}
 
-					// Does regimen have a drug order for this component?
-					boolean regimenHasComponent = false;
-					for (DrugOrder order : orders) {
-						DrugReference componentDrugRef = component.getDrugRef();
-						DrugReference orderDrugRef = DrugReference.fromDrugOrder(order);
+				if (!regimenHasComponent) {
+					continue outer;
+				}
+			}
 
-						if (componentDrugRef.equals(orderDrugRef)) {
+			matches.add(definition);
+		}
 
-							if (!exact || (ObjectUtils.equals(order.getDose(), component.getDose()) && order.getDoseUnits().equals(component.getUnits()) && order.getFrequency().getConcept().equals(component.getFrequency()))) {
-								regimenHasComponent = true;
-								break;
-							}
-						}
-					}
+		return matches;
+	}
 
-					if (!regimenHasComponent) {
-						continue outer;
-					}
-				}
+	/**
+	 * Gets the signature of a set of drugs, i.e. the sorted drug references, including repeated drugs
+	 * @param drugRefs the drug references with their number of occurrences
+	 * @return the signature
+	 */
+	protected static String getSignature(Map<DrugReference, ? extends Collection<?>> drugRefs) {
+		List<String> refs = new ArrayList<String>();
+		for (Map.Entry<DrugReference, ? extends Collection<?>> entry : drugRefs.entrySet()) {
+			for (int i = 0; i < entry.getValue().size(); i++) {
+				refs.add(entry.getKey().toString());
+			}
+		}
+		Collections.sort(refs);
+		return StringUtils.join(refs, ",");
+	}
 
-				// Regimen has all components of the definition
-				matches.add(definition);
+	/**
+	 * Adds a definition to the signature index
+	 * @param category the category code
+	 * @param definition the definition
+	 */
+	protected void indexDefinition(String category, RegimenDefinition definition) {
+		Map<DrugReference, List<RegimenComponent>> componentsByDrugRef = new HashMap<DrugReference, List<RegimenComponent>>();
+		for (RegimenComponent component : definition.getComponents()) {
+			List<RegimenComponent> components = componentsByDrugRef.get(component.getDrugRef());
+			if (components == null) {
+				components = new ArrayList<RegimenComponent>();
+				componentsByDrugRef.put(component.getDrugRef(), components);
 			}
+			components.add(component);
 		}
 
-		return matches;
+		Map<String, List<RegimenDefinition>> categoryIndex = definitionsBySignature.get(category);
+		if (categoryIndex == null) {
+			categoryIndex = new HashMap<String, List<RegimenDefinition>>();
+			definitionsBySignature.put(category, categoryIndex);
+		}
+
+		String signature = getSignature(componentsByDrugRef);
+		List<RegimenDefinition> definitions = categoryIndex.get(signature);
+		if (definitions == null) {
+			definitions = new ArrayList<RegimenDefinition>();
+			categoryIndex.put(signature, definitions);
+		}
+		definitions.add(definition);
 	}
 
 	/**
@@ -244,6 +313,7 @@ public class RegimenManager implements ContentManager {
 					// Parse all components for this regimen
 					NodeList componentNodes = regimenElement.getElementsByTagName("component");
 					ConceptService conceptService = Context.getConceptService();
+					ArrayNode catalogueComponents = JsonNodeFactory.instance.arrayNode();
 					for (int p = 0; p < componentNodes.getLength(); p++) {
 						Element componentElement = (Element)componentNodes.item(p);
 						String drugCode = componentElement.getAttribute("drugCode");
@@ -256,14 +326,22 @@ public class RegimenManager implements ContentManager {
 							throw new RuntimeException("Regimen component references invalid drug: " + drugCode);
 
 						regimenDefinition.addComponent(drug, dose, units, frequency);
+
+						catalogueComponents.add(catalogue.createComponent(drugCode, componentElement.getAttribute("dose"), componentElement.getAttribute("units"), componentElement.getAttribute("frequency"), drug));
 					}
 
 					group.addRegimen(regimenDefinition);
+					indexDefinition(categoryCode, regimenDefinition);
+					catalogue.addRegimen(categoryCode, regimenDefinition, catalogueComponents);
 				}
 			}
 
 			drugs.put(categoryCode, categoryDrugs);
 			regimenGroups.put(categoryCode, categoryGroups);
+
+			if (!definitionsBySignature.containsKey(categoryCode)) {
+				definitionsBySignature.put(categoryCode, new HashMap<String, List<RegimenDefinition>>());
+			}
 		}
 	}
 }
\ No newline at end of file
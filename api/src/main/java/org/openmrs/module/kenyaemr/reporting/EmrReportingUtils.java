@@ -115,4 +115,38 @@ public class EmrReportingUtils {
 
 		return today;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Creates a SQL condition that a date or datetime column falls on the day given by a date parameter. Unlike
+	 * date(column) = date(:param), the column isn't wrapped in a function so an index on it can be used.
+	 * @param column the column, e.g. f.visit_date
+	 * @param param the parameter name, e.g. startDate
+	 * @return the SQL condition
+	 */
+	public static String onDay(String column, String param) {
+		return inPeriod(column, param, param);
+	}
+
+	/**
+	 * Creates a SQL condition that a date or datetime column falls between the days given by two date parameters
+	 * (inclusive), as a half-open range which can use an index on the column
+	 * @param column the column, e.g. f.visit_date
+	 * @param startParam the start date parameter name, e.g. startDate
+	 * @param endParam the end date parameter name, e.g. endDate
+	 * @return the SQL condition
+	 */
+	public static String inPeriod(String column, String startParam, String endParam) {
+		return "(" + column + " >= date(:" + startParam + ") and " + onOrBefore(column, endParam) + ")";
+	}
+
+	/**
+	 * Creates a SQL condition that a date or datetime column falls on or before the day given by a date parameter,
+	 * which can use an index on the column
+	 * @param column the column, e.g. d.date_started
+	 * @param param the parameter name, e.g. endDate
+	 * @return the SQL condition
+	 */
+	public static String onOrBefore(String column, String param) {
+		return column + " < date(:" + param + ") + interval 1 day";
+	}
+}
@@ -0,0 +1,458 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.reporting;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.kenyacore.report.CalculationReportDescriptor;
+import org.openmrs.module.kenyacore.report.CohortReportDescriptor;
+import org.openmrs.module.kenyacore.report.IndicatorReportDescriptor;
+import org.openmrs.module.kenyacore.report.ReportDescriptor;
+import org.openmrs.module.kenyaemr.EmrConstants;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.openmrs.module.reporting.evaluation.parameter.Mapped;
+import org.openmrs.module.reporting.report.ReportRequest;
+import org.openmrs.module.reporting.report.definition.ReportDefinition;
+import org.openmrs.module.reporting.report.renderer.RenderingMode;
+import org.openmrs.module.reporting.report.service.ReportService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executes report requests on a fixed number of worker threads, so that heavy reports requested by several users at
+ * once can't exhaust the database. Requests are run in order of priority, which is based on the type of report, e.g.
+ * line lists run ahead of indicator reports such as MOH 731 and DATIM. A request for the same report and parameters
+ * as one which is already queued or running returns that request instead of queueing another.
+ *
+ * Requests are still saved by the reporting module so they appear in the queue and their results are kept, but the
+ * module's own processing of queued requests is routed to {@link #submitQueued()} by
+ * {@link org.openmrs.module.kenyaemr.advice.ReportQueueAdvice}, so waiting requests are only ever run by the workers.
+ * A worker first claims a request by moving it from the requested to the processing state, so a request cancelled
+ * while queued is skipped, and a request is never run twice.
+ */
+@Component
+public class ReportExecutor {
+
+	protected static final Log log = LogFactory.getLog(ReportExecutor.class);
+
+	public static final int DEFAULT_WORKERS = 2;
+
+	/**
+	 * Suffix of parameters which only control how the request form is displayed, e.g. dateBasedReporting
+	 */
+	public static final String FORM_FLAG_SUFFIX = "BasedReporting";
+
+	@Autowired
+	@Qualifier("transactionManager")
+	private PlatformTransactionManager transactionManager;
+
+	private DaemonToken daemonToken;
+
+	private ThreadPoolExecutor workers;
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	/**
+	 * Keys of requests submitted to the workers which haven't finished, mapped to the request UUIDs
+	 */
+	private final ConcurrentMap<String, String> active = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * A request waiting for a worker. Higher priority requests are run first, and requests of the same priority in
+	 * the order they were submitted.
+	 */
+	protected class QueuedRequest implements Runnable, Comparable<QueuedRequest> {
+
+		private final String key;
+
+		private final String requestUuid;
+
+		private final ReportRequest.Priority priority;
+
+		private final long position = sequence.incrementAndGet();
+
+		protected QueuedRequest(String key, String requestUuid, ReportRequest.Priority priority) {
+			this.key = key;
+			this.requestUuid = requestUuid;
+			this.priority = priority != null ? priority : ReportRequest.Priority.NORMAL;
+		}
+
+		@Override
+		public void run() {
+			try {
+				runAsDaemon(new Runnable() {
+					@Override
+					public void run() {
+						execute(requestUuid);
+					}
+				});
+			}
+			finally {
+				active.remove(key, requestUuid);
+			}
+		}
+
+		@Override
+		public int compareTo(QueuedRequest other) {
+			int byPriority = priority.compareTo(other.priority);
+			return byPriority != 0 ? byPriority : (position < other.position ? -1 : (position > other.position ? 1 : 0));
+		}
+	}
+
+	/**
+	 * Starts the worker threads and submits requests which were left queued by a previous run
+	 * @param daemonToken the module's daemon token, used to run reports as the daemon user
+	 */
+	public synchronized void start(DaemonToken daemonToken) {
+		if (workers != null) {
+			return;
+		}
+
+		int workerCount = getWorkerCount();
+
+		this.daemonToken = daemonToken;
+		this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<Runnable>(), createThreadFactory());
+
+		runAsDaemon(new Runnable() {
+			@Override
+			public void run() {
+				submitQueued();
+			}
+		});
+
+		log.info("Started report executor with " + workerCount + " workers");
+	}
+
+	/**
+	 * Stops the worker threads. Requests which haven't run remain queued.
+	 */
+	public synchronized void stop() {
+		if (workers == null) {
+			return;
+		}
+
+		workers.shutdownNow();
+		workers = null;
+		daemonToken = null;
+		active.clear();
+
+		log.info("Stopped report executor");
+	}
+
+	/**
+	 * Checks whether the worker threads are running
+	 * @return true if running
+	 */
+	public boolean isRunning() {
+		return workers != null;
+	}
+
+	/**
+	 * Submits requests in the requested state which aren't already waiting for or being run by a worker, e.g. those
+	 * queued directly through the reporting module. This replaces the reporting module's own processing of queued
+	 * requests, so that every request runs in order of priority and within the worker limit.
+	 */
+	public void submitQueued() {
+		for (ReportRequest request : getReportService().getReportRequests(null, null, null, ReportRequest.Status.REQUESTED)) {
+			if (!active.containsValue(request.getUuid())) {
+				submit(request);
+			}
+		}
+	}
+
+	/**
+	 * Requests a report evaluation. If the same report with the same parameters is already queued or running then
+	 * that request is returned instead.
+	 * @param report the report descriptor
+	 * @param definition the report definition
+	 * @param parameterValues the parameter values
+	 * @param mode the rendering mode
+	 * @return the report request
+	 */
+	public ReportRequest request(ReportDescriptor report, ReportDefinition definition, Map<String, Object> parameterValues, RenderingMode mode) {
+		String key = getRequestKey(definition, parameterValues);
+
+		String existingUuid = active.get(key);
+		if (existingUuid != null) {
+			ReportRequest existing = getReportService().getReportRequestByUuid(existingUuid);
+			if (existing != null && isUnfinished(existing)) {
+				return existing;
+			}
+		}
+
+		// Also check requests which weren't submitted by this executor, e.g. queued before a restart
+		ReportDefinition definitionStub = new ReportDefinition();
+		definitionStub.setUuid(definition.getUuid());
+		for (ReportRequest queued : getReportService().getReportRequests(definitionStub, null, null, ReportRequest.Status.REQUESTED, ReportRequest.Status.PROCESSING)) {
+			if (key.equals(getRequestKey(queued.getReportDefinition()))) {
+				return queued;
+			}
+		}
+
+		ReportRequest request = new ReportRequest();
+		request.setReportDefinition(new Mapped<ReportDefinition>(definition, parameterValues));
+		request.setRenderingMode(mode);
+		request.setPriority(getPriority(report));
+		request = getReportService().queueReport(request);
+
+		submitAfterCommit(request);
+		return request;
+	}
+
+	/**
+	 * Gets the state of the executor
+	 * @return the number of workers, running and waiting requests
+	 */
+	public Map<String, Object> getAllInformation() {
+		Map<String, Object> info = new LinkedHashMap<String, Object>();
+		ThreadPoolExecutor workers = this.workers;
+		info.put("workers", workers != null ? workers.getMaximumPoolSize() : 0);
+		info.put("running", workers != null ? workers.getActiveCount() : 0);
+		info.put("waiting", workers != null ? workers.getQueue().size() : 0);
+		return info;
+	}
+
+	/**
+	 * Gets the priority of a report. Line lists are small and usually needed straight away so they run first, and
+	 * indicator reports which evaluate the whole facility population run last.
+	 * @param report the report descriptor
+	 * @return the priority
+	 */
+	public ReportRequest.Priority getPriority(ReportDescriptor report) {
+		if (report instanceof CalculationReportDescriptor || report instanceof CohortReportDescriptor) {
+			return ReportRequest.Priority.HIGH;
+		}
+		else if (report instanceof IndicatorReportDescriptor) {
+			return ReportRequest.Priority.LOW;
+		}
+		return ReportRequest.Priority.NORMAL;
+	}
+
+	/**
+	 * Runs a queued request, unless it has been cancelled or already claimed
+	 * @param requestUuid the request UUID
+	 */
+	protected void execute(String requestUuid) {
+		if (!claim(requestUuid)) {
+			return;
+		}
+
+		ReportRequest request = getReportService().getReportRequestByUuid(requestUuid);
+		if (request == null) {
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+		getReportService().runReport(request);
+
+		log.info("Ran report request " + requestUuid + " in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Claims a request by moving it from requested to processing in a new transaction. The update only succeeds for
+	 * one caller, so a request is never run twice, e.g. when it was submitted again before a worker claimed it.
+	 * @param requestUuid the request UUID
+	 * @return true if this caller claimed the request, false if it was cancelled or already claimed
+	 */
+	protected boolean claim(final String requestUuid) {
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		template.setPropagationBehavior(TransactionTemplate.PROPAGATION_REQUIRES_NEW);
+
+		return template.execute(new TransactionCallback<Boolean>() {
+			@Override
+			public Boolean doInTransaction(TransactionStatus status) {
+				Map<String, Object> params = new HashMap<String, Object>();
+				params.put("uuid", requestUuid);
+				params.put("requested", ReportRequest.Status.REQUESTED.name());
+				params.put("processing", ReportRequest.Status.PROCESSING.name());
+
+				return Context.getService(KenyaEmrService.class).executeSqlUpdate("update reporting_report_request set status = :processing"
+						+ " where uuid = :uuid and status = :requested", params) > 0;
+			}
+		});
+	}
+
+	/**
+	 * Submits a request to the workers once the current transaction commits, so that workers can load it
+	 * @param request the saved request
+	 */
+	protected void submitAfterCommit(final ReportRequest request) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					submit(request);
+				}
+			});
+		}
+		else {
+			submit(request);
+		}
+	}
+
+	/**
+	 * Submits a request to the workers
+	 * @param request the saved request
+	 */
+	protected void submit(ReportRequest request) {
+		ThreadPoolExecutor workers = this.workers;
+		if (workers == null) {
+			log.warn("Report executor isn't running so request " + request.getUuid() + " will remain queued");
+			return;
+		}
+
+		String key = getRequestKey(request.getReportDefinition());
+		active.put(key, request.getUuid());
+		workers.execute(new QueuedRequest(key, request.getUuid(), request.getPriority()));
+	}
+
+	/**
+	 * Gets the key which identifies requests for the same report and parameters
+	 * @param mappedDefinition the mapped report definition
+	 * @return the key
+	 */
+	protected static String getRequestKey(Mapped<ReportDefinition> mappedDefinition) {
+		return getRequestKey(mappedDefinition.getParameterizable(), mappedDefinition.getParameterMappings());
+	}
+
+	/**
+	 * Gets the key which identifies requests for the same report and parameters. Form flag parameters are ignored as
+	 * they don't affect evaluation.
+	 * @param definition the report definition
+	 * @param parameterValues the parameter values
+	 * @return the key
+	 */
+	protected static String getRequestKey(ReportDefinition definition, Map<String, Object> parameterValues) {
+		StringBuilder sb = new StringBuilder(definition.getUuid());
+
+		Map<String, Object> sorted = new TreeMap<String, Object>();
+		if (parameterValues != null) {
+			sorted.putAll(parameterValues);
+		}
+
+		for (Map.Entry<String, Object> entry : sorted.entrySet()) {
+			if (entry.getKey().endsWith(FORM_FLAG_SUFFIX)) {
+				continue;
+			}
+
+			Object value = entry.getValue();
+			String normalized;
+			if (value instanceof Date) {
+				normalized = String.valueOf(((Date) value).getTime());
+			}
+			else if (value instanceof OpenmrsObject) {
+				normalized = ((OpenmrsObject) value).getUuid();
+			}
+			else {
+				normalized = String.valueOf(value);
+			}
+			sb.append('|').append(entry.getKey()).append('=').append(normalized);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Checks whether a request is queued or running
+	 * @param request the request
+	 * @return true if unfinished
+	 */
+	protected static boolean isUnfinished(ReportRequest request) {
+		return ReportRequest.Status.REQUESTED.equals(request.getStatus()) || ReportRequest.Status.PROCESSING.equals(request.getStatus());
+	}
+
+	/**
+	 * Gets the configured number of worker threads
+	 * @return the number of workers
+	 */
+	protected int getWorkerCount() {
+		String value = Context.getAdministrationService().getGlobalProperty(EmrConstants.GP_REPORT_WORKERS);
+		if (StringUtils.isNumeric(value) && StringUtils.isNotEmpty(value) && Integer.parseInt(value) > 0) {
+			return Integer.parseInt(value);
+		}
+		return DEFAULT_WORKERS;
+	}
+
+	/**
+	 * Runs a task in a daemon thread, i.e. with an open session and as the daemon user, and waits for it to complete
+	 * @param task the task
+	 */
+	protected void runAsDaemon(final Runnable task) {
+		Thread thread = Daemon.runInDaemonThread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					task.run();
+				}
+				catch (Exception ex) {
+					log.error("Error in report executor", ex);
+				}
+			}
+		}, daemonToken);
+
+		try {
+			thread.join();
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Convenience method to get the report service
+	 * @return the service
+	 */
+	protected ReportService getReportService() {
+		return Context.getService(ReportService.class);
+	}
+
+	/**
+	 * Creates a thread factory for named daemon threads
+	 * @return the thread factory
+	 */
+	protected static ThreadFactory createThreadFactory() {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "kenyaemr-report-worker-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+}
@@ -0,0 +1,353 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.reporting;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.kenyacore.report.ReportDescriptor;
+import org.openmrs.module.kenyacore.report.ReportManager;
+import org.openmrs.module.kenyaemr.EmrConstants;
+import org.openmrs.module.reporting.common.DateUtil;
+import org.openmrs.module.reporting.common.DurationUnit;
+import org.openmrs.module.reporting.evaluation.parameter.Parameter;
+import org.openmrs.module.reporting.report.ReportRequest;
+import org.openmrs.module.reporting.report.definition.ReportDefinition;
+import org.openmrs.module.reporting.report.definition.service.ReportDefinitionService;
+import org.openmrs.module.reporting.report.renderer.RenderingMode;
+import org.openmrs.module.reporting.report.service.ReportService;
+import org.openmrs.module.reporting.web.renderers.WebReportRenderer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluates a configured set of reports for their last closed period every night, so that the results are already
+ * stored when users request them. Reports with an end date parameter (e.g. MOH 731, DATIM) are evaluated for the
+ * previous month, and reports with only a start date (e.g. the DAR) for the previous day.
+ *
+ * Data for a period is often still being entered in the days after it closes, so a report is evaluated again every
+ * night for {@link #REFRESH_DAYS} days after its period closes. After that the last stored result is kept.
+ */
+@Component
+public class ReportPrecomputer {
+
+	protected static final Log log = LogFactory.getLog(ReportPrecomputer.class);
+
+	public static final int DEFAULT_HOUR = 2;
+
+	public static final int REFRESH_DAYS = 7;
+
+	@Autowired
+	private ReportExecutor reportExecutor;
+
+	@Autowired
+	private ReportManager reportManager;
+
+	private DaemonToken daemonToken;
+
+	private ScheduledExecutorService scheduler;
+
+	private Date lastRun;
+
+	/**
+	 * Starts the nightly schedule
+	 * @param daemonToken the module's daemon token, used to request reports as the daemon user
+	 */
+	public synchronized void start(DaemonToken daemonToken) {
+		if (scheduler != null) {
+			return;
+		}
+
+		int hour = getHour();
+
+		this.daemonToken = daemonToken;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(createThreadFactory());
+
+		scheduler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				runAsDaemon(new Runnable() {
+					@Override
+					public void run() {
+						precompute(new Date());
+					}
+				});
+			}
+		}, getDelayUntil(new Date(), hour), TimeUnit.DAYS.toMillis(1), TimeUnit.MILLISECONDS);
+
+		log.info("Scheduled report pre-computation at " + hour + ":00");
+	}
+
+	/**
+	 * Stops the nightly schedule. Requests which have been made remain queued.
+	 */
+	public synchronized void stop() {
+		if (scheduler == null) {
+			return;
+		}
+
+		scheduler.shutdownNow();
+		scheduler = null;
+		daemonToken = null;
+
+		log.info("Stopped report pre-computation");
+	}
+
+	/**
+	 * Requests evaluation of each configured report for its last closed period, unless a result for that period is
+	 * already stored and the period closed more than {@link #REFRESH_DAYS} days ago
+	 * @param now the current date
+	 */
+	public void precompute(Date now) {
+		ReportDefinitionService definitionService = Context.getService(ReportDefinitionService.class);
+
+		for (String reportUuid : getPrecomputedReports()) {
+			ReportDefinition definition = definitionService.getDefinitionByUuid(reportUuid);
+			if (definition == null) {
+				log.warn("Unable to pre-compute report " + reportUuid + " as it doesn't exist");
+				continue;
+			}
+
+			Map<String, Object> parameterValues = getLastPeriod(definition, now);
+			if (parameterValues == null) {
+				log.warn("Unable to pre-compute report '" + definition.getName() + "' as it doesn't have a reporting period");
+				continue;
+			}
+
+			Date periodEnd = getPeriodEnd(parameterValues);
+			boolean refresh = now.before(DateUtil.adjustDate(periodEnd, REFRESH_DAYS, DurationUnit.DAYS));
+
+			if (refresh || getStoredRequest(definition, parameterValues) == null) {
+				ReportDescriptor report = reportManager.getReportDescriptor(definition);
+				reportExecutor.request(report, definition, parameterValues, getRenderingMode(definition));
+
+				log.info("Requested pre-computation of report '" + definition.getName() + "' with params " + parameterValues);
+			}
+		}
+
+		lastRun = now;
+	}
+
+	/**
+	 * Gets the latest stored result of a pre-computed report for the given period. Only results which were requested
+	 * and evaluated after the period closed are returned.
+	 * @param definition the report definition
+	 * @param parameterValues the parameter values
+	 * @return the completed request or null
+	 */
+	public ReportRequest getStoredRequest(ReportDefinition definition, Map<String, Object> parameterValues) {
+		Date periodEnd = getPeriodEnd(parameterValues);
+		if (periodEnd == null || !getPrecomputedReports().contains(definition.getUuid())) {
+			return null;
+		}
+
+		Date closed = DateUtil.getEndOfDay(periodEnd);
+		String key = ReportExecutor.getRequestKey(definition, parameterValues);
+
+		// The query only needs the definition UUID
+		ReportDefinition definitionStub = new ReportDefinition();
+		definitionStub.setUuid(definition.getUuid());
+
+		// Only requests made after the period closed can have a result for the whole period, so older requests for
+		// other periods aren't loaded
+		ReportRequest latest = null;
+		for (ReportRequest request : getReportService().getReportRequests(definitionStub, closed, null, ReportRequest.Status.COMPLETED)) {
+			Date completed = request.getEvaluateCompleteDatetime();
+			if (completed == null || !completed.after(closed) || !key.equals(ReportExecutor.getRequestKey(request.getReportDefinition()))) {
+				continue;
+			}
+			if (latest == null || completed.after(latest.getEvaluateCompleteDatetime())) {
+				latest = request;
+			}
+		}
+		return latest;
+	}
+
+	/**
+	 * Gets the parameter values for the last closed period of a report
+	 * @param definition the report definition
+	 * @param now the current date
+	 * @return the parameter values or null if the report doesn't have a start date parameter
+	 */
+	public Map<String, Object> getLastPeriod(ReportDefinition definition, Date now) {
+		if (definition.getParameter("startDate") == null) {
+			return null;
+		}
+
+		Map<String, Object> parameterValues = new HashMap<String, Object>();
+
+		if (definition.getParameter("endDate") != null) {
+			Date startDate = DateUtil.getStartOfMonth(now, -1);
+			parameterValues.put("startDate", startDate);
+			parameterValues.put("endDate", DateUtil.getStartOfDay(DateUtil.getEndOfMonth(startDate)));
+		}
+		else {
+			parameterValues.put("startDate", DateUtil.getStartOfDay(DateUtil.adjustDate(now, -1, DurationUnit.DAYS)));
+		}
+
+		// Remaining parameters take their defaults, except the flags which the request form sets to -1
+		for (Parameter parameter : definition.getParameters()) {
+			if (!parameterValues.containsKey(parameter.getName())) {
+				boolean formFlag = parameter.getName().endsWith(ReportExecutor.FORM_FLAG_SUFFIX);
+				parameterValues.put(parameter.getName(), formFlag ? "-1" : parameter.getDefaultValue());
+			}
+		}
+
+		return parameterValues;
+	}
+
+	/**
+	 * Gets the state of the pre-computation
+	 * @return the configured reports, hour and last run
+	 */
+	public Map<String, Object> getAllInformation() {
+		Map<String, Object> info = new LinkedHashMap<String, Object>();
+		info.put("reports", getPrecomputedReports());
+		info.put("hour", getHour());
+		info.put("lastRun", lastRun);
+		return info;
+	}
+
+	/**
+	 * Gets the UUIDs of the report definitions to pre-compute
+	 * @return the report definition UUIDs
+	 */
+	protected List<String> getPrecomputedReports() {
+		String value = Context.getAdministrationService().getGlobalProperty(EmrConstants.GP_PRECOMPUTED_REPORTS);
+		List<String> reportUuids = new ArrayList<String>();
+		if (StringUtils.isNotBlank(value)) {
+			for (String token : value.split(",")) {
+				if (StringUtils.isNotBlank(token)) {
+					reportUuids.add(token.trim());
+				}
+			}
+		}
+		return reportUuids;
+	}
+
+	/**
+	 * Gets the configured hour of the day at which to pre-compute reports
+	 * @return the hour
+	 */
+	protected int getHour() {
+		String value = Context.getAdministrationService().getGlobalProperty(EmrConstants.GP_PRECOMPUTE_REPORTS_HOUR);
+		if (StringUtils.isNumeric(value) && StringUtils.isNotEmpty(value) && Integer.parseInt(value) < 24) {
+			return Integer.parseInt(value);
+		}
+		return DEFAULT_HOUR;
+	}
+
+	/**
+	 * Gets the rendering mode used by the report pages, i.e. the web renderer
+	 * @param definition the report definition
+	 * @return the rendering mode (may be null)
+	 */
+	protected RenderingMode getRenderingMode(ReportDefinition definition) {
+		for (RenderingMode mode : getReportService().getRenderingModes(definition)) {
+			if (mode.getRenderer() instanceof WebReportRenderer) {
+				return mode;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the last day of a period
+	 * @param parameterValues the parameter values
+	 * @return the end date, or the start date if there is no end date
+	 */
+	protected static Date getPeriodEnd(Map<String, Object> parameterValues) {
+		Object endDate = parameterValues.get("endDate");
+		Object startDate = parameterValues.get("startDate");
+		if (endDate instanceof Date) {
+			return (Date) endDate;
+		}
+		return startDate instanceof Date ? (Date) startDate : null;
+	}
+
+	/**
+	 * Gets the delay until the next occurrence of the given hour
+	 * @param now the current date
+	 * @param hour the hour of the day
+	 * @return the delay in milliseconds
+	 */
+	protected static long getDelayUntil(Date now, int hour) {
+		Calendar next = Calendar.getInstance();
+		next.setTime(DateUtil.getStartOfDay(now));
+		next.set(Calendar.HOUR_OF_DAY, hour);
+		if (!next.getTime().after(now)) {
+			next.add(Calendar.DATE, 1);
+		}
+		return next.getTimeInMillis() - now.getTime();
+	}
+
+	/**
+	 * Runs a task in a daemon thread, i.e. with an open session and as the daemon user, and waits for it to complete
+	 * @param task the task
+	 */
+	protected void runAsDaemon(final Runnable task) {
+		Thread thread = Daemon.runInDaemonThread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					task.run();
+				}
+				catch (Exception ex) {
+					log.error("Error in report pre-computation", ex);
+				}
+			}
+		}, daemonToken);
+
+		try {
+			thread.join();
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Convenience method to get the report service
+	 * @return the service
+	 */
+	protected ReportService getReportService() {
+		return Context.getService(ReportService.class);
+	}
+
+	/**
+	 * Creates a thread factory for a named daemon thread
+	 * @return the thread factory
+	 */
+	protected static ThreadFactory createThreadFactory() {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "kenyaemr-report-precomputer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+}
@@ -43,6 +43,7 @@ public class MissedAppointmentReportBuilder extends CalculationReportBuilder {
 
         addStandardColumns(report, dsd);
         dsd.addColumn("UPN", identifierDef, "");
+        // Appointment date and days late are read from the tracked attendance states when run for today
         dsd.addColumn("Appointment date", new CalculationDataDefinition("Appointment date", new LastReturnVisitDateCalculation()), "", new CalculationResultConverter());
         dsd.addColumn("Number of days late", new CalculationDataDefinition("Number of days late", new NumberOfDaysLateCalculation()), "", new CalculationResultConverter());
         dsd.addColumn("Phone number", new CalculationDataDefinition("Phone number", new TelephoneNumberCalculation()), "", new CalculationResultConverter());
@@ -83,6 +83,8 @@ public class ETLLostToFollowupReportBuilder extends AbstractHybridReportBuilder
 
 		List<EncounterType> encounterTypes = Arrays.asList(hivConsultation, consultation, hivEnrollment);
 
+		// Last visit covers more encounter types than the tracked attendance states, so is still loaded here. Appointment
+		// date and days late are read from the tracked states when run for today.
 		definition.setWhich(TimeQualifier.LAST);
 		definition.setTypes(encounterTypes);
 		dsd.addColumn("Last Visit Date", definition, "", new EncounterDatetimeConverter());
@@ -0,0 +1,120 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.reporting.cohort.definition;
+
+import org.openmrs.module.reporting.cohort.definition.BaseCohortDefinition;
+import org.openmrs.module.reporting.common.Localized;
+import org.openmrs.module.reporting.definition.configuration.ConfigurationProperty;
+import org.openmrs.module.reporting.definition.configuration.ConfigurationPropertyCachingStrategy;
+import org.openmrs.module.reporting.evaluation.caching.Caching;
+
+/**
+ * Patients currently in care on ART, optionally restricted by the stability recorded at their latest HIV followup,
+ * their age at that visit, their gender and the months until their next appointment. All ranges are inclusive.
+ */
+@Caching(strategy = ConfigurationPropertyCachingStrategy.class)
+@Localized("reporting.DiffCareStabilityCohortDefinition")
+public class DiffCareStabilityCohortDefinition extends BaseCohortDefinition {
+
+	/**
+	 * Stability buckets from the latest HIV followup
+	 */
+	public enum Stability {
+		/**
+		 * Recorded as stable and the patient was present
+		 */
+		STABLE,
+		/**
+		 * Recorded as unstable
+		 */
+		UNSTABLE,
+		/**
+		 * Followup exists but stability wasn't recorded
+		 */
+		UNDOCUMENTED
+	}
+
+	@ConfigurationProperty
+	private Stability stability;
+
+	@ConfigurationProperty
+	private String gender;
+
+	@ConfigurationProperty
+	private Integer minAge;
+
+	@ConfigurationProperty
+	private Integer maxAge;
+
+	@ConfigurationProperty
+	private Integer minTcaMonths;
+
+	@ConfigurationProperty
+	private Integer maxTcaMonths;
+
+	public DiffCareStabilityCohortDefinition() {
+	}
+
+	/**
+	 * Creates a definition for the given stability
+	 * @param stability the stability (may be null)
+	 */
+	public DiffCareStabilityCohortDefinition(Stability stability) {
+		this.stability = stability;
+	}
+
+	public Stability getStability() {
+		return stability;
+	}
+
+	public void setStability(Stability stability) {
+		this.stability = stability;
+	}
+
+	public String getGender() {
+		return gender;
+	}
+
+	public void setGender(String gender) {
+		this.gender = gender;
+	}
+
+	public Integer getMinAge() {
+		return minAge;
+	}
+
+	public void setMinAge(Integer minAge) {
+		this.minAge = minAge;
+	}
+
+	public Integer getMaxAge() {
+		return maxAge;
+	}
+
+	public void setMaxAge(Integer maxAge) {
+		this.maxAge = maxAge;
+	}
+
+	public Integer getMinTcaMonths() {
+		return minTcaMonths;
+	}
+
+	public void setMinTcaMonths(Integer minTcaMonths) {
+		this.minTcaMonths = minTcaMonths;
+	}
+
+	public Integer getMaxTcaMonths() {
+		return maxTcaMonths;
+	}
+
+	public void setMaxTcaMonths(Integer maxTcaMonths) {
+		this.maxTcaMonths = maxTcaMonths;
+	}
+}
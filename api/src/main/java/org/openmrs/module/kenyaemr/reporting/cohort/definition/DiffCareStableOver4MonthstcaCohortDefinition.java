@@ -9,7 +9,6 @@
  */
 package org.openmrs.module.kenyaemr.reporting.cohort.definition;
 
-import org.openmrs.module.reporting.cohort.definition.BaseCohortDefinition;
 import org.openmrs.module.reporting.common.Localized;
 import org.openmrs.module.reporting.definition.configuration.ConfigurationPropertyCachingStrategy;
 import org.openmrs.module.reporting.evaluation.caching.Caching;
@@ -19,6 +18,10 @@ import org.openmrs.module.reporting.evaluation.caching.Caching;
  */
 @Caching(strategy = ConfigurationPropertyCachingStrategy.class)
 @Localized("reporting.DiffCareStableOver4MonthstcaCohortDefinition")
-public class DiffCareStableOver4MonthstcaCohortDefinition extends BaseCohortDefinition {
+public class DiffCareStableOver4MonthstcaCohortDefinition extends DiffCareStabilityCohortDefinition {
 
+	public DiffCareStableOver4MonthstcaCohortDefinition() {
+		super(Stability.STABLE);
+		setMinTcaMonths(4);
+	}
 }
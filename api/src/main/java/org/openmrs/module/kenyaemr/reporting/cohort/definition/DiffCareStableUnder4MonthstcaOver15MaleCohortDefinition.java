@@ -9,15 +9,21 @@
  */
 package org.openmrs.module.kenyaemr.reporting.cohort.definition;
 
-import org.openmrs.module.reporting.cohort.definition.BaseCohortDefinition;
 import org.openmrs.module.reporting.common.Localized;
 import org.openmrs.module.reporting.definition.configuration.ConfigurationPropertyCachingStrategy;
 import org.openmrs.module.reporting.evaluation.caching.Caching;
+
 /**
- *  Differentiated care stable patients during their latest HIV followup with tca less than 4 months
+ * Differentiated care stable patients during their latest HIV followup with tca less than 4 months
  */
 @Caching(strategy = ConfigurationPropertyCachingStrategy.class)
 @Localized("reporting.DiffCareStableUnder4MonthstcaOver15MaleCohortDefinition")
-public class DiffCareStableUnder4MonthstcaOver15MaleCohortDefinition extends BaseCohortDefinition {
+public class DiffCareStableUnder4MonthstcaOver15MaleCohortDefinition extends DiffCareStabilityCohortDefinition {
 
+	public DiffCareStableUnder4MonthstcaOver15MaleCohortDefinition() {
+		super(Stability.STABLE);
+		setGender("M");
+		setMinAge(15);
+		setMaxTcaMonths(3);
+	}
 }
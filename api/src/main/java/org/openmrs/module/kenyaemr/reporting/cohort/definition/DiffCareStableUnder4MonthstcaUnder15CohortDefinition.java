@@ -9,16 +9,20 @@
  */
 package org.openmrs.module.kenyaemr.reporting.cohort.definition;
 
-import org.openmrs.module.reporting.cohort.definition.BaseCohortDefinition;
 import org.openmrs.module.reporting.common.Localized;
 import org.openmrs.module.reporting.definition.configuration.ConfigurationPropertyCachingStrategy;
 import org.openmrs.module.reporting.evaluation.caching.Caching;
 
 /**
- *  Differentiated care stable patients during their latest HIV followup with tca less than 4 months
+ * Differentiated care stable patients during their latest HIV followup with tca less than 4 months
  */
 @Caching(strategy = ConfigurationPropertyCachingStrategy.class)
 @Localized("reporting.DiffCareStableUnder4MonthstcaUnder15CohortDefinition")
-public class DiffCareStableUnder4MonthstcaUnder15CohortDefinition extends BaseCohortDefinition {
+public class DiffCareStableUnder4MonthstcaUnder15CohortDefinition extends DiffCareStabilityCohortDefinition {
 
+	public DiffCareStableUnder4MonthstcaUnder15CohortDefinition() {
+		super(Stability.STABLE);
+		setMaxAge(14);
+		setMaxTcaMonths(3);
+	}
 }
@@ -9,16 +9,18 @@
  */
 package org.openmrs.module.kenyaemr.reporting.cohort.definition;
 
-import org.openmrs.module.reporting.cohort.definition.BaseCohortDefinition;
 import org.openmrs.module.reporting.common.Localized;
 import org.openmrs.module.reporting.definition.configuration.ConfigurationPropertyCachingStrategy;
 import org.openmrs.module.reporting.evaluation.caching.Caching;
 
 /**
- *  Differentiated care patients with undocumented stability during their latest HIV followup
+ * Differentiated care patients with undocumented stability during their latest HIV followup
  */
 @Caching(strategy = ConfigurationPropertyCachingStrategy.class)
 @Localized("reporting.DiffCareUndocumentedStabilityCohortDefinition")
-public class DiffCareUndocumentedStabilityCohortDefinition extends BaseCohortDefinition {
+public class DiffCareUndocumentedStabilityCohortDefinition extends DiffCareStabilityCohortDefinition {
 
+	public DiffCareUndocumentedStabilityCohortDefinition() {
+		super(Stability.UNDOCUMENTED);
+	}
 }
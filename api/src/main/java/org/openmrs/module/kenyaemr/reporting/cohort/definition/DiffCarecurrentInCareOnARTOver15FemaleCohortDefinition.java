@@ -9,7 +9,6 @@
  */
 package org.openmrs.module.kenyaemr.reporting.cohort.definition;
 
-import org.openmrs.module.reporting.cohort.definition.BaseCohortDefinition;
 import org.openmrs.module.reporting.common.Localized;
 import org.openmrs.module.reporting.definition.configuration.ConfigurationPropertyCachingStrategy;
 import org.openmrs.module.reporting.evaluation.caching.Caching;
@@ -19,6 +18,10 @@ import org.openmrs.module.reporting.evaluation.caching.Caching;
  */
 @Caching(strategy = ConfigurationPropertyCachingStrategy.class)
 @Localized("reporting.DiffCarecurrentInCareOnARTOver15FemaleCohortDefinition")
-public class DiffCarecurrentInCareOnARTOver15FemaleCohortDefinition extends BaseCohortDefinition {
+public class DiffCarecurrentInCareOnARTOver15FemaleCohortDefinition extends DiffCareStabilityCohortDefinition {
 
+	public DiffCarecurrentInCareOnARTOver15FemaleCohortDefinition() {
+		setGender("F");
+		setMinAge(15);
+	}
 }
@@ -0,0 +1,138 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.reporting.cohort.definition;
+
+import org.openmrs.module.reporting.cohort.definition.BaseCohortDefinition;
+import org.openmrs.module.reporting.common.Localized;
+import org.openmrs.module.reporting.definition.configuration.ConfigurationProperty;
+import org.openmrs.module.reporting.definition.configuration.ConfigurationPropertyCachingStrategy;
+import org.openmrs.module.reporting.evaluation.caching.Caching;
+
+import java.util.Date;
+
+/**
+ * TB screening, diagnosis, treatment outcome and HIV co-infection cohorts based on obs recorded between ${onOrAfter}
+ * and ${onOrBefore} and on program enrollment on or before ${onOrBefore}. Each category matches the equivalent
+ * composition in TbCohortLibrary, but all categories for the same period are computed together.
+ */
+@Caching(strategy = ConfigurationPropertyCachingStrategy.class)
+@Localized("reporting.TbCaseCohortDefinition")
+public class TbCaseCohortDefinition extends BaseCohortDefinition {
+
+	/**
+	 * The available cohorts
+	 */
+	public enum Category {
+		/**
+		 * TB disease status of suspected, diagnosed or no signs
+		 */
+		SCREENED,
+		/**
+		 * Treatment outcome of died
+		 */
+		DIED,
+		/**
+		 * Treatment outcome of treatment complete
+		 */
+		COMPLETED_TREATMENT,
+		/**
+		 * Patient type of retreatment after default
+		 */
+		RETREATMENT,
+		/**
+		 * Patient type of smear positive new patient
+		 */
+		NEW_DETECTED,
+		/**
+		 * Disease site of pulmonary
+		 */
+		PULMONARY,
+		/**
+		 * Disease site of extra-pulmonary
+		 */
+		EXTRA_PULMONARY,
+		/**
+		 * Culture result of positive
+		 */
+		SMEAR_POSITIVE,
+		/**
+		 * Culture result of negative
+		 */
+		SMEAR_NEGATIVE,
+		/**
+		 * Culture result of not done
+		 */
+		SMEAR_NOT_DONE,
+		/**
+		 * Pulmonary and smear positive
+		 */
+		PULMONARY_SMEAR_POSITIVE,
+		/**
+		 * Pulmonary and smear negative
+		 */
+		PULMONARY_SMEAR_NEGATIVE,
+		/**
+		 * Enrolled in the TB program and has an HIV test result
+		 */
+		IN_TB_PROGRAM_TESTED_FOR_HIV,
+		/**
+		 * Enrolled in the TB program and has a positive HIV test result
+		 */
+		IN_TB_PROGRAM_TESTED_HIV_POSITIVE,
+		/**
+		 * Enrolled in the TB and HIV programs and was dispensed CTX
+		 */
+		IN_TB_AND_HIV_PROGRAMS_ON_CTX
+	}
+
+	@ConfigurationProperty
+	private Category category;
+
+	@ConfigurationProperty
+	private Date onOrAfter;
+
+	@ConfigurationProperty
+	private Date onOrBefore;
+
+	public TbCaseCohortDefinition() {
+	}
+
+	/**
+	 * Creates a definition for the given category
+	 * @param category the category
+	 */
+	public TbCaseCohortDefinition(Category category) {
+		this.category = category;
+	}
+
+	public Category getCategory() {
+		return category;
+	}
+
+	public void setCategory(Category category) {
+		this.category = category;
+	}
+
+	public Date getOnOrAfter() {
+		return onOrAfter;
+	}
+
+	public void setOnOrAfter(Date onOrAfter) {
+		this.onOrAfter = onOrAfter;
+	}
+
+	public Date getOnOrBefore() {
+		return onOrBefore;
+	}
+
+	public void setOnOrBefore(Date onOrBefore) {
+		this.onOrBefore = onOrBefore;
+	}
+}
@@ -0,0 +1,182 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.reporting.cohort.definition.evaluator;
+
+import org.openmrs.Cohort;
+import org.openmrs.annotation.Handler;
+import org.openmrs.module.kenyaemr.reporting.cohort.definition.DiffCareStabilityCohortDefinition;
+import org.openmrs.module.kenyaemr.reporting.cohort.definition.DiffCareStabilityCohortDefinition.Stability;
+import org.openmrs.module.reporting.cohort.EvaluatedCohort;
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.evaluator.CohortDefinitionEvaluator;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.EvaluationException;
+import org.openmrs.module.reporting.evaluation.querybuilder.SqlQueryBuilder;
+import org.openmrs.module.reporting.evaluation.service.EvaluationService;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Evaluator for differentiated care stability cohorts. Every patient currently in care on ART is classified once per
+ * evaluation context from their latest HIV followup, and that classification is shared by every cohort evaluated
+ * in the same context, so a report or dashboard only queries the ETL tables once.
+ */
+@Handler(supports = {DiffCareStabilityCohortDefinition.class})
+public class DiffCareStabilityCohortDefinitionEvaluator implements CohortDefinitionEvaluator {
+
+	/**
+	 * Key of the classification in the evaluation context cache
+	 */
+	protected static final String CACHE_KEY = DiffCareStabilityCohortDefinitionEvaluator.class.getName() + ".classification";
+
+	/**
+	 * Followup value of person present
+	 */
+	protected static final int PERSON_PRESENT = 978;
+
+	/**
+	 * Classification of a single patient
+	 */
+	protected static class PatientStability {
+
+		private final Integer patientId;
+
+		private final String gender;
+
+		private final Integer age;
+
+		private final Integer tcaMonths;
+
+		private final Stability stability;
+
+		protected PatientStability(Integer patientId, String gender, Integer age, Integer tcaMonths, Stability stability) {
+			this.patientId = patientId;
+			this.gender = gender;
+			this.age = age;
+			this.tcaMonths = tcaMonths;
+			this.stability = stability;
+		}
+
+		/**
+		 * Checks whether this patient belongs to the given cohort
+		 * @param definition the cohort definition
+		 * @return true if patient belongs
+		 */
+		protected boolean matches(DiffCareStabilityCohortDefinition definition) {
+			if (definition.getStability() != null && definition.getStability() != stability) {
+				return false;
+			}
+			if (definition.getGender() != null && !definition.getGender().equalsIgnoreCase(gender)) {
+				return false;
+			}
+			return inRange(age, definition.getMinAge(), definition.getMaxAge())
+					&& inRange(tcaMonths, definition.getMinTcaMonths(), definition.getMaxTcaMonths());
+		}
+
+		/**
+		 * Checks an inclusive range. A missing value never satisfies a bounded range.
+		 */
+		private static boolean inRange(Integer value, Integer min, Integer max) {
+			if (min == null && max == null) {
+				return true;
+			}
+			return value != null && (min == null || value >= min) && (max == null || value <= max);
+		}
+	}
+
+	@Autowired
+	EvaluationService evaluationService;
+
+	@Override
+	public EvaluatedCohort evaluate(CohortDefinition cohortDefinition, EvaluationContext context) throws EvaluationException {
+		DiffCareStabilityCohortDefinition definition = (DiffCareStabilityCohortDefinition) cohortDefinition;
+
+		if (definition == null)
+			return null;
+
+		Set<Integer> memberIds = new HashSet<Integer>();
+		for (PatientStability patient : getClassification(context)) {
+			if (patient.matches(definition)) {
+				memberIds.add(patient.patientId);
+			}
+		}
+
+		Cohort newCohort = new Cohort();
+		newCohort.setMemberIds(memberIds);
+		return new EvaluatedCohort(newCohort, definition, context);
+	}
+
+	/**
+	 * Gets the classification of all patients currently in care on ART, computing it if this context hasn't already
+	 * @param context the evaluation context
+	 * @return the classification
+	 */
+	@SuppressWarnings("unchecked")
+	protected List<PatientStability> getClassification(EvaluationContext context) throws EvaluationException {
+		List<PatientStability> classification = (List<PatientStability>) context.getFromCache(CACHE_KEY);
+		if (classification == null) {
+			classification = classify(context);
+			context.addToCache(CACHE_KEY, classification);
+		}
+		return classification;
+	}
+
+	/**
+	 * Classifies all patients currently in care on ART using their latest HIV followup
+	 * @param context the evaluation context
+	 * @return the classification
+	 */
+	protected List<PatientStability> classify(EvaluationContext context) throws EvaluationException {
+		String qry = "select c.patient_id, c.Gender, timestampdiff(year, c.dob, c.latest_vis_date),\n" +
+				"  timestampdiff(month, c.latest_vis_date, c.latest_tca), f.patient_id, f.stability, f.person_present\n" +
+				"from kenyaemr_etl.etl_current_in_care c\n" +
+				"  left join kenyaemr_etl.etl_patient_hiv_followup f on f.patient_id = c.patient_id and f.visit_date = c.latest_vis_date and f.voided = 0\n" +
+				"where c.started_on_drugs is not null group by c.patient_id;";
+
+		SqlQueryBuilder builder = new SqlQueryBuilder();
+		builder.append(qry);
+
+		List<PatientStability> classification = new ArrayList<PatientStability>();
+		for (Object[] row : evaluationService.evaluateToList(builder, context)) {
+			boolean hasFollowup = row[4] != null;
+			Integer stability = toInteger(row[5]);
+			Integer present = toInteger(row[6]);
+
+			Stability bucket = null;
+			if (hasFollowup) {
+				if (stability == null) {
+					bucket = Stability.UNDOCUMENTED;
+				}
+				else if (stability == 1 && present != null && present == PERSON_PRESENT) {
+					bucket = Stability.STABLE;
+				}
+				else if (stability == 2) {
+					bucket = Stability.UNSTABLE;
+				}
+			}
+
+			classification.add(new PatientStability(toInteger(row[0]), row[1] != null ? row[1].toString() : null, toInteger(row[2]), toInteger(row[3]), bucket));
+		}
+		return classification;
+	}
+
+	/**
+	 * Converts a numeric column value
+	 * @param value the value (may be null)
+	 * @return the integer value
+	 */
+	private static Integer toInteger(Object value) {
+		return value != null ? ((Number) value).intValue() : null;
+	}
+}
@@ -13,6 +13,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.Cohort;
 import org.openmrs.annotation.Handler;
+import org.openmrs.module.kenyaemr.reporting.EmrReportingUtils;
 import org.openmrs.module.kenyaemr.reporting.cohort.definition.ScheduledARTDrugRefillsCohortDefinition;
 import org.openmrs.module.reporting.cohort.EvaluatedCohort;
 import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
@@ -65,11 +66,11 @@ public class ScheduledARTDrugRefillsCohortDefinitionEvaluator implements CohortD
 				"from kenyaemr_etl.etl_patient_hiv_followup fup\n" +
 				"join kenyaemr_etl.etl_patient_demographics p on p.patient_id=fup.patient_id\n" +
 				"join kenyaemr_etl.etl_hiv_enrollment e on fup.patient_id=e.patient_id\n" +
-				"join obs o on o.person_id=fup.patient_id and o.concept_id=162549 and date(o.value_datetime) between date(:startDate) and date(:endDate) \n" +
-				"left outer join kenyaemr_etl.etl_drug_event de on e.patient_id = de.patient_id and date(date_started) <= date(:endDate)\n" +
+				"join obs o on o.person_id=fup.patient_id and o.concept_id=162549 and " + EmrReportingUtils.inPeriod("o.value_datetime", "startDate", "endDate") + " \n" +
+				"left outer join kenyaemr_etl.etl_drug_event de on e.patient_id = de.patient_id and " + EmrReportingUtils.onOrBefore("date_started", "endDate") + "\n" +
 				"left outer JOIN\n" +
 				"(select patient_id, visit_date from kenyaemr_etl.etl_patient_program_discontinuation\n" +
-				"where date(visit_date) <= date(:endDate) and program_name='HIV'\n" +
+				"where " + EmrReportingUtils.onOrBefore("visit_date", "endDate") + " and program_name='HIV'\n" +
 				"group by patient_id\n" +
 				") d on d.patient_id = fup.patient_id\n" +
 				"where de.program = 'HIV' and fup.visit_date <= date(:endDate)\n" +
@@ -0,0 +1,285 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.reporting.cohort.definition.evaluator;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openmrs.Cohort;
+import org.openmrs.Program;
+import org.openmrs.annotation.Handler;
+import org.openmrs.module.kenyaemr.Dictionary;
+import org.openmrs.module.kenyaemr.metadata.HivMetadata;
+import org.openmrs.module.kenyaemr.metadata.TbMetadata;
+import org.openmrs.module.kenyaemr.reporting.cohort.definition.TbCaseCohortDefinition;
+import org.openmrs.module.metadatadeploy.MetadataUtils;
+import org.openmrs.module.reporting.cohort.EvaluatedCohort;
+import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
+import org.openmrs.module.reporting.cohort.definition.evaluator.CohortDefinitionEvaluator;
+import org.openmrs.module.reporting.common.DateUtil;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.EvaluationException;
+import org.openmrs.module.reporting.evaluation.querybuilder.SqlQueryBuilder;
+import org.openmrs.module.reporting.evaluation.service.EvaluationService;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Evaluator for TB case cohorts. The coded obs for every TB and HIV testing question in the period, and the TB and HIV
+ * program enrollments, are fetched by two grouped queries once per evaluation context and period. Every category is
+ * then computed from those with set operations, rather than each composition evaluating its own obs cohorts.
+ */
+@Handler(supports = {TbCaseCohortDefinition.class})
+public class TbCaseCohortDefinitionEvaluator implements CohortDefinitionEvaluator {
+
+	/**
+	 * Prefix of the key of the patient sets in the evaluation context cache
+	 */
+	protected static final String CACHE_KEY = TbCaseCohortDefinitionEvaluator.class.getName() + ".patients";
+
+	/**
+	 * Patients with each obs question/answer pair and each program enrollment
+	 */
+	protected static class TbPatients {
+
+		private final Map<String, Set<Integer>> byObs = new HashMap<String, Set<Integer>>();
+
+		private final Map<Integer, Set<Integer>> byProgram = new HashMap<Integer, Set<Integer>>();
+
+		/**
+		 * Gets patients with an obs for the given question and any of the given answers
+		 * @param question the question concept identifier
+		 * @param answers the answer concept identifiers
+		 * @return the patient ids
+		 */
+		protected Set<Integer> withObs(String question, String... answers) {
+			Set<Integer> patientIds = new HashSet<Integer>();
+			for (String answer : answers) {
+				Set<Integer> answered = byObs.get(obsKey(Dictionary.getConceptId(question), Dictionary.getConceptId(answer)));
+				if (answered != null) {
+					patientIds.addAll(answered);
+				}
+			}
+			return patientIds;
+		}
+
+		/**
+		 * Gets patients enrolled in the given program
+		 * @param programUuid the program UUID
+		 * @return the patient ids
+		 */
+		protected Set<Integer> inProgram(String programUuid) {
+			Set<Integer> enrolled = byProgram.get(programId(programUuid));
+			return enrolled != null ? new HashSet<Integer>(enrolled) : new HashSet<Integer>();
+		}
+
+		private static String obsKey(Integer questionId, Integer answerId) {
+			return questionId + ":" + answerId;
+		}
+	}
+
+	/**
+	 * The obs questions which are fetched
+	 */
+	private static final List<String> QUESTIONS = Arrays.asList(
+			Dictionary.TUBERCULOSIS_DISEASE_STATUS,
+			Dictionary.TUBERCULOSIS_TREATMENT_OUTCOME,
+			Dictionary.TYPE_OF_TB_PATIENT,
+			Dictionary.SITE_OF_TUBERCULOSIS_DISEASE,
+			Dictionary.RESULTS_TUBERCULOSIS_CULTURE,
+			Dictionary.HIV_STATUS,
+			Dictionary.HIV_INFECTED,
+			Dictionary.MEDICATION_ORDERS
+	);
+
+	@Autowired
+	EvaluationService evaluationService;
+
+	@Override
+	public EvaluatedCohort evaluate(CohortDefinition cohortDefinition, EvaluationContext context) throws EvaluationException {
+		TbCaseCohortDefinition definition = (TbCaseCohortDefinition) cohortDefinition;
+
+		if (definition == null)
+			return null;
+
+		Date onOrAfter = definition.getOnOrAfter();
+		Date onOrBefore = DateUtil.getEndOfDayIfTimeExcluded(definition.getOnOrBefore());
+
+		TbPatients patients = getPatients(onOrAfter, onOrBefore, context);
+
+		Cohort newCohort = new Cohort();
+		newCohort.setMemberIds(getMembers(definition.getCategory(), patients));
+		return new EvaluatedCohort(newCohort, definition, context);
+	}
+
+	/**
+	 * Gets the members of a category
+	 * @param category the category
+	 * @param patients the patients for the period
+	 * @return the patient ids
+	 */
+	protected Set<Integer> getMembers(TbCaseCohortDefinition.Category category, TbPatients patients) {
+		Set<Integer> memberIds;
+
+		switch (category) {
+			case SCREENED:
+				return patients.withObs(Dictionary.TUBERCULOSIS_DISEASE_STATUS,
+						Dictionary.DISEASE_SUSPECTED, Dictionary.DISEASE_DIAGNOSED, Dictionary.NO_SIGNS_OR_SYMPTOMS_OF_DISEASE);
+			case DIED:
+				return patients.withObs(Dictionary.TUBERCULOSIS_TREATMENT_OUTCOME, Dictionary.DIED);
+			case COMPLETED_TREATMENT:
+				return patients.withObs(Dictionary.TUBERCULOSIS_TREATMENT_OUTCOME, Dictionary.TREATMENT_COMPLETE);
+			case RETREATMENT:
+				return patients.withObs(Dictionary.TYPE_OF_TB_PATIENT, Dictionary.RETREATMENT_AFTER_DEFAULT_TUBERCULOSIS);
+			case NEW_DETECTED:
+				return patients.withObs(Dictionary.TYPE_OF_TB_PATIENT, Dictionary.SMEAR_POSITIVE_NEW_TUBERCULOSIS_PATIENT);
+			case PULMONARY:
+				return patients.withObs(Dictionary.SITE_OF_TUBERCULOSIS_DISEASE, Dictionary.PULMONARY_TB);
+			case EXTRA_PULMONARY:
+				return patients.withObs(Dictionary.SITE_OF_TUBERCULOSIS_DISEASE, Dictionary.MYCROBACTERIUM_TUBERCULOSIS_EXTRAPULMONARY);
+			case SMEAR_POSITIVE:
+				return patients.withObs(Dictionary.RESULTS_TUBERCULOSIS_CULTURE, Dictionary.POSITIVE);
+			case SMEAR_NEGATIVE:
+				return patients.withObs(Dictionary.RESULTS_TUBERCULOSIS_CULTURE, Dictionary.NEGATIVE);
+			case SMEAR_NOT_DONE:
+				return patients.withObs(Dictionary.RESULTS_TUBERCULOSIS_CULTURE, Dictionary.NOT_DONE);
+			case PULMONARY_SMEAR_POSITIVE:
+				memberIds = getMembers(TbCaseCohortDefinition.Category.PULMONARY, patients);
+				memberIds.retainAll(getMembers(TbCaseCohortDefinition.Category.SMEAR_POSITIVE, patients));
+				return memberIds;
+			case PULMONARY_SMEAR_NEGATIVE:
+				memberIds = getMembers(TbCaseCohortDefinition.Category.PULMONARY, patients);
+				memberIds.retainAll(getMembers(TbCaseCohortDefinition.Category.SMEAR_NEGATIVE, patients));
+				return memberIds;
+			case IN_TB_PROGRAM_TESTED_FOR_HIV:
+				memberIds = patients.withObs(Dictionary.HIV_STATUS, Dictionary.UNKNOWN, Dictionary.POSITIVE, Dictionary.NEGATIVE);
+				memberIds.addAll(patients.withObs(Dictionary.HIV_INFECTED, Dictionary.INDETERMINATE, Dictionary.POSITIVE, Dictionary.NEGATIVE));
+				memberIds.retainAll(patients.inProgram(TbMetadata._Program.TB));
+				return memberIds;
+			case IN_TB_PROGRAM_TESTED_HIV_POSITIVE:
+				memberIds = patients.withObs(Dictionary.HIV_STATUS, Dictionary.POSITIVE);
+				memberIds.addAll(patients.withObs(Dictionary.HIV_INFECTED, Dictionary.POSITIVE));
+				memberIds.retainAll(patients.inProgram(TbMetadata._Program.TB));
+				return memberIds;
+			case IN_TB_AND_HIV_PROGRAMS_ON_CTX:
+				memberIds = patients.withObs(Dictionary.MEDICATION_ORDERS, Dictionary.SULFAMETHOXAZOLE_TRIMETHOPRIM);
+				memberIds.retainAll(patients.inProgram(TbMetadata._Program.TB));
+				memberIds.retainAll(patients.inProgram(HivMetadata._Program.HIV));
+				return memberIds;
+			default:
+				throw new IllegalArgumentException("Unsupported TB case category " + category);
+		}
+	}
+
+	/**
+	 * Gets the patient sets for a period, fetching them if this context hasn't already
+	 * @param onOrAfter the start of the period (may be null)
+	 * @param onOrBefore the end of the period (may be null)
+	 * @param context the evaluation context
+	 * @return the patient sets
+	 */
+	protected TbPatients getPatients(Date onOrAfter, Date onOrBefore, EvaluationContext context) throws EvaluationException {
+		String key = CACHE_KEY + ":" + (onOrAfter != null ? onOrAfter.getTime() : "") + ":" + (onOrBefore != null ? onOrBefore.getTime() : "");
+
+		TbPatients patients = (TbPatients) context.getFromCache(key);
+		if (patients == null) {
+			patients = fetchPatients(onOrAfter, onOrBefore, context);
+			context.addToCache(key, patients);
+		}
+		return patients;
+	}
+
+	/**
+	 * Fetches the distinct obs question/answer pairs and program enrollments of each patient for a period
+	 * @param onOrAfter the start of the period (may be null)
+	 * @param onOrBefore the end of the period (may be null)
+	 * @param context the evaluation context
+	 * @return the patient sets
+	 */
+	protected TbPatients fetchPatients(Date onOrAfter, Date onOrBefore, EvaluationContext context) throws EvaluationException {
+		TbPatients patients = new TbPatients();
+
+		Set<Integer> questionIds = new HashSet<Integer>();
+		for (String question : QUESTIONS) {
+			questionIds.add(Dictionary.getConceptId(question));
+		}
+
+		SqlQueryBuilder obsQuery = new SqlQueryBuilder();
+		obsQuery.append("select o.person_id, o.concept_id, o.value_coded from obs o ");
+		obsQuery.append("inner join patient p on p.patient_id = o.person_id and p.voided = false ");
+		obsQuery.append("where o.voided = false and o.value_coded is not null ");
+		obsQuery.append("and o.concept_id in (" + StringUtils.join(questionIds, ",") + ") ");
+		if (onOrAfter != null) {
+			obsQuery.append("and o.obs_datetime >= :onOrAfter ");
+			obsQuery.addParameter("onOrAfter", onOrAfter);
+		}
+		if (onOrBefore != null) {
+			obsQuery.append("and o.obs_datetime <= :onOrBefore ");
+			obsQuery.addParameter("onOrBefore", onOrBefore);
+		}
+		obsQuery.append("group by o.person_id, o.concept_id, o.value_coded");
+
+		for (Object[] row : evaluationService.evaluateToList(obsQuery, context)) {
+			addMember(patients.byObs, TbPatients.obsKey(toInteger(row[1]), toInteger(row[2])), toInteger(row[0]));
+		}
+
+		SqlQueryBuilder enrollmentQuery = new SqlQueryBuilder();
+		enrollmentQuery.append("select pp.patient_id, pp.program_id from patient_program pp ");
+		enrollmentQuery.append("inner join patient p on p.patient_id = pp.patient_id and p.voided = false ");
+		enrollmentQuery.append("where pp.voided = false ");
+		enrollmentQuery.append("and pp.program_id in (" + programId(TbMetadata._Program.TB) + "," + programId(HivMetadata._Program.HIV) + ") ");
+		if (onOrBefore != null) {
+			enrollmentQuery.append("and pp.date_enrolled <= :onOrBefore ");
+			enrollmentQuery.addParameter("onOrBefore", onOrBefore);
+		}
+		enrollmentQuery.append("group by pp.patient_id, pp.program_id");
+
+		for (Object[] row : evaluationService.evaluateToList(enrollmentQuery, context)) {
+			addMember(patients.byProgram, toInteger(row[1]), toInteger(row[0]));
+		}
+
+		return patients;
+	}
+
+	/**
+	 * Adds a patient to the set with the given key
+	 */
+	private static <K> void addMember(Map<K, Set<Integer>> sets, K key, Integer patientId) {
+		Set<Integer> members = sets.get(key);
+		if (members == null) {
+			members = new HashSet<Integer>();
+			sets.put(key, members);
+		}
+		members.add(patientId);
+	}
+
+	/**
+	 * Gets the id of a program
+	 * @param uuid the program UUID
+	 * @return the program id
+	 */
+	private static Integer programId(String uuid) {
+		return MetadataUtils.existing(Program.class, uuid).getProgramId();
+	}
+
+	/**
+	 * Converts a numeric column value
+	 * @param value the value (may be null)
+	 * @return the integer value
+	 */
+	private static Integer toInteger(Object value) {
+		return value != null ? ((Number) value).intValue() : null;
+	}
+}
@@ -10,6 +10,7 @@
 package org.openmrs.module.kenyaemr.reporting.data.converter.definition.evaluator;
 
 import org.openmrs.annotation.Handler;
+import org.openmrs.module.kenyaemr.reporting.EmrReportingUtils;
 import org.openmrs.module.kenyaemr.reporting.data.converter.definition.HonouredDrugRefillAppointmentDataDefinition;
 import org.openmrs.module.reporting.data.person.EvaluatedPersonData;
 import org.openmrs.module.reporting.data.person.definition.PersonDataDefinition;
@@ -38,7 +39,7 @@ public class HonouredDrugRefillAppointmentDataEvaluator implements PersonDataEva
         String qry = "select e.patient_id, 'Yes'\n" +
                 "from encounter e\n" +
                 "inner join encounter_type et on et.encounter_type_id=e.encounter_type and et.uuid in ('e87aa2ad-6886-422e-9dfd-064e3bfe3aad')\n" +
-                "where e.voided=0 and date(e.encounter_datetime) between date(:startDate) and date(:endDate)";
+                "where e.voided=0 and " + EmrReportingUtils.inPeriod("e.encounter_datetime", "startDate", "endDate") + "";
 
         SqlQueryBuilder queryBuilder = new SqlQueryBuilder();
         Date startDate = (Date)context.getParameterValue("startDate");
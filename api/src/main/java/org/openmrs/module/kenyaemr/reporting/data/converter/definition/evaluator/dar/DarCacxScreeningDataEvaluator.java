@@ -10,6 +10,7 @@
 package org.openmrs.module.kenyaemr.reporting.data.converter.definition.evaluator.dar;
 
 import org.openmrs.annotation.Handler;
+import org.openmrs.module.kenyaemr.reporting.EmrReportingUtils;
 import org.openmrs.module.kenyaemr.reporting.data.converter.definition.dar.DarCacxScreeningDataDefinition;
 import org.openmrs.module.reporting.data.person.EvaluatedPersonData;
 import org.openmrs.module.reporting.data.person.definition.PersonDataDefinition;
@@ -37,7 +38,7 @@ public class DarCacxScreeningDataEvaluator implements PersonDataEvaluator {
         String qry = "SELECT f.patient_id, 'X' as cacxScreening\n" +
                 "FROM kenyaemr_etl.etl_patient_hiv_followup f\n" +
                 "         inner join kenyaemr_etl.etl_patient_demographics p on p.patient_id = f.patient_id and  p.voided = 0 and TIMESTAMPDIFF(YEAR, date(p.DOB), date(:startDate)) >= 18 and p.Gender = 'F'\n" +
-                "where date(f.visit_date) = date(:startDate) and f.voided = 0 and f.cacx_screening in (664,703) ";
+                "where " + EmrReportingUtils.onDay("f.visit_date", "startDate") + " and f.voided = 0 and f.cacx_screening in (664,703) ";
 
         SqlQueryBuilder queryBuilder = new SqlQueryBuilder();
         queryBuilder.append(qry);
@@ -10,6 +10,7 @@
 package org.openmrs.module.kenyaemr.reporting.data.converter.definition.evaluator.dar;
 
 import org.openmrs.annotation.Handler;
+import org.openmrs.module.kenyaemr.reporting.EmrReportingUtils;
 import org.openmrs.module.kenyaemr.reporting.data.converter.definition.dar.DarKeyPopulationDataDefinition;
 import org.openmrs.module.reporting.data.person.EvaluatedPersonData;
 import org.openmrs.module.reporting.data.person.definition.PersonDataDefinition;
@@ -42,8 +43,8 @@ public class DarKeyPopulationDataEvaluator implements PersonDataEvaluator {
             qry = "SELECT e.patient_id, 'X' kp\n" +
                     "FROM kenyaemr_etl.etl_hiv_enrollment e\n" +
                     "         inner join kenyaemr_etl.etl_patient_demographics p on p.patient_id = e.patient_id and  p.voided = 0 \n" +
-                    "         inner join kenyaemr_etl.etl_patient_hiv_followup f on f.patient_id = e.patient_id and  date(f.visit_date) = date(:startDate) and f.voided = 0 and f.population_type=164929 \n" +
-                    "where e.entry_point <> 160563  and e.transfer_in_date is null and (e.patient_type not in (160563, 164931, 159833) or e.patient_type is null ) and date(e.visit_date) = date(:startDate) and e.voided = 0 ";
+                    "         inner join kenyaemr_etl.etl_patient_hiv_followup f on f.patient_id = e.patient_id and  " + EmrReportingUtils.onDay("f.visit_date", "startDate") + " and f.voided = 0 and f.population_type=164929 \n" +
+                    "where e.entry_point <> 160563  and e.transfer_in_date is null and (e.patient_type not in (160563, 164931, 159833) or e.patient_type is null ) and " + EmrReportingUtils.onDay("e.visit_date", "startDate") + " and e.voided = 0 ";
         } else if (section.equals("Starting ART")) {
             qry = "select patient_id, 'X' as kp\n" +
                     "from \n" +
@@ -59,8 +60,8 @@ public class DarKeyPopulationDataEvaluator implements PersonDataEvaluator {
                     "        group by e.patient_id) e\n" +
                     " inner join kenyaemr_etl.etl_hiv_enrollment enr on enr.patient_id=e.patient_id\n" +
                     " inner join kenyaemr_etl.etl_patient_demographics p on p.patient_id = e.patient_id and  p.voided = 0 \n" +
-                    " inner join kenyaemr_etl.etl_patient_hiv_followup f on f.patient_id = e.patient_id and  date(f.visit_date) = date(:startDate) and f.voided = 0 and f.population_type=164929 \n" +
-                    " where date(e.date_started) = date(:startDate) \n" +
+                    " inner join kenyaemr_etl.etl_patient_hiv_followup f on f.patient_id = e.patient_id and  " + EmrReportingUtils.onDay("f.visit_date", "startDate") + " and f.voided = 0 and f.population_type=164929 \n" +
+                    " where " + EmrReportingUtils.onDay("e.date_started", "startDate") + " \n" +
                     " group by e.patient_id\n" +
                     " having TI_on_art=0) a ";
 
@@ -69,9 +70,9 @@ public class DarKeyPopulationDataEvaluator implements PersonDataEvaluator {
                     "    TIMESTAMPDIFF(MONTH , date(f.visit_date), date(f.next_appointment_date)), 'R' ) as kp\n" +
                     "FROM kenyaemr_etl.etl_patient_hiv_followup f\n" +
                     "         inner join kenyaemr_etl.etl_patient_demographics p on p.patient_id = f.patient_id and  p.voided = 0 \n" +
-                    "         inner join kenyaemr_etl.etl_drug_event d on d.patient_id = f.patient_id  and  date(d.date_started) <= date(:startDate)  and ifnull(d.voided,0)= 0\n" +
+                    "         inner join kenyaemr_etl.etl_drug_event d on d.patient_id = f.patient_id  and  " + EmrReportingUtils.onOrBefore("d.date_started", "startDate") + "  and ifnull(d.voided,0)= 0\n" +
                     "         left join kenyaemr_etl.etl_patient_hiv_followup f2 on f.patient_id = f2.patient_id  and  date(f.visit_date) = date(f2.next_appointment_date) and f2.voided = 0\n" +
-                    "where date(f.visit_date) = date(:startDate) and f.voided = 0 and f.population_type=164929";
+                    "where " + EmrReportingUtils.onDay("f.visit_date", "startDate") + " and f.voided = 0 and f.population_type=164929";
         }
 
         SqlQueryBuilder queryBuilder = new SqlQueryBuilder();
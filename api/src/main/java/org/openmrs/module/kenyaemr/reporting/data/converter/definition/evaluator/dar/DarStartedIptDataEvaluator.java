@@ -10,6 +10,7 @@
 package org.openmrs.module.kenyaemr.reporting.data.converter.definition.evaluator.dar;
 
 import org.openmrs.annotation.Handler;
+import org.openmrs.module.kenyaemr.reporting.EmrReportingUtils;
 import org.openmrs.module.kenyaemr.reporting.data.converter.definition.dar.DarStartedIptDataDefinition;
 import org.openmrs.module.kenyaemr.reporting.data.converter.definition.dar.DarTbScreeningDataDefinition;
 import org.openmrs.module.reporting.data.person.EvaluatedPersonData;
@@ -44,14 +45,14 @@ public class DarStartedIptDataEvaluator implements PersonDataEvaluator {
             qry = "SELECT f.patient_id, 'X' iptStarted \n" +
                     "FROM kenyaemr_etl.etl_patient_hiv_followup f\n" +
                     "         inner join kenyaemr_etl.etl_patient_demographics p on p.patient_id = f.patient_id and  p.voided = 0 and p.Gender = ':sex'\n" +
-                    "         inner join kenyaemr_etl.etl_ipt_initiation i on f.patient_id = i.patient_id  and date(i.visit_date) = date(:startDate) and i.voided = 0\n" +
-                    "where date(f.visit_date) = date(:startDate) and f.voided = 0 ";
+                    "         inner join kenyaemr_etl.etl_ipt_initiation i on f.patient_id = i.patient_id  and " + EmrReportingUtils.onDay("i.visit_date", "startDate") + " and i.voided = 0\n" +
+                    "where " + EmrReportingUtils.onDay("f.visit_date", "startDate") + " and f.voided = 0 ";
         } else {
             qry = "SELECT f.patient_id, 'X' iptStarted \n" +
                     "FROM kenyaemr_etl.etl_patient_hiv_followup f\n" +
                     "         inner join kenyaemr_etl.etl_patient_demographics p on p.patient_id = f.patient_id and  p.voided = 0 \n" +
-                    "         inner join kenyaemr_etl.etl_ipt_initiation i on f.patient_id = i.patient_id  and date(i.visit_date) = date(:startDate) and i.voided = 0\n" +
-                    "where date(f.visit_date) = date(:startDate) and f.voided = 0 ";
+                    "         inner join kenyaemr_etl.etl_ipt_initiation i on f.patient_id = i.patient_id  and " + EmrReportingUtils.onDay("i.visit_date", "startDate") + " and i.voided = 0\n" +
+                    "where " + EmrReportingUtils.onDay("f.visit_date", "startDate") + " and f.voided = 0 ";
         }
         String ageConditionString = "";
         if (minAge != null && maxAge != null) {
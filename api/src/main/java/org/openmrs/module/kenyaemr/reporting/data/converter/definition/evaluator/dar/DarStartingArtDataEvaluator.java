@@ -10,6 +10,7 @@
 package org.openmrs.module.kenyaemr.reporting.data.converter.definition.evaluator.dar;
 
 import org.openmrs.annotation.Handler;
+import org.openmrs.module.kenyaemr.reporting.EmrReportingUtils;
 import org.openmrs.module.kenyaemr.reporting.data.converter.definition.dar.DarStartingArtDataDefinition;
 import org.openmrs.module.reporting.data.person.EvaluatedPersonData;
 import org.openmrs.module.reporting.data.person.definition.PersonDataDefinition;
@@ -54,8 +55,8 @@ public class DarStartingArtDataEvaluator implements PersonDataEvaluator {
                     "        group by e.patient_id) e\n" +
                     " inner join kenyaemr_etl.etl_hiv_enrollment enr on enr.patient_id=e.patient_id\n" +
                     " inner join kenyaemr_etl.etl_patient_demographics p on p.patient_id = e.patient_id and  p.voided = 0 and p.Gender = ':sex'\n" +
-                    " inner join kenyaemr_etl.etl_patient_hiv_followup f on f.patient_id = e.patient_id and  date(f.visit_date) = date(:startDate) and f.voided = 0\n" +
-                    " where date(e.date_started) = date(:startDate) \n" +
+                    " inner join kenyaemr_etl.etl_patient_hiv_followup f on f.patient_id = e.patient_id and  " + EmrReportingUtils.onDay("f.visit_date", "startDate") + " and f.voided = 0\n" +
+                    " where " + EmrReportingUtils.onDay("e.date_started", "startDate") + " \n" +
                     " group by e.patient_id\n" +
                     " having TI_on_art=0) a ";
         } else {
@@ -73,8 +74,8 @@ public class DarStartingArtDataEvaluator implements PersonDataEvaluator {
                     "        group by e.patient_id) e\n" +
                     " inner join kenyaemr_etl.etl_hiv_enrollment enr on enr.patient_id=e.patient_id\n" +
                     " inner join kenyaemr_etl.etl_patient_demographics p on p.patient_id = e.patient_id and  p.voided = 0 \n" +
-                    " inner join kenyaemr_etl.etl_patient_hiv_followup f on f.patient_id = e.patient_id and  date(f.visit_date) = date(:startDate) and f.voided = 0\n" +
-                    " where date(e.date_started) = date(:startDate) \n" +
+                    " inner join kenyaemr_etl.etl_patient_hiv_followup f on f.patient_id = e.patient_id and  " + EmrReportingUtils.onDay("f.visit_date", "startDate") + " and f.voided = 0\n" +
+                    " where " + EmrReportingUtils.onDay("e.date_started", "startDate") + " \n" +
                     " group by e.patient_id\n" +
                     " having TI_on_art=0) a ";
         }
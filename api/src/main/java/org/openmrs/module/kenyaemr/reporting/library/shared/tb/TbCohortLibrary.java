@@ -22,6 +22,7 @@ import org.openmrs.module.kenyaemr.calculation.library.tb.TbInitialTreatmentCalc
 import org.openmrs.module.kenyaemr.calculation.library.tb.TbTreatmentStartDateCalculation;
 import org.openmrs.module.kenyaemr.metadata.HivMetadata;
 import org.openmrs.module.kenyaemr.metadata.TbMetadata;
+import org.openmrs.module.kenyaemr.reporting.cohort.definition.TbCaseCohortDefinition;
 import org.openmrs.module.kenyaemr.reporting.library.moh731.Moh731CohortLibrary;
 import org.openmrs.module.kenyaemr.reporting.library.shared.common.CommonCohortLibrary;
 import org.openmrs.module.kenyaemr.reporting.library.shared.hiv.HivCohortLibrary;
@@ -1521,4 +1522,18 @@ public class TbCohortLibrary {
 		cd.setCompositionString("treatmentCompleted OR died OR outOfControl OR transferredOut");
 		return cd;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Patients in the given TB case category between ${onOrAfter} and ${onOrBefore}. Each category matches one of the
+	 * obs and enrollment based compositions above, but all categories for a period share the same queries.
+	 * @param category the category
+	 * @return the cohort definition
+	 */
+	public CohortDefinition tbCases(TbCaseCohortDefinition.Category category) {
+		TbCaseCohortDefinition cd = new TbCaseCohortDefinition(category);
+		cd.setName("TB cases: " + category);
+		cd.addParameter(new Parameter("onOrAfter", "After Date", Date.class));
+		cd.addParameter(new Parameter("onOrBefore", "Before Date", Date.class));
+		return cd;
+	}
+}
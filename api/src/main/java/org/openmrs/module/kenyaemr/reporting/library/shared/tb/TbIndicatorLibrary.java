@@ -9,6 +9,7 @@
  */
 package org.openmrs.module.kenyaemr.reporting.library.shared.tb;
 
+import org.openmrs.module.kenyaemr.reporting.cohort.definition.TbCaseCohortDefinition.Category;
 import org.openmrs.module.reporting.indicator.CohortIndicator;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -51,7 +52,7 @@ public class TbIndicatorLibrary {
 	 */
 	public CohortIndicator completedTbTreatment() {
 		return cohortIndicator("patients who completed TB treatment",
-				map(tbCohorts.completedTreatment(), "onOrAfter=${startDate},onOrBefore=${endDate}")
+				map(tbCohorts.tbCases(Category.COMPLETED_TREATMENT), "onOrAfter=${startDate},onOrBefore=${endDate}")
 		);
 	}
 
@@ -70,7 +71,7 @@ public class TbIndicatorLibrary {
 	 */
 	public CohortIndicator inTbAndHivProgramsAndOnCtxProphylaxis() {
 		return cohortIndicator("in TB and HIV programs and on CTX prophylaxis",
-				map(tbCohorts.inTbAndHivProgramsAndOnCtxProphylaxis(), "onOrAfter=${startDate},onOrBefore=${endDate}")
+				map(tbCohorts.tbCases(Category.IN_TB_AND_HIV_PROGRAMS_ON_CTX), "onOrAfter=${startDate},onOrBefore=${endDate}")
 		);
 	}
 
@@ -80,7 +81,7 @@ public class TbIndicatorLibrary {
 	 */
 	public CohortIndicator inTbAndTestedForHiv() {
 		return cohortIndicator("in TB program and tested for HIV",
-				map(tbCohorts.testedForHivAndInTbProgram(), "onOrAfter=${startDate},onOrBefore=${endDate}")
+				map(tbCohorts.tbCases(Category.IN_TB_PROGRAM_TESTED_FOR_HIV), "onOrAfter=${startDate},onOrBefore=${endDate}")
 		);
 	}
 
@@ -90,7 +91,7 @@ public class TbIndicatorLibrary {
 	 */
 	public CohortIndicator inTbAndTestedForHivPositive() {
 		return cohortIndicator("in TB program and tested positive for HIV",
-				map(tbCohorts.testedHivPositiveAndInTbProgram(), "onOrAfter=${startDate},onOrBefore=${endDate}")
+				map(tbCohorts.tbCases(Category.IN_TB_PROGRAM_TESTED_HIV_POSITIVE), "onOrAfter=${startDate},onOrBefore=${endDate}")
 		);
 	}
 
@@ -100,7 +101,7 @@ public class TbIndicatorLibrary {
 	 */
 	public CohortIndicator tbRetreatmentsPatients() {
 		return cohortIndicator("TB re-treatment patients",
-				map(tbCohorts.tbRetreatments(), "onOrAfter=${startDate},onOrBefore=${endDate}")
+				map(tbCohorts.tbCases(Category.RETREATMENT), "onOrAfter=${startDate},onOrBefore=${endDate}")
 		);
 	}
 
@@ -110,7 +111,7 @@ public class TbIndicatorLibrary {
 	 */
 	public CohortIndicator extraPulmonaryTbPatients() {
 		return cohortIndicator("patients with extra pulmonary TB",
-				map(tbCohorts.extraPulmonaryTbPatients(), "onOrAfter=${startDate},onOrBefore=${endDate}")
+				map(tbCohorts.tbCases(Category.EXTRA_PULMONARY), "onOrAfter=${startDate},onOrBefore=${endDate}")
 		);
 	}
 
@@ -120,7 +121,7 @@ public class TbIndicatorLibrary {
 	 */
 	public CohortIndicator pulmonaryTbSmearNegative() {
 		return cohortIndicator("patients with pulmonary TB smear negative results",
-				map(tbCohorts.pulmonaryTbSmearNegative(), "onOrAfter=${startDate},onOrBefore=${endDate}")
+				map(tbCohorts.tbCases(Category.PULMONARY_SMEAR_NEGATIVE), "onOrAfter=${startDate},onOrBefore=${endDate}")
 		);
 	}
 
@@ -130,7 +131,7 @@ public class TbIndicatorLibrary {
 	 */
 	public CohortIndicator pulmonaryTbSmearPositive() {
 		return cohortIndicator("patients with pulmonary TB smear positive results",
-				map(tbCohorts.pulmonaryTbSmearPositive(), "onOrAfter=${startDate},onOrBefore=${endDate}")
+				map(tbCohorts.tbCases(Category.PULMONARY_SMEAR_POSITIVE), "onOrAfter=${startDate},onOrBefore=${endDate}")
 		);
 	}
 
@@ -140,7 +141,7 @@ public class TbIndicatorLibrary {
 	 */
 	public CohortIndicator tbNewDetectedCases() {
 		return cohortIndicator("new TB cases detected",
-				map(tbCohorts.tbNewDetectedCases(), "onOrAfter=${startDate},onOrBefore=${endDate}")
+				map(tbCohorts.tbCases(Category.NEW_DETECTED), "onOrAfter=${startDate},onOrBefore=${endDate}")
 		);
 	}
 
@@ -0,0 +1,149 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.reporting.profiler;
+
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+
+/**
+ * Accumulated evaluation statistics for a single named definition within a report run
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class DefinitionProfile {
+
+	private String name;
+
+	private String type;
+
+	private int evaluations;
+
+	private int cacheHits;
+
+	private long totalTime;
+
+	private long selfTime;
+
+	private long sqlTime;
+
+	private long maxTime;
+
+	private long rows;
+
+	/**
+	 * Default constructor for deserialization
+	 */
+	public DefinitionProfile() {
+	}
+
+	/**
+	 * Creates a new profile
+	 * @param name the definition name
+	 * @param type the definition type, e.g. "SqlCohortDefinition"
+	 */
+	public DefinitionProfile(String name, String type) {
+		this.name = name;
+		this.type = type;
+	}
+
+	/**
+	 * Records an evaluation
+	 * @param totalTime the wall time including nested evaluations
+	 * @param selfTime the wall time excluding nested evaluations
+	 * @param sqlTime the wall time of queries run by this evaluation, excluding those of nested evaluations
+	 * @param rows the number of rows returned (or null if not applicable)
+	 * @param cacheHit whether the evaluation was served from the evaluation context's cache
+	 */
+	public void record(long totalTime, long selfTime, long sqlTime, Integer rows, boolean cacheHit) {
+		this.evaluations++;
+		this.totalTime += totalTime;
+		this.selfTime += selfTime;
+		this.sqlTime += sqlTime;
+		if (totalTime > maxTime) {
+			this.maxTime = totalTime;
+		}
+		if (rows != null) {
+			this.rows += rows;
+		}
+		if (cacheHit) {
+			this.cacheHits++;
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public void setType(String type) {
+		this.type = type;
+	}
+
+	public int getEvaluations() {
+		return evaluations;
+	}
+
+	public void setEvaluations(int evaluations) {
+		this.evaluations = evaluations;
+	}
+
+	public int getCacheHits() {
+		return cacheHits;
+	}
+
+	public void setCacheHits(int cacheHits) {
+		this.cacheHits = cacheHits;
+	}
+
+	public long getTotalTime() {
+		return totalTime;
+	}
+
+	public void setTotalTime(long totalTime) {
+		this.totalTime = totalTime;
+	}
+
+	public long getSelfTime() {
+		return selfTime;
+	}
+
+	public void setSelfTime(long selfTime) {
+		this.selfTime = selfTime;
+	}
+
+	public long getSqlTime() {
+		return sqlTime;
+	}
+
+	public void setSqlTime(long sqlTime) {
+		this.sqlTime = sqlTime;
+	}
+
+	public long getMaxTime() {
+		return maxTime;
+	}
+
+	public void setMaxTime(long maxTime) {
+		this.maxTime = maxTime;
+	}
+
+	public long getRows() {
+		return rows;
+	}
+
+	public void setRows(long rows) {
+		this.rows = rows;
+	}
+}
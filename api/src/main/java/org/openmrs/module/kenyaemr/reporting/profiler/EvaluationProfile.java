@@ -0,0 +1,140 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.reporting.profiler;
+
+import org.codehaus.jackson.annotate.JsonIgnore;
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Profile of all definition evaluations performed for a single report request
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class EvaluationProfile {
+
+	private String requestUuid;
+
+	private String reportName;
+
+	private Date started;
+
+	private long totalTime;
+
+	private Map<String, DefinitionProfile> definitions = new LinkedHashMap<String, DefinitionProfile>();
+
+	/**
+	 * Default constructor for deserialization
+	 */
+	public EvaluationProfile() {
+	}
+
+	/**
+	 * Creates a new profile
+	 * @param requestUuid the report request UUID
+	 * @param reportName the report name
+	 */
+	public EvaluationProfile(String requestUuid, String reportName) {
+		this.requestUuid = requestUuid;
+		this.reportName = reportName;
+		this.started = new Date();
+	}
+
+	/**
+	 * Records a definition evaluation
+	 * @param name the definition name
+	 * @param type the definition type
+	 * @param totalTime the wall time including nested evaluations
+	 * @param selfTime the wall time excluding nested evaluations
+	 * @param sqlTime the wall time of queries run by the evaluation, excluding those of nested evaluations
+	 * @param rows the number of rows returned (or null if not applicable)
+	 * @param cacheHit whether the evaluation was served from the evaluation context's cache
+	 */
+	public void record(String name, String type, long totalTime, long selfTime, long sqlTime, Integer rows, boolean cacheHit) {
+		String key = name + "|" + type;
+		DefinitionProfile definition = definitions.get(key);
+		if (definition == null) {
+			definition = new DefinitionProfile(name, type);
+			definitions.put(key, definition);
+		}
+
+		definition.record(totalTime, selfTime, sqlTime, rows, cacheHit);
+	}
+
+	/**
+	 * Marks this profile as complete
+	 */
+	public void completed() {
+		this.totalTime = System.currentTimeMillis() - started.getTime();
+	}
+
+	/**
+	 * Gets the definitions ordered by self time, slowest first
+	 * @param limit the maximum number to return
+	 * @return the definitions
+	 */
+	@JsonIgnore
+	public List<DefinitionProfile> getSlowestDefinitions(int limit) {
+		List<DefinitionProfile> sorted = new ArrayList<DefinitionProfile>(definitions.values());
+		Collections.sort(sorted, new Comparator<DefinitionProfile>() {
+			@Override
+			public int compare(DefinitionProfile profile1, DefinitionProfile profile2) {
+				return Long.valueOf(profile2.getSelfTime()).compareTo(profile1.getSelfTime());
+			}
+		});
+		return sorted.size() > limit ? sorted.subList(0, limit) : sorted;
+	}
+
+	public String getRequestUuid() {
+		return requestUuid;
+	}
+
+	public void setRequestUuid(String requestUuid) {
+		this.requestUuid = requestUuid;
+	}
+
+	public String getReportName() {
+		return reportName;
+	}
+
+	public void setReportName(String reportName) {
+		this.reportName = reportName;
+	}
+
+	public Date getStarted() {
+		return started;
+	}
+
+	public void setStarted(Date started) {
+		this.started = started;
+	}
+
+	public long getTotalTime() {
+		return totalTime;
+	}
+
+	public void setTotalTime(long totalTime) {
+		this.totalTime = totalTime;
+	}
+
+	public Map<String, DefinitionProfile> getDefinitions() {
+		return definitions;
+	}
+
+	public void setDefinitions(Map<String, DefinitionProfile> definitions) {
+		this.definitions = definitions;
+	}
+}
@@ -0,0 +1,330 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.reporting.profiler;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.openmrs.Cohort;
+import org.openmrs.module.reporting.data.encounter.EvaluatedEncounterData;
+import org.openmrs.module.reporting.data.patient.EvaluatedPatientData;
+import org.openmrs.module.reporting.data.person.EvaluatedPersonData;
+import org.openmrs.module.reporting.dataset.DataSet;
+import org.openmrs.module.reporting.dataset.DataSetRow;
+import org.openmrs.module.reporting.evaluation.Definition;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.parameter.Mapped;
+import org.openmrs.module.reporting.indicator.IndicatorResult;
+import org.openmrs.util.OpenmrsUtil;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Profiles the definition evaluations of report runs. A profile is started for the current thread when a report
+ * request is run, and each cohort, data set, data or indicator evaluation on that thread is recorded against it, with
+ * the time spent in the queries it ran and whether it was served from the evaluation context's cache. Completed
+ * profiles are saved as JSON files named by report request UUID, and only the most recent are kept.
+ */
+public class EvaluationProfiler {
+
+	protected static final Log log = LogFactory.getLog(EvaluationProfiler.class);
+
+	public static final String PROFILES_DIRECTORY = "kenyaemr" + File.separator + "profiles";
+
+	/**
+	 * The number of profiles kept, as each report run saves a new one
+	 */
+	public static final int MAX_PROFILES = 200;
+
+	private static final ThreadLocal<EvaluationProfile> currentProfile = new ThreadLocal<EvaluationProfile>();
+
+	/**
+	 * Stack of the evaluations in progress on this thread. Each holds the accumulated time of nested evaluations, the
+	 * accumulated time of its own queries and the number of values it got from the evaluation context's cache.
+	 */
+	private static final ThreadLocal<LinkedList<long[]>> evaluations = new ThreadLocal<LinkedList<long[]>>();
+
+	private static final int NESTED_TIME = 0;
+
+	private static final int SQL_TIME = 1;
+
+	private static final int CACHE_HITS = 2;
+
+	/**
+	 * Cache of an evaluation context which records values found in it against the current evaluation. Changes are
+	 * made to the original cache, which may be shared with other contexts.
+	 */
+	protected static class ProfiledCache extends AbstractMap<String, Object> {
+
+		private final Map<String, Object> cache;
+
+		protected ProfiledCache(Map<String, Object> cache) {
+			this.cache = cache;
+		}
+
+		@Override
+		public Object get(Object key) {
+			Object value = cache.get(key);
+			if (value != null) {
+				increment(CACHE_HITS, 1);
+			}
+			return value;
+		}
+
+		@Override
+		public Object put(String key, Object value) {
+			return cache.put(key, value);
+		}
+
+		@Override
+		public Object remove(Object key) {
+			return cache.remove(key);
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return cache.containsKey(key);
+		}
+
+		@Override
+		public int size() {
+			return cache.size();
+		}
+
+		@Override
+		public void clear() {
+			cache.clear();
+		}
+
+		@Override
+		public Set<Entry<String, Object>> entrySet() {
+			return cache.entrySet();
+		}
+	}
+
+	/**
+	 * Starts profiling on the current thread
+	 * @param requestUuid the report request UUID
+	 * @param reportName the report name
+	 */
+	public static void start(String requestUuid, String reportName) {
+		currentProfile.set(new EvaluationProfile(requestUuid, reportName));
+		evaluations.set(new LinkedList<long[]>());
+	}
+
+	/**
+	 * Stops profiling on the current thread
+	 * @return the completed profile or null if profiling wasn't started
+	 */
+	public static EvaluationProfile stop() {
+		EvaluationProfile profile = currentProfile.get();
+		currentProfile.remove();
+		evaluations.remove();
+
+		if (profile != null) {
+			profile.completed();
+		}
+		return profile;
+	}
+
+	/**
+	 * Gets whether profiling is active on the current thread
+	 * @return true if active
+	 */
+	public static boolean isActive() {
+		return currentProfile.get() != null;
+	}
+
+	/**
+	 * Wraps the cache of an evaluation context so that values found in it are recorded against the current evaluation
+	 * @param context the evaluation context (may be null)
+	 */
+	public static void profileCache(EvaluationContext context) {
+		if (context != null && context.getCache() != null && !(context.getCache() instanceof ProfiledCache)) {
+			context.setCache(new ProfiledCache(context.getCache()));
+		}
+	}
+
+	/**
+	 * Records the start of a definition evaluation
+	 */
+	public static void enter() {
+		LinkedList<long[]> stack = evaluations.get();
+		if (stack != null) {
+			stack.push(new long[3]);
+		}
+	}
+
+	/**
+	 * Records a query run by the current evaluation
+	 * @param time the wall time of the query
+	 */
+	public static void recordQuery(long time) {
+		increment(SQL_TIME, time);
+	}
+
+	/**
+	 * Records the end of a definition evaluation
+	 * @param definitionArg the definition or mapped definition which was evaluated
+	 * @param result the evaluation result (null if evaluation failed)
+	 * @param time the wall time of the evaluation
+	 */
+	public static void exit(Object definitionArg, Object result, long time) {
+		EvaluationProfile profile = currentProfile.get();
+		LinkedList<long[]> stack = evaluations.get();
+		if (profile == null || stack == null || stack.isEmpty()) {
+			return;
+		}
+
+		long[] evaluation = stack.pop();
+		if (!stack.isEmpty()) {
+			stack.peek()[NESTED_TIME] += time;
+		}
+
+		Definition definition = (definitionArg instanceof Mapped) ? (Definition) ((Mapped) definitionArg).getParameterizable() : (Definition) definitionArg;
+		if (definition == null) {
+			return;
+		}
+
+		String type = definition.getClass().getSimpleName();
+		String name = definition.getName() != null ? definition.getName() : type;
+		long selfTime = Math.max(time - evaluation[NESTED_TIME], 0);
+
+		profile.record(name, type, time, selfTime, evaluation[SQL_TIME], countRows(result), evaluation[CACHE_HITS] > 0);
+	}
+
+	/**
+	 * Adds to a value of the current evaluation on this thread, if any
+	 * @param index the index of the value
+	 * @param amount the amount to add
+	 */
+	private static void increment(int index, long amount) {
+		LinkedList<long[]> stack = evaluations.get();
+		if (stack != null && !stack.isEmpty()) {
+			stack.peek()[index] += amount;
+		}
+	}
+
+	/**
+	 * Saves a profile, and deletes the oldest profiles if there are more than the maximum
+	 * @param profile the profile
+	 */
+	public static void save(EvaluationProfile profile) {
+		File file = getProfileFile(profile.getRequestUuid());
+		try {
+			new ObjectMapper().writeValue(file, profile);
+		}
+		catch (IOException ex) {
+			log.warn("Unable to save evaluation profile for request " + profile.getRequestUuid(), ex);
+		}
+
+		purgeOldProfiles(file.getParentFile(), MAX_PROFILES);
+	}
+
+	/**
+	 * Loads the profile of a report request
+	 * @param requestUuid the report request UUID
+	 * @return the profile or null if request wasn't profiled
+	 */
+	public static EvaluationProfile load(String requestUuid) {
+		File file = getProfileFile(requestUuid);
+		if (!file.exists()) {
+			return null;
+		}
+
+		try {
+			return new ObjectMapper().readValue(file, EvaluationProfile.class);
+		}
+		catch (IOException ex) {
+			log.warn("Unable to load evaluation profile for request " + requestUuid, ex);
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the file used to store the profile of a report request
+	 * @param requestUuid the report request UUID
+	 * @return the file
+	 */
+	protected static File getProfileFile(String requestUuid) {
+		File directory = OpenmrsUtil.getDirectoryInApplicationDataDirectory(PROFILES_DIRECTORY);
+		return new File(directory, requestUuid + ".json");
+	}
+
+	/**
+	 * Deletes the oldest profiles in the given directory so that no more than the given number remain
+	 * @param directory the profiles directory
+	 * @param keep the number of profiles to keep
+	 */
+	protected static void purgeOldProfiles(File directory, int keep) {
+		File[] files = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".json");
+			}
+		});
+		if (files == null || files.length <= keep) {
+			return;
+		}
+
+		// Newest first
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File file1, File file2) {
+				return Long.valueOf(file2.lastModified()).compareTo(file1.lastModified());
+			}
+		});
+
+		for (int f = keep; f < files.length; ++f) {
+			if (!files[f].delete()) {
+				log.warn("Unable to delete evaluation profile " + files[f].getName());
+			}
+		}
+	}
+
+	/**
+	 * Counts the rows in an evaluation result
+	 * @param result the result
+	 * @return the number of rows or null if result type isn't recognized
+	 */
+	protected static Integer countRows(Object result) {
+		if (result instanceof Cohort) {
+			return ((Cohort) result).getSize();
+		}
+		else if (result instanceof EvaluatedPatientData) {
+			return ((EvaluatedPatientData) result).getData().size();
+		}
+		else if (result instanceof EvaluatedPersonData) {
+			return ((EvaluatedPersonData) result).getData().size();
+		}
+		else if (result instanceof EvaluatedEncounterData) {
+			return ((EvaluatedEncounterData) result).getData().size();
+		}
+		else if (result instanceof IndicatorResult) {
+			return 1;
+		}
+		else if (result instanceof DataSet) {
+			int rows = 0;
+			for (DataSetRow ignored : (DataSet) result) {
+				rows++;
+			}
+			return rows;
+		}
+		return null;
+	}
+}
@@ -9,12 +9,10 @@
  */
 package org.openmrs.module.kenyaemr.reporting.renderer;
 
-import org.openmrs.Location;
 import org.openmrs.annotation.Handler;
 import org.openmrs.api.AdministrationService;
-import org.openmrs.api.LocationService;
 import org.openmrs.api.context.Context;
-import org.openmrs.module.kenyaemr.wrapper.Facility;
+import org.openmrs.module.kenyaemr.FacilityContext;
 import org.openmrs.module.reporting.dataset.DataSet;
 import org.openmrs.module.reporting.dataset.DataSetColumn;
 import org.openmrs.module.reporting.dataset.DataSetRow;
@@ -41,7 +39,6 @@ public class AdxReportRenderer extends ReportDesignRenderer {
 
     private AdministrationService administrationService;
 
-    private LocationService locationService;
 
     /**
      * @see ReportRenderer#getFilename(ReportRequest)
@@ -67,13 +64,11 @@ public class AdxReportRenderer extends ReportDesignRenderer {
         DateFormat isoDateFormat = new SimpleDateFormat("yyyy-MM-dd");
         Date reportDate = (Date) reportData.getContext().getParameterValue("startDate");
         administrationService = Context.getAdministrationService();
-        locationService = Context.getLocationService();
 
-        Integer locationId = Integer.parseInt(administrationService.getGlobalProperty("kenyaemr.defaultLocation"));
-        Location location = locationService.getLocation(locationId);
+        FacilityContext.Details facility = Context.getRegisteredComponents(FacilityContext.class).get(0).getDetails();
         String mfl = "Unknown";
-        if (location != null) {
-            mfl = new Facility(location).getMflCode();
+        if (facility.getLocationId() != null) {
+            mfl = facility.getMflCode();
         }
 
         Writer w = new OutputStreamWriter(out, "UTF-8");
@@ -31,6 +31,7 @@ import org.openmrs.User;
 import org.openmrs.api.EncounterService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.kenyaemr.Dictionary;
+import org.openmrs.module.kenyaemr.wrapper.PatientSnapshot;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -147,6 +148,11 @@ public class EmrUtils {
 	 * @return the encounter
 	 */
 	public static Encounter lastEncounter(Patient patient, EncounterType type) {
+		if (patient != null && PatientSnapshot.isScopeActive()) {
+			List<Encounter> encounters = PatientSnapshot.forPatient(patient).getEncounters(type);
+			return encounters.size() > 0 ? encounters.get(encounters.size() - 1) : null;
+		}
+
 		List<Encounter> encounters = Context.getEncounterService().getEncounters(patient, null, null, null, null, Collections.singleton(type), null, null, null, false);
 		return encounters.size() > 0 ? encounters.get(encounters.size() - 1) : null;
 	}
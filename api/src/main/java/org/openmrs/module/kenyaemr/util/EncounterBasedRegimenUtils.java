@@ -22,16 +22,23 @@ import org.openmrs.api.EncounterService;
 import org.openmrs.api.FormService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.kenyacore.CoreConstants;
+import org.openmrs.module.kenyaemr.Dictionary;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
 import org.openmrs.module.kenyaemr.metadata.CommonMetadata;
+import org.openmrs.module.kenyaemr.wrapper.PatientSnapshot;
+import org.openmrs.module.metadatadeploy.MetadataUtils;
 import org.openmrs.ui.framework.SimpleObject;
 
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Set;
 import java.util.TreeMap;
@@ -40,12 +47,31 @@ public class EncounterBasedRegimenUtils {
 
     static SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("dd-MMM-yyyy");
 
+    /**
+     * The maximum number of patient or encounter ids in each query of the cohort methods
+     */
+    public static final int BATCH_SIZE = 1000;
+
+    public static final String ARV_TREATMENT_PLAN_EVENT_CONCEPT = "1255AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
+    public static final String TB_TREATMENT_PLAN_CONCEPT = "1268AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
+
+    /**
+     * Gets the UUID of the treatment plan concept which identifies regimen editor encounters of a category
+     * @param category the regimen category, e.g. "ARV"
+     * @return the concept UUID
+     */
+    public static String getCategoryConceptUuid(String category) {
+        return category.equals("ARV") ? ARV_TREATMENT_PLAN_EVENT_CONCEPT : TB_TREATMENT_PLAN_CONCEPT;
+    }
+
     public static List<SimpleObject> getRegimenHistoryFromObservations (Patient patient, String category) {
 
+        if (PatientSnapshot.isScopeActive()) {
+            return PatientSnapshot.forPatient(patient).getRegimenHistory(category);
+        }
+
         FormService formService = Context.getFormService();
         EncounterService encounterService = Context.getEncounterService();
-        String ARV_TREATMENT_PLAN_EVENT_CONCEPT = "1255AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
-        String TB_TREATMENT_PLAN_CONCEPT = "1268AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
         List<SimpleObject> history = new ArrayList<SimpleObject>();
         String categoryConceptUuid = category.equals("ARV")? ARV_TREATMENT_PLAN_EVENT_CONCEPT : TB_TREATMENT_PLAN_CONCEPT;
 
@@ -69,10 +95,12 @@ public class EncounterBasedRegimenUtils {
 
     public static Encounter getLastEncounterForCategory (Patient patient, String category) {
 
+        if (PatientSnapshot.isScopeActive()) {
+            return PatientSnapshot.forPatient(patient).getLastRegimenEncounter(category);
+        }
+
         FormService formService = Context.getFormService();
         EncounterService encounterService = Context.getEncounterService();
-        String ARV_TREATMENT_PLAN_EVENT_CONCEPT = "1255AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
-        String TB_TREATMENT_PLAN_CONCEPT = "1268AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
         List<SimpleObject> history = new ArrayList<SimpleObject>();
         String categoryConceptUuid = category.equals("ARV")? ARV_TREATMENT_PLAN_EVENT_CONCEPT : TB_TREATMENT_PLAN_CONCEPT;
 
@@ -97,10 +125,12 @@ public class EncounterBasedRegimenUtils {
 
     public static Encounter getFirstEncounterForCategory (Patient patient, String category) {
 
+        if (PatientSnapshot.isScopeActive()) {
+            return PatientSnapshot.forPatient(patient).getFirstRegimenEncounter(category);
+        }
+
         FormService formService = Context.getFormService();
         EncounterService encounterService = Context.getEncounterService();
-        String ARV_TREATMENT_PLAN_EVENT_CONCEPT = "1255AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
-        String TB_TREATMENT_PLAN_CONCEPT = "1268AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
         List<SimpleObject> history = new ArrayList<SimpleObject>();
         String categoryConceptUuid = category.equals("ARV")? ARV_TREATMENT_PLAN_EVENT_CONCEPT : TB_TREATMENT_PLAN_CONCEPT;
 
@@ -123,6 +153,111 @@ public class EncounterBasedRegimenUtils {
         return null;
     }
 
+    /**
+     * Gets the last regimen editor encounter of a category for each of the given patients, using a bounded number of
+     * queries rather than loading each patient's encounters
+     * @param patientIds the patient ids
+     * @param category the regimen category, e.g. "ARV"
+     * @return the encounters by patient id, with their obs loaded. Patients without one aren't included
+     */
+    public static Map<Integer, Encounter> getLastEncountersForCategory(Collection<Integer> patientIds, String category) {
+        return getFirstOrLastEncountersForCategory(patientIds, category, true);
+    }
+
+    /**
+     * Gets the first regimen editor encounter of a category for each of the given patients, using a bounded number of
+     * queries rather than loading each patient's encounters
+     * @param patientIds the patient ids
+     * @param category the regimen category, e.g. "ARV"
+     * @return the encounters by patient id, with their obs loaded. Patients without one aren't included
+     */
+    public static Map<Integer, Encounter> getFirstEncountersForCategory(Collection<Integer> patientIds, String category) {
+        return getFirstOrLastEncountersForCategory(patientIds, category, false);
+    }
+
+    /**
+     * Gets the first or last regimen editor encounter of a category for each of the given patients. The encounter ids
+     * are selected by one query per batch of patients, and the encounters are then loaded with their obs by one query
+     * per batch of encounters.
+     * @param patientIds the patient ids
+     * @param category the regimen category
+     * @param last true for the last encounters, false for the first
+     * @return the encounters by patient id
+     */
+    protected static Map<Integer, Encounter> getFirstOrLastEncountersForCategory(Collection<Integer> patientIds, String category, boolean last) {
+        return getFirstOrLastEncountersForCategory(patientIds, category, last, BATCH_SIZE);
+    }
+
+    /**
+     * Gets the first or last regimen editor encounter of a category for each of the given patients
+     * @param patientIds the patient ids
+     * @param category the regimen category
+     * @param last true for the last encounters, false for the first
+     * @param batchSize the maximum number of patient or encounter ids in each query
+     * @return the encounters by patient id
+     */
+    protected static Map<Integer, Encounter> getFirstOrLastEncountersForCategory(Collection<Integer> patientIds, String category, boolean last, int batchSize) {
+        Map<Integer, Encounter> ret = new HashMap<Integer, Encounter>();
+
+        // Patients in a snapshot scope are already loaded
+        if (PatientSnapshot.isScopeActive()) {
+            for (Integer patientId : patientIds) {
+                Patient patient = Context.getPatientService().getPatient(patientId);
+                Encounter encounter = last ? getLastEncounterForCategory(patient, category) : getFirstEncounterForCategory(patient, category);
+                if (encounter != null) {
+                    ret.put(patientId, encounter);
+                }
+            }
+            return ret;
+        }
+
+        KenyaEmrService service = Context.getService(KenyaEmrService.class);
+
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("type", MetadataUtils.existing(EncounterType.class, CommonMetadata._EncounterType.DRUG_REGIMEN_EDITOR).getEncounterTypeId());
+        params.put("form", MetadataUtils.existing(Form.class, CommonMetadata._Form.DRUG_REGIMEN_EDITOR).getFormId());
+        params.put("concept", Dictionary.getConceptId(getCategoryConceptUuid(category)));
+
+        String query = "select e.patient_id, e.encounter_id from encounter e"
+                + " where e.voided = 0 and e.encounter_type = :type and e.form_id = :form and e.patient_id in (:patientIds)"
+                + " and exists (select 1 from obs o where o.encounter_id = e.encounter_id and o.concept_id = :concept and o.voided = 0)"
+                + " order by e.encounter_datetime, e.encounter_id";
+
+        Map<Integer, Integer> encounterIds = new HashMap<Integer, Integer>();
+        List<Integer> ids = new ArrayList<Integer>(patientIds);
+        for (int from = 0; from < ids.size(); from += batchSize) {
+            params.put("patientIds", ids.subList(from, Math.min(from + batchSize, ids.size())));
+
+            for (Object row : service.executeSqlQuery(query, params)) {
+                Object[] values = (Object[]) row;
+                Integer patientId = ((Number) values[0]).intValue();
+                if (last || !encounterIds.containsKey(patientId)) {
+                    encounterIds.put(patientId, ((Number) values[1]).intValue());
+                }
+            }
+        }
+
+        Map<Integer, Encounter> byId = new HashMap<Integer, Encounter>();
+        List<Integer> selected = new ArrayList<Integer>(encounterIds.values());
+        for (int from = 0; from < selected.size(); from += batchSize) {
+            Map<String, Object> loadParams = new HashMap<String, Object>();
+            loadParams.put("encounterIds", selected.subList(from, Math.min(from + batchSize, selected.size())));
+
+            for (Object row : service.executeHqlQuery("select distinct e from Encounter e left join fetch e.obs where e.encounterId in (:encounterIds)", loadParams)) {
+                Encounter encounter = (Encounter) row;
+                byId.put(encounter.getEncounterId(), encounter);
+            }
+        }
+
+        for (Map.Entry<Integer, Integer> entry : encounterIds.entrySet()) {
+            Encounter encounter = byId.get(entry.getValue());
+            if (encounter != null) {
+                ret.put(entry.getKey(), encounter);
+            }
+        }
+        return ret;
+    }
+
     public static boolean programEncounterMatching(Set<Obs> obs, String conceptUuidToMatch) {
         for (Obs o : obs) {
             if (o.getConcept().getUuid().equals(conceptUuidToMatch)) {
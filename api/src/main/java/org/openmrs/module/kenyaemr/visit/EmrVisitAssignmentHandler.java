@@ -22,14 +22,12 @@ import org.openmrs.api.handler.BaseEncounterVisitHandler;
 import org.openmrs.module.kenyacore.CoreContext;
 import org.openmrs.module.kenyacore.form.FormDescriptor;
 import org.openmrs.module.kenyacore.form.FormManager;
-import org.openmrs.module.kenyaemr.api.KenyaEmrService;
 import org.openmrs.module.kenyaemr.metadata.CommonMetadata;
 import org.openmrs.module.kenyaemr.util.EmrUtils;
 import org.openmrs.module.kenyaemr.wrapper.VisitWrapper;
 import org.openmrs.module.metadatadeploy.MetadataUtils;
 import org.openmrs.util.OpenmrsUtil;
 
-import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 
@@ -80,6 +78,7 @@ public class EmrVisitAssignmentHandler extends BaseEncounterVisitHandler impleme
 			// If the existing visit was created via a form and is now empty, void it
 			if (existingIsNowEmpty && existingWasRetro) {
 				Context.getVisitService().voidVisit(oldVisit, "Left empty by encounter move");
+				VisitLookupCache.evict(oldVisit.getPatient(), oldVisit.getStartDatetime());
 			}
 		}
 	}
@@ -109,40 +108,40 @@ public class EmrVisitAssignmentHandler extends BaseEncounterVisitHandler impleme
 	 * @return true if a suitable visit was found
 	 */
 	protected boolean useExistingVisit(Encounter encounter) {
+		// Visits that day which the encounter's location is compatible with, from the per-transaction cache
+		List<Visit> visitsOnDay = VisitLookupCache.getVisitsByPatientAndDay(encounter.getPatient(), encounter.getEncounterDatetime(), encounter.getLocation());
+
 		// If encounter has time, then we need an exact fit for an existing visit
 		if (EmrUtils.dateHasTime(encounter.getEncounterDatetime())) {
-			List<Visit> visits = Context.getVisitService().getVisits(null, Collections.singletonList(encounter.getPatient()), null, null, null,
-					encounter.getEncounterDatetime(), null, null, null, true, false);
 
-			for (Visit visit : visits) {
-				// Skip visits which ended before the encounter date
+			// Check most recently started visits first
+			for (int v = visitsOnDay.size() - 1; v >= 0; v--) {
+				Visit visit = visitsOnDay.get(v);
+
+				// Skip visits which started after or ended before the encounter date
+				if (visit.getStartDatetime().after(encounter.getEncounterDatetime())) {
+					continue;
+				}
 				if (visit.getStopDatetime() != null && visit.getStopDatetime().before(encounter.getEncounterDatetime())) {
 					continue;
 				}
 
-				if (checkLocations(visit, encounter)) {
-					setVisitOfEncounter(visit, encounter);
-					return true;
-				}
+				setVisitOfEncounter(visit, encounter);
+				return true;
 			}
 		}
 		// If encounter does not have time, we can move it to fit any visit that day
-		else {
-			List<Visit> existingVisitsOnDay = Context.getService(KenyaEmrService.class).getVisitsByPatientAndDay(encounter.getPatient(), encounter.getEncounterDatetime());
-			if (existingVisitsOnDay.size() > 0) {
-				Visit visit = existingVisitsOnDay.get(0);
-
-				if (checkLocations(visit, encounter)) {
-					setVisitOfEncounter(visit, encounter);
+		else if (visitsOnDay.size() > 0) {
+			Visit visit = visitsOnDay.get(0);
 
-					// Adjust encounter start if its before visit start
-					if (encounter.getEncounterDatetime().before(visit.getStartDatetime())) {
-						encounter.setEncounterDatetime(visit.getStartDatetime());
-					}
+			setVisitOfEncounter(visit, encounter);
 
-					return true;
-				}
+			// Adjust encounter start if its before visit start
+			if (encounter.getEncounterDatetime().before(visit.getStartDatetime())) {
+				encounter.setEncounterDatetime(visit.getStartDatetime());
 			}
+
+			return true;
 		}
 
 		return false;
@@ -169,6 +168,7 @@ public class EmrVisitAssignmentHandler extends BaseEncounterVisitHandler impleme
 		visit.addAttribute(sourceAttr);
 
 		Context.getVisitService().saveVisit(visit);
+		VisitLookupCache.evict(encounter.getPatient(), encounter.getEncounterDatetime());
 
 		setVisitOfEncounter(visit, encounter);
 	}
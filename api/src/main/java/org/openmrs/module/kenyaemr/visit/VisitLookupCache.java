@@ -0,0 +1,123 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.visit;
+
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.Visit;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of the visits of a patient on a day, used when assigning encounters to visits. The cache is bound to the
+ * current transaction so that saving many encounters for the same patient in one transaction only queries the visits
+ * of each day once, and it is discarded when the transaction completes. Outside of a transaction nothing is cached.
+ */
+public class VisitLookupCache {
+
+	private static final Object RESOURCE_KEY = VisitLookupCache.class.getName();
+
+	/**
+	 * Gets the visits that occurred for the given patient on the given date, which an encounter at the given location
+	 * could belong to
+	 * @param patient the patient
+	 * @param date the day
+	 * @param location the encounter location
+	 * @return the visits ordered by start date
+	 * @see KenyaEmrService#getVisitsByPatientAndDay(org.openmrs.Patient, java.util.Date, org.openmrs.Location)
+	 */
+	public static List<Visit> getVisitsByPatientAndDay(Patient patient, Date date, Location location) {
+		Map<String, List<Visit>> cache = patient.getPatientId() != null ? getTransactionCache() : null;
+		String key = cache != null ? getKey(patient, date, location) : null;
+
+		if (cache != null && cache.containsKey(key)) {
+			return cache.get(key);
+		}
+
+		List<Visit> visits = Context.getService(KenyaEmrService.class).getVisitsByPatientAndDay(patient, date, location);
+
+		if (cache != null) {
+			cache.put(key, visits);
+		}
+		return visits;
+	}
+
+	/**
+	 * Removes the cached visits of the given patient on the given day, e.g. after a visit has been created
+	 * @param patient the patient
+	 * @param date the day
+	 */
+	public static void evict(Patient patient, Date date) {
+		Map<String, List<Visit>> cache = TransactionSynchronizationManager.isSynchronizationActive() ? getTransactionCache() : null;
+		if (cache == null || patient.getPatientId() == null) {
+			return;
+		}
+
+		String prefix = patient.getPatientId() + ":" + formatDay(date) + ":";
+		for (Iterator<String> keys = cache.keySet().iterator(); keys.hasNext(); ) {
+			if (keys.next().startsWith(prefix)) {
+				keys.remove();
+			}
+		}
+	}
+
+	/**
+	 * Gets the cache bound to the current transaction, creating it if necessary
+	 * @return the cache or null if there is no transaction
+	 */
+	@SuppressWarnings("unchecked")
+	protected static Map<String, List<Visit>> getTransactionCache() {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			return null;
+		}
+
+		Map<String, List<Visit>> cache = (Map<String, List<Visit>>) TransactionSynchronizationManager.getResource(RESOURCE_KEY);
+		if (cache == null) {
+			cache = new HashMap<String, List<Visit>>();
+			TransactionSynchronizationManager.bindResource(RESOURCE_KEY, cache);
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int status) {
+					TransactionSynchronizationManager.unbindResourceIfPossible(RESOURCE_KEY);
+				}
+			});
+		}
+		return cache;
+	}
+
+	/**
+	 * Gets the cache key for a lookup
+	 * @param patient the patient
+	 * @param date the day
+	 * @param location the location
+	 * @return the key
+	 */
+	protected static String getKey(Patient patient, Date date, Location location) {
+		return patient.getPatientId() + ":" + formatDay(date) + ":" + (location != null ? location.getLocationId() : "");
+	}
+
+	/**
+	 * Formats the day of a date
+	 * @param date the date
+	 * @return the formatted day
+	 */
+	protected static String formatDay(Date date) {
+		return new SimpleDateFormat("yyyy-MM-dd").format(date);
+	}
+}
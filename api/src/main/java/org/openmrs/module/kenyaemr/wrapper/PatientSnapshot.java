@@ -0,0 +1,388 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.wrapper;
+
+import org.openmrs.Concept;
+import org.openmrs.Encounter;
+import org.openmrs.EncounterType;
+import org.openmrs.Form;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.PatientProgram;
+import org.openmrs.Program;
+import org.openmrs.api.context.Context;
+import org.openmrs.calculation.patient.PatientCalculation;
+import org.openmrs.calculation.patient.PatientCalculationService;
+import org.openmrs.calculation.result.CalculationResult;
+import org.openmrs.calculation.result.CalculationResultMap;
+import org.openmrs.calculation.result.ListResult;
+import org.openmrs.calculation.result.ObsResult;
+import org.openmrs.module.kenyacore.calculation.CalculationUtils;
+import org.openmrs.module.kenyaemr.metadata.CommonMetadata;
+import org.openmrs.module.kenyaemr.util.EncounterBasedRegimenUtils;
+import org.openmrs.module.metadatadeploy.MetadataUtils;
+import org.openmrs.ui.framework.SimpleObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot of a patient's clinical record which is loaded once and shared by everything which displays or calculates
+ * from that record during a single request, e.g. the fragments of the patient chart. The obs, encounters and program
+ * enrollments are each loaded with one query the first time they are needed, and single-patient calculation results
+ * and regimen histories are memoised.
+ *
+ * Snapshots are only shared while a scope is active on the current thread (see {@link #beginScope()}). Outside of a
+ * scope, {@link #forPatient(Patient)} returns a new snapshot each time.
+ */
+public class PatientSnapshot {
+
+	private static final ThreadLocal<Map<Integer, PatientSnapshot>> scope = new ThreadLocal<Map<Integer, PatientSnapshot>>();
+
+	private final Patient patient;
+
+	private final Date now = new Date();
+
+	private List<Obs> obs;
+
+	private Map<Integer, List<Obs>> obsByConcept;
+
+	private List<Encounter> encounters;
+
+	private List<PatientProgram> enrollments;
+
+	private Map<String, List<Encounter>> regimenEncounters = new HashMap<String, List<Encounter>>();
+
+	private Map<String, List<SimpleObject>> regimenHistories = new HashMap<String, List<SimpleObject>>();
+
+	private Map<String, CalculationResult> calculationResults = new HashMap<String, CalculationResult>();
+
+	/**
+	 * Creates a new snapshot
+	 * @param patient the patient
+	 */
+	protected PatientSnapshot(Patient patient) {
+		this.patient = patient;
+	}
+
+	/**
+	 * Begins a scope on the current thread in which snapshots are shared
+	 */
+	public static void beginScope() {
+		scope.set(new HashMap<Integer, PatientSnapshot>());
+	}
+
+	/**
+	 * Ends the scope on the current thread, discarding its snapshots
+	 */
+	public static void endScope() {
+		scope.remove();
+	}
+
+	/**
+	 * Gets whether a scope is active on the current thread
+	 * @return true if scope is active
+	 */
+	public static boolean isScopeActive() {
+		return scope.get() != null;
+	}
+
+	/**
+	 * Gets the snapshot of the given patient, which is shared if a scope is active
+	 * @param patient the patient
+	 * @return the snapshot
+	 */
+	public static PatientSnapshot forPatient(Patient patient) {
+		Map<Integer, PatientSnapshot> snapshots = scope.get();
+		if (snapshots == null) {
+			return new PatientSnapshot(patient);
+		}
+
+		PatientSnapshot snapshot = snapshots.get(patient.getPatientId());
+		if (snapshot == null) {
+			snapshot = new PatientSnapshot(patient);
+			snapshots.put(patient.getPatientId(), snapshot);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Gets the patient
+	 * @return the patient
+	 */
+	public Patient getPatient() {
+		return patient;
+	}
+
+	/**
+	 * Gets all obs of the patient up to the time the snapshot was created
+	 * @return the obs in date order
+	 */
+	public List<Obs> getObs() {
+		if (obs == null) {
+			obs = new ArrayList<Obs>();
+			obsByConcept = new HashMap<Integer, List<Obs>>();
+
+			for (Obs o : Context.getObsService().getObservationsByPerson(patient)) {
+				if (!o.getObsDatetime().after(now)) {
+					obs.add(o);
+				}
+			}
+
+			Collections.sort(obs, new Comparator<Obs>() {
+				@Override
+				public int compare(Obs obs1, Obs obs2) {
+					int byDate = obs1.getObsDatetime().compareTo(obs2.getObsDatetime());
+					return byDate != 0 ? byDate : obs1.getObsId().compareTo(obs2.getObsId());
+				}
+			});
+
+			for (Obs o : obs) {
+				List<Obs> conceptObs = obsByConcept.get(o.getConcept().getConceptId());
+				if (conceptObs == null) {
+					conceptObs = new ArrayList<Obs>();
+					obsByConcept.put(o.getConcept().getConceptId(), conceptObs);
+				}
+				conceptObs.add(o);
+			}
+		}
+		return obs;
+	}
+
+	/**
+	 * Gets all obs of the given concept
+	 * @param concept the concept
+	 * @return the obs in date order
+	 */
+	public List<Obs> getObs(Concept concept) {
+		getObs();
+		List<Obs> conceptObs = obsByConcept.get(concept.getConceptId());
+		return conceptObs != null ? conceptObs : Collections.<Obs>emptyList();
+	}
+
+	/**
+	 * Gets the first obs of the given concept
+	 * @param concept the concept
+	 * @return the obs or null
+	 */
+	public Obs getFirstObs(Concept concept) {
+		List<Obs> conceptObs = getObs(concept);
+		return conceptObs.isEmpty() ? null : conceptObs.get(0);
+	}
+
+	/**
+	 * Gets the last obs of the given concept
+	 * @param concept the concept
+	 * @return the obs or null
+	 */
+	public Obs getLastObs(Concept concept) {
+		List<Obs> conceptObs = getObs(concept);
+		return conceptObs.isEmpty() ? null : conceptObs.get(conceptObs.size() - 1);
+	}
+
+	/**
+	 * Gets the first obs of the given concept in the same form as
+	 * {@link org.openmrs.module.kenyacore.calculation.Calculations#firstObs}
+	 * @param concept the concept
+	 * @return the calculation result map
+	 */
+	public CalculationResultMap firstObs(Concept concept) {
+		return toResultMap(getFirstObs(concept));
+	}
+
+	/**
+	 * Gets the last obs of the given concept in the same form as
+	 * {@link org.openmrs.module.kenyacore.calculation.Calculations#lastObs}
+	 * @param concept the concept
+	 * @return the calculation result map
+	 */
+	public CalculationResultMap lastObs(Concept concept) {
+		return toResultMap(getLastObs(concept));
+	}
+
+	/**
+	 * Gets all obs of the given concept in the same form as
+	 * {@link org.openmrs.module.kenyacore.calculation.Calculations#allObs}
+	 * @param concept the concept
+	 * @return the calculation result map
+	 */
+	public CalculationResultMap allObs(Concept concept) {
+		ListResult results = new ListResult();
+		for (Obs o : getObs(concept)) {
+			results.add(new ObsResult(o, null));
+		}
+
+		CalculationResultMap ret = new CalculationResultMap();
+		ret.put(patient.getPatientId(), results);
+		return ret;
+	}
+
+	/**
+	 * Gets all encounters of the patient
+	 * @return the encounters in date order
+	 */
+	public List<Encounter> getEncounters() {
+		if (encounters == null) {
+			encounters = Context.getEncounterService().getEncounters(patient, null, null, null, null, null, null, null, null, false);
+		}
+		return encounters;
+	}
+
+	/**
+	 * Gets all encounters of the patient entered with the given form
+	 * @param form the form
+	 * @return the encounters in date order
+	 */
+	public List<Encounter> getEncounters(Form form) {
+		List<Encounter> ret = new ArrayList<Encounter>();
+		for (Encounter encounter : getEncounters()) {
+			if (form.equals(encounter.getForm())) {
+				ret.add(encounter);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Gets all encounters of the patient of the given type
+	 * @param type the encounter type
+	 * @return the encounters in date order
+	 */
+	public List<Encounter> getEncounters(EncounterType type) {
+		List<Encounter> ret = new ArrayList<Encounter>();
+		for (Encounter encounter : getEncounters()) {
+			if (type.equals(encounter.getEncounterType())) {
+				ret.add(encounter);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Gets all program enrollments of the patient
+	 * @return the enrollments
+	 */
+	public List<PatientProgram> getEnrollments() {
+		if (enrollments == null) {
+			enrollments = Context.getProgramWorkflowService().getPatientPrograms(patient, null, null, null, null, null, false);
+		}
+		return enrollments;
+	}
+
+	/**
+	 * Gets all enrollments of the patient in the given program
+	 * @param program the program
+	 * @return the enrollments
+	 */
+	public List<PatientProgram> getEnrollments(Program program) {
+		List<PatientProgram> ret = new ArrayList<PatientProgram>();
+		for (PatientProgram enrollment : getEnrollments()) {
+			if (program.equals(enrollment.getProgram())) {
+				ret.add(enrollment);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Gets the regimen editor encounters of the given category
+	 * @param category the regimen category, e.g. "ARV"
+	 * @return the encounters in date order
+	 */
+	public List<Encounter> getRegimenEncounters(String category) {
+		List<Encounter> ret = regimenEncounters.get(category);
+		if (ret == null) {
+			EncounterType type = MetadataUtils.existing(EncounterType.class, CommonMetadata._EncounterType.DRUG_REGIMEN_EDITOR);
+			Form form = MetadataUtils.existing(Form.class, CommonMetadata._Form.DRUG_REGIMEN_EDITOR);
+			String categoryConceptUuid = EncounterBasedRegimenUtils.getCategoryConceptUuid(category);
+
+			ret = new ArrayList<Encounter>();
+			for (Encounter encounter : getEncounters()) {
+				if (type.equals(encounter.getEncounterType()) && form.equals(encounter.getForm())
+						&& EncounterBasedRegimenUtils.programEncounterMatching(encounter.getObs(), categoryConceptUuid)) {
+					ret.add(encounter);
+				}
+			}
+			regimenEncounters.put(category, ret);
+		}
+		return ret;
+	}
+
+	/**
+	 * Gets the first regimen editor encounter of the given category
+	 * @param category the regimen category
+	 * @return the encounter or null
+	 */
+	public Encounter getFirstRegimenEncounter(String category) {
+		List<Encounter> encs = getRegimenEncounters(category);
+		return encs.isEmpty() ? null : encs.get(0);
+	}
+
+	/**
+	 * Gets the last regimen editor encounter of the given category
+	 * @param category the regimen category
+	 * @return the encounter or null
+	 */
+	public Encounter getLastRegimenEncounter(String category) {
+		List<Encounter> encs = getRegimenEncounters(category);
+		return encs.isEmpty() ? null : encs.get(encs.size() - 1);
+	}
+
+	/**
+	 * Gets the regimen history of the given category
+	 * @param category the regimen category
+	 * @return the regimen change objects
+	 */
+	public List<SimpleObject> getRegimenHistory(String category) {
+		List<SimpleObject> history = regimenHistories.get(category);
+		if (history == null) {
+			history = new ArrayList<SimpleObject>();
+			for (Encounter encounter : getRegimenEncounters(category)) {
+				SimpleObject object = EncounterBasedRegimenUtils.buildRegimenChangeObject(encounter.getObs(), encounter);
+				if (object != null) {
+					history.add(object);
+				}
+			}
+			regimenHistories.put(category, history);
+		}
+		return history;
+	}
+
+	/**
+	 * Evaluates a calculation for this patient. Results are memoised by calculation class and configuration.
+	 * @param calculationClass the calculation class
+	 * @param configuration the calculation configuration
+	 * @return the calculation result
+	 */
+	public CalculationResult evaluate(Class<? extends PatientCalculation> calculationClass, String configuration) {
+		String key = calculationClass.getName() + ":" + configuration;
+		if (!calculationResults.containsKey(key)) {
+			PatientCalculation calculation = CalculationUtils.instantiateCalculation(calculationClass, configuration);
+			calculationResults.put(key, Context.getService(PatientCalculationService.class).evaluate(patient.getPatientId(), calculation));
+		}
+		return calculationResults.get(key);
+	}
+
+	/**
+	 * Converts a single obs into a calculation result map for this patient
+	 * @param o the obs (may be null)
+	 * @return the calculation result map
+	 */
+	protected CalculationResultMap toResultMap(Obs o) {
+		CalculationResultMap ret = new CalculationResultMap();
+		ret.put(patient.getPatientId(), o != null ? new ObsResult(o, null) : null);
+		return ret;
+	}
+}
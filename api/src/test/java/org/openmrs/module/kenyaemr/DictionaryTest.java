@@ -60,6 +60,32 @@ public class DictionaryTest extends BaseModuleContextSensitiveTest {
 		Dictionary.getConcept("PIH:XXXXXXXXXXXXXXX");
 	}
 
+	/**
+	 * @see Dictionary#getConcept(String)
+	 */
+	@Test
+	public void getConcept_shouldCacheResolvedIdentifiers() {
+		DictionaryCache.clear();
+
+		Concept cd4 = Dictionary.getConcept(Dictionary.CD4_COUNT);
+		Assert.assertThat(DictionaryCache.getConceptId(Dictionary.CD4_COUNT), is(cd4.getConceptId()));
+
+		// Numeric concepts should still be returned as numerics when served from the cache
+		Assert.assertThat(Dictionary.getConcept(Dictionary.CD4_COUNT), is(instanceOf(ConceptNumeric.class)));
+
+		DictionaryCache.clear();
+		Assert.assertThat(DictionaryCache.size(), is(0));
+	}
+
+	/**
+	 * @see Dictionary#getConceptId(String)
+	 */
+	@Test
+	public void getConceptId_shouldFetchByMappingOrUuid() {
+		Concept cd4 = Context.getConceptService().getConceptByUuid(Dictionary.CD4_COUNT);
+		Assert.assertThat(Dictionary.getConceptId(Dictionary.CD4_COUNT), is(cd4.getConceptId()));
+	}
+
 	/**
 	 * @see Dictionary#getConcepts(String...)
 	 */
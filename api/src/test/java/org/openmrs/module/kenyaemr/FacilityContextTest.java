@@ -0,0 +1,105 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.Location;
+import org.openmrs.LocationAttributeType;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyacore.test.TestUtils;
+import org.openmrs.module.kenyaemr.metadata.CommonMetadata;
+import org.openmrs.module.kenyaemr.metadata.FacilityMetadata;
+import org.openmrs.module.metadatadeploy.MetadataUtils;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Tests for {@link FacilityContext}
+ */
+public class FacilityContextTest extends BaseModuleContextSensitiveTest {
+
+	@Autowired
+	private CommonMetadata commonMetadata;
+
+	@Autowired
+	private FacilityMetadata facilityMetadata;
+
+	@Autowired
+	private FacilityContext facilityContext;
+
+	/**
+	 * Setup each test
+	 */
+	@Before
+	public void setup() throws Exception {
+		commonMetadata.install();
+		facilityMetadata.install(false); // Don't do full facility sync
+
+		LocationAttributeType mflCode = MetadataUtils.existing(LocationAttributeType.class, FacilityMetadata._LocationAttributeType.MASTER_FACILITY_CODE);
+		TestUtils.saveLocationAttribute(Context.getLocationService().getLocation(1), mflCode, "15001");
+
+		facilityContext.invalidate();
+	}
+
+	/**
+	 * @see FacilityContext#getDetails()
+	 */
+	@Test
+	public void getDetails_shouldCacheDetailsUntilPropertyChanges() throws Exception {
+		Assert.assertThat(facilityContext.getDetails().getLocationId(), is(nullValue()));
+
+		// Listener isn't registered in tests so the cached details are kept
+		GlobalProperty gp = setDefaultLocation(Context.getLocationService().getLocation(1));
+
+		Assert.assertThat(facilityContext.getDetails().getLocationId(), is(nullValue()));
+
+		facilityContext.globalPropertyChanged(gp);
+
+		FacilityContext.Details details = facilityContext.getDetails();
+		Assert.assertThat(details.getLocationId(), is(1));
+		Assert.assertThat(details.getMflCode(), is("15001"));
+		Assert.assertThat(facilityContext.getDefaultLocation(), is(Context.getLocationService().getLocation(1)));
+	}
+
+	/**
+	 * @see FacilityContext#locationChanged(org.openmrs.Location)
+	 */
+	@Test
+	public void locationChanged_shouldOnlyInvalidateForDefaultLocation() throws Exception {
+		Location location1 = Context.getLocationService().getLocation(1);
+		setDefaultLocation(location1);
+		facilityContext.invalidate();
+
+		FacilityContext.Details details = facilityContext.getDetails();
+
+		facilityContext.locationChanged(Context.getLocationService().getLocation(2));
+		Assert.assertSame(details, facilityContext.getDetails());
+
+		facilityContext.locationChanged(location1);
+		Assert.assertNotSame(details, facilityContext.getDetails());
+	}
+
+	/**
+	 * Sets the default location global property directly
+	 * @param location the location
+	 * @return the global property
+	 */
+	protected GlobalProperty setDefaultLocation(Location location) {
+		GlobalProperty gp = Context.getAdministrationService().getGlobalPropertyObject(EmrConstants.GP_DEFAULT_LOCATION);
+		gp.setValue(location);
+		return Context.getAdministrationService().saveGlobalProperty(gp);
+	}
+}
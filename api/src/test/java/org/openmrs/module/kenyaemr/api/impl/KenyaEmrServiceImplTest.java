@@ -19,6 +19,7 @@ import org.openmrs.Visit;
 import org.openmrs.VisitType;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.kenyacore.test.TestUtils;
+import org.openmrs.module.kenyaemr.MflCodeIndex;
 import org.openmrs.module.kenyaemr.api.KenyaEmrService;
 import org.openmrs.module.kenyaemr.metadata.CommonMetadata;
 import org.openmrs.module.kenyaemr.metadata.FacilityMetadata;
@@ -110,6 +111,47 @@ public class KenyaEmrServiceImplTest extends BaseModuleContextSensitiveTest {
 		Assert.assertNull(service.getLocationByMflCode("XXXXX")); // No such MFL code
 	}
 
+	/**
+	 * @see org.openmrs.module.kenyaemr.api.impl.KenyaEmrServiceImpl#getLocationByMflCode(String)
+	 * @verifies not return a location which was retired after being indexed
+	 */
+	@Test
+	public void getLocationByMflCode_shouldNotReturnLocationRetiredAfterBeingIndexed() throws Exception {
+		MflCodeIndex.clear();
+		Assert.assertEquals(Context.getLocationService().getLocation(1), service.getLocationByMflCode("15001"));
+
+		// Advice isn't applied in tests so this leaves the index stale
+		Context.getLocationService().retireLocation(Context.getLocationService().getLocation(1), "Testing");
+
+		Assert.assertNull(service.getLocationByMflCode("15001"));
+
+		MflCodeIndex.clear();
+	}
+
+	/**
+	 * @see KenyaEmrServiceImpl#getLocationByMflCode(String)
+	 * @verifies find a location which was given a code after being indexed
+	 */
+	@Test
+	public void getLocationByMflCode_shouldFindLocationGivenCodeAfterBeingIndexed() throws Exception {
+		MflCodeIndex.clear();
+		Assert.assertNull(service.getLocationByMflCode("15004"));
+
+		// Advice isn't applied in tests so the index doesn't contain the new code
+		Location location = new Location();
+		location.setName("New Facility");
+		Context.getLocationService().saveLocation(location);
+
+		LocationAttributeType mflCode = MetadataUtils.existing(LocationAttributeType.class, FacilityMetadata._LocationAttributeType.MASTER_FACILITY_CODE);
+		TestUtils.saveLocationAttribute(location, mflCode, "15004");
+		Context.flushSession();
+
+		Assert.assertEquals(location, service.getLocationByMflCode("15004"));
+		Assert.assertThat(MflCodeIndex.getLocationId("15004"), is(location.getLocationId()));
+
+		MflCodeIndex.clear();
+	}
+
 	/**
 	 * @see KenyaEmrServiceImpl#isSetupRequired()
 	 * @verifies return true after everything is configured
@@ -198,4 +240,36 @@ public class KenyaEmrServiceImplTest extends BaseModuleContextSensitiveTest {
 		Assert.assertEquals(1, visits.size());
 		Assert.assertEquals(visit2, visits.get(0));
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @see org.openmrs.module.kenyaemr.api.impl.KenyaEmrServiceImpl#getVisitsByPatientAndDay(org.openmrs.Patient, java.util.Date, org.openmrs.Location)
+	 */
+	@Test
+	public void getVisitsByPatientAndDay_shouldGetVisitsOnDayWithCompatibleLocations() {
+		Patient patient = Context.getPatientService().getPatient(7);
+		VisitType outpatientType = MetadataUtils.existing(VisitType.class, CommonMetadata._VisitType.OUTPATIENT);
+		Location location1 = Context.getLocationService().getLocation(1);
+		Location location2 = Context.getLocationService().getLocation(2);
+
+		// Save visit from 10-11am at location #1 and another from 12 onwards with no location
+		Visit visit1 = TestUtils.saveVisit(patient, outpatientType, TestUtils.date(2012, 1, 1, 10, 0, 0), TestUtils.date(2012, 1, 1, 11, 0, 0));
+		visit1.setLocation(location1);
+		Context.getVisitService().saveVisit(visit1);
+		Visit visit2 = TestUtils.saveVisit(patient, outpatientType, TestUtils.date(2012, 1, 1, 12, 0, 0), null);
+		visit2.setLocation(null);
+		Context.getVisitService().saveVisit(visit2);
+
+		List<Visit> visits = service.getVisitsByPatientAndDay(patient, TestUtils.date(2012, 1, 1), location1);
+		Assert.assertEquals(2, visits.size());
+		Assert.assertEquals(visit1, visits.get(0));
+		Assert.assertEquals(visit2, visits.get(1));
+
+		visits = service.getVisitsByPatientAndDay(patient, TestUtils.date(2012, 1, 1), location2);
+		Assert.assertEquals(1, visits.size());
+		Assert.assertEquals(visit2, visits.get(0));
+
+		visits = service.getVisitsByPatientAndDay(patient, TestUtils.date(2012, 1, 1), null);
+		Assert.assertEquals(1, visits.size());
+		Assert.assertEquals(visit2, visits.get(0));
+	}
+}
@@ -0,0 +1,44 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.attendance;
+
+import org.junit.Test;
+import org.openmrs.module.kenyacore.test.TestUtils;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link AttendanceState}
+ */
+public class AttendanceStateTest {
+
+	/**
+	 * @see AttendanceState#getDaysLate(java.util.Date)
+	 */
+	@Test
+	public void getDaysLate_shouldCountDaysSinceNextAppointment() {
+		AttendanceState state = new AttendanceState(2, TestUtils.date(2014, 1, 1), TestUtils.date(2014, 2, 1), TestUtils.date(2014, 2, 1), TestUtils.date(2014, 5, 2), null);
+
+		assertThat(state.getDaysLate(TestUtils.date(2014, 2, 1)), is(0));
+		assertThat(state.getDaysLate(TestUtils.date(2014, 2, 11)), is(10));
+	}
+
+	/**
+	 * @see AttendanceState#getDaysLate(java.util.Date)
+	 */
+	@Test
+	public void getDaysLate_shouldReturnNullIfNoNextAppointment() {
+		AttendanceState state = new AttendanceState(2, null, null, null, null, null);
+
+		assertThat(state.getDaysLate(TestUtils.date(2014, 2, 1)), is(nullValue()));
+	}
+}
@@ -0,0 +1,220 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.attendance;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.EncounterType;
+import org.openmrs.Form;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.Program;
+import org.openmrs.api.context.Context;
+import org.openmrs.calculation.patient.PatientCalculation;
+import org.openmrs.calculation.patient.PatientCalculationService;
+import org.openmrs.calculation.result.CalculationResult;
+import org.openmrs.calculation.result.CalculationResultMap;
+import org.openmrs.module.kenyacore.test.TestUtils;
+import org.openmrs.module.kenyaemr.Dictionary;
+import org.openmrs.module.kenyaemr.HivConstants;
+import org.openmrs.module.kenyaemr.calculation.library.MissedLastAppointmentCalculation;
+import org.openmrs.module.kenyaemr.calculation.library.NumberOfDaysLateCalculation;
+import org.openmrs.module.kenyaemr.calculation.library.hiv.DateClassifiedLTFUCalculation;
+import org.openmrs.module.kenyaemr.calculation.library.hiv.LastReturnVisitDateCalculation;
+import org.openmrs.module.kenyaemr.calculation.library.hiv.LostToFollowUpCalculation;
+import org.openmrs.module.kenyaemr.metadata.CommonMetadata;
+import org.openmrs.module.kenyaemr.metadata.HivMetadata;
+import org.openmrs.module.kenyaemr.test.EmrTestUtils;
+import org.openmrs.module.metadatadeploy.MetadataUtils;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Tests for {@link AttendanceTracker}
+ */
+public class AttendanceTrackerTest extends BaseModuleContextSensitiveTest {
+
+	@Autowired
+	private CommonMetadata commonMetadata;
+
+	@Autowired
+	private HivMetadata hivMetadata;
+
+	@Autowired
+	private AttendanceTracker tracker;
+
+	private List<Integer> cohort = Arrays.asList(2, 6, 7, 8);
+
+	/**
+	 * Setup each test
+	 */
+	@Before
+	public void setup() throws Exception {
+		EmrTestUtils.createModuleTables();
+
+		executeDataSet("dataset/test-concepts.xml");
+
+		commonMetadata.install();
+		hivMetadata.install();
+
+		Program hivProgram = MetadataUtils.existing(Program.class, HivMetadata._Program.HIV);
+		EncounterType hivConsultation = MetadataUtils.existing(EncounterType.class, HivMetadata._EncounterType.HIV_CONSULTATION);
+		Form greenCard = MetadataUtils.existing(Form.class, HivMetadata._Form.HIV_GREEN_CARD);
+		Concept returnVisitDate = Dictionary.getConcept(Dictionary.RETURN_VISIT_DATE);
+		Concept reasonForDiscontinuation = Dictionary.getConcept(Dictionary.REASON_FOR_PROGRAM_DISCONTINUATION);
+		Concept transferredOut = Dictionary.getConcept(Dictionary.TRANSFERRED_OUT);
+
+		// Patient #2 isn't in the HIV program
+		for (int patientId : new int[] { 6, 7, 8 }) {
+			TestUtils.enrollInProgram(TestUtils.getPatient(patientId), hivProgram, TestUtils.date(2011, 1, 1));
+		}
+
+		// Patient #6 last visited 200 days ago and was due back 170 days ago, so is lost to follow up
+		Patient patient6 = TestUtils.getPatient(6);
+		Obs[] returnVisit6 = { TestUtils.saveObs(patient6, returnVisitDate, daysAgo(170), daysAgo(200)) };
+		TestUtils.saveEncounter(patient6, hivConsultation, greenCard, daysAgo(200), returnVisit6);
+
+		// Patient #7 last visited 40 days ago and was due back 10 days ago, so has missed an appointment
+		Patient patient7 = TestUtils.getPatient(7);
+		Obs[] returnVisit7a = { TestUtils.saveObs(patient7, returnVisitDate, daysAgo(40), daysAgo(70)) };
+		TestUtils.saveEncounter(patient7, hivConsultation, greenCard, daysAgo(70), returnVisit7a);
+		Obs[] returnVisit7b = { TestUtils.saveObs(patient7, returnVisitDate, daysAgo(10), daysAgo(40)) };
+		TestUtils.saveEncounter(patient7, hivConsultation, greenCard, daysAgo(40), returnVisit7b);
+
+		// Patient #8 would be lost to follow up but was transferred out
+		Patient patient8 = TestUtils.getPatient(8);
+		Obs[] returnVisit8 = { TestUtils.saveObs(patient8, returnVisitDate, daysAgo(170), daysAgo(200)) };
+		TestUtils.saveEncounter(patient8, hivConsultation, greenCard, daysAgo(200), returnVisit8);
+		TestUtils.saveObs(patient8, reasonForDiscontinuation, transferredOut, daysAgo(100));
+
+		Context.flushSession();
+	}
+
+	/**
+	 * Cleanup after each test
+	 */
+	@After
+	public void cleanup() {
+		tracker.setReady(false);
+	}
+
+	/**
+	 * @see AttendanceTracker#refresh(java.util.Collection)
+	 */
+	@Test
+	public void refresh_shouldStoreStatesOfPatients() {
+		tracker.refresh(cohort);
+
+		Map<Integer, AttendanceState> states = tracker.getStates(cohort);
+
+		AttendanceState state7 = states.get(7);
+		Assert.assertThat(state7.getLastHivVisit().getTime(), is(daysAgo(40).getTime()));
+		Assert.assertThat(state7.getNextAppointment().getTime(), is(daysAgo(10).getTime()));
+		Assert.assertThat(state7.getLastReturnVisit().getTime(), is(daysAgo(10).getTime()));
+		Assert.assertThat(state7.getLtfuDate().getTime(), is(daysAgo(10 - HivConstants.LOST_TO_FOLLOW_UP_THRESHOLD_DAYS).getTime()));
+		Assert.assertThat(state7.getDiscontinuationReasonId(), is(nullValue()));
+
+		Assert.assertThat(states.get(8).getDiscontinuationReasonId(), is(Dictionary.getConceptId(Dictionary.TRANSFERRED_OUT)));
+
+		AttendanceState state2 = states.get(2);
+		Assert.assertThat(state2.getLastHivVisit(), is(nullValue()));
+		Assert.assertThat(state2.getNextAppointment(), is(nullValue()));
+		Assert.assertThat(state2.getLtfuDate(), is(nullValue()));
+
+		// Refreshing again replaces the states
+		tracker.refresh(7);
+
+		Assert.assertThat(tracker.getStates(cohort).get(7).getNextAppointment().getTime(), is(daysAgo(10).getTime()));
+	}
+
+	/**
+	 * @see AttendanceTracker#getCurrentStates(java.util.Collection, org.openmrs.calculation.patient.PatientCalculationContext)
+	 */
+	@Test
+	public void getCurrentStates_shouldGiveSameCalculationResultsAsPatientHistories() {
+		List<PatientCalculation> calculations = Arrays.<PatientCalculation>asList(
+				new LostToFollowUpCalculation(),
+				new DateClassifiedLTFUCalculation(),
+				new MissedLastAppointmentCalculation(),
+				new LastReturnVisitDateCalculation(),
+				new NumberOfDaysLateCalculation()
+		);
+
+		PatientCalculationService calculationService = Context.getService(PatientCalculationService.class);
+
+		// Tracker isn't ready, so calculations use patient histories
+		Assert.assertThat(AttendanceTracker.getCurrentStates(cohort, calculationService.createCalculationContext()), is(nullValue()));
+
+		CalculationResultMap[] fromHistories = new CalculationResultMap[calculations.size()];
+		for (int c = 0; c < calculations.size(); ++c) {
+			fromHistories[c] = calculationService.evaluate(cohort, calculations.get(c), calculationService.createCalculationContext());
+		}
+
+		tracker.refresh(cohort);
+		tracker.setReady(true);
+
+		Assert.assertThat(AttendanceTracker.getCurrentStates(cohort, calculationService.createCalculationContext()).size(), is(cohort.size()));
+
+		for (int c = 0; c < calculations.size(); ++c) {
+			CalculationResultMap fromStates = calculationService.evaluate(cohort, calculations.get(c), calculationService.createCalculationContext());
+
+			for (Integer patientId : cohort) {
+				String message = calculations.get(c).getClass().getSimpleName() + " for patient #" + patientId;
+				Assert.assertThat(message, getValue(fromStates, patientId), is(getValue(fromHistories[c], patientId)));
+			}
+		}
+
+		// Sanity check that the cases differ
+		CalculationResultMap ltfu = fromHistories[0];
+		Assert.assertThat((Boolean) ltfu.get(6).getValue(), is(true));
+		Assert.assertThat((Boolean) ltfu.get(7).getValue(), is(false));
+		Assert.assertThat((Boolean) ltfu.get(8).getValue(), is(false));
+		Assert.assertThat((Boolean) fromHistories[2].get(7).getValue(), is(true));
+	}
+
+	/**
+	 * Gets a result value for comparison, with dates converted to times
+	 * @param results the calculation results
+	 * @param patientId the patient id
+	 * @return the value
+	 */
+	private static Object getValue(CalculationResultMap results, Integer patientId) {
+		CalculationResult result = results.get(patientId);
+		Object value = result != null ? result.getValue() : null;
+		return value instanceof Date ? (Object) ((Date) value).getTime() : value;
+	}
+
+	/**
+	 * Gets the time the given number of days ago, without milliseconds as these aren't stored by all databases
+	 * @param days the number of days
+	 * @return the date
+	 */
+	private static Date daysAgo(int days) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.set(Calendar.HOUR_OF_DAY, 9);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		calendar.add(Calendar.DATE, -days);
+		return calendar.getTime();
+	}
+}
@@ -0,0 +1,265 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.benchmark;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.api.context.Context;
+import org.openmrs.calculation.patient.PatientCalculation;
+import org.openmrs.calculation.patient.PatientCalculationService;
+import org.openmrs.calculation.result.CalculationResultMap;
+import org.openmrs.module.kenyacore.test.ReportingTestUtils;
+import org.openmrs.module.kenyaemr.calculation.library.ScheduledVisitOnDayCalculation;
+import org.openmrs.module.kenyaemr.calculation.library.hiv.NeedsViralLoadTestCalculation;
+import org.openmrs.module.kenyaemr.calculation.library.hiv.art.InitialArtStartDateCalculation;
+import org.openmrs.module.kenyaemr.calculation.library.hiv.art.OnArtCalculation;
+import org.openmrs.module.kenyaemr.metadata.CommonMetadata;
+import org.openmrs.module.kenyaemr.metadata.HivMetadata;
+import org.openmrs.module.kenyaemr.metadata.MchMetadata;
+import org.openmrs.module.kenyaemr.metadata.TbMetadata;
+import org.openmrs.module.kenyaemr.reporting.builder.hiv.ArtRegisterReportBuilder;
+import org.openmrs.module.reporting.common.DateUtil;
+import org.openmrs.module.reporting.dataset.SimpleDataSet;
+import org.openmrs.module.reporting.dataset.column.definition.RowPerObjectColumnDefinition;
+import org.openmrs.module.reporting.dataset.definition.PatientDataSetDefinition;
+import org.openmrs.module.reporting.dataset.definition.service.DataSetDefinitionService;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Times the calculations and reports which dominate facility workloads against a synthetic population, and writes
+ * the results as JSON so that runs can be compared. This isn't run as part of the normal test phase. To run it:
+ *
+ *   mvn test -P benchmark -Dkenyaemr.benchmark.patients=2000
+ *
+ * Supported system properties are kenyaemr.benchmark.patients, kenyaemr.benchmark.seed, kenyaemr.benchmark.endDate
+ * (yyyy-MM-dd), kenyaemr.benchmark.warmup, kenyaemr.benchmark.iterations and kenyaemr.benchmark.output. The end date
+ * is fixed by default so that runs on different days generate the same population.
+ *
+ * The ETL tables are created by MySQL procedures and don't exist in the test database, so the ART register is
+ * benchmarked by evaluating its patient data set for the whole population without the columns which query them.
+ */
+public class ReportingBenchmark extends BaseModuleContextSensitiveTest {
+
+	protected static final Log log = LogFactory.getLog(ReportingBenchmark.class);
+
+	public static final String DEFAULT_END_DATE = "2018-06-30";
+
+	/**
+	 * Package of the data definitions which are evaluated against the ETL tables
+	 */
+	private static final String ETL_DEFINITION_PACKAGE = "org.openmrs.module.kenyaemr.reporting.data.converter.definition";
+
+	/**
+	 * A timed unit of work
+	 */
+	protected interface Workload {
+
+		/**
+		 * Runs the workload once
+		 * @return the size of the result
+		 */
+		int run() throws Exception;
+	}
+
+	@Autowired
+	private CommonMetadata commonMetadata;
+
+	@Autowired
+	private HivMetadata hivMetadata;
+
+	@Autowired
+	private TbMetadata tbMetadata;
+
+	@Autowired
+	private MchMetadata mchMetadata;
+
+	private int warmup;
+
+	private int iterations;
+
+	private Date endDate;
+
+	private SyntheticPopulation population;
+
+	private long generationTime;
+
+	@Before
+	public void setup() throws Exception {
+		executeDataSet("dataset/test-concepts.xml");
+
+		commonMetadata.install();
+		hivMetadata.install();
+		tbMetadata.install();
+		mchMetadata.install();
+
+		warmup = Integer.getInteger("kenyaemr.benchmark.warmup", 2);
+		iterations = Math.max(1, Integer.getInteger("kenyaemr.benchmark.iterations", 5));
+		endDate = new SimpleDateFormat("yyyy-MM-dd").parse(System.getProperty("kenyaemr.benchmark.endDate", DEFAULT_END_DATE));
+
+		int patients = Integer.getInteger("kenyaemr.benchmark.patients", 500);
+		long seed = Long.getLong("kenyaemr.benchmark.seed", 42l);
+
+		long start = System.currentTimeMillis();
+		population = new SyntheticPopulation(patients, seed, endDate);
+		population.generate();
+		generationTime = System.currentTimeMillis() - start;
+	}
+
+	@Test
+	public void run() throws Exception {
+		Map<String, Object> workloads = new LinkedHashMap<String, Object>();
+
+		workloads.put("OnArtCalculation", measure(calculation(new OnArtCalculation(), null)));
+		workloads.put("InitialArtStartDateCalculation", measure(calculation(new InitialArtStartDateCalculation(), null)));
+		workloads.put("NeedsViralLoadTestCalculation", measure(calculation(new NeedsViralLoadTestCalculation(), null)));
+
+		Map<String, Object> scheduledParams = new HashMap<String, Object>();
+		scheduledParams.put("date", endDate);
+		workloads.put("ScheduledVisitOnDayCalculation", measure(calculation(new ScheduledVisitOnDayCalculation(), scheduledParams)));
+
+		final PatientDataSetDefinition artRegister = artRegisterDataSet();
+		workloads.put("ArtRegisterDataSet", measure(new Workload() {
+			@Override
+			public int run() throws Exception {
+				EvaluationContext context = ReportingTestUtils.reportingContext(population.getPatientIds(), DateUtil.adjustDate(endDate, -1, DateUtil.MONTHS), endDate);
+				SimpleDataSet data = (SimpleDataSet) Context.getService(DataSetDefinitionService.class).evaluate(artRegister, context);
+				return data.getRows().size();
+			}
+		}));
+
+		Map<String, Object> populationInfo = new LinkedHashMap<String, Object>();
+		populationInfo.put("patients", population.getPatientIds().size());
+		populationInfo.put("encounters", population.getEncounterCount());
+		populationInfo.put("obs", population.getObsCount());
+		populationInfo.put("seed", Long.getLong("kenyaemr.benchmark.seed", 42l));
+		populationInfo.put("generationMs", generationTime);
+
+		Map<String, Object> results = new LinkedHashMap<String, Object>();
+		results.put("timestamp", new Date().getTime());
+		results.put("endDate", new SimpleDateFormat("yyyy-MM-dd").format(endDate));
+		results.put("warmup", warmup);
+		results.put("iterations", iterations);
+		results.put("population", populationInfo);
+		results.put("workloads", workloads);
+
+		File output = new File(System.getProperty("kenyaemr.benchmark.output", "target/benchmark/results.json"));
+		output.getAbsoluteFile().getParentFile().mkdirs();
+		new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(output, results);
+
+		log.info("Benchmark results written to " + output.getAbsolutePath());
+	}
+
+	/**
+	 * Creates a workload which evaluates a calculation for the whole population
+	 * @param calculation the calculation
+	 * @param params the parameter values (may be null)
+	 * @return the workload
+	 */
+	protected Workload calculation(final PatientCalculation calculation, final Map<String, Object> params) {
+		return new Workload() {
+			@Override
+			public int run() throws Exception {
+				PatientCalculationService service = Context.getService(PatientCalculationService.class);
+				CalculationResultMap results = service.evaluate(population.getPatientIds(), calculation, params, service.createCalculationContext());
+				return results.size();
+			}
+		};
+	}
+
+	/**
+	 * Gets the ART register's patient data set without the columns which are evaluated against the ETL tables. The
+	 * report's cohort also queries the ETL tables, so the data set is evaluated for the whole population instead.
+	 * @return the data set definition
+	 */
+	protected PatientDataSetDefinition artRegisterDataSet() {
+		PatientDataSetDefinition dsd = new ArtRegisterDataSetBuilder().getDataSet();
+
+		Iterator<RowPerObjectColumnDefinition> columns = dsd.getColumnDefinitions().iterator();
+		while (columns.hasNext()) {
+			if (columns.next().getDataDefinition().getParameterizable().getClass().getName().startsWith(ETL_DEFINITION_PACKAGE)) {
+				columns.remove();
+			}
+		}
+		return dsd;
+	}
+
+	/**
+	 * Exposes the data set of the ART register report builder
+	 */
+	private static class ArtRegisterDataSetBuilder extends ArtRegisterReportBuilder {
+
+		public PatientDataSetDefinition getDataSet() {
+			return artRegisterDataSetDefinition();
+		}
+	}
+
+	/**
+	 * Runs a workload for the warmup and measured iterations. The session is cleared before each run so that
+	 * iterations don't benefit from objects loaded by previous ones. A failing workload is recorded rather than
+	 * aborting the benchmark.
+	 * @param workload the workload
+	 * @return the measurements
+	 */
+	protected Map<String, Object> measure(Workload workload) {
+		Map<String, Object> measurement = new LinkedHashMap<String, Object>();
+		List<Long> times = new ArrayList<Long>();
+		int resultSize = 0;
+
+		try {
+			for (int i = 0; i < warmup + iterations; ++i) {
+				Context.flushSession();
+				Context.clearSession();
+
+				long start = System.nanoTime();
+				resultSize = workload.run();
+				long elapsed = (System.nanoTime() - start) / 1000000;
+
+				if (i >= warmup) {
+					times.add(elapsed);
+				}
+			}
+		}
+		catch (Exception ex) {
+			measurement.put("status", "error");
+			measurement.put("error", ex.getClass().getName() + ": " + ex.getMessage());
+			return measurement;
+		}
+
+		Collections.sort(times);
+		long total = 0;
+		for (Long time : times) {
+			total += time;
+		}
+
+		measurement.put("status", "ok");
+		measurement.put("resultSize", resultSize);
+		measurement.put("minMs", times.get(0));
+		measurement.put("meanMs", total / times.size());
+		measurement.put("medianMs", times.get(times.size() / 2));
+		measurement.put("maxMs", times.get(times.size() - 1));
+		return measurement;
+	}
+}
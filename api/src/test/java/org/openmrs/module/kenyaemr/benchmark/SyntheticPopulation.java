@@ -0,0 +1,193 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.benchmark;
+
+import org.openmrs.Concept;
+import org.openmrs.EncounterType;
+import org.openmrs.Form;
+import org.openmrs.Location;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.PersonName;
+import org.openmrs.Program;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyacore.test.TestUtils;
+import org.openmrs.module.kenyaemr.Dictionary;
+import org.openmrs.module.kenyaemr.metadata.CommonMetadata;
+import org.openmrs.module.kenyaemr.metadata.HivMetadata;
+import org.openmrs.module.metadatadeploy.MetadataUtils;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates a reproducible population of HIV patients for benchmarking. Each patient is enrolled in the HIV program
+ * and has quarterly HIV consultations with weight, appointment and occasional viral load obs. Most patients also have
+ * a regimen editor encounter starting ART. The same size and seed always produce the same population.
+ */
+public class SyntheticPopulation {
+
+	private static final String[] GIVEN_NAMES = { "Achieng", "Wanjiru", "Otieno", "Kamau", "Njeri", "Mutua", "Chebet", "Kiprop" };
+
+	private static final String[] FAMILY_NAMES = { "Odhiambo", "Mwangi", "Kariuki", "Wekesa", "Kiptoo", "Omondi", "Mutiso", "Njoroge" };
+
+	/**
+	 * Number of patients saved between flushes of the session
+	 */
+	private static final int FLUSH_INTERVAL = 50;
+
+	private final int size;
+
+	private final Date endDate;
+
+	private final Random random;
+
+	private final List<Integer> patientIds = new ArrayList<Integer>();
+
+	private int encounterCount = 0;
+
+	private int obsCount = 0;
+
+	/**
+	 * Creates a population generator
+	 * @param size the number of patients
+	 * @param seed the random seed
+	 * @param endDate the date of the most recent data
+	 */
+	public SyntheticPopulation(int size, long seed, Date endDate) {
+		this.size = size;
+		this.endDate = endDate;
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Generates and saves the population
+	 */
+	public void generate() {
+		PatientIdentifierType clinicNumber = MetadataUtils.existing(PatientIdentifierType.class, CommonMetadata._PatientIdentifierType.PATIENT_CLINIC_NUMBER);
+		Program hivProgram = MetadataUtils.existing(Program.class, HivMetadata._Program.HIV);
+		EncounterType hivConsultation = MetadataUtils.existing(EncounterType.class, HivMetadata._EncounterType.HIV_CONSULTATION);
+		EncounterType drugRegimen = MetadataUtils.existing(EncounterType.class, CommonMetadata._EncounterType.DRUG_REGIMEN_EDITOR);
+		Form drugRegimenForm = MetadataUtils.existing(Form.class, CommonMetadata._Form.DRUG_REGIMEN_EDITOR);
+		Location location = Context.getLocationService().getLocation(1);
+
+		Concept weight = Dictionary.getConcept(Dictionary.WEIGHT_KG);
+		Concept returnVisitDate = Dictionary.getConcept(Dictionary.RETURN_VISIT_DATE);
+		Concept viralLoad = Dictionary.getConcept(Dictionary.HIV_VIRAL_LOAD);
+		Concept arvPlan = Dictionary.getConcept(Dictionary.ARV_TREATMENT_PLAN_EVENT_CONCEPT);
+		Concept startDrugs = Dictionary.getConcept(Dictionary.START_DRUGS);
+
+		for (int p = 0; p < size; ++p) {
+			Patient patient = new Patient();
+			patient.addName(new PersonName(pick(GIVEN_NAMES), null, pick(FAMILY_NAMES)));
+			patient.setGender(random.nextBoolean() ? "M" : "F");
+			patient.setBirthdate(daysBefore(endDate, 365 * (1 + random.nextInt(70)) + random.nextInt(365)));
+
+			PatientIdentifier identifier = new PatientIdentifier(String.format("BM-%06d", p), clinicNumber, location);
+			identifier.setPreferred(true);
+			patient.addIdentifier(identifier);
+			patient = Context.getPatientService().savePatient(patient);
+			patientIds.add(patient.getPatientId());
+
+			// Enrolled up to 5 years ago
+			Date enrollmentDate = daysBefore(endDate, 30 + random.nextInt(5 * 365));
+			TestUtils.enrollInProgram(patient, hivProgram, enrollmentDate);
+
+			// Most patients started ART shortly after enrollment. Regimen lookups only consider regimen editor
+			// encounters with the form and a treatment plan obs for the category.
+			if (random.nextInt(10) < 8) {
+				Date artStartDate = daysAfter(enrollmentDate, random.nextInt(60));
+				Obs obs = new Obs();
+				obs.setConcept(arvPlan);
+				obs.setObsDatetime(artStartDate);
+				obs.setValueCoded(startDrugs);
+				TestUtils.saveEncounter(patient, drugRegimen, drugRegimenForm, artStartDate, obs);
+				encounterCount++;
+				obsCount++;
+			}
+
+			// Quarterly follow-up visits, each with an appointment for the next
+			for (Date visitDate = enrollmentDate; visitDate.before(endDate); visitDate = daysAfter(visitDate, 80 + random.nextInt(20))) {
+				List<Obs> obs = new ArrayList<Obs>();
+				obs.add(TestUtils.saveObs(patient, weight, 40 + random.nextInt(50), visitDate));
+				obs.add(TestUtils.saveObs(patient, returnVisitDate, daysAfter(visitDate, 90), visitDate));
+
+				if (random.nextInt(4) == 0) {
+					obs.add(TestUtils.saveObs(patient, viralLoad, random.nextInt(3) == 0 ? 1000 + random.nextInt(50000) : random.nextInt(400), visitDate));
+				}
+
+				TestUtils.saveEncounter(patient, hivConsultation, visitDate, obs.toArray(new Obs[obs.size()]));
+				encounterCount++;
+				obsCount += obs.size();
+			}
+
+			if ((p + 1) % FLUSH_INTERVAL == 0) {
+				Context.flushSession();
+				Context.clearSession();
+			}
+		}
+
+		Context.flushSession();
+		Context.clearSession();
+	}
+
+	/**
+	 * Gets the ids of the generated patients
+	 * @return the patient ids
+	 */
+	public List<Integer> getPatientIds() {
+		return patientIds;
+	}
+
+	public int getEncounterCount() {
+		return encounterCount;
+	}
+
+	public int getObsCount() {
+		return obsCount;
+	}
+
+	/**
+	 * Picks a random value
+	 * @param values the values
+	 * @return the value
+	 */
+	protected String pick(String[] values) {
+		return values[random.nextInt(values.length)];
+	}
+
+	/**
+	 * Gets the date a number of days before another
+	 * @param date the date
+	 * @param days the number of days
+	 * @return the date
+	 */
+	protected static Date daysBefore(Date date, int days) {
+		return daysAfter(date, -days);
+	}
+
+	/**
+	 * Gets the date a number of days after another
+	 * @param date the date
+	 * @param days the number of days
+	 * @return the date
+	 */
+	protected static Date daysAfter(Date date, int days) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(date);
+		calendar.add(Calendar.DATE, days);
+		return calendar.getTime();
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.calculation;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
+import org.openmrs.calculation.patient.PatientCalculationContext;
+import org.openmrs.calculation.patient.PatientCalculationService;
+import org.openmrs.calculation.result.CalculationResultMap;
+import org.openmrs.calculation.result.ListResult;
+import org.openmrs.module.kenyacore.calculation.CalculationUtils;
+import org.openmrs.module.kenyacore.test.TestUtils;
+import org.openmrs.module.kenyaemr.Dictionary;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Tests for {@link ObsBatch}
+ */
+public class ObsBatchTest extends BaseModuleContextSensitiveTest {
+
+	private Concept cd4;
+
+	private Concept weight;
+
+	private PatientCalculationContext context;
+
+	/**
+	 * Setup each test
+	 */
+	@Before
+	public void setup() throws Exception {
+		executeDataSet("dataset/test-concepts.xml");
+
+		cd4 = Dictionary.getConcept(Dictionary.CD4_COUNT);
+		weight = Dictionary.getConcept(Dictionary.WEIGHT_KG);
+
+		Patient patient = TestUtils.getPatient(6);
+		TestUtils.saveObs(patient, cd4, 300.0, TestUtils.date(2012, 1, 1));
+		TestUtils.saveObs(patient, cd4, 250.0, TestUtils.date(2012, 6, 1));
+		TestUtils.saveObs(patient, cd4, 150.0, TestUtils.date(2013, 1, 1)); // After calculation date
+		TestUtils.saveObs(patient, weight, 60.0, TestUtils.date(2012, 3, 1));
+
+		context = Context.getService(PatientCalculationService.class).createCalculationContext();
+		context.setNow(TestUtils.date(2012, 12, 31));
+	}
+
+	/**
+	 * @see ObsBatch#lastObs(java.util.Collection, java.util.Collection, org.openmrs.calculation.patient.PatientCalculationContext)
+	 */
+	@Test
+	public void lastObs_shouldFetchLastObsOfEachConcept() {
+		Map<Concept, CalculationResultMap> results = ObsBatch.lastObs(Arrays.asList(cd4, weight), Arrays.asList(6, 999), context);
+
+		Assert.assertThat(EmrCalculationUtils.numericObsResultForPatient(results.get(cd4), 6), is(250.0));
+		Assert.assertThat(EmrCalculationUtils.numericObsResultForPatient(results.get(weight), 6), is(60.0));
+		Assert.assertThat(results.get(cd4).containsKey(999), is(true));
+		Assert.assertThat(EmrCalculationUtils.obsResultForPatient(results.get(cd4), 999), is(nullValue()));
+	}
+
+	/**
+	 * @see ObsBatch#firstObs(java.util.Collection, java.util.Collection, org.openmrs.calculation.patient.PatientCalculationContext)
+	 */
+	@Test
+	public void firstObs_shouldFetchFirstObsOfEachConcept() {
+		Map<Concept, CalculationResultMap> results = ObsBatch.firstObs(Arrays.asList(cd4, weight), Arrays.asList(6), context);
+
+		Assert.assertThat(EmrCalculationUtils.numericObsResultForPatient(results.get(cd4), 6), is(300.0));
+		Assert.assertThat(EmrCalculationUtils.numericObsResultForPatient(results.get(weight), 6), is(60.0));
+	}
+
+	/**
+	 * @see ObsBatch#allObs(java.util.Collection, java.util.Collection, org.openmrs.calculation.patient.PatientCalculationContext)
+	 */
+	@Test
+	public void allObs_shouldFetchAllObsOfEachConceptInDateOrder() {
+		Map<Concept, CalculationResultMap> results = ObsBatch.allObs(Arrays.asList(cd4, weight), Arrays.asList(6, 999), context);
+
+		List<Obs> cd4s = CalculationUtils.extractResultValues((ListResult) results.get(cd4).get(6));
+		Assert.assertThat(cd4s.size(), is(2));
+		Assert.assertThat(cd4s.get(0).getValueNumeric(), is(300.0));
+		Assert.assertThat(cd4s.get(1).getValueNumeric(), is(250.0));
+
+		Assert.assertThat(((ListResult) results.get(cd4).get(999)).isEmpty(), is(true));
+	}
+}
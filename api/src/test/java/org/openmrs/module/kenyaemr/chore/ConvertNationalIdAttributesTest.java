@@ -9,6 +9,7 @@
  */
 package org.openmrs.module.kenyaemr.chore;
 
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -22,14 +23,18 @@ import org.openmrs.api.PatientService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.kenyacore.test.StandardTestData;
 import org.openmrs.module.kenyacore.test.TestUtils;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
 import org.openmrs.module.kenyaemr.metadata.CommonMetadata;
 import org.openmrs.module.metadatadeploy.MetadataUtils;
 import org.openmrs.module.metadatadeploy.bundle.CoreConstructors;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.io.PrintWriter;
+import java.util.HashMap;
 
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.nullValue;
 
@@ -53,6 +58,16 @@ public class ConvertNationalIdAttributesTest extends BaseModuleContextSensitiveT
 	@Before
 	public void setup() {
 		commonMetadata.install();
+
+		chore.setBatchPropagation(TransactionTemplate.PROPAGATION_REQUIRED);
+	}
+
+	/**
+	 * Cleanup after each test
+	 */
+	@After
+	public void cleanup() {
+		chore.setBatchPropagation(TransactionTemplate.PROPAGATION_REQUIRES_NEW);
 	}
 
 	/**
@@ -89,6 +104,28 @@ public class ConvertNationalIdAttributesTest extends BaseModuleContextSensitiveT
 		Assert.assertThat(TestUtils.getPatient(6).getPatientIdentifier(nationalIdType), nullValue()); // due to conflict with #2
 		Assert.assertThat(TestUtils.getPatient(7).getPatientIdentifier(nationalIdType).getIdentifier(), is("000007"));
 		Assert.assertThat(TestUtils.getPatient(8).getPatientIdentifier(nationalIdType), nullValue());
+
+		// Checkpoint should be removed once chore completes
+		Assert.assertThat(Context.getAdministrationService().getGlobalProperty(chore.getCheckpointProperty()), nullValue());
+	}
+
+	/**
+	 * @see ConvertNationalIdAttributes#initializeTakenNidValues(org.openmrs.PatientIdentifierType)
+	 */
+	@Test
+	public void initializeTakenNidValues_shouldExcludeIdentifiersOfVoidedPatients() {
+		PatientIdentifierType nationalIdType = MetadataUtils.existing(PatientIdentifierType.class, CommonMetadata._PatientIdentifierType.NATIONAL_ID);
+
+		addMissingOpenmrsIdentifiers();
+		TestUtils.savePatientIdentifier(TestUtils.getPatient(2), nationalIdType, "000002");
+		TestUtils.savePatientIdentifier(TestUtils.getPatient(6), nationalIdType, "000006");
+
+		Context.flushSession();
+
+		// Void patient #6 but not their identifiers, as a voided patient's identifiers aren't always voided
+		Context.getService(KenyaEmrService.class).executeSqlUpdate("update patient set voided = 1 where patient_id = 6", new HashMap<String, Object>());
+
+		Assert.assertThat(chore.initializeTakenNidValues(nationalIdType), contains("000002"));
 	}
 
 	/**
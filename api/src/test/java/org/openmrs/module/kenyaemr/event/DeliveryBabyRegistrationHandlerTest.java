@@ -0,0 +1,185 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.event;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.Encounter;
+import org.openmrs.Location;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.Person;
+import org.openmrs.Relationship;
+import org.openmrs.RelationshipType;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyacore.test.TestUtils;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.openmrs.module.kenyaemr.metadata.CommonMetadata;
+import org.openmrs.module.kenyaemr.test.EmrTestUtils;
+import org.openmrs.module.metadatadeploy.MetadataUtils;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+
+/**
+ * Tests for {@link DeliveryBabyRegistrationHandler}
+ */
+public class DeliveryBabyRegistrationHandlerTest extends BaseModuleContextSensitiveTest {
+
+	@Autowired
+	private CommonMetadata commonMetadata;
+
+	@Autowired
+	private KenyaEmrService service;
+
+	@Autowired
+	private DeliveryBabyRegistrationHandler handler;
+
+	/**
+	 * Setup each test
+	 */
+	@Before
+	public void setup() throws Exception {
+		EmrTestUtils.createModuleTables();
+
+		executeDataSet("dataset/test-concepts.xml");
+		executeDataSet("dataset/test-mch-concepts.xml");
+
+		commonMetadata.install();
+
+		service.setDefaultLocation(Context.getLocationService().getLocation(1));
+		service.setupMrnIdentifierSource(null);
+
+		// Parent/child relationship type is installed by the metadata bundles in production
+		if (Context.getPersonService().getRelationshipTypeByUuid(DeliveryBabyRegistrationHandler.PARENT_CHILD_RELATIONSHIP_TYPE) == null) {
+			RelationshipType parentChild = new RelationshipType();
+			parentChild.setaIsToB("Parent");
+			parentChild.setbIsToA("Child");
+			parentChild.setDescription("Parent to child");
+			parentChild.setUuid(DeliveryBabyRegistrationHandler.PARENT_CHILD_RELATIONSHIP_TYPE);
+			Context.getPersonService().saveRelationshipType(parentChild);
+		}
+	}
+
+	/**
+	 * @see DeliveryBabyRegistrationHandler#handle(org.openmrs.Encounter)
+	 */
+	@Test
+	public void handle_shouldRegisterBabiesRelatedToMother() {
+		Patient mother = TestUtils.getPatient(7);
+		Encounter delivery = saveDeliveryEncounter(mother, TestUtils.date(2012, 6, 1), "Kip Otieno", "Wanjiru Akinyi");
+
+		handler.handle(delivery);
+
+		List<Relationship> relationships = getChildRelationships(mother);
+		Assert.assertThat(relationships.size(), is(2));
+
+		PatientIdentifierType openmrsIdType = MetadataUtils.existing(PatientIdentifierType.class, CommonMetadata._PatientIdentifierType.OPENMRS_ID);
+
+		for (Relationship relationship : relationships) {
+			Patient baby = Context.getPatientService().getPatient(relationship.getPersonB().getPersonId());
+			Assert.assertThat(baby.getBirthdate(), is(TestUtils.date(2012, 6, 1)));
+			Assert.assertThat(baby.getPatientIdentifier(openmrsIdType), notNullValue());
+		}
+	}
+
+	/**
+	 * @see DeliveryBabyRegistrationHandler#handle(org.openmrs.Encounter)
+	 */
+	@Test
+	public void handle_shouldNotRegisterSameBabyTwice() {
+		Patient mother = TestUtils.getPatient(7);
+		Encounter delivery = saveDeliveryEncounter(mother, TestUtils.date(2012, 6, 1), "Kip Otieno");
+
+		handler.handle(delivery);
+
+		Assert.assertThat(getChildRelationships(mother).size(), is(1));
+
+		// As if the event was retried after a failure which followed the registration
+		handler.handle(delivery);
+
+		Assert.assertThat(getChildRelationships(mother).size(), is(1));
+
+		// A baby with the same name but a different birth date is a different baby
+		Encounter laterDelivery = saveDeliveryEncounter(mother, TestUtils.date(2014, 3, 1), "Kip Otieno");
+
+		handler.handle(laterDelivery);
+
+		Assert.assertThat(getChildRelationships(mother).size(), is(2));
+	}
+
+	/**
+	 * Saves a delivery encounter with a delivery outcome group for each of the given babies
+	 * @param mother the mother
+	 * @param date the delivery date
+	 * @param babyNames the baby names
+	 * @return the encounter
+	 */
+	private Encounter saveDeliveryEncounter(Patient mother, Date date, String... babyNames) {
+		Location location = Context.getLocationService().getLocation(1);
+
+		Encounter encounter = new Encounter();
+		encounter.setPatient(mother);
+		encounter.setEncounterType(Context.getEncounterService().getEncounterType(1));
+		encounter.setEncounterDatetime(date);
+		encounter.setLocation(location);
+
+		for (String babyName : babyNames) {
+			Obs outcome = createObs(mother, Context.getConceptService().getConcept(162588), date, location);
+
+			Obs name = createObs(mother, Context.getConceptService().getConcept(1586), date, location);
+			name.setValueText(babyName);
+			outcome.addGroupMember(name);
+
+			Obs sex = createObs(mother, Context.getConceptService().getConcept(1587), date, location);
+			sex.setValueCoded(Context.getConceptService().getConcept(1534));
+			outcome.addGroupMember(sex);
+
+			encounter.addObs(outcome);
+		}
+
+		return Context.getEncounterService().saveEncounter(encounter);
+	}
+
+	/**
+	 * Creates an unsaved obs
+	 * @param person the person
+	 * @param concept the concept
+	 * @param date the obs date
+	 * @param location the location
+	 * @return the obs
+	 */
+	private Obs createObs(Person person, Concept concept, Date date, Location location) {
+		Obs obs = new Obs();
+		obs.setPerson(person);
+		obs.setConcept(concept);
+		obs.setObsDatetime(date);
+		obs.setLocation(location);
+		return obs;
+	}
+
+	/**
+	 * Gets the parent to child relationships of the given parent
+	 * @param parent the parent
+	 * @return the relationships
+	 */
+	private List<Relationship> getChildRelationships(Person parent) {
+		RelationshipType parentChild = Context.getPersonService().getRelationshipTypeByUuid(DeliveryBabyRegistrationHandler.PARENT_CHILD_RELATIONSHIP_TYPE);
+		return Context.getPersonService().getRelationships(parent, null, parentChild);
+	}
+}
@@ -0,0 +1,332 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.event;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Encounter;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.openmrs.module.kenyaemr.test.EmrTestUtils;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Tests for {@link EncounterEventQueue}. Events are processed in the test transaction rather than in a new one, so
+ * that the test data is visible and everything is rolled back afterwards.
+ */
+public class EncounterEventQueueTest extends BaseModuleContextSensitiveTest {
+
+	@Autowired
+	@Qualifier("transactionManager")
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private KenyaEmrService service;
+
+	private TestHandler succeeding = new TestHandler("test.succeeding", false);
+
+	private TestHandler failing = new TestHandler("test.failing", true);
+
+	private EncounterEventQueue queue;
+
+	private Encounter encounter;
+
+	/**
+	 * Setup each test
+	 */
+	@Before
+	public void setup() throws Exception {
+		EmrTestUtils.createModuleTables();
+
+		queue = new EncounterEventQueue() {
+			@Override
+			public List<EncounterEventHandler> getHandlers() {
+				return Arrays.<EncounterEventHandler>asList(succeeding, failing);
+			}
+
+			@Override
+			protected TransactionTemplate getTransactionTemplate() {
+				TransactionTemplate template = new TransactionTemplate(transactionManager);
+				template.setPropagationBehavior(TransactionTemplate.PROPAGATION_REQUIRED);
+				return template;
+			}
+		};
+
+		encounter = Context.getEncounterService().getEncounter(3);
+	}
+
+	/**
+	 * @see EncounterEventQueue#enqueue(org.openmrs.Encounter, EncounterEventHandler)
+	 */
+	@Test
+	public void enqueue_shouldQueueEventOnlyOnceForEachIdempotencyKey() {
+		Assert.assertThat(queue.enqueue(encounter, succeeding), is(true));
+		Assert.assertThat(queue.enqueue(encounter, succeeding), is(false));
+
+		Integer eventId = getEventId(succeeding);
+		Assert.assertThat(getEvent(eventId).get("status"), is((Object) EncounterEventQueue.STATUS_PENDING));
+		Assert.assertThat(queue.getAllInformation().get("pending"), is((Object) 1));
+	}
+
+	/**
+	 * @see EncounterEventQueue#fetchDueEvents()
+	 */
+	@Test
+	public void fetchDueEvents_shouldFetchOnlyPendingEventsWhichAreDue() {
+		queue.enqueue(encounter, succeeding);
+		queue.enqueue(encounter, failing);
+
+		Integer dueId = getEventId(succeeding);
+		Integer laterId = getEventId(failing);
+		queue.finish(laterId, EncounterEventQueue.STATUS_PENDING, new Date(System.currentTimeMillis() + 3600000), null);
+
+		Assert.assertThat(queue.fetchDueEvents(), contains(dueId));
+
+		queue.finish(dueId, EncounterEventQueue.STATUS_COMPLETED, null, null);
+
+		Assert.assertThat(queue.fetchDueEvents(), is(empty()));
+	}
+
+	/**
+	 * @see EncounterEventQueue#process(Integer)
+	 */
+	@Test
+	public void process_shouldClaimEventAndCompleteItIfHandlerSucceeds() {
+		queue.enqueue(encounter, succeeding);
+		Integer eventId = getEventId(succeeding);
+
+		queue.process(eventId);
+
+		Map<String, Object> event = getEvent(eventId);
+		Assert.assertThat(event.get("status"), is((Object) EncounterEventQueue.STATUS_COMPLETED));
+		Assert.assertThat(event.get("attempts"), is((Object) 1));
+		Assert.assertThat(succeeding.handled, is(1));
+	}
+
+	/**
+	 * @see EncounterEventQueue#process(Integer)
+	 */
+	@Test
+	public void process_shouldNotProcessEventWhichIsNotPending() {
+		queue.enqueue(encounter, succeeding);
+		Integer eventId = getEventId(succeeding);
+
+		queue.process(eventId);
+		queue.process(eventId); // Already completed
+
+		Assert.assertThat(succeeding.handled, is(1));
+		Assert.assertThat(getEvent(eventId).get("attempts"), is((Object) 1));
+
+		queue.enqueue(Context.getEncounterService().getEncounter(4), succeeding);
+		Integer claimedId = getEventId(succeeding, 4);
+		queue.finish(claimedId, EncounterEventQueue.STATUS_PROCESSING, null, null); // Claimed by another worker
+
+		queue.process(claimedId);
+
+		Assert.assertThat(succeeding.handled, is(1));
+	}
+
+	/**
+	 * @see EncounterEventQueue#process(Integer)
+	 */
+	@Test
+	public void process_shouldReturnFailedEventToPendingWithBackoff() {
+		queue.enqueue(encounter, failing);
+		Integer eventId = getEventId(failing);
+
+		long before = System.currentTimeMillis();
+		queue.process(eventId);
+
+		Map<String, Object> event = getEvent(eventId);
+		Assert.assertThat(event.get("status"), is((Object) EncounterEventQueue.STATUS_PENDING));
+		Assert.assertThat(event.get("attempts"), is((Object) 1));
+		Assert.assertThat(((String) event.get("last_error")).contains("Test failure"), is(true));
+
+		// First retry is after 1 minute
+		long delay = ((Date) event.get("next_attempt")).getTime() - before;
+		Assert.assertThat(delay, greaterThan(59000L));
+		Assert.assertThat(delay, lessThanOrEqualTo(61000L + (System.currentTimeMillis() - before)));
+
+		Assert.assertThat(queue.fetchDueEvents(), is(empty()));
+	}
+
+	/**
+	 * @see EncounterEventQueue#process(Integer)
+	 */
+	@Test
+	public void process_shouldFailEventAfterMaxAttempts() {
+		queue.enqueue(encounter, failing);
+		Integer eventId = getEventId(failing);
+
+		for (int attempt = 1; attempt <= EncounterEventQueue.MAX_ATTEMPTS; ++attempt) {
+			queue.process(eventId);
+
+			String expectedStatus = attempt < EncounterEventQueue.MAX_ATTEMPTS ? EncounterEventQueue.STATUS_PENDING : EncounterEventQueue.STATUS_FAILED;
+			Assert.assertThat(getEvent(eventId).get("status"), is((Object) expectedStatus));
+		}
+
+		Assert.assertThat(failing.handled, is(EncounterEventQueue.MAX_ATTEMPTS));
+		Assert.assertThat(getEvent(eventId).get("attempts"), is((Object) EncounterEventQueue.MAX_ATTEMPTS));
+
+		queue.process(eventId); // Failed events are not processed again
+
+		Assert.assertThat(failing.handled, is(EncounterEventQueue.MAX_ATTEMPTS));
+	}
+
+	/**
+	 * @see EncounterEventQueue#process(Integer)
+	 */
+	@Test
+	public void process_shouldFailEventWithUnknownHandler() {
+		queue.enqueue(encounter, new TestHandler("test.removed", false));
+		Integer eventId = getEventId("test.removed", encounter.getEncounterId());
+
+		queue.process(eventId);
+
+		Map<String, Object> event = getEvent(eventId);
+		Assert.assertThat(event.get("status"), is((Object) EncounterEventQueue.STATUS_FAILED));
+		Assert.assertThat((String) event.get("last_error"), is("No handler with id test.removed"));
+	}
+
+	/**
+	 * @see EncounterEventQueue#resumeProcessing()
+	 */
+	@Test
+	public void resumeProcessing_shouldReturnProcessingEventsToPending() {
+		queue.enqueue(encounter, succeeding);
+		Integer eventId = getEventId(succeeding);
+		queue.finish(eventId, EncounterEventQueue.STATUS_PROCESSING, null, null); // Interrupted by a shutdown
+
+		Assert.assertThat(queue.fetchDueEvents(), is(empty()));
+
+		queue.resumeProcessing();
+
+		Assert.assertThat(getEvent(eventId).get("status"), is((Object) EncounterEventQueue.STATUS_PENDING));
+		Assert.assertThat(queue.fetchDueEvents(), contains(eventId));
+
+		queue.process(eventId);
+
+		Assert.assertThat(getEvent(eventId).get("status"), is((Object) EncounterEventQueue.STATUS_COMPLETED));
+		Assert.assertThat(getEvent(eventId).get("last_error"), nullValue());
+	}
+
+	/**
+	 * Gets the id of the event queued for the test encounter and the given handler
+	 * @param handler the handler
+	 * @return the event id
+	 */
+	private Integer getEventId(EncounterEventHandler handler) {
+		return getEventId(handler, encounter.getEncounterId());
+	}
+
+	/**
+	 * Gets the id of the event queued for the given encounter and handler
+	 * @param handler the handler
+	 * @param encounterId the encounter id
+	 * @return the event id
+	 */
+	private Integer getEventId(EncounterEventHandler handler, Integer encounterId) {
+		return getEventId(handler.getId(), encounterId);
+	}
+
+	/**
+	 * Gets the id of the event queued for the given encounter and handler
+	 * @param handlerId the handler id
+	 * @param encounterId the encounter id
+	 * @return the event id
+	 */
+	private Integer getEventId(String handlerId, Integer encounterId) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("handler", handlerId);
+		params.put("encounterId", encounterId);
+
+		List<Object> rows = service.executeSqlQuery("select id from kenyaemr_encounter_event where handler = :handler and encounter_id = :encounterId", params);
+		return ((Number) rows.get(0)).intValue();
+	}
+
+	/**
+	 * Gets the columns of an event
+	 * @param eventId the event id
+	 * @return the column values
+	 */
+	private Map<String, Object> getEvent(Integer eventId) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("id", eventId);
+
+		List<Object> rows = service.executeSqlQuery("select status, attempts, next_attempt, last_error from kenyaemr_encounter_event where id = :id", params);
+		Object[] row = (Object[]) rows.get(0);
+
+		Map<String, Object> event = new HashMap<String, Object>();
+		event.put("status", row[0]);
+		event.put("attempts", ((Number) row[1]).intValue());
+		event.put("next_attempt", row[2]);
+		event.put("last_error", row[3]);
+		return event;
+	}
+
+	/**
+	 * Handler which counts the events it handles, and optionally fails
+	 */
+	private static class TestHandler implements EncounterEventHandler {
+
+		private String id;
+
+		private boolean fail;
+
+		private int handled = 0;
+
+		public TestHandler(String id, boolean fail) {
+			this.id = id;
+			this.fail = fail;
+		}
+
+		@Override
+		public String getId() {
+			return id;
+		}
+
+		@Override
+		public boolean handles(Encounter encounter) {
+			return true;
+		}
+
+		@Override
+		public String getIdempotencyKey(Encounter encounter) {
+			return id + ":" + encounter.getUuid();
+		}
+
+		@Override
+		public void handle(Encounter encounter) {
+			handled++;
+
+			if (fail) {
+				throw new RuntimeException("Test failure");
+			}
+		}
+	}
+}
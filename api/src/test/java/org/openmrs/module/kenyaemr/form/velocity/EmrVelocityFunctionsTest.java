@@ -15,6 +15,7 @@ import org.junit.Test;
 import org.openmrs.Concept;
 import org.openmrs.GlobalProperty;
 import org.openmrs.PatientIdentifierType;
+import org.openmrs.Program;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.htmlformentry.FormEntrySession;
 import org.openmrs.module.kenyacore.test.TestUtils;
@@ -22,6 +23,7 @@ import org.openmrs.module.kenyaemr.Dictionary;
 import org.openmrs.module.kenyaemr.EmrConstants;
 import org.openmrs.module.kenyaemr.metadata.CommonMetadata;
 import org.openmrs.module.kenyaemr.metadata.HivMetadata;
+import org.openmrs.module.kenyaemr.metadata.TbMetadata;
 import org.openmrs.module.metadatadeploy.MetadataUtils;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -43,6 +45,9 @@ public class EmrVelocityFunctionsTest extends BaseModuleContextSensitiveTest {
 	@Autowired
 	private HivMetadata hivMetadata;
 
+	@Autowired
+	private TbMetadata tbMetadata;
+
 	private EmrVelocityFunctions functionsForSession1, functionsForSession2;
 
 	/**
@@ -54,6 +59,7 @@ public class EmrVelocityFunctionsTest extends BaseModuleContextSensitiveTest {
 
 		commonMetadata.install();
 		hivMetadata.install();
+		tbMetadata.install();
 
 		HttpSession httpSession = new MockHttpSession();
 		String formXml = "<htmlform></htmlform>";
@@ -103,4 +109,22 @@ public class EmrVelocityFunctionsTest extends BaseModuleContextSensitiveTest {
 		// Check no exception for non-existent
 		Assert.assertThat(functionsForSession1.getGlobalProperty("xxx.xxx"), is(nullValue()));
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @see EmrVelocityFunctions#patientInTbProgram()
+	 */
+	@Test
+	public void patientInTbProgram_shouldEvaluateOncePerSession() throws Exception {
+		Assert.assertThat(functionsForSession1.patientInTbProgram(), is(false));
+
+		Program tbProgram = MetadataUtils.existing(Program.class, TbMetadata._Program.TB);
+		TestUtils.enrollInProgram(TestUtils.getPatient(6), tbProgram, TestUtils.date(2011, 1, 1));
+
+		// Result is shared by every reference in the same form entry session
+		Assert.assertThat(functionsForSession1.patientInTbProgram(), is(false));
+
+		// ...but a new session sees the enrollment
+		FormEntrySession formSession = new FormEntrySession(TestUtils.getPatient(6), "<htmlform></htmlform>", new MockHttpSession());
+		Assert.assertThat(new EmrVelocityFunctions(formSession).patientInTbProgram(), is(true));
+	}
+}
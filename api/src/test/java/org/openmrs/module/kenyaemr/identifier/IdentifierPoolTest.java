@@ -0,0 +1,206 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.identifier;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.openmrs.module.kenyaemr.metadata.CommonMetadata;
+import org.openmrs.module.kenyaemr.metadata.HivMetadata;
+import org.openmrs.module.kenyaemr.test.EmrTestUtils;
+import org.openmrs.module.metadatadeploy.MetadataUtils;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Tests for {@link IdentifierPool}. Commits and rollbacks are simulated by invoking the synchronizations which the pool
+ * registers, as the test transaction is always rolled back.
+ */
+public class IdentifierPoolTest extends BaseModuleContextSensitiveTest {
+
+	@Autowired
+	private CommonMetadata commonMetadata;
+
+	@Autowired
+	private HivMetadata hivMetadata;
+
+	@Autowired
+	private KenyaEmrService service;
+
+	@Autowired
+	private IdentifierPool pool;
+
+	private PatientIdentifierType upnType;
+
+	/**
+	 * Setup each test
+	 */
+	@Before
+	public void setup() throws Exception {
+		EmrTestUtils.createModuleTables();
+
+		executeDataSet("dataset/test-concepts.xml");
+
+		commonMetadata.install();
+		hivMetadata.install();
+
+		service.setupHivUniqueIdentifierSource("00001");
+
+		upnType = MetadataUtils.existing(PatientIdentifierType.class, HivMetadata._PatientIdentifierType.UNIQUE_PATIENT_NUMBER);
+		pool.getPool(upnType.getUuid()).clear();
+	}
+
+	/**
+	 * Cleanup after each test
+	 */
+	@After
+	public void cleanup() {
+		pool.getPool(upnType.getUuid()).clear();
+	}
+
+	/**
+	 * @see IdentifierPool#nextIdentifier(org.openmrs.PatientIdentifierType, String)
+	 */
+	@Test
+	public void nextIdentifier_shouldIssueIdentifierFromPool() {
+		pool.getPool(upnType.getUuid()).addAll(pool.reserve(upnType, 3));
+
+		Assert.assertThat(pool.nextIdentifier(upnType, "Test"), is("00001"));
+
+		Assert.assertThat(new ArrayList<String>(pool.getPool(upnType.getUuid())), contains("00002", "00003"));
+		Assert.assertThat(getStatus("00001"), is(IdentifierPool.STATUS_ISSUED));
+		Assert.assertThat(getStatus("00002"), is(IdentifierPool.STATUS_RESERVED));
+	}
+
+	/**
+	 * @see IdentifierPool#nextIdentifier(org.openmrs.PatientIdentifierType, String)
+	 */
+	@Test
+	public void nextIdentifier_shouldSkipPooledIdentifiersWhichAreNoLongerReserved() {
+		pool.getPool(upnType.getUuid()).addAll(pool.reserve(upnType, 2));
+		pool.getPool(upnType.getUuid()).add("00001"); // Same identifier pooled twice
+
+		Assert.assertThat(pool.nextIdentifier(upnType, "Test"), is("00001"));
+		Assert.assertThat(pool.nextIdentifier(upnType, "Test"), is("00002"));
+		Assert.assertThat(pool.nextIdentifier(upnType, "Test"), is("00003"));
+	}
+
+	/**
+	 * @see IdentifierPool#nextIdentifier(org.openmrs.PatientIdentifierType, String)
+	 */
+	@Test
+	public void nextIdentifier_shouldReturnPooledIdentifierToPoolIfTransactionRollsBack() {
+		pool.getPool(upnType.getUuid()).addAll(pool.reserve(upnType, 2));
+
+		List<TransactionSynchronization> existing = TransactionSynchronizationManager.getSynchronizations();
+		Assert.assertThat(pool.nextIdentifier(upnType, "Test"), is("00001"));
+
+		simulateCompletion(existing, false);
+
+		Assert.assertThat(new ArrayList<String>(pool.getPool(upnType.getUuid())), contains("00002", "00001"));
+	}
+
+	/**
+	 * @see IdentifierPool#nextIdentifier(org.openmrs.PatientIdentifierType, String)
+	 */
+	@Test
+	public void nextIdentifier_shouldReserveBlockInTransactionAndPoolRestOnCommit() {
+		List<TransactionSynchronization> existing = TransactionSynchronizationManager.getSynchronizations();
+
+		Assert.assertThat(pool.nextIdentifier(upnType, "Test"), is("00001"));
+		Assert.assertThat(pool.nextIdentifier(upnType, "Test"), is("00002"));
+
+		// Rest of the block is held by the transaction until it commits
+		Assert.assertThat(pool.getPool(upnType.getUuid()).size(), is(0));
+		Assert.assertThat(getStatus("00002"), is(IdentifierPool.STATUS_ISSUED));
+		Assert.assertThat(getStatus("00003"), is(IdentifierPool.STATUS_RESERVED));
+
+		simulateCompletion(existing, true);
+
+		Assert.assertThat(pool.getPool(upnType.getUuid()).size(), is(IdentifierPool.BLOCK_SIZE - 2));
+		Assert.assertThat(pool.getPool(upnType.getUuid()).peek(), is("00003"));
+	}
+
+	/**
+	 * @see IdentifierPool#nextIdentifier(org.openmrs.PatientIdentifierType, String)
+	 */
+	@Test
+	public void nextIdentifier_shouldReserveBlockInTransactionAndDiscardRestOnRollback() {
+		List<TransactionSynchronization> existing = TransactionSynchronizationManager.getSynchronizations();
+
+		Assert.assertThat(pool.nextIdentifier(upnType, "Test"), is("00001"));
+
+		// The reservations are rolled back, so the source will generate these identifiers again
+		simulateCompletion(existing, false);
+
+		Assert.assertThat(pool.getPool(upnType.getUuid()).size(), is(0));
+	}
+
+	/**
+	 * @see IdentifierPool#recoverReservations()
+	 */
+	@Test
+	public void recoverReservations_shouldReturnUnissuedReservationsToPool() {
+		pool.reserve(upnType, 3);
+		Assert.assertThat(pool.markIssued(upnType.getUuid(), "00002", "Test"), is(true));
+
+		pool.recoverReservations();
+
+		Assert.assertThat(new ArrayList<String>(pool.getPool(upnType.getUuid())), contains("00001", "00003"));
+		Assert.assertThat(pool.nextIdentifier(upnType, "Test"), is("00001"));
+	}
+
+	/**
+	 * Invokes the synchronizations registered since the given ones as if the transaction had completed
+	 * @param existing the synchronizations which were registered before
+	 * @param committed true to simulate a commit, false to simulate a rollback
+	 */
+	private void simulateCompletion(List<TransactionSynchronization> existing, boolean committed) {
+		List<TransactionSynchronization> added = new ArrayList<TransactionSynchronization>(TransactionSynchronizationManager.getSynchronizations());
+		added.removeAll(existing);
+
+		for (TransactionSynchronization synchronization : added) {
+			if (committed) {
+				synchronization.afterCommit();
+			}
+		}
+		for (TransactionSynchronization synchronization : added) {
+			synchronization.afterCompletion(committed ? TransactionSynchronization.STATUS_COMMITTED : TransactionSynchronization.STATUS_ROLLED_BACK);
+		}
+	}
+
+	/**
+	 * Gets the status of a reserved identifier
+	 * @param identifier the identifier
+	 * @return the status
+	 */
+	private String getStatus(String identifier) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("type", upnType.getUuid());
+		params.put("identifier", identifier);
+
+		List<Object> rows = service.executeSqlQuery("select status from kenyaemr_identifier_reservation"
+				+ " where identifier_type = :type and identifier = :identifier", params);
+		return rows.isEmpty() ? null : (String) rows.get(0);
+	}
+}
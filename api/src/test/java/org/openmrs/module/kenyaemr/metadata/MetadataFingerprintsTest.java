@@ -0,0 +1,74 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.metadata;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.EmrConstants;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Tests for {@link MetadataFingerprints}
+ */
+public class MetadataFingerprintsTest extends BaseModuleContextSensitiveTest {
+
+	@Autowired
+	private MetadataFingerprints fingerprints;
+
+	/**
+	 * @see MetadataFingerprints#needsInstall(String, String)
+	 * @see MetadataFingerprints#recordInstall(String, String)
+	 */
+	@Test
+	public void needsInstall_shouldReturnFalseIfUnchangedSinceLastInstall() {
+		Assert.assertThat(fingerprints.needsInstall("mfl", FacilityMetadata.MFL_SOURCE), is(true));
+
+		fingerprints.recordInstall("mfl", FacilityMetadata.MFL_SOURCE);
+
+		Assert.assertThat(fingerprints.needsInstall("mfl", FacilityMetadata.MFL_SOURCE), is(false));
+		Assert.assertThat(fingerprints.needsInstall("mfl", "metadata/KenyaEMR_Drugs-3.zip"), is(true));
+	}
+
+	/**
+	 * @see MetadataFingerprints#needsInstall(String, String)
+	 */
+	@Test
+	public void needsInstall_shouldNotRecordFingerprint() {
+		Assert.assertThat(fingerprints.needsInstall("mfl", FacilityMetadata.MFL_SOURCE), is(true));
+
+		// As if the install failed before it could be recorded
+		Assert.assertThat(fingerprints.needsInstall("mfl", FacilityMetadata.MFL_SOURCE), is(true));
+		Assert.assertThat(Context.getAdministrationService().getGlobalProperty(MetadataFingerprints.GP_PREFIX + "mfl"), is(nullValue()));
+	}
+
+	/**
+	 * @see MetadataFingerprints#clearForced()
+	 */
+	@Test
+	public void needsInstall_shouldReturnTrueIfForcedUntilCleared() {
+		fingerprints.recordInstall("mfl", FacilityMetadata.MFL_SOURCE);
+
+		Context.getAdministrationService().saveGlobalProperty(new GlobalProperty(EmrConstants.GP_FORCE_METADATA_INSTALL, "true"));
+
+		Assert.assertThat(fingerprints.isForced(), is(true));
+		Assert.assertThat(fingerprints.needsInstall("mfl", FacilityMetadata.MFL_SOURCE), is(true));
+
+		fingerprints.clearForced();
+
+		Assert.assertThat(fingerprints.isForced(), is(false));
+		Assert.assertThat(fingerprints.needsInstall("mfl", FacilityMetadata.MFL_SOURCE), is(false));
+	}
+}
@@ -0,0 +1,83 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Tests for {@link PrometheusWriter}
+ */
+public class PrometheusWriterTest {
+
+	/**
+	 * @see PrometheusWriter#gauge(String, String, Number)
+	 */
+	@Test
+	public void gauge_shouldWriteUnlabelledSample() {
+		PrometheusWriter writer = new PrometheusWriter();
+		writer.gauge("test_value", "A test value", 5);
+
+		Assert.assertThat(writer.toString(), is("# HELP test_value A test value\n# TYPE test_value gauge\ntest_value 5\n"));
+	}
+
+	/**
+	 * @see PrometheusWriter#counters(String, String, java.util.List, java.util.List)
+	 */
+	@Test
+	public void counters_shouldWriteEscapedLabels() {
+		List<String[]> labels = new ArrayList<String[]>();
+		labels.add(new String[] { "report", "MOH 731" });
+		labels.add(new String[] { "report", "Say \"hi\"" });
+
+		PrometheusWriter writer = new PrometheusWriter();
+		writer.counters("test_total", "Tests", labels, Arrays.<Number>asList(1, 2));
+
+		Assert.assertThat(writer.toString(), is("# HELP test_total Tests\n# TYPE test_total counter\n"
+				+ "test_total{report=\"MOH 731\"} 1\n"
+				+ "test_total{report=\"Say \\\"hi\\\"\"} 2\n"));
+	}
+
+	/**
+	 * @see PrometheusWriter#counters(String, String, java.util.List, java.util.List)
+	 */
+	@Test
+	public void counters_shouldWriteNothingForNoSamples() {
+		PrometheusWriter writer = new PrometheusWriter();
+		writer.counters("test_total", "Tests", new ArrayList<String[]>(), new ArrayList<Number>());
+
+		Assert.assertThat(writer.toString(), is(""));
+	}
+
+	/**
+	 * @see PrometheusWriter#summaries(String, String, java.util.List, java.util.List, java.util.List)
+	 */
+	@Test
+	public void summaries_shouldWriteCountAndSumInOneFamily() {
+		List<String[]> labels = new ArrayList<String[]>();
+		labels.add(new String[] { "report", "MOH 731" });
+		labels.add(new String[] { "report", "MOH 711" });
+
+		PrometheusWriter writer = new PrometheusWriter();
+		writer.summaries("test_seconds", "Test time", labels, Arrays.<Number>asList(2, 1), Arrays.<Number>asList(1.5, 0.25));
+
+		Assert.assertThat(writer.toString(), is("# HELP test_seconds Test time\n# TYPE test_seconds summary\n"
+				+ "test_seconds_count{report=\"MOH 731\"} 2\n"
+				+ "test_seconds_sum{report=\"MOH 731\"} 1.5\n"
+				+ "test_seconds_count{report=\"MOH 711\"} 1\n"
+				+ "test_seconds_sum{report=\"MOH 711\"} 0.25\n"));
+	}
+}
@@ -0,0 +1,86 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.regimen;
+
+import org.codehaus.jackson.node.JsonNodeFactory;
+import org.codehaus.jackson.node.ObjectNode;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+/**
+ * Tests for {@link RegimenCatalogue}
+ */
+public class RegimenCatalogueTest extends BaseModuleContextSensitiveTest {
+
+	@Autowired
+	private RegimenManager regimenManager;
+
+	/**
+	 * Setup each test
+	 */
+	@Before
+	public void setup() throws Exception {
+		executeDataSet("dataset/test-concepts.xml");
+		executeDataSet("dataset/test-drugs.xml");
+
+		regimenManager.refresh();
+	}
+
+	/**
+	 * @see RegimenCatalogue#getEntries(String, String)
+	 */
+	@Test
+	public void getEntries_shouldReturnPrecompiledEntries() throws Exception {
+		RegimenCatalogue catalogue = regimenManager.getCatalogue();
+
+		List<ObjectNode> entries = catalogue.getEntries("category1", "");
+		Assert.assertEquals(3, entries.size());
+
+		ObjectNode regimen1 = entries.get(0);
+		Assert.assertEquals("regimen1", regimen1.get("regimenName").getTextValue());
+		Assert.assertEquals("category1", regimen1.get("program").getTextValue());
+		Assert.assertEquals("Group #1", regimen1.get("groupCodeName").getTextValue());
+		Assert.assertEquals(2, regimen1.get("orderSetComponents").size());
+		Assert.assertEquals("AZT", regimen1.get("orderSetComponents").get(0).get("name").getTextValue());
+		Assert.assertEquals("300", regimen1.get("orderSetComponents").get(0).get("dose").getTextValue());
+		Assert.assertEquals("mg", regimen1.get("orderSetComponents").get(0).get("units").getTextValue());
+
+		Assert.assertEquals(0, catalogue.getEntries("category1", "xxx").size());
+		Assert.assertEquals(0, catalogue.getEntries("xxx", "").size());
+	}
+
+	/**
+	 * @see RegimenCatalogue#getETag()
+	 */
+	@Test
+	public void getETag_shouldOnlyChangeWhenCatalogueChanges() throws Exception {
+		String etag = regimenManager.getCatalogue().getETag();
+		String json = regimenManager.getCatalogue().getJson();
+
+		regimenManager.refresh();
+
+		Assert.assertEquals(etag, regimenManager.getCatalogue().getETag());
+		Assert.assertEquals(json, regimenManager.getCatalogue().getJson());
+
+		RegimenCatalogue catalogue = regimenManager.getCatalogue();
+		RegimenDefinition definition = regimenManager.getRegimenGroups("category1").get(0).getRegimens().get(0);
+		catalogue.addRegimen("category1", definition, JsonNodeFactory.instance.arrayNode());
+
+		Assert.assertThat(catalogue.getETag(), is(not(etag)));
+	}
+}
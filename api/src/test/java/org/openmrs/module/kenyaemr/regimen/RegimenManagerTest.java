@@ -132,4 +132,33 @@ public class RegimenManagerTest extends BaseModuleContextSensitiveTest {
 		Assert.assertEquals("regimen2", defsNonExact.get(0).getName());
 		Assert.assertEquals("regimen3", defsNonExact.get(1).getName());
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @see RegimenManager#findDefinitions(String, org.openmrs.module.kenyaemr.regimen.RegimenOrder, boolean)
+	 */
+	@Test
+	public void findDefinitions_shouldNotMatchRegimensWithDifferentDrugs() {
+		DrugOrder lamivudine = new DrugOrder();
+		lamivudine.setConcept(Context.getConceptService().getConcept(78643));
+
+		DrugOrder stavudine = new DrugOrder();
+		stavudine.setConcept(Context.getConceptService().getConcept(84309));
+
+		DrugOrder zidovudine = new DrugOrder();
+		zidovudine.setConcept(Context.getConceptService().getConcept(86663));
+
+		// Subset of a definition
+		RegimenOrder regimen = new RegimenOrder(new HashSet<DrugOrder>(Arrays.asList(lamivudine)));
+		Assert.assertEquals(0, regimenManager.findDefinitions("category1", regimen, false).size());
+
+		// Superset of a definition
+		regimen = new RegimenOrder(new HashSet<DrugOrder>(Arrays.asList(lamivudine, stavudine, zidovudine)));
+		Assert.assertEquals(0, regimenManager.findDefinitions("category1", regimen, false).size());
+
+		// Exact set of drugs in any order
+		regimen = new RegimenOrder(new HashSet<DrugOrder>(Arrays.asList(zidovudine, lamivudine)));
+		List<RegimenDefinition> defs = regimenManager.findDefinitions("category1", regimen, false);
+		Assert.assertEquals(1, defs.size());
+		Assert.assertEquals("regimen1", defs.get(0).getName());
+	}
+}
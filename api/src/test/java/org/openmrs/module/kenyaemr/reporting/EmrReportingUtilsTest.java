@@ -0,0 +1,47 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.reporting;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Tests for {@link EmrReportingUtils}
+ */
+public class EmrReportingUtilsTest {
+
+	/**
+	 * @see EmrReportingUtils#onDay(String, String)
+	 */
+	@Test
+	public void onDay_shouldCreateHalfOpenRangeOverUnwrappedColumn() {
+		Assert.assertThat(EmrReportingUtils.onDay("f.visit_date", "startDate"),
+				is("(f.visit_date >= date(:startDate) and f.visit_date < date(:startDate) + interval 1 day)"));
+	}
+
+	/**
+	 * @see EmrReportingUtils#inPeriod(String, String, String)
+	 */
+	@Test
+	public void inPeriod_shouldIncludeWholeEndDay() {
+		Assert.assertThat(EmrReportingUtils.inPeriod("e.encounter_datetime", "startDate", "endDate"),
+				is("(e.encounter_datetime >= date(:startDate) and e.encounter_datetime < date(:endDate) + interval 1 day)"));
+	}
+
+	/**
+	 * @see EmrReportingUtils#onOrBefore(String, String)
+	 */
+	@Test
+	public void onOrBefore_shouldIncludeWholeDay() {
+		Assert.assertThat(EmrReportingUtils.onOrBefore("d.date_started", "endDate"), is("d.date_started < date(:endDate) + interval 1 day"));
+	}
+}
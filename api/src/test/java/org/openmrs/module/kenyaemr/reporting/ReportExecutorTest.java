@@ -0,0 +1,304 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.reporting;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.openmrs.module.kenyacore.report.CalculationReportDescriptor;
+import org.openmrs.module.kenyacore.report.HybridReportDescriptor;
+import org.openmrs.module.kenyacore.report.IndicatorReportDescriptor;
+import org.openmrs.module.kenyaemr.advice.ReportQueueAdvice;
+import org.openmrs.module.reporting.evaluation.parameter.Mapped;
+import org.openmrs.module.reporting.report.ReportRequest;
+import org.openmrs.module.reporting.report.definition.ReportDefinition;
+import org.openmrs.module.reporting.report.service.ReportService;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link ReportExecutor}
+ */
+public class ReportExecutorTest {
+
+	private ReportService reportService = mock(ReportService.class);
+
+	private Map<String, ReportRequest> saved = new HashMap<String, ReportRequest>();
+
+	private TestExecutor executor;
+
+	/**
+	 * Cleanup after each test
+	 */
+	@After
+	public void cleanup() {
+		if (executor != null) {
+			executor.proceed.countDown();
+			executor.stop();
+		}
+	}
+
+	/**
+	 * @see ReportExecutor#getPriority(org.openmrs.module.kenyacore.report.ReportDescriptor)
+	 */
+	@Test
+	public void getPriority_shouldRunLineListsFirstAndIndicatorReportsLast() {
+		ReportExecutor executor = new ReportExecutor();
+
+		Assert.assertThat(executor.getPriority(mock(CalculationReportDescriptor.class)), is(ReportRequest.Priority.HIGH));
+		Assert.assertThat(executor.getPriority(mock(HybridReportDescriptor.class)), is(ReportRequest.Priority.NORMAL));
+		Assert.assertThat(executor.getPriority(mock(IndicatorReportDescriptor.class)), is(ReportRequest.Priority.LOW));
+	}
+
+	/**
+	 * @see ReportExecutor.QueuedRequest#compareTo(org.openmrs.module.kenyaemr.reporting.ReportExecutor.QueuedRequest)
+	 */
+	@Test
+	public void queuedRequest_shouldBeOrderedByPriorityThenSubmission() {
+		ReportExecutor executor = new ReportExecutor();
+
+		ReportExecutor.QueuedRequest indicator = executor.new QueuedRequest("a", "indicator", ReportRequest.Priority.LOW);
+		ReportExecutor.QueuedRequest hybrid1 = executor.new QueuedRequest("b", "hybrid1", ReportRequest.Priority.NORMAL);
+		ReportExecutor.QueuedRequest lineList = executor.new QueuedRequest("c", "lineList", ReportRequest.Priority.HIGH);
+		ReportExecutor.QueuedRequest hybrid2 = executor.new QueuedRequest("d", "hybrid2", null);
+
+		PriorityBlockingQueue<ReportExecutor.QueuedRequest> queue = new PriorityBlockingQueue<ReportExecutor.QueuedRequest>();
+		queue.add(indicator);
+		queue.add(hybrid1);
+		queue.add(lineList);
+		queue.add(hybrid2);
+
+		List<ReportExecutor.QueuedRequest> order = new ArrayList<ReportExecutor.QueuedRequest>();
+		queue.drainTo(order);
+
+		Assert.assertThat(order, contains(lineList, hybrid1, hybrid2, indicator));
+	}
+
+	/**
+	 * @see ReportExecutor#request(org.openmrs.module.kenyacore.report.ReportDescriptor, org.openmrs.module.reporting.report.definition.ReportDefinition, java.util.Map, org.openmrs.module.reporting.report.renderer.RenderingMode)
+	 */
+	@Test
+	public void request_shouldReturnRequestWhichIsAlreadyRunning() throws Exception {
+		executor = new TestExecutor(true);
+		executor.start(null);
+
+		ReportDefinition definition = new ReportDefinition();
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("startDate", new Date(1420070400000l));
+
+		ReportRequest first = executor.request(null, definition, params, null);
+
+		// Wait until a worker is running the request
+		Assert.assertThat(executor.claimed.await(10, TimeUnit.SECONDS), is(true));
+
+		ReportRequest second = executor.request(null, definition, params, null);
+
+		Assert.assertThat(second, is(sameInstance(first)));
+		verify(reportService, times(1)).queueReport(any(ReportRequest.class));
+
+		executor.proceed.countDown();
+		executor.stop();
+		executor = null;
+	}
+
+	/**
+	 * @see ReportExecutor#execute(String)
+	 */
+	@Test
+	public void execute_shouldNotRunRequestWhichCannotBeClaimed() {
+		ReportRequest request = saveRequest(new ReportRequest());
+
+		// As if the request was cancelled, or was run by the reporting module
+		TestExecutor unclaimable = new TestExecutor(false);
+		unclaimable.execute(request.getUuid());
+
+		verify(reportService, never()).runReport(any(ReportRequest.class));
+
+		TestExecutor claimable = new TestExecutor(true);
+		claimable.proceed.countDown();
+		claimable.execute(request.getUuid());
+
+		verify(reportService, times(1)).runReport(request);
+	}
+
+	/**
+	 * @see ReportExecutor#submitQueued()
+	 * @see org.openmrs.module.kenyaemr.advice.ReportQueueAdvice#invoke(org.aopalliance.intercept.MethodInvocation)
+	 */
+	@Test
+	public void submitQueued_shouldRunRequestsQueuedForReportingModuleOnlyThroughWorkers() throws Throwable {
+		executor = new TestExecutor(true);
+		executor.start(null);
+
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("startDate", new Date(1420070400000l));
+
+		// The first request occupies the only worker, and the second waits for it
+		ReportRequest running = executor.request(null, new ReportDefinition(), params, null);
+		Assert.assertThat(executor.claimed.await(10, TimeUnit.SECONDS), is(true));
+		ReportRequest waiting = executor.request(null, new ReportDefinition(), params, null);
+
+		// A request which was queued directly through the reporting module
+		ReportRequest direct = new ReportRequest();
+		direct.setReportDefinition(new Mapped<ReportDefinition>(new ReportDefinition(), params));
+		saveRequest(direct);
+
+		when(reportService.getReportRequests(null, null, null, ReportRequest.Status.REQUESTED)).thenReturn(Arrays.asList(running, waiting, direct));
+
+		// The reporting module's processing of queued requests competes for the same requests
+		final ReportExecutor competing = executor;
+		ReportQueueAdvice advice = new ReportQueueAdvice() {
+			@Override
+			protected ReportExecutor getExecutor() {
+				return competing;
+			}
+		};
+		MethodInvocation invocation = mock(MethodInvocation.class);
+		when(invocation.getMethod()).thenReturn(ReportService.class.getMethod("processNextQueuedReports"));
+
+		advice.invoke(invocation);
+		advice.invoke(invocation);
+
+		verify(invocation, never()).proceed();
+		verify(reportService, never()).runReport(any(ReportRequest.class));
+		Assert.assertThat(executor.getAllInformation().get("waiting"), is((Object) 2));
+
+		executor.proceed.countDown();
+
+		verify(reportService, timeout(10000).times(3)).runReport(any(ReportRequest.class));
+		verify(reportService, times(1)).runReport(running);
+		verify(reportService, times(1)).runReport(waiting);
+		verify(reportService, times(1)).runReport(direct);
+	}
+
+	/**
+	 * Saves a request in the mock report service
+	 * @param request the request
+	 * @return the request
+	 */
+	private ReportRequest saveRequest(ReportRequest request) {
+		request.setStatus(ReportRequest.Status.REQUESTED);
+		saved.put(request.getUuid(), request);
+		return request;
+	}
+
+	/**
+	 * Executor which uses the mock report service and runs tasks without a daemon thread. Claims succeed or fail as
+	 * configured, and wait until the test lets them proceed.
+	 */
+	private class TestExecutor extends ReportExecutor {
+
+		private final boolean claimable;
+
+		private final CountDownLatch claimed = new CountDownLatch(1);
+
+		private final CountDownLatch proceed = new CountDownLatch(1);
+
+		public TestExecutor(boolean claimable) {
+			this.claimable = claimable;
+
+			when(reportService.queueReport(any(ReportRequest.class))).thenAnswer(new Answer<ReportRequest>() {
+				@Override
+				public ReportRequest answer(InvocationOnMock invocation) {
+					return saveRequest((ReportRequest) invocation.getArguments()[0]);
+				}
+			});
+			when(reportService.getReportRequestByUuid(Mockito.anyString())).thenAnswer(new Answer<ReportRequest>() {
+				@Override
+				public ReportRequest answer(InvocationOnMock invocation) {
+					return saved.get(invocation.getArguments()[0]);
+				}
+			});
+		}
+
+		@Override
+		protected boolean claim(String requestUuid) {
+			if (!claimable) {
+				return false;
+			}
+
+			claimed.countDown();
+			try {
+				proceed.await(10, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			return true;
+		}
+
+		@Override
+		protected int getWorkerCount() {
+			return 1;
+		}
+
+		@Override
+		protected void runAsDaemon(Runnable task) {
+			task.run();
+		}
+
+		@Override
+		protected ReportService getReportService() {
+			return reportService;
+		}
+	}
+
+	/**
+	 * @see ReportExecutor#getRequestKey(org.openmrs.module.reporting.report.definition.ReportDefinition, java.util.Map)
+	 */
+	@Test
+	public void getRequestKey_shouldMatchSameReportAndParameters() {
+		ReportDefinition definition = new ReportDefinition();
+		Date startDate = new Date(1420070400000l);
+
+		Map<String, Object> params1 = new HashMap<String, Object>();
+		params1.put("startDate", startDate);
+		params1.put("endDate", new Date(1422662400000l));
+
+		// Different order, a deserialized timestamp rather than a date and a form flag
+		Map<String, Object> params2 = new LinkedHashMap<String, Object>();
+		params2.put("endDate", new Timestamp(1422662400000l));
+		params2.put("startDate", startDate);
+		params2.put("dateBasedReporting", "-1");
+
+		Assert.assertThat(ReportExecutor.getRequestKey(definition, params1), is(ReportExecutor.getRequestKey(definition, params2)));
+
+		params2.put("startDate", new Date(1420156800000l));
+		Assert.assertThat(ReportExecutor.getRequestKey(definition, params1), is(not(ReportExecutor.getRequestKey(definition, params2))));
+
+		Assert.assertThat(ReportExecutor.getRequestKey(definition, params1), is(not(ReportExecutor.getRequestKey(new ReportDefinition(), params1))));
+	}
+}
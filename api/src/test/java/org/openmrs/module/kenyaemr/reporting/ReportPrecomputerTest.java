@@ -0,0 +1,147 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.reporting;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.module.kenyacore.test.TestUtils;
+import org.openmrs.module.reporting.common.DateUtil;
+import org.openmrs.module.reporting.evaluation.parameter.Mapped;
+import org.openmrs.module.reporting.evaluation.parameter.Parameter;
+import org.openmrs.module.reporting.report.ReportRequest;
+import org.openmrs.module.reporting.report.definition.ReportDefinition;
+import org.openmrs.module.reporting.report.service.ReportService;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link ReportPrecomputer}
+ */
+public class ReportPrecomputerTest {
+
+	private ReportPrecomputer precomputer = new ReportPrecomputer();
+
+	/**
+	 * @see ReportPrecomputer#getLastPeriod(org.openmrs.module.reporting.report.definition.ReportDefinition, java.util.Date)
+	 */
+	@Test
+	public void getLastPeriod_shouldUsePreviousMonthForMonthlyReports() {
+		ReportDefinition definition = new ReportDefinition();
+		definition.addParameter(new Parameter("startDate", "Start Date", Date.class));
+		definition.addParameter(new Parameter("endDate", "End Date", Date.class));
+		definition.addParameter(new Parameter("dateBasedReporting", "", String.class));
+
+		Map<String, Object> period = precomputer.getLastPeriod(definition, TestUtils.date(2016, 3, 2, 2, 0, 0));
+
+		Assert.assertThat(period.get("startDate"), is((Object) TestUtils.date(2016, 2, 1)));
+		Assert.assertThat(period.get("endDate"), is((Object) TestUtils.date(2016, 2, 29)));
+		Assert.assertThat(period.get("dateBasedReporting"), is((Object) "-1"));
+	}
+
+	/**
+	 * @see ReportPrecomputer#getLastPeriod(org.openmrs.module.reporting.report.definition.ReportDefinition, java.util.Date)
+	 */
+	@Test
+	public void getLastPeriod_shouldUsePreviousDayForDailyReports() {
+		ReportDefinition definition = new ReportDefinition();
+		definition.addParameter(new Parameter("startDate", "Start Date", Date.class));
+
+		Map<String, Object> period = precomputer.getLastPeriod(definition, TestUtils.date(2016, 3, 1, 2, 0, 0));
+
+		Assert.assertThat(period.get("startDate"), is((Object) TestUtils.date(2016, 2, 29)));
+		Assert.assertThat(period.containsKey("endDate"), is(false));
+
+		Assert.assertThat(precomputer.getLastPeriod(new ReportDefinition(), new Date()), nullValue());
+	}
+
+	/**
+	 * @see ReportPrecomputer#getStoredRequest(org.openmrs.module.reporting.report.definition.ReportDefinition, java.util.Map)
+	 */
+	@Test
+	public void getStoredRequest_shouldReturnLatestResultForPeriodEvaluatedAfterItClosed() {
+		final ReportDefinition definition = new ReportDefinition();
+
+		Map<String, Object> february = new HashMap<String, Object>();
+		february.put("startDate", TestUtils.date(2016, 2, 1));
+		february.put("endDate", TestUtils.date(2016, 2, 29));
+
+		Map<String, Object> january = new HashMap<String, Object>();
+		january.put("startDate", TestUtils.date(2016, 1, 1));
+		january.put("endDate", TestUtils.date(2016, 1, 31));
+
+		ReportRequest earlier = createRequest(definition, february, TestUtils.date(2016, 3, 1, 3, 0, 0));
+		ReportRequest later = createRequest(definition, february, TestUtils.date(2016, 3, 2, 3, 0, 0));
+		ReportRequest otherPeriod = createRequest(definition, january, TestUtils.date(2016, 3, 3, 3, 0, 0));
+
+		// Only requests made after the period closed are queried
+		Date closed = DateUtil.getEndOfDay(TestUtils.date(2016, 2, 29));
+		final ReportService reportService = mock(ReportService.class);
+		when(reportService.getReportRequests(any(ReportDefinition.class), eq(closed), (Date) isNull(), eq(ReportRequest.Status.COMPLETED)))
+				.thenReturn(Arrays.asList(earlier, later, otherPeriod));
+
+		ReportPrecomputer precomputer = new ReportPrecomputer() {
+			@Override
+			protected List<String> getPrecomputedReports() {
+				return Collections.singletonList(definition.getUuid());
+			}
+
+			@Override
+			protected ReportService getReportService() {
+				return reportService;
+			}
+		};
+
+		Assert.assertThat(precomputer.getStoredRequest(definition, february), is(later));
+
+		Map<String, Object> march = new HashMap<String, Object>();
+		march.put("startDate", TestUtils.date(2016, 3, 1));
+		march.put("endDate", TestUtils.date(2016, 3, 31));
+		Assert.assertThat(precomputer.getStoredRequest(definition, march), nullValue());
+	}
+
+	/**
+	 * Creates a completed request
+	 * @param definition the report definition
+	 * @param parameterValues the parameter values
+	 * @param completed the completion date
+	 * @return the request
+	 */
+	private static ReportRequest createRequest(ReportDefinition definition, Map<String, Object> parameterValues, Date completed) {
+		ReportRequest request = new ReportRequest();
+		request.setReportDefinition(new Mapped<ReportDefinition>(definition, parameterValues));
+		request.setStatus(ReportRequest.Status.COMPLETED);
+		request.setEvaluateCompleteDatetime(completed);
+		return request;
+	}
+
+	/**
+	 * @see ReportPrecomputer#getDelayUntil(java.util.Date, int)
+	 */
+	@Test
+	public void getDelayUntil_shouldReturnDelayUntilNextOccurrence() {
+		long hour = 60 * 60 * 1000;
+		Assert.assertThat(ReportPrecomputer.getDelayUntil(TestUtils.date(2016, 3, 1, 1, 0, 0), 2), is(hour));
+		Assert.assertThat(ReportPrecomputer.getDelayUntil(TestUtils.date(2016, 3, 1, 3, 0, 0), 2), is(23 * hour));
+		Assert.assertThat(ReportPrecomputer.getDelayUntil(TestUtils.date(2016, 3, 1, 2, 0, 0), 2), is(24 * hour));
+	}
+}
@@ -0,0 +1,131 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.reporting.cohort.definition.evaluator;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.module.kenyaemr.reporting.cohort.definition.DiffCareStabilityCohortDefinition;
+import org.openmrs.module.kenyaemr.reporting.cohort.definition.DiffCareStabilityCohortDefinition.Stability;
+import org.openmrs.module.kenyaemr.reporting.cohort.definition.DiffCareStableOver4MonthstcaUnder15CohortDefinition;
+import org.openmrs.module.kenyaemr.reporting.cohort.definition.DiffCareStableUnder4MonthstcaCohortDefinition;
+import org.openmrs.module.kenyaemr.reporting.cohort.definition.DiffCareStableUnder4MonthstcaOver15MaleCohortDefinition;
+import org.openmrs.module.kenyaemr.reporting.cohort.definition.DiffCareUndocumentedStabilityCohortDefinition;
+import org.openmrs.module.kenyaemr.reporting.cohort.definition.DiffCareUnstableFemales15PlusYearsCohortDefinition;
+import org.openmrs.module.kenyaemr.reporting.cohort.definition.DiffCarecurrentInCareOnARTCohortDefinition;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+import org.openmrs.module.reporting.evaluation.querybuilder.QueryBuilder;
+import org.openmrs.module.reporting.evaluation.service.EvaluationService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link DiffCareStabilityCohortDefinitionEvaluator}
+ */
+public class DiffCareStabilityCohortDefinitionEvaluatorTest {
+
+	private DiffCareStabilityCohortDefinitionEvaluator evaluator = new DiffCareStabilityCohortDefinitionEvaluator();
+
+	private EvaluationContext context = new EvaluationContext();
+
+	/**
+	 * Setup each test with rows like those of the classification query, i.e. patient id, gender, age, months to next
+	 * appointment, followup patient id, stability and person present
+	 */
+	@Before
+	public void setup() throws Exception {
+		List<Object[]> rows = new ArrayList<Object[]>();
+		rows.add(row(1, "M", 15, 3, 1, 1, 978)); // Stable, at the lower age and upper months bounds
+		rows.add(row(2, "M", 14, 4, 2, 1, 978)); // Stable, at the upper age and lower months bounds
+		rows.add(row(3, "F", 30, 2, 3, 1, 1066)); // Recorded as stable but not present
+		rows.add(row(4, "F", 15, 1, 4, 2, null)); // Unstable
+		rows.add(row(5, "M", 40, 3, 5, null, 978)); // Stability not recorded
+		rows.add(row(6, "F", 20, null, null, null, null)); // No followup on latest visit date
+		rows.add(row(7, "F", 15, 4, 7, 1, 978)); // Stable, but months to next appointment isn't under 4
+		rows.add(row(8, "m", null, 2, 8, 1, 978)); // Stable, but age isn't known
+
+		evaluator.evaluationService = mock(EvaluationService.class);
+		when(evaluator.evaluationService.evaluateToList(any(QueryBuilder.class), any(EvaluationContext.class))).thenReturn(rows);
+	}
+
+	/**
+	 * @see DiffCareStabilityCohortDefinitionEvaluator#evaluate(org.openmrs.module.reporting.cohort.definition.CohortDefinition, org.openmrs.module.reporting.evaluation.EvaluationContext)
+	 */
+	@Test
+	public void evaluate_shouldBucketPatientsByStabilityAtLatestFollowup() throws Exception {
+		Assert.assertThat(evaluate(new DiffCarecurrentInCareOnARTCohortDefinition()), containsInAnyOrder(1, 2, 3, 4, 5, 6, 7, 8));
+		Assert.assertThat(evaluate(new DiffCareStabilityCohortDefinition(Stability.STABLE)), containsInAnyOrder(1, 2, 7, 8));
+		Assert.assertThat(evaluate(new DiffCareStabilityCohortDefinition(Stability.UNSTABLE)), containsInAnyOrder(4));
+		Assert.assertThat(evaluate(new DiffCareUndocumentedStabilityCohortDefinition()), containsInAnyOrder(5));
+
+		// Classification is only queried once for the context
+		verify(evaluator.evaluationService, times(1)).evaluateToList(any(QueryBuilder.class), any(EvaluationContext.class));
+	}
+
+	/**
+	 * @see DiffCareStabilityCohortDefinitionEvaluator#evaluate(org.openmrs.module.reporting.cohort.definition.CohortDefinition, org.openmrs.module.reporting.evaluation.EvaluationContext)
+	 */
+	@Test
+	public void evaluate_shouldIncludeAgeAndAppointmentBoundaries() throws Exception {
+		Assert.assertThat(evaluate(new DiffCareStableUnder4MonthstcaCohortDefinition()), containsInAnyOrder(1, 8));
+		Assert.assertThat(evaluate(new DiffCareStableUnder4MonthstcaOver15MaleCohortDefinition()), containsInAnyOrder(1));
+		Assert.assertThat(evaluate(new DiffCareStableOver4MonthstcaUnder15CohortDefinition()), containsInAnyOrder(2));
+		Assert.assertThat(evaluate(new DiffCareUnstableFemales15PlusYearsCohortDefinition()), containsInAnyOrder(4));
+
+		DiffCareStabilityCohortDefinition noPatients = new DiffCareStabilityCohortDefinition(Stability.UNSTABLE);
+		noPatients.setMaxAge(14);
+		Assert.assertThat(evaluate(noPatients), is(empty()));
+	}
+
+	/**
+	 * @see DiffCareStabilityCohortDefinitionEvaluator.PatientStability#matches(DiffCareStabilityCohortDefinition)
+	 */
+	@Test
+	public void matches_shouldNotMatchMissingValuesAgainstBoundedRanges() {
+		DiffCareStabilityCohortDefinitionEvaluator.PatientStability patient = new DiffCareStabilityCohortDefinitionEvaluator.PatientStability(1, "M", null, null, Stability.STABLE);
+
+		Assert.assertThat(patient.matches(new DiffCareStabilityCohortDefinition(Stability.STABLE)), is(true));
+		Assert.assertThat(patient.matches(new DiffCareStabilityCohortDefinition(null)), is(true));
+		Assert.assertThat(patient.matches(new DiffCareStabilityCohortDefinition(Stability.UNSTABLE)), is(false));
+		Assert.assertThat(patient.matches(new DiffCareStableUnder4MonthstcaCohortDefinition()), is(false));
+		Assert.assertThat(patient.matches(new DiffCareStableOver4MonthstcaUnder15CohortDefinition()), is(false));
+	}
+
+	/**
+	 * Evaluates the given definition in the shared context
+	 * @param definition the cohort definition
+	 * @return the member ids
+	 */
+	private Set<Integer> evaluate(DiffCareStabilityCohortDefinition definition) throws Exception {
+		return evaluator.evaluate(definition, context).getMemberIds();
+	}
+
+	/**
+	 * Creates a row with numeric columns as longs, as returned by MySQL
+	 */
+	private static Object[] row(Integer patientId, String gender, Integer age, Integer tcaMonths, Integer followupPatientId, Integer stability, Integer present) {
+		return new Object[] { toLong(patientId), gender, toLong(age), toLong(tcaMonths), toLong(followupPatientId), toLong(stability), toLong(present) };
+	}
+
+	private static Long toLong(Integer value) {
+		return value != null ? value.longValue() : null;
+	}
+}
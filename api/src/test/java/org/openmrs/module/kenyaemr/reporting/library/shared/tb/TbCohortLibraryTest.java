@@ -9,6 +9,7 @@
  */
 package org.openmrs.module.kenyaemr.reporting.library.shared.tb;
 
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -23,6 +24,7 @@ import org.openmrs.module.kenyaemr.Dictionary;
 import org.openmrs.module.kenyaemr.metadata.CommonMetadata;
 import org.openmrs.module.kenyaemr.metadata.HivMetadata;
 import org.openmrs.module.kenyaemr.metadata.TbMetadata;
+import org.openmrs.module.kenyaemr.reporting.cohort.definition.TbCaseCohortDefinition.Category;
 import org.openmrs.module.metadatadeploy.MetadataUtils;
 import org.openmrs.module.reporting.cohort.EvaluatedCohort;
 import org.openmrs.module.reporting.cohort.definition.CohortDefinition;
@@ -32,7 +34,11 @@ import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.is;
 
 /**
  * Tests for {@link org.openmrs.module.kenyaemr.reporting.library.shared.tb.TbCohortLibrary}
@@ -567,4 +573,75 @@ public class TbCohortLibraryTest extends BaseModuleContextSensitiveTest {
 		EvaluatedCohort evaluated = Context.getService(CohortDefinitionService.class).evaluate(cd, context);
 		ReportingTestUtils.assertCohortEquals(Arrays.asList(6), evaluated);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @see TbCohortLibrary#tbCases(org.openmrs.module.kenyaemr.reporting.cohort.definition.TbCaseCohortDefinition.Category)
+	 */
+	@Test
+	public void tbCases_shouldMatchEquivalentCompositionCohorts() throws Exception {
+		Program tbProgram = MetadataUtils.existing(Program.class, TbMetadata._Program.TB);
+		Program hivProgram = MetadataUtils.existing(Program.class, HivMetadata._Program.HIV);
+		Concept site = Dictionary.getConcept(Dictionary.SITE_OF_TUBERCULOSIS_DISEASE);
+		Concept cultureResults = Dictionary.getConcept(Dictionary.RESULTS_TUBERCULOSIS_CULTURE);
+		Concept patientType = Dictionary.getConcept(Dictionary.TYPE_OF_TB_PATIENT);
+		Concept outcome = Dictionary.getConcept(Dictionary.TUBERCULOSIS_TREATMENT_OUTCOME);
+		Concept hivStatus = Dictionary.getConcept(Dictionary.HIV_STATUS);
+		Concept hivInfected = Dictionary.getConcept(Dictionary.HIV_INFECTED);
+
+		// Patient #2 is already in the HIV program in the standard dataset
+		TestUtils.enrollInProgram(TestUtils.getPatient(2), tbProgram, TestUtils.date(2012, 6, 10));
+		TestUtils.saveObs(TestUtils.getPatient(2), site, Dictionary.getConcept(Dictionary.PULMONARY_TB), TestUtils.date(2012, 6, 5));
+		TestUtils.saveObs(TestUtils.getPatient(2), cultureResults, Dictionary.getConcept(Dictionary.POSITIVE), TestUtils.date(2012, 6, 6));
+		TestUtils.saveObs(TestUtils.getPatient(2), hivInfected, Dictionary.getConcept(Dictionary.POSITIVE), TestUtils.date(2012, 6, 19));
+		TestUtils.saveObs(TestUtils.getPatient(2), Dictionary.getConcept(Dictionary.MEDICATION_ORDERS), Dictionary.getConcept(Dictionary.SULFAMETHOXAZOLE_TRIMETHOPRIM), TestUtils.date(2012, 6, 10));
+
+		// Patient #6 has a smear result on the last day of the period and an outcome before it
+		TestUtils.enrollInProgram(TestUtils.getPatient(6), hivProgram, TestUtils.date(2011, 5, 10));
+		TestUtils.saveObs(TestUtils.getPatient(6), site, Dictionary.getConcept(Dictionary.PULMONARY_TB), TestUtils.date(2012, 6, 1));
+		TestUtils.saveObs(TestUtils.getPatient(6), cultureResults, Dictionary.getConcept(Dictionary.NEGATIVE), TestUtils.date(2012, 6, 30, 15, 0, 0));
+		TestUtils.saveObs(TestUtils.getPatient(6), patientType, Dictionary.getConcept(Dictionary.RETREATMENT_AFTER_DEFAULT_TUBERCULOSIS), TestUtils.date(2012, 6, 15));
+		TestUtils.saveObs(TestUtils.getPatient(6), outcome, Dictionary.getConcept(Dictionary.DIED), TestUtils.date(2012, 5, 15));
+
+		// Patient #7 is enrolled in the TB program after the period
+		TestUtils.enrollInProgram(TestUtils.getPatient(7), tbProgram, TestUtils.date(2012, 7, 1));
+		TestUtils.saveObs(TestUtils.getPatient(7), site, Dictionary.getConcept(Dictionary.MYCROBACTERIUM_TUBERCULOSIS_EXTRAPULMONARY), TestUtils.date(2012, 6, 10));
+		TestUtils.saveObs(TestUtils.getPatient(7), patientType, Dictionary.getConcept(Dictionary.SMEAR_POSITIVE_NEW_TUBERCULOSIS_PATIENT), TestUtils.date(2012, 6, 10));
+		TestUtils.saveObs(TestUtils.getPatient(7), outcome, Dictionary.getConcept(Dictionary.TREATMENT_COMPLETE), TestUtils.date(2012, 6, 20));
+		TestUtils.saveObs(TestUtils.getPatient(7), hivStatus, Dictionary.getConcept(Dictionary.NEGATIVE), TestUtils.date(2012, 6, 11));
+
+		TestUtils.enrollInProgram(TestUtils.getPatient(8), tbProgram, TestUtils.date(2012, 6, 10));
+		TestUtils.saveObs(TestUtils.getPatient(8), cultureResults, Dictionary.getConcept(Dictionary.NOT_DONE), TestUtils.date(2012, 6, 3));
+		TestUtils.saveObs(TestUtils.getPatient(8), outcome, Dictionary.getConcept(Dictionary.DIED), TestUtils.date(2012, 6, 15));
+		TestUtils.saveObs(TestUtils.getPatient(8), hivStatus, Dictionary.getConcept(Dictionary.UNKNOWN), TestUtils.date(2012, 6, 12));
+
+		Map<Category, CohortDefinition> equivalents = new LinkedHashMap<Category, CohortDefinition>();
+		equivalents.put(Category.SCREENED, tbCohortLibrary.screenedForTb());
+		equivalents.put(Category.DIED, tbCohortLibrary.died());
+		equivalents.put(Category.COMPLETED_TREATMENT, tbCohortLibrary.completedTreatment());
+		equivalents.put(Category.RETREATMENT, tbCohortLibrary.tbRetreatments());
+		equivalents.put(Category.NEW_DETECTED, tbCohortLibrary.tbNewDetectedCases());
+		equivalents.put(Category.PULMONARY, tbCohortLibrary.pulmonaryTbPatients());
+		equivalents.put(Category.EXTRA_PULMONARY, tbCohortLibrary.extraPulmonaryTbPatients());
+		equivalents.put(Category.SMEAR_POSITIVE, tbCohortLibrary.smearPositivePatients());
+		equivalents.put(Category.SMEAR_NEGATIVE, tbCohortLibrary.smearNegativePatients());
+		equivalents.put(Category.SMEAR_NOT_DONE, tbCohortLibrary.pulmonaryTbSmearNotDone());
+		equivalents.put(Category.PULMONARY_SMEAR_POSITIVE, tbCohortLibrary.pulmonaryTbSmearPositive());
+		equivalents.put(Category.PULMONARY_SMEAR_NEGATIVE, tbCohortLibrary.pulmonaryTbSmearNegative());
+		equivalents.put(Category.IN_TB_PROGRAM_TESTED_FOR_HIV, tbCohortLibrary.testedForHivAndInTbProgram());
+		equivalents.put(Category.IN_TB_PROGRAM_TESTED_HIV_POSITIVE, tbCohortLibrary.testedHivPositiveAndInTbProgram());
+		equivalents.put(Category.IN_TB_AND_HIV_PROGRAMS_ON_CTX, tbCohortLibrary.inTbAndHivProgramsAndOnCtxProphylaxis());
+
+		context.addParameterValue("onOrAfter", TestUtils.date(2012, 6, 1));
+		context.addParameterValue("onOrBefore", TestUtils.date(2012, 6, 30));
+
+		CohortDefinitionService service = Context.getService(CohortDefinitionService.class);
+		for (Map.Entry<Category, CohortDefinition> entry : equivalents.entrySet()) {
+			EvaluatedCohort expected = service.evaluate(entry.getValue(), context);
+			EvaluatedCohort evaluated = service.evaluate(tbCohortLibrary.tbCases(entry.getKey()), context);
+			Assert.assertThat(entry.getKey().name(), evaluated.getMemberIds(), is(expected.getMemberIds()));
+		}
+
+		EvaluatedCohort evaluated = service.evaluate(tbCohortLibrary.tbCases(Category.PULMONARY_SMEAR_NEGATIVE), context);
+		ReportingTestUtils.assertCohortEquals(Arrays.asList(6), evaluated);
+	}
+}
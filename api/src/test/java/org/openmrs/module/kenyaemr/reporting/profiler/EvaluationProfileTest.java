@@ -0,0 +1,59 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.reporting.profiler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Tests for {@link EvaluationProfile}
+ */
+public class EvaluationProfileTest {
+
+	/**
+	 * @see EvaluationProfile#record(String, String, long, long, long, Integer, boolean)
+	 */
+	@Test
+	public void record_shouldAggregateEvaluationsAndCountCacheHits() {
+		EvaluationProfile profile = new EvaluationProfile("request-uuid", "Test report");
+		profile.record("Enrolled", "SqlCohortDefinition", 100, 100, 80, 20, false);
+		profile.record("Enrolled", "SqlCohortDefinition", 5, 5, 0, 20, true);
+		profile.record("Enrolled", "SqlCohortDefinition", 50, 40, 35, 30, false);
+
+		DefinitionProfile definition = profile.getDefinitions().get("Enrolled|SqlCohortDefinition");
+		Assert.assertThat(definition.getEvaluations(), is(3));
+		Assert.assertThat(definition.getCacheHits(), is(1));
+		Assert.assertThat(definition.getTotalTime(), is(155L));
+		Assert.assertThat(definition.getSelfTime(), is(145L));
+		Assert.assertThat(definition.getSqlTime(), is(115L));
+		Assert.assertThat(definition.getMaxTime(), is(100L));
+		Assert.assertThat(definition.getRows(), is(70L));
+	}
+
+	/**
+	 * @see EvaluationProfile#getSlowestDefinitions(int)
+	 */
+	@Test
+	public void getSlowestDefinitions_shouldOrderBySelfTime() {
+		EvaluationProfile profile = new EvaluationProfile("request-uuid", "Test report");
+		profile.record("Composition", "CompositionCohortDefinition", 300, 10, 0, 5, false);
+		profile.record("Enrolled", "SqlCohortDefinition", 200, 200, 190, 20, false);
+		profile.record("On ART", "SqlCohortDefinition", 90, 90, 85, 15, false);
+
+		List<DefinitionProfile> slowest = profile.getSlowestDefinitions(2);
+		Assert.assertThat(slowest.size(), is(2));
+		Assert.assertThat(slowest.get(0).getName(), is("Enrolled"));
+		Assert.assertThat(slowest.get(1).getName(), is("On ART"));
+	}
+}
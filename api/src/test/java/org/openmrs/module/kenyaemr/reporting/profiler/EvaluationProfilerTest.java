@@ -0,0 +1,121 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.reporting.profiler;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openmrs.module.reporting.cohort.definition.SqlCohortDefinition;
+import org.openmrs.module.reporting.evaluation.EvaluationContext;
+
+import java.io.File;
+
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Tests for {@link EvaluationProfiler}
+ */
+public class EvaluationProfilerTest {
+
+	@Rule
+	public TemporaryFolder directory = new TemporaryFolder();
+
+	@After
+	public void cleanup() {
+		EvaluationProfiler.stop();
+	}
+
+	/**
+	 * @see EvaluationProfiler#recordQuery(long)
+	 */
+	@Test
+	public void recordQuery_shouldRecordSqlTimeAgainstCurrentEvaluationOnly() {
+		SqlCohortDefinition outer = new SqlCohortDefinition();
+		outer.setName("Outer");
+		SqlCohortDefinition inner = new SqlCohortDefinition();
+		inner.setName("Inner");
+
+		EvaluationProfiler.start("request-uuid", "Test report");
+		EvaluationProfiler.enter();
+		EvaluationProfiler.recordQuery(30);
+		EvaluationProfiler.enter();
+		EvaluationProfiler.recordQuery(50);
+		EvaluationProfiler.exit(inner, null, 60);
+		EvaluationProfiler.exit(outer, null, 100);
+		EvaluationProfile profile = EvaluationProfiler.stop();
+
+		DefinitionProfile outerProfile = profile.getDefinitions().get("Outer|SqlCohortDefinition");
+		Assert.assertThat(outerProfile.getSqlTime(), is(30L));
+		Assert.assertThat(outerProfile.getSelfTime(), is(40L));
+		Assert.assertThat(profile.getDefinitions().get("Inner|SqlCohortDefinition").getSqlTime(), is(50L));
+	}
+
+	/**
+	 * @see EvaluationProfiler#profileCache(org.openmrs.module.reporting.evaluation.EvaluationContext)
+	 */
+	@Test
+	public void profileCache_shouldRecordCacheHitsAndKeepSharedCache() {
+		SqlCohortDefinition definition = new SqlCohortDefinition();
+		definition.setName("Enrolled");
+
+		EvaluationContext context = new EvaluationContext();
+		context.addToCache("cached", "value");
+		EvaluationContext child = context.shallowCopy();
+
+		EvaluationProfiler.start("request-uuid", "Test report");
+		EvaluationProfiler.profileCache(context);
+		EvaluationProfiler.profileCache(context);
+
+		EvaluationProfiler.enter();
+		Assert.assertThat(context.getFromCache("missing"), is((Object) null));
+		EvaluationProfiler.exit(definition, null, 10);
+
+		EvaluationProfiler.enter();
+		Assert.assertThat(context.getFromCache("cached"), is((Object) "value"));
+		EvaluationProfiler.exit(definition, null, 1);
+
+		// Values added through the profiled cache are still visible to contexts sharing the original
+		context.addToCache("added", "value");
+		Assert.assertThat(child.getFromCache("added"), is((Object) "value"));
+
+		DefinitionProfile profile = EvaluationProfiler.stop().getDefinitions().get("Enrolled|SqlCohortDefinition");
+		Assert.assertThat(profile.getEvaluations(), is(2));
+		Assert.assertThat(profile.getCacheHits(), is(1));
+	}
+
+	/**
+	 * @see EvaluationProfiler#purgeOldProfiles(java.io.File, int)
+	 */
+	@Test
+	public void purgeOldProfiles_shouldDeleteOldestProfilesOverLimit() throws Exception {
+		long now = System.currentTimeMillis();
+		for (int p = 1; p <= 5; ++p) {
+			File file = directory.newFile("request" + p + ".json");
+			file.setLastModified(now - (5 - p) * 60000); // request5 is the newest
+		}
+		File other = directory.newFile("readme.txt");
+		other.setLastModified(now - 3600000);
+
+		EvaluationProfiler.purgeOldProfiles(directory.getRoot(), 3);
+
+		Assert.assertThat(new File(directory.getRoot(), "request1.json").exists(), is(false));
+		Assert.assertThat(new File(directory.getRoot(), "request2.json").exists(), is(false));
+		Assert.assertThat(new File(directory.getRoot(), "request3.json").exists(), is(true));
+		Assert.assertThat(new File(directory.getRoot(), "request5.json").exists(), is(true));
+		Assert.assertThat(other.exists(), is(true));
+
+		// Nothing more to delete
+		EvaluationProfiler.purgeOldProfiles(directory.getRoot(), 3);
+
+		Assert.assertThat(new File(directory.getRoot(), "request3.json").exists(), is(true));
+	}
+}
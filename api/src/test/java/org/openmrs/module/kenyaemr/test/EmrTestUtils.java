@@ -23,12 +23,15 @@ import org.openmrs.api.OrderContext;
 import org.openmrs.api.context.Context;
 import org.openmrs.calculation.patient.PatientCalculationContext;
 import org.openmrs.calculation.patient.PatientCalculationService;
+import org.openmrs.module.kenyaemr.api.KenyaEmrService;
 import org.openmrs.module.kenyaemr.regimen.RegimenOrder;
 
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -151,6 +154,29 @@ public class EmrTestUtils {
 		}
 	}
 
+	/**
+	 * Creates the tables which the module's liquibase changesets create, as these aren't part of the test database. DDL
+	 * commits the current transaction so this should be invoked before a test makes any changes.
+	 */
+	public static void createModuleTables() {
+		KenyaEmrService service = Context.getService(KenyaEmrService.class);
+		Map<String, Object> noParams = new HashMap<String, Object>();
+
+		service.executeSqlUpdate("create table if not exists kenyaemr_encounter_event ("
+				+ " id int auto_increment primary key, idempotency_key varchar(255) not null unique, handler varchar(255) not null,"
+				+ " encounter_id int not null, status varchar(20) not null, attempts int default 0 not null, next_attempt datetime not null,"
+				+ " last_error varchar(1024), date_created datetime not null, date_processed datetime)", noParams);
+
+		service.executeSqlUpdate("create table if not exists kenyaemr_identifier_reservation ("
+				+ " id int auto_increment primary key, identifier_type char(38) not null, identifier varchar(50) not null,"
+				+ " status varchar(20) not null, date_reserved datetime not null, date_issued datetime, comment varchar(255),"
+				+ " unique (identifier_type, identifier))", noParams);
+
+		service.executeSqlUpdate("create table if not exists kenyaemr_attendance_state ("
+				+ " patient_id int primary key, last_hiv_visit datetime, next_appointment datetime, last_return_visit datetime,"
+				+ " ltfu_date datetime, discontinuation_reason int, date_updated datetime not null)", noParams);
+	}
+
 	/**
 	 * Creates a calculation context
 	 * @param now the now date
@@ -0,0 +1,149 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.util;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Encounter;
+import org.openmrs.EncounterType;
+import org.openmrs.Form;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyacore.test.TestUtils;
+import org.openmrs.module.kenyaemr.Dictionary;
+import org.openmrs.module.kenyaemr.metadata.CommonMetadata;
+import org.openmrs.module.kenyaemr.metadata.HivMetadata;
+import org.openmrs.module.metadatadeploy.MetadataUtils;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Tests for {@link EncounterBasedRegimenUtils}
+ */
+public class EncounterBasedRegimenUtilsTest extends BaseModuleContextSensitiveTest {
+
+	@Autowired
+	private CommonMetadata commonMetadata;
+
+	@Autowired
+	private HivMetadata hivMetadata;
+
+	private List<Integer> cohort = Arrays.asList(2, 6, 7, 8);
+
+	private Encounter arv6a, arv6b, arv7, tb7, tb8a, tb8b;
+
+	/**
+	 * Setup each test
+	 */
+	@Before
+	public void setup() throws Exception {
+		executeDataSet("dataset/test-concepts.xml");
+
+		commonMetadata.install();
+		hivMetadata.install();
+
+		// Patient #2 has no regimen encounters
+		arv6a = saveRegimenEncounter(TestUtils.getPatient(6), Dictionary.ARV_TREATMENT_PLAN_EVENT_CONCEPT, TestUtils.date(2012, 1, 1));
+		arv6b = saveRegimenEncounter(TestUtils.getPatient(6), Dictionary.ARV_TREATMENT_PLAN_EVENT_CONCEPT, TestUtils.date(2013, 1, 1));
+
+		// Patient #7 has one of each, and the TB one is more recent
+		arv7 = saveRegimenEncounter(TestUtils.getPatient(7), Dictionary.ARV_TREATMENT_PLAN_EVENT_CONCEPT, TestUtils.date(2012, 6, 1));
+		tb7 = saveRegimenEncounter(TestUtils.getPatient(7), Dictionary.TB_TREATMENT_PLAN_CONCEPT, TestUtils.date(2013, 6, 1));
+
+		// Patient #8 only has TB regimens, saved out of date order
+		tb8b = saveRegimenEncounter(TestUtils.getPatient(8), Dictionary.TB_TREATMENT_PLAN_CONCEPT, TestUtils.date(2014, 1, 1));
+		tb8a = saveRegimenEncounter(TestUtils.getPatient(8), Dictionary.TB_TREATMENT_PLAN_CONCEPT, TestUtils.date(2012, 3, 1));
+
+		Context.flushSession();
+	}
+
+	/**
+	 * @see EncounterBasedRegimenUtils#getFirstEncountersForCategory(java.util.Collection, String)
+	 * @see EncounterBasedRegimenUtils#getLastEncountersForCategory(java.util.Collection, String)
+	 */
+	@Test
+	public void getFirstAndLastEncountersForCategory_shouldSelectEncountersOfCategory() {
+		Map<Integer, Encounter> firstArv = EncounterBasedRegimenUtils.getFirstEncountersForCategory(cohort, "ARV");
+		Map<Integer, Encounter> lastArv = EncounterBasedRegimenUtils.getLastEncountersForCategory(cohort, "ARV");
+		Map<Integer, Encounter> firstTb = EncounterBasedRegimenUtils.getFirstEncountersForCategory(cohort, "TB");
+		Map<Integer, Encounter> lastTb = EncounterBasedRegimenUtils.getLastEncountersForCategory(cohort, "TB");
+
+		Assert.assertThat(firstArv.get(6), is(arv6a));
+		Assert.assertThat(lastArv.get(6), is(arv6b));
+		Assert.assertThat(firstArv.get(7), is(arv7));
+		Assert.assertThat(lastArv.get(7), is(arv7));
+		Assert.assertThat(firstTb.get(7), is(tb7));
+		Assert.assertThat(firstTb.get(8), is(tb8a));
+		Assert.assertThat(lastTb.get(8), is(tb8b));
+
+		Assert.assertThat(firstArv.containsKey(2), is(false));
+		Assert.assertThat(lastTb.containsKey(2), is(false));
+		Assert.assertThat(lastArv.containsKey(8), is(false));
+		Assert.assertThat(lastTb.containsKey(6), is(false));
+	}
+
+	/**
+	 * @see EncounterBasedRegimenUtils#getFirstOrLastEncountersForCategory(java.util.Collection, String, boolean, int)
+	 */
+	@Test
+	public void getFirstOrLastEncountersForCategory_shouldMatchPerPatientLookupsAcrossBatches() {
+		for (String category : new String[] { "ARV", "TB" }) {
+			for (boolean last : new boolean[] { false, true }) {
+				// Batches smaller than the cohort, so that patients and encounters are split across queries
+				for (int batchSize : new int[] { 1, 3, EncounterBasedRegimenUtils.BATCH_SIZE }) {
+					Map<Integer, Encounter> encounters = EncounterBasedRegimenUtils.getFirstOrLastEncountersForCategory(cohort, category, last, batchSize);
+
+					for (Integer patientId : cohort) {
+						Patient patient = TestUtils.getPatient(patientId);
+						Encounter expected = last
+								? EncounterBasedRegimenUtils.getLastEncounterForCategory(patient, category)
+								: EncounterBasedRegimenUtils.getFirstEncounterForCategory(patient, category);
+
+						String message = (last ? "Last " : "First ") + category + " encounter of patient #" + patientId + " with batch size " + batchSize;
+						if (expected == null) {
+							Assert.assertThat(message, encounters.get(patientId), is(nullValue()));
+						}
+						else {
+							Assert.assertThat(message, encounters.get(patientId).getEncounterId(), is(expected.getEncounterId()));
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Saves a regimen editor encounter with a treatment plan obs
+	 * @param patient the patient
+	 * @param treatmentPlanConcept the treatment plan concept which identifies the regimen category
+	 * @param date the encounter date
+	 * @return the encounter
+	 */
+	private Encounter saveRegimenEncounter(Patient patient, String treatmentPlanConcept, Date date) {
+		EncounterType regimenEditor = MetadataUtils.existing(EncounterType.class, CommonMetadata._EncounterType.DRUG_REGIMEN_EDITOR);
+		Form regimenForm = MetadataUtils.existing(Form.class, CommonMetadata._Form.DRUG_REGIMEN_EDITOR);
+
+		Obs obs = new Obs();
+		obs.setConcept(Dictionary.getConcept(treatmentPlanConcept));
+		obs.setObsDatetime(date);
+		obs.setValueCoded(Dictionary.getConcept(Dictionary.START_DRUGS));
+		return TestUtils.saveEncounter(patient, regimenEditor, regimenForm, date, obs);
+	}
+}
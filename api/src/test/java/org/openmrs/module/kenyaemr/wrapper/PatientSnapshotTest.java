@@ -0,0 +1,77 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr.wrapper;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.Patient;
+import org.openmrs.module.kenyacore.test.TestUtils;
+import org.openmrs.module.kenyaemr.Dictionary;
+import org.openmrs.module.kenyaemr.calculation.EmrCalculationUtils;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+/**
+ * Tests for {@link PatientSnapshot}
+ */
+public class PatientSnapshotTest extends BaseModuleContextSensitiveTest {
+
+	private Concept cd4;
+
+	@Before
+	public void setup() throws Exception {
+		executeDataSet("dataset/test-concepts.xml");
+
+		cd4 = Dictionary.getConcept(Dictionary.CD4_COUNT);
+
+		Patient patient = TestUtils.getPatient(6);
+		TestUtils.saveObs(patient, cd4, 300.0, TestUtils.date(2012, 1, 1));
+		TestUtils.saveObs(patient, cd4, 250.0, TestUtils.date(2012, 6, 1));
+	}
+
+	@After
+	public void cleanup() {
+		PatientSnapshot.endScope();
+	}
+
+	/**
+	 * @see PatientSnapshot#forPatient(org.openmrs.Patient)
+	 */
+	@Test
+	public void forPatient_shouldShareSnapshotsOnlyWithinScope() {
+		Patient patient = TestUtils.getPatient(6);
+
+		Assert.assertThat(PatientSnapshot.forPatient(patient), not(sameInstance(PatientSnapshot.forPatient(patient))));
+
+		PatientSnapshot.beginScope();
+
+		Assert.assertThat(PatientSnapshot.forPatient(patient), sameInstance(PatientSnapshot.forPatient(patient)));
+	}
+
+	/**
+	 * @see PatientSnapshot#firstObs(org.openmrs.Concept)
+	 * @see PatientSnapshot#lastObs(org.openmrs.Concept)
+	 * @see PatientSnapshot#allObs(org.openmrs.Concept)
+	 */
+	@Test
+	public void obs_shouldReturnObsInCalculationResultForm() {
+		PatientSnapshot snapshot = PatientSnapshot.forPatient(TestUtils.getPatient(6));
+
+		Assert.assertThat(EmrCalculationUtils.numericObsResultForPatient(snapshot.firstObs(cd4), 6), is(300.0));
+		Assert.assertThat(EmrCalculationUtils.numericObsResultForPatient(snapshot.lastObs(cd4), 6), is(250.0));
+		Assert.assertThat(snapshot.getObs(cd4).size(), is(2));
+	}
+}
@@ -13,19 +13,43 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.api.context.Context;
 
-import java.util.Date;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.openmrs.web.WebConstants.GP_ALLOWED_LOGIN_ATTEMPTS_PER_IP;
 
 /**
- * Manages IP-level security
+ * Manages IP-level security. Failed accesses are tracked per IP address in a concurrent map, with updates to the same
+ * address serialized on one of {@link #LOCK_STRIPES} locks so that attempts from different addresses never contend.
+ * Entries which haven't been used for {@link #ENTRY_EXPIRY_TIME} are expired and at most {@link #MAX_TRACKED_IPS}
+ * addresses are tracked. When that many are tracked, the least recently used address is evicted to make room for a new
+ * one, so an attack from many addresses can't stop new addresses from being locked out.
  */
 public class IPAccessSecurity {
 
 	protected static final Log log = LogFactory.getLog(IPAccessSecurity.class);
 
+	public static final int LOCK_STRIPES = 64;
+
+	public static final int MAX_TRACKED_IPS = 10000;
+
+	public static final long ENTRY_EXPIRY_TIME = 60 * 60 * 1000; // 1 hour
+
+	public static final long PURGE_INTERVAL = 60 * 1000; // 1 minute
+
+	public static final long MAX_ALLOWED_CACHE_TIME = 60 * 1000; // 1 minute
+
+	/**
+	 * Maximum number of recently used entries which are requeued rather than evicted while making room
+	 */
+	private static final int MAX_EVICTION_REQUEUES = 16;
+
 	/**
 	 * Exception class for illegal access from a locked out IP
 	 */
@@ -36,37 +60,102 @@ public class IPAccessSecurity {
 	}
 
 	/**
-	 * The mapping from user's IP address to the number of failed access attempts
+	 * Access state of an IP address. Fields are only modified while holding the address's stripe lock.
 	 */
-	private static Map<String, Integer> failedAccessesByIP = new HashMap<String, Integer>();
+	private static class IPState {
+		final String ipAddress;
+		volatile int failedAccesses;
+		volatile long lockoutTime;
+		volatile long lastAccessTime;
+		volatile long queuedAccessTime;
+		volatile boolean removed;
+
+		IPState(String ipAddress, long now) {
+			this.ipAddress = ipAddress;
+			this.lastAccessTime = now;
+			this.queuedAccessTime = now;
+		}
+	}
+
+	/**
+	 * The mapping from user's IP address to its access state
+	 */
+	private static final Map<String, IPState> stateByIP = new ConcurrentHashMap<String, IPState>();
 
 	/**
-	 * The mapping from user's IP address to the time that they were locked out
+	 * The tracked states in the order they are to be considered for eviction. States removed from the map are dropped
+	 * from this queue when they reach its head or when it is purged.
 	 */
-	private static Map<String, Date> lockoutTimeByIP = new HashMap<String, Date>();
+	private static final Queue<IPState> evictionQueue = new ConcurrentLinkedQueue<IPState>();
+
+	private static final Object[] locks = new Object[LOCK_STRIPES];
+
+	static {
+		for (int l = 0; l < LOCK_STRIPES; ++l) {
+			locks[l] = new Object();
+		}
+	}
+
+	private static final AtomicLong nextPurgeTime = new AtomicLong(0);
+
+	private static final AtomicLong totalFailedAccesses = new AtomicLong(0);
+
+	private static final AtomicLong currentMinute = new AtomicLong(0);
+
+	private static final AtomicInteger failedAccessesThisMinute = new AtomicInteger(0);
+
+	private static volatile int failedAccessesLastMinute = 0;
+
+	private static volatile int maxAllowedFailedAccesses = 0;
+
+	private static volatile long maxAllowedFetchTime = 0;
+
+	/**
+	 * Registers a failed access attempt
+	 * @param ipAddress the IP address
+	 */
+	public static void registerFailedAccess(String ipAddress) {
+		registerFailedAccess(ipAddress, System.currentTimeMillis());
+	}
 
 	/**
 	 * Registers a failed access attempt
 	 * @param ipAddress the IP address
+	 * @param now the current time
 	 */
-	public synchronized static void registerFailedAccess(String ipAddress) {
-		int attempts = getFailedAccessesByIP(ipAddress) + 1;
-		failedAccessesByIP.put(ipAddress, attempts);
+	protected static void registerFailedAccess(String ipAddress, long now) {
+		countFailedAccess(now);
+		purgeIfDue(now);
 
 		final int maxAllowed = getMaxAllowedFailedAccesses();
 
-		if (attempts > maxAllowed) {
+		makeRoomFor(ipAddress, now);
 
-			// Has lockout time expired?
-			Date lockedOutTime = lockoutTimeByIP.get(ipAddress);
-			if (lockedOutTime != null && System.currentTimeMillis() - lockedOutTime.getTime() > EmrWebConstants.FAILED_LOGIN_LOCKOUT_TIME) {
+		synchronized (lockFor(ipAddress)) {
+			IPState state = track(ipAddress, now);
 
-				// End lock out, but register a failed attempt
-				endLockOut(ipAddress);
-				failedAccessesByIP.put(ipAddress, 1);
+			// Forget failures of an entry which expired but hasn't been purged yet
+			if (now - state.lastAccessTime > ENTRY_EXPIRY_TIME && !isLockedOut(state, now)) {
+				state.failedAccesses = 0;
+				state.lockoutTime = 0;
 			}
-			else {
-				lockOut(ipAddress);
+
+			state.lastAccessTime = now;
+			int attempts = state.failedAccesses + 1;
+			state.failedAccesses = attempts;
+
+			if (attempts > maxAllowed) {
+
+				// Has lockout time expired?
+				if (state.lockoutTime > 0 && now - state.lockoutTime > EmrWebConstants.FAILED_LOGIN_LOCKOUT_TIME) {
+
+					// End lock out, but register a failed attempt
+					state.lockoutTime = 0;
+					state.failedAccesses = 1;
+				}
+				else {
+					state.lockoutTime = now;
+				}
 			}
 		}
 	}
@@ -76,37 +165,66 @@ public class IPAccessSecurity {
 	 * @param ipAddress the IP address
 	 * @throws IPAccessSecurity.AccessFromLockedOutIPException if account is currently locked out
 	 */
-	public synchronized static void registerSuccessfulAccess(String ipAddress) throws AccessFromLockedOutIPException {
-		if (isLockedOut(ipAddress)) {
-			throw new AccessFromLockedOutIPException();
-		}
+	public static void registerSuccessfulAccess(String ipAddress) throws AccessFromLockedOutIPException {
+		synchronized (lockFor(ipAddress)) {
+			if (isLockedOut(ipAddress)) {
+				throw new AccessFromLockedOutIPException();
+			}
 
-		endLockOut(ipAddress);
+			endLockOut(ipAddress);
+		}
 	}
 
 	/**
 	 * Locks out an IP address from now
 	 * @param ipAddress the IP address
 	 */
-	public synchronized static void lockOut(String ipAddress) {
-		lockoutTimeByIP.put(ipAddress, new Date());
+	public static void lockOut(String ipAddress) {
+		lockOut(ipAddress, System.currentTimeMillis());
+	}
+
+	/**
+	 * Locks out an IP address
+	 * @param ipAddress the IP address
+	 * @param now the current time
+	 */
+	protected static void lockOut(String ipAddress, long now) {
+		makeRoomFor(ipAddress, now);
+
+		synchronized (lockFor(ipAddress)) {
+			IPState state = track(ipAddress, now);
+			state.lockoutTime = now;
+			state.lastAccessTime = now;
+		}
 	}
 
 	/**
 	 * Ends the locked out period for an IP address
 	 * @param ipAddress the IP address
 	 */
-	public synchronized static void endLockOut(String ipAddress) {
-		lockoutTimeByIP.remove(ipAddress);
-		failedAccessesByIP.remove(ipAddress);
+	public static void endLockOut(String ipAddress) {
+		synchronized (lockFor(ipAddress)) {
+			IPState state = stateByIP.get(ipAddress);
+			if (state != null) {
+				untrack(state);
+			}
+		}
 	}
 
 	/**
 	 * Clears all lock outs for all IPs
 	 */
-	public synchronized static void reset() {
-		failedAccessesByIP.clear();
-		lockoutTimeByIP.clear();
+	public static void reset() {
+		for (IPState state : evictionQueue) {
+			state.removed = true;
+		}
+		evictionQueue.clear();
+		stateByIP.clear();
+		nextPurgeTime.set(0);
+		totalFailedAccesses.set(0);
+		failedAccessesThisMinute.set(0);
+		failedAccessesLastMinute = 0;
+		maxAllowedFetchTime = 0;
 	}
 
 	/**
@@ -115,25 +233,216 @@ public class IPAccessSecurity {
 	 * @return true if IP is locked out
 	 */
 	public static boolean isLockedOut(String ipAddress) {
-		Date lockedOutTime = lockoutTimeByIP.get(ipAddress);
-		return (lockedOutTime != null && (System.currentTimeMillis() - lockedOutTime.getTime()) < EmrWebConstants.FAILED_LOGIN_LOCKOUT_TIME);
+		return isLockedOut(ipAddress, System.currentTimeMillis());
 	}
 
 	/**
-	 * Gets number of failed attempts by IP address
+	 * Checks if an IP address is locked out
 	 * @param ipAddress the IP address
-	 * @return the number of failed attempts
+	 * @param now the current time
+	 * @return true if IP is locked out
 	 */
-	private static int getFailedAccessesByIP(String ipAddress) {
-		Integer attempts = failedAccessesByIP.get(ipAddress);
-		return (attempts == null) ? 0 : attempts;
+	protected static boolean isLockedOut(String ipAddress, long now) {
+		IPState state = stateByIP.get(ipAddress);
+		return state != null && isLockedOut(state, now);
 	}
 
 	/**
-	 * Gets the maximum allowed number of failed accesses by an IP before lockout
+	 * Gets information about tracked IP addresses and failed accesses
+	 * @return the information
+	 */
+	public static Map<String, Object> getAllInformation() {
+		long now = System.currentTimeMillis();
+		countFailedAccesses(now, 0);
+
+		int lockedOut = 0;
+		for (IPState state : stateByIP.values()) {
+			if (isLockedOut(state, now)) {
+				lockedOut++;
+			}
+		}
+
+		Map<String, Object> info = new LinkedHashMap<String, Object>();
+		info.put("trackedIPs", stateByIP.size());
+		info.put("lockedOutIPs", lockedOut);
+		info.put("failedAccessesLastMinute", failedAccessesLastMinute);
+		info.put("failedAccessesTotal", totalFailedAccesses.get());
+		return info;
+	}
+
+	/**
+	 * Checks whether an IP address state is currently locked out
+	 * @param state the state
+	 * @param now the current time
+	 * @return true if locked out
+	 */
+	private static boolean isLockedOut(IPState state, long now) {
+		long lockoutTime = state.lockoutTime;
+		return lockoutTime > 0 && (now - lockoutTime) < EmrWebConstants.FAILED_LOGIN_LOCKOUT_TIME;
+	}
+
+	/**
+	 * Gets the lock which serializes updates to the state of an IP address
+	 * @param ipAddress the IP address
+	 * @return the lock
+	 */
+	private static Object lockFor(String ipAddress) {
+		return locks[(ipAddress.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+	}
+
+	/**
+	 * Gets the state of an IP address, tracking it if it isn't already. Must be called holding the address's stripe lock.
+	 * @param ipAddress the IP address
+	 * @param now the current time
+	 * @return the state
+	 */
+	private static IPState track(String ipAddress, long now) {
+		IPState state = stateByIP.get(ipAddress);
+		if (state == null) {
+			state = new IPState(ipAddress, now);
+			stateByIP.put(ipAddress, state);
+			evictionQueue.add(state);
+		}
+		return state;
+	}
+
+	/**
+	 * Stops tracking an IP address. Must be called holding the address's stripe lock.
+	 * @param state the state of the IP address
+	 */
+	private static void untrack(IPState state) {
+		state.removed = true;
+		stateByIP.remove(state.ipAddress);
+	}
+
+	/**
+	 * Counts a failed access towards the failure rate
+	 * @param now the current time
+	 */
+	private static void countFailedAccess(long now) {
+		totalFailedAccesses.incrementAndGet();
+		countFailedAccesses(now, 1);
+	}
+
+	/**
+	 * Adds to the count of failed accesses in the current minute, rolling the count over when a new minute starts
+	 * @param now the current time
+	 * @param count the number of failed accesses to add
+	 */
+	private static void countFailedAccesses(long now, int count) {
+		long minute = now / 60000;
+		long previous = currentMinute.get();
+
+		if (minute != previous && currentMinute.compareAndSet(previous, minute)) {
+			int lastCount = failedAccessesThisMinute.getAndSet(0);
+			failedAccessesLastMinute = (minute == previous + 1) ? lastCount : 0;
+		}
+
+		if (count > 0) {
+			failedAccessesThisMinute.addAndGet(count);
+		}
+	}
+
+	/**
+	 * Removes expired entries if a purge is due. Only one thread purges at a time.
+	 * @param now the current time
+	 */
+	private static void purgeIfDue(long now) {
+		long due = nextPurgeTime.get();
+		if (now >= due && nextPurgeTime.compareAndSet(due, now + PURGE_INTERVAL)) {
+			purge(now);
+		}
+	}
+
+	/**
+	 * Makes room for a new IP address if the maximum number of addresses are tracked, by evicting the least recently
+	 * used entries. Must be called without holding any stripe lock, as evictions take the locks of other addresses.
+	 * @param ipAddress the IP address
+	 * @param now the current time
+	 */
+	private static void makeRoomFor(String ipAddress, long now) {
+		while (stateByIP.size() >= MAX_TRACKED_IPS && !stateByIP.containsKey(ipAddress)) {
+			if (!evictLeastRecentlyUsed(now)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Evicts the entry at the head of the eviction queue. Entries which have been used since they were queued are
+	 * given a second chance by requeueing them, up to {@link #MAX_EVICTION_REQUEUES} times, so that the evicted entry
+	 * is the least recently used or close to it.
+	 * @param now the current time
+	 * @return true if an entry was evicted
+	 */
+	private static boolean evictLeastRecentlyUsed(long now) {
+		int requeues = 0;
+		IPState state;
+		while ((state = evictionQueue.poll()) != null) {
+			synchronized (lockFor(state.ipAddress)) {
+				if (state.removed) {
+					continue;
+				}
+
+				boolean usedSinceQueued = state.lastAccessTime > state.queuedAccessTime;
+				boolean expired = now - state.lastAccessTime > ENTRY_EXPIRY_TIME && !isLockedOut(state, now);
+
+				if (usedSinceQueued && !expired && requeues < MAX_EVICTION_REQUEUES) {
+					state.queuedAccessTime = state.lastAccessTime;
+					evictionQueue.add(state);
+					requeues++;
+					continue;
+				}
+
+				untrack(state);
+			}
+
+			log.debug("Evicted IP access entry for " + state.ipAddress + " to make room");
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Removes entries which have expired, and drops removed entries from the eviction queue
+	 * @param now the current time
+	 */
+	private static void purge(long now) {
+		int removed = 0;
+		for (Iterator<IPState> states = evictionQueue.iterator(); states.hasNext(); ) {
+			IPState state = states.next();
+
+			if (!state.removed && !isLockedOut(state, now) && now - state.lastAccessTime > ENTRY_EXPIRY_TIME) {
+				synchronized (lockFor(state.ipAddress)) {
+					// Re-check as the entry may have been used since
+					if (!state.removed && !isLockedOut(state, now) && now - state.lastAccessTime > ENTRY_EXPIRY_TIME) {
+						untrack(state);
+						removed++;
+					}
+				}
+			}
+
+			if (state.removed) {
+				states.remove();
+			}
+		}
+
+		if (removed > 0) {
+			log.debug("Removed " + removed + " IP access entries");
+		}
+	}
+
+	/**
+	 * Gets the maximum allowed number of failed accesses by an IP before lockout. The global property is read at most
+	 * once every {@link #MAX_ALLOWED_CACHE_TIME}.
 	 * @return the number of accesses
 	 */
 	private static int getMaxAllowedFailedAccesses() {
+		long now = System.currentTimeMillis();
+		if (now - maxAllowedFetchTime < MAX_ALLOWED_CACHE_TIME) {
+			return maxAllowedFailedAccesses;
+		}
+
 		// look up the allowed # of attempts per IP
 		Integer allowedLockoutAttempts = 100;
 
@@ -145,6 +454,8 @@ public class IPAccessSecurity {
 			log.error("Unable to format '" + allowedLockoutAttemptsGP + "' from global property " + GP_ALLOWED_LOGIN_ATTEMPTS_PER_IP + " as an integer");
 		}
 
+		maxAllowedFailedAccesses = allowedLockoutAttempts;
+		maxAllowedFetchTime = now;
 		return allowedLockoutAttempts;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,60 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr;
+
+import org.openmrs.module.kenyaemr.wrapper.PatientSnapshot;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.regex.Pattern;
+
+/**
+ * Interceptor which shares patient snapshots between all the fragments of a page, e.g. the panels of the patient
+ * chart. Only GET requests for the view patient pages of each app, which display the patient chart and summaries, are
+ * given a scope. Loading a snapshot isn't worthwhile for other pages, and requests which modify patient data never
+ * read a snapshot loaded before the modification.
+ */
+public class PatientSnapshotInterceptor extends HandlerInterceptorAdapter {
+
+	/**
+	 * Matches the view patient pages, e.g. /kenyaemr/chart/chartViewPatient.page
+	 */
+	protected static final Pattern PATIENT_PAGE_PATTERN = Pattern.compile("^/kenyaemr/\\w+/\\w+ViewPatient\\.page$");
+
+	/**
+	 * @see HandlerInterceptorAdapter#preHandle(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse, Object)
+	 */
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+		if ("GET".equalsIgnoreCase(request.getMethod()) && isPatientPage(request)) {
+			PatientSnapshot.beginScope();
+		}
+		return true;
+	}
+
+	/**
+	 * @see HandlerInterceptorAdapter#afterCompletion(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse, Object, Exception)
+	 */
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) throws Exception {
+		PatientSnapshot.endScope();
+	}
+
+	/**
+	 * Gets whether a request is for a view patient page
+	 * @param request the request
+	 * @return true if request is for a view patient page
+	 */
+	protected boolean isPatientPage(HttpServletRequest request) {
+		String path = request.getRequestURI().substring(request.getContextPath().length());
+		return PATIENT_PAGE_PATTERN.matcher(path).matches();
+	}
+}
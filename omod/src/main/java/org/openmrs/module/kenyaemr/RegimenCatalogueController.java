@@ -0,0 +1,53 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyacore.CoreContext;
+import org.openmrs.module.kenyaemr.regimen.RegimenCatalogue;
+import org.openmrs.module.kenyaemr.regimen.RegimenManager;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Provides the JSON regimen catalogue used by the prescription UI. The catalogue only changes when the regimen
+ * manager is refreshed, so responses carry an ETag and conditional requests are answered with 304 Not Modified.
+ */
+@Controller
+public class RegimenCatalogueController {
+
+	@RequestMapping(value = "/kenyaemr/regimenCatalogue.form", method = RequestMethod.GET)
+	public void get(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		if (!Context.isAuthenticated()) {
+			response.sendError(401, "authentication required");
+			return;
+		}
+
+		RegimenCatalogue catalogue = CoreContext.getInstance().getManager(RegimenManager.class).getCatalogue();
+		String etag = catalogue.getETag();
+
+		response.setHeader("ETag", etag);
+		response.setHeader("Cache-Control", "private, no-cache");
+
+		if (etag.equals(request.getHeader("If-None-Match"))) {
+			response.setStatus(304);
+			return;
+		}
+
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.getWriter().write(catalogue.getJson());
+	}
+}
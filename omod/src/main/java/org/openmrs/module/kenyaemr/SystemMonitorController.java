@@ -11,6 +11,15 @@ package org.openmrs.module.kenyaemr;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.kenyaemr.attendance.AttendanceTracker;
+import org.openmrs.module.kenyaemr.chore.ChoreMonitor;
+import org.openmrs.module.kenyaemr.event.EncounterEventQueue;
+import org.openmrs.module.kenyaemr.identifier.IdentifierPool;
+import org.openmrs.module.kenyaemr.reporting.ReportExecutor;
+import org.openmrs.module.kenyaemr.reporting.ReportPrecomputer;
+import org.openmrs.module.kenyaemr.metrics.PrometheusWriter;
+import org.openmrs.module.kenyaemr.metrics.ServerMetrics;
 import org.openmrs.module.kenyaemr.util.ServerInformation;
 import org.openmrs.ui.framework.SimpleObject;
 import org.openmrs.util.OpenmrsUtil;
@@ -21,9 +30,10 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.concurrent.Callable;
 
 /**
- * Provides JSON formatted system monitoring information
+ * Provides JSON formatted system monitoring information, and metrics in the Prometheus text format
  */
 @Controller
 public class SystemMonitorController {
@@ -48,16 +58,91 @@ public class SystemMonitorController {
 		response.getWriter().write(output.toJson());
 	}
 
+	@RequestMapping(value = "/sysmon/metrics.form", method = RequestMethod.GET)
+	public void getMetrics(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		if (!checkAccess(request)) {
+			log.warn("Rejecting metrics request from " + request.getRemoteAddr() + " (server address is " + request.getLocalAddr() + ")");
+			response.sendError(403, "access denied");
+			return;
+		}
+
+		response.setContentType(PrometheusWriter.CONTENT_TYPE);
+		response.getWriter().write(ServerMetrics.toPrometheus());
+	}
+
 	/**
-	 * Gets the data which is monitored
+	 * Gets the data which is monitored. Each section is read separately, so that one failing section doesn't prevent
+	 * the others from being returned.
 	 * @return the simplified data
 	 */
 	protected SimpleObject getMonitoredData() {
 		SimpleObject stats = new SimpleObject();
-		stats.put("server", ServerInformation.getAllInformation());
+
+		putSection(stats, "server", new Callable<Object>() {
+			public Object call() {
+				return ServerInformation.getAllInformation();
+			}
+		});
+		putSection(stats, "chores", new Callable<Object>() {
+			public Object call() {
+				return ChoreMonitor.getAllInformation();
+			}
+		});
+		putSection(stats, "metrics", new Callable<Object>() {
+			public Object call() {
+				return ServerMetrics.getAllMetrics();
+			}
+		});
+		putSection(stats, "encounterEvents", new Callable<Object>() {
+			public Object call() {
+				return Context.getRegisteredComponents(EncounterEventQueue.class).get(0).getAllInformation();
+			}
+		});
+		putSection(stats, "ipAccess", new Callable<Object>() {
+			public Object call() {
+				return IPAccessSecurity.getAllInformation();
+			}
+		});
+		putSection(stats, "identifierReservations", new Callable<Object>() {
+			public Object call() {
+				return Context.getRegisteredComponents(IdentifierPool.class).get(0).getAllInformation();
+			}
+		});
+		putSection(stats, "reportExecutor", new Callable<Object>() {
+			public Object call() {
+				return Context.getRegisteredComponents(ReportExecutor.class).get(0).getAllInformation();
+			}
+		});
+		putSection(stats, "reportPrecomputer", new Callable<Object>() {
+			public Object call() {
+				return Context.getRegisteredComponents(ReportPrecomputer.class).get(0).getAllInformation();
+			}
+		});
+		putSection(stats, "attendanceTracker", new Callable<Object>() {
+			public Object call() {
+				return Context.getRegisteredComponents(AttendanceTracker.class).get(0).getAllInformation();
+			}
+		});
+
 		return stats;
 	}
 
+	/**
+	 * Adds a section of the monitored data, or an error message if it can't be read
+	 * @param stats the monitored data
+	 * @param name the section name
+	 * @param section the section
+	 */
+	protected void putSection(SimpleObject stats, String name, Callable<Object> section) {
+		try {
+			stats.put(name, section.call());
+		}
+		catch (Exception ex) {
+			log.warn("Unable to read system monitoring section '" + name + "'", ex);
+			stats.put(name, SimpleObject.create("error", ex.getClass().getSimpleName() + ": " + ex.getMessage()));
+		}
+	}
+
 	/**
 	 * Checks if incoming request for system monitoring data should be allowed
 	 * @param request the request
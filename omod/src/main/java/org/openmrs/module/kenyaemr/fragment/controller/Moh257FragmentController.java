@@ -23,8 +23,7 @@ import org.openmrs.module.kenyaemr.metadata.CommonMetadata;
 import org.openmrs.module.kenyaemr.metadata.HivMetadata;
 import org.openmrs.module.kenyaemr.regimen.RegimenManager;
 import org.openmrs.module.kenyaemr.util.EmrUtils;
-import org.openmrs.module.kenyaemr.util.EncounterBasedRegimenUtils;
-import org.openmrs.module.kenyaemr.wrapper.PatientWrapper;
+import org.openmrs.module.kenyaemr.wrapper.PatientSnapshot;
 import org.openmrs.module.metadatadeploy.MetadataUtils;
 import org.openmrs.ui.framework.SimpleObject;
 import org.openmrs.ui.framework.UiUtils;
@@ -61,11 +60,11 @@ public class Moh257FragmentController {
 		List<SimpleObject> page1AvailableForms = new ArrayList<SimpleObject>();
 		List<Encounter> page1Encounters = new ArrayList<Encounter>();
 
-		PatientWrapper patientWrapper = new PatientWrapper(patient);
+		PatientSnapshot snapshot = PatientSnapshot.forPatient(patient);
 
 		for (String page1FormUuid : page1FormUuids) {
 			Form page1Form = MetadataUtils.existing(Form.class, page1FormUuid);
-			List<Encounter> formEncounters = patientWrapper.allEncounters(page1Form);
+			List<Encounter> formEncounters = snapshot.getEncounters(page1Form);
 
 			if (formEncounters.size() == 0) {
 				page1AvailableForms.add(ui.simplifyObject(page1Form));
@@ -76,7 +75,7 @@ public class Moh257FragmentController {
 		}
 
 		Form moh257VisitForm = MetadataUtils.existing(Form.class, HivMetadata._Form.MOH_257_VISIT_SUMMARY);
-		List<Encounter> moh257VisitSummaryEncounters = patientWrapper.allEncounters(moh257VisitForm);
+		List<Encounter> moh257VisitSummaryEncounters = snapshot.getEncounters(moh257VisitForm);
 		Collections.reverse(moh257VisitSummaryEncounters);
 
 		model.addAttribute("page1AvailableForms", page1AvailableForms);
@@ -84,7 +83,7 @@ public class Moh257FragmentController {
 		model.addAttribute("page2Form", moh257VisitForm);
 		model.addAttribute("page2Encounters", moh257VisitSummaryEncounters);
 
-		List<SimpleObject> arvHistory = EncounterBasedRegimenUtils.getRegimenHistoryFromObservations(patient, "ARV");
+		List<SimpleObject> arvHistory = snapshot.getRegimenHistory("ARV");
 		model.put("arvHistory", arvHistory);
 		Program hivProgram = MetadataUtils.existing(Program.class, HivMetadata._Program.HIV);
 		model.addAttribute("inHivProgram", Context.getProgramWorkflowService().getPatientPrograms(patient, hivProgram, null, null, null, null, true));
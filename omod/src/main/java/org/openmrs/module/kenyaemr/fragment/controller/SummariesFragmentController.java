@@ -53,6 +53,7 @@ import org.openmrs.module.kenyaemr.calculation.library.rdqa.DateOfDeathCalculati
 import org.openmrs.module.kenyaemr.calculation.library.rdqa.PatientProgramEnrollmentCalculation;
 import org.openmrs.module.kenyaemr.metadata.HivMetadata;
 import org.openmrs.module.kenyaemr.regimen.RegimenOrder;
+import org.openmrs.module.kenyaemr.wrapper.PatientSnapshot;
 import org.openmrs.module.metadatadeploy.MetadataUtils;
 import org.openmrs.ui.framework.annotation.FragmentParam;
 import org.openmrs.ui.framework.fragment.FragmentModel;
@@ -106,8 +107,11 @@ public class SummariesFragmentController {
         PatientCalculationContext context = Context.getService(PatientCalculationService.class).createCalculationContext();
         context.setNow(new Date());
 
+        // Obs lookups and calculations below are shared with the other fragments on the patient chart
+        PatientSnapshot snapshot = PatientSnapshot.forPatient(patient);
+
         //get civil status
-        CalculationResultMap civilStatus = Calculations.lastObs(Dictionary.getConcept(Dictionary.CIVIL_STATUS), Arrays.asList(patient.getId()), context);
+        CalculationResultMap civilStatus = snapshot.lastObs(Dictionary.getConcept(Dictionary.CIVIL_STATUS));
         Concept status = EmrCalculationUtils.codedObsResultForPatient(civilStatus, patient.getPatientId());
         if(status != null){
             patientSummary.setMaritalStatus(status.getName().getName());
@@ -117,7 +121,7 @@ public class SummariesFragmentController {
         }
 
         //date confirmed hiv positive
-        CalculationResultMap hivConfirmation = Calculations.lastObs(Dictionary.getConcept(Dictionary.DATE_OF_HIV_DIAGNOSIS), Arrays.asList(patient.getId()), context);
+        CalculationResultMap hivConfirmation = snapshot.lastObs(Dictionary.getConcept(Dictionary.DATE_OF_HIV_DIAGNOSIS));
         Date dateConfirmed = EmrCalculationUtils.datetimeObsResultForPatient(hivConfirmation, patient.getPatientId());
         if(dateConfirmed != null){
             patientSummary.setHivConfrimedDate(formatDate(dateConfirmed));
@@ -127,7 +131,7 @@ public class SummariesFragmentController {
         }
 
         //first cd4 count
-        CalculationResultMap firstCd4CountMap = Calculations.firstObs(Dictionary.getConcept(Dictionary.CD4_COUNT), Arrays.asList(patient.getId()), context);
+        CalculationResultMap firstCd4CountMap = snapshot.firstObs(Dictionary.getConcept(Dictionary.CD4_COUNT));
         Obs cd4Value = EmrCalculationUtils.obsResultForPatient(firstCd4CountMap, patient.getPatientId());
         if(cd4Value != null){
             patientSummary.setFirstCd4(cd4Value.getValueNumeric().toString());
@@ -149,7 +153,7 @@ public class SummariesFragmentController {
         }
 
         //who staging
-        CalculationResultMap whoStage = Calculations.firstObs(Dictionary.getConcept(Dictionary.CURRENT_WHO_STAGE), Arrays.asList(patient.getPatientId()), context);
+        CalculationResultMap whoStage = snapshot.firstObs(Dictionary.getConcept(Dictionary.CURRENT_WHO_STAGE));
         Obs firstWhoStageObs = EmrCalculationUtils.obsResultForPatient(whoStage, patient.getPatientId());
         if(firstWhoStageObs != null){
             patientSummary.setWhoStagingAtEnrollment(whoStaging(firstWhoStageObs.getValueCoded()));
@@ -159,7 +163,7 @@ public class SummariesFragmentController {
         }
 
         //patient entry point
-        CalculationResultMap entryPointMap = Calculations.lastObs(Dictionary.getConcept(Dictionary.METHOD_OF_ENROLLMENT), Arrays.asList(patient.getPatientId()), context);
+        CalculationResultMap entryPointMap = snapshot.lastObs(Dictionary.getConcept(Dictionary.METHOD_OF_ENROLLMENT));
         Obs entryPointObs = EmrCalculationUtils.obsResultForPatient(entryPointMap, patient.getPatientId());
         if(entryPointObs != null) {
             patientSummary.setPatientEntryPoint(entryPointAbbriviations(entryPointObs.getValueCoded()));
@@ -177,7 +181,7 @@ public class SummariesFragmentController {
         }
 
         //transfer in date
-        CalculationResult transferInResults = EmrCalculationUtils.evaluateForPatient(TransferInDateCalculation.class, null, patient);
+        CalculationResult transferInResults = snapshot.evaluate(TransferInDateCalculation.class, null);
         String tiDate;
         if(transferInResults.isEmpty()){
             tiDate = "N/A";
@@ -186,7 +190,7 @@ public class SummariesFragmentController {
             tiDate = formatDate((Date) transferInResults.getValue());
         }
         //facility transferred form
-        CalculationResultMap transferInFacilty = Calculations.lastObs(Dictionary.getConcept("160535AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"), Arrays.asList(patient.getPatientId()), context);
+        CalculationResultMap transferInFacilty = snapshot.lastObs(Dictionary.getConcept("160535AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"));
         Obs faciltyObs = EmrCalculationUtils.obsResultForPatient(transferInFacilty, patient.getPatientId());
         if(faciltyObs != null){
             patientSummary.setTransferInFacility(faciltyObs.getValueText());
@@ -195,9 +199,9 @@ public class SummariesFragmentController {
             patientSummary.setTransferInFacility("N/A");
         }
         //treatment suppoter details
-        CalculationResultMap treatmentSupporterName = Calculations.lastObs(Dictionary.getConcept("160638AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"), Arrays.asList(patient.getPatientId()), context);
-        CalculationResultMap treatmentSupporterRelation = Calculations.lastObs(Dictionary.getConcept("160640AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"), Arrays.asList(patient.getPatientId()), context);
-        CalculationResultMap treatmentSupporterContacts = Calculations.lastObs(Dictionary.getConcept("160642AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"), Arrays.asList(patient.getPatientId()), context);
+        CalculationResultMap treatmentSupporterName = snapshot.lastObs(Dictionary.getConcept("160638AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"));
+        CalculationResultMap treatmentSupporterRelation = snapshot.lastObs(Dictionary.getConcept("160640AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"));
+        CalculationResultMap treatmentSupporterContacts = snapshot.lastObs(Dictionary.getConcept("160642AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"));
 
         Obs treatmentSupporterNameObs = EmrCalculationUtils.obsResultForPatient(treatmentSupporterName, patient.getPatientId());
         Obs treatmentSupporterRelationObs = EmrCalculationUtils.obsResultForPatient(treatmentSupporterRelation, patient.getPatientId());
@@ -224,7 +228,7 @@ public class SummariesFragmentController {
         }
 
         //allergies
-        CalculationResultMap alergies = Calculations.allObs(Dictionary.getConcept("160643AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"), Arrays.asList(patient.getPatientId()), context);
+        CalculationResultMap alergies = snapshot.allObs(Dictionary.getConcept("160643AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"));
         ListResult allergyResults = (ListResult) alergies.get(patient.getPatientId());
         List<Obs> listOfAllergies = CalculationUtils.extractResultValues(allergyResults);
         String allergies = "";
@@ -243,7 +247,7 @@ public class SummariesFragmentController {
         }
 
         //previous art details
-        CalculationResultMap previousArt = Calculations.lastObs(Dictionary.getConcept("160533AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"), Arrays.asList(patient.getPatientId()), context);
+        CalculationResultMap previousArt = snapshot.lastObs(Dictionary.getConcept("160533AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"));
         Obs previousArtObs = EmrCalculationUtils.obsResultForPatient(previousArt,patient.getPatientId());
 
             if (previousArtObs != null && previousArtObs.getValueCoded() != null &&  previousArtObs.getValueCoded().getConceptId() == 1 &&  previousArtObs.getVoided().equals(false)) {
@@ -254,9 +258,9 @@ public class SummariesFragmentController {
                 patientSummary.setPreviousArt("None");
             }
         //set the purpose for previous art
-        CalculationResultMap previousArtPurposePmtct = Calculations.lastObs(Dictionary.getConcept("1148AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"), Arrays.asList(patient.getPatientId()), context);
-        CalculationResultMap previousArtPurposePep = Calculations.lastObs(Dictionary.getConcept("1691AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"), Arrays.asList(patient.getPatientId()), context);
-        CalculationResultMap previousArtPurposeHaart = Calculations.lastObs(Dictionary.getConcept("1181AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"), Arrays.asList(patient.getPatientId()), context);
+        CalculationResultMap previousArtPurposePmtct = snapshot.lastObs(Dictionary.getConcept("1148AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"));
+        CalculationResultMap previousArtPurposePep = snapshot.lastObs(Dictionary.getConcept("1691AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"));
+        CalculationResultMap previousArtPurposeHaart = snapshot.lastObs(Dictionary.getConcept("1181AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"));
         Obs previousArtPurposePmtctObs = EmrCalculationUtils.obsResultForPatient(previousArtPurposePmtct, patient.getPatientId());
         Obs previousArtPurposePepObs = EmrCalculationUtils.obsResultForPatient(previousArtPurposePep, patient.getPatientId());
         Obs previousArtPurposeHaartObs = EmrCalculationUtils.obsResultForPatient(previousArtPurposeHaart, patient.getPatientId());
@@ -277,7 +281,7 @@ public class SummariesFragmentController {
             patientSummary.setArtPurpose(purposeString);
 
         //art start date
-        CalculationResult artStartDateResults = EmrCalculationUtils.evaluateForPatient(InitialArtStartDateCalculation.class, null, patient);
+        CalculationResult artStartDateResults = snapshot.evaluate(InitialArtStartDateCalculation.class, null);
         if(artStartDateResults != null) {
             artStartDate = (Date) artStartDateResults.getValue();
             patientSummary.setDateStartedArt(formatDate((Date) artStartDateResults.getValue()));
@@ -287,7 +291,7 @@ public class SummariesFragmentController {
         }
 
         //Clinical stage at art start
-        CalculationResult whoStageAtArtStartResults = EmrCalculationUtils.evaluateForPatient(WhoStageAtArtStartCalculation.class, null,patient);
+        CalculationResult whoStageAtArtStartResults = snapshot.evaluate(WhoStageAtArtStartCalculation.class, null);
         if(whoStageAtArtStartResults != null){
             patientSummary.setClinicalStageAtArtStart(intergerToRoman(whoStageAtArtStartResults.getValue().toString()));
         }
@@ -296,7 +300,7 @@ public class SummariesFragmentController {
         }
 
         //cd4 at art initiation
-        CalculationResult cd4AtArtStartResults = EmrCalculationUtils.evaluateForPatient(CD4AtARTInitiationCalculation.class, null,patient);
+        CalculationResult cd4AtArtStartResults = snapshot.evaluate(CD4AtARTInitiationCalculation.class, null);
         if(cd4AtArtStartResults != null){
             patientSummary.setCd4AtArtStart(cd4AtArtStartResults.getValue().toString());
         }
@@ -305,7 +309,7 @@ public class SummariesFragmentController {
         }
 
         //weight at art initiation
-        CalculationResult weightAtArtStartResults = EmrCalculationUtils.evaluateForPatient(WeightAtArtInitiationCalculation.class, null,patient);
+        CalculationResult weightAtArtStartResults = snapshot.evaluate(WeightAtArtInitiationCalculation.class, null);
         if(weightAtArtStartResults != null){
             patientSummary.setWeightAtArtStart(weightAtArtStartResults.getValue().toString());
         }
@@ -314,7 +318,7 @@ public class SummariesFragmentController {
         }
 
         //first regimen for the patient
-        CalculationResult firstRegimenResults = EmrCalculationUtils.evaluateForPatient(InitialArtRegimenCalculation.class, null, patient);
+        CalculationResult firstRegimenResults = snapshot.evaluate(InitialArtRegimenCalculation.class, null);
         String firstRegimen;
         if(firstRegimenResults == null || firstRegimenResults.isEmpty()){
             firstRegimen = "";
@@ -325,8 +329,8 @@ public class SummariesFragmentController {
         //previous drugs/regimens and dates
         String regimens = "";
         String regimenDates = "";
-        CalculationResultMap pmtctRegimenHivEnroll = Calculations.lastObs(Dictionary.getConcept("966AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"), Arrays.asList(patient.getPatientId()), context);
-        CalculationResultMap pepAndHaartRegimenHivEnroll = Calculations.allObs(Dictionary.getConcept("1088AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"), Arrays.asList(patient.getPatientId()), context);
+        CalculationResultMap pmtctRegimenHivEnroll = snapshot.lastObs(Dictionary.getConcept("966AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"));
+        CalculationResultMap pepAndHaartRegimenHivEnroll = snapshot.allObs(Dictionary.getConcept("1088AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"));
 
         Obs obsPmtctHivEnroll = EmrCalculationUtils.obsResultForPatient(pmtctRegimenHivEnroll, patient.getPatientId());
 
@@ -358,7 +362,7 @@ public class SummariesFragmentController {
         patientSummary.setPurposeDate(regimenDates);
 
         //past or current oisg
-        CalculationResultMap problemsAdded = Calculations.allObs(Dictionary.getConcept(Dictionary.PROBLEM_ADDED), Arrays.asList(patient.getPatientId()), context);
+        CalculationResultMap problemsAdded = snapshot.allObs(Dictionary.getConcept(Dictionary.PROBLEM_ADDED));
         ListResult problemsAddedList = (ListResult) problemsAdded.get(patient.getPatientId());
         List<Obs> problemsAddedListObs = CalculationUtils.extractResultValues(problemsAddedList);
         Set<Integer> ios = new HashSet<Integer>();
@@ -379,7 +383,7 @@ public class SummariesFragmentController {
             }
 
         //current art regimen
-        CalculationResult currentRegimenResults = EmrCalculationUtils.evaluateForPatient(CurrentArtRegimenCalculation.class, null, patient);
+        CalculationResult currentRegimenResults = snapshot.evaluate(CurrentArtRegimenCalculation.class, null);
         if(currentRegimenResults != null) {
             String roCurrent = currentRegimenResults.toString();
             if (roCurrent != null) {
@@ -391,7 +395,7 @@ public class SummariesFragmentController {
         }
 
         //current who staging
-        CalculationResult currentWhoStaging = EmrCalculationUtils.evaluateForPatient(LastWhoStageCalculation.class, null, patient);
+        CalculationResult currentWhoStaging = snapshot.evaluate(LastWhoStageCalculation.class, null);
         if(currentWhoStaging != null){
             patientSummary.setCurrentWhoStaging(whoStaging(((Obs) currentWhoStaging.getValue()).getValueCoded()));
         }
@@ -399,8 +403,8 @@ public class SummariesFragmentController {
             patientSummary.setCurrentWhoStaging("");
         }
         //find whether this patient has been in CTX
-        CalculationResultMap medOrdersMapCtx = Calculations.allObs(Dictionary.getConcept(Dictionary.MEDICATION_ORDERS), Arrays.asList(patient.getPatientId()), context);
-        CalculationResultMap medicationDispensedCtx = Calculations.lastObs(Dictionary.getConcept(Dictionary.COTRIMOXAZOLE_DISPENSED), Arrays.asList(patient.getPatientId()), context);
+        CalculationResultMap medOrdersMapCtx = snapshot.allObs(Dictionary.getConcept(Dictionary.MEDICATION_ORDERS));
+        CalculationResultMap medicationDispensedCtx = snapshot.lastObs(Dictionary.getConcept(Dictionary.COTRIMOXAZOLE_DISPENSED));
 
         ListResult medOrdersMapListResults = (ListResult) medOrdersMapCtx.get(patient.getPatientId());
         List<Obs> listOfObsCtx = CalculationUtils.extractResultValues(medOrdersMapListResults);
@@ -429,7 +433,7 @@ public class SummariesFragmentController {
             ctxValue = "No";
         }
         //Find if a patient is on dapsone
-        CalculationResultMap medOrdersMapDapsone = Calculations.lastObs(Dictionary.getConcept(Dictionary.MEDICATION_ORDERS), Arrays.asList(patient.getPatientId()), context);
+        CalculationResultMap medOrdersMapDapsone = snapshot.lastObs(Dictionary.getConcept(Dictionary.MEDICATION_ORDERS));
         Obs medOrdersMapObsDapsone = EmrCalculationUtils.obsResultForPatient(medOrdersMapDapsone, patient.getPatientId());
         if(medOrdersMapObsDapsone != null && medOrdersMapObsDapsone.getValueCoded().equals(Dictionary.getConcept(Dictionary.DAPSONE))){
             patientSummary.setDapsone("Yes");
@@ -441,9 +445,9 @@ public class SummariesFragmentController {
             patientSummary.setDapsone("No");
         }
         //on IPT
-        CalculationResultMap medOrdersMapInh = Calculations.lastObs(Dictionary.getConcept(Dictionary.MEDICATION_ORDERS), Arrays.asList(patient.getPatientId()), context);
+        CalculationResultMap medOrdersMapInh = snapshot.lastObs(Dictionary.getConcept(Dictionary.MEDICATION_ORDERS));
         Obs medOrdersMapObsInh = EmrCalculationUtils.obsResultForPatient(medOrdersMapInh, patient.getPatientId());
-        CalculationResultMap medicationDispensedIpt = Calculations.lastObs(Dictionary.getConcept(Dictionary.ISONIAZID_DISPENSED), Arrays.asList(patient.getPatientId()), context);
+        CalculationResultMap medicationDispensedIpt = snapshot.lastObs(Dictionary.getConcept(Dictionary.ISONIAZID_DISPENSED));
         Obs medicationDispensedIptObs = EmrCalculationUtils.obsResultForPatient(medicationDispensedIpt, patient.getPatientId());
         if(medOrdersMapObsInh != null && medOrdersMapObsInh.getValueCoded().equals(Dictionary.getConcept(Dictionary.ISONIAZID))){
             patientSummary.setOnIpt("Yes");
@@ -462,7 +466,7 @@ public class SummariesFragmentController {
         }
 
         //find clinics enrolled
-        CalculationResult clinicsEnrolledResult = EmrCalculationUtils.evaluateForPatient(PatientProgramEnrollmentCalculation.class, null, patient);
+        CalculationResult clinicsEnrolledResult = snapshot.evaluate(PatientProgramEnrollmentCalculation.class, null);
         Set<String> patientProgramList= new HashSet<String>();
         List<String> setToList = new ArrayList<String>();
         if(clinicsEnrolledResult != null){
@@ -483,7 +487,7 @@ public class SummariesFragmentController {
             }
         }
     //most recent cd4
-        CalculationResult cd4Results = EmrCalculationUtils.evaluateForPatient(LastCd4CountDateCalculation.class, null, patient);
+        CalculationResult cd4Results = snapshot.evaluate(LastCd4CountDateCalculation.class, null);
         if(cd4Results != null && cd4Results.getValue() != null){
             patientSummary.setMostRecentCd4(((Obs) cd4Results.getValue()).getValueNumeric().toString());
             patientSummary.setMostRecentCd4Date(formatDate(((Obs) cd4Results.getValue()).getObsDatetime()));
@@ -495,7 +499,7 @@ public class SummariesFragmentController {
 
 
         //most recent viral load
-        CalculationResult vlResults = EmrCalculationUtils.evaluateForPatient(ViralLoadAndLdlCalculation.class, null, patient);
+        CalculationResult vlResults = snapshot.evaluate(ViralLoadAndLdlCalculation.class, null);
 
         String viralLoadValue = "None";
         String viralLoadDate = "None";
@@ -525,7 +529,7 @@ public class SummariesFragmentController {
 
 
         // find deceased date
-        CalculationResult deadResults = EmrCalculationUtils.evaluateForPatient(DateOfDeathCalculation.class, null, patient);
+        CalculationResult deadResults = snapshot.evaluate(DateOfDeathCalculation.class, null);
         String dead;
         if(deadResults.isEmpty()){
             dead = "N/A";
@@ -535,7 +539,7 @@ public class SummariesFragmentController {
         }
 
         // next appointment date
-        CalculationResult returnVisitResults = EmrCalculationUtils.evaluateForPatient(LastReturnVisitDateCalculation.class, null, patient);
+        CalculationResult returnVisitResults = snapshot.evaluate(LastReturnVisitDateCalculation.class, null);
         if(returnVisitResults != null){
             patientSummary.setNextAppointmentDate(formatDate((Date) returnVisitResults.getValue()));
         }
@@ -543,7 +547,7 @@ public class SummariesFragmentController {
             patientSummary.setNextAppointmentDate("");
         }
         // transfer out date
-        CalculationResult totResults = EmrCalculationUtils.evaluateForPatient(TransferOutDateCalculation.class, null, patient);
+        CalculationResult totResults = snapshot.evaluate(TransferOutDateCalculation.class, null);
         String toDate;
         if(totResults.isEmpty()){
             toDate = "N/A";
@@ -553,7 +557,7 @@ public class SummariesFragmentController {
         }
        //transfer out to facility
         String toFacility;
-        CalculationResultMap transferOutFacilty = Calculations.lastObs(Dictionary.getConcept("159495AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"), Arrays.asList(patient.getPatientId()), context);
+        CalculationResultMap transferOutFacilty = snapshot.lastObs(Dictionary.getConcept("159495AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"));
         Obs transferOutFacilityObs = EmrCalculationUtils.obsResultForPatient(transferOutFacilty, patient.getPatientId());
         if(transferOutFacilityObs != null){
             toFacility = transferOutFacilityObs.getValueText();
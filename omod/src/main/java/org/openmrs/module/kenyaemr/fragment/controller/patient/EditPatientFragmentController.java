@@ -23,7 +23,6 @@ import org.openmrs.PersonName;
 import org.openmrs.Program;
 import org.openmrs.api.ProgramWorkflowService;
 import org.openmrs.api.context.Context;
-import org.openmrs.module.idgen.service.IdentifierSourceService;
 import org.openmrs.module.kenyaemr.Dictionary;
 import org.openmrs.module.kenyaemr.api.KenyaEmrService;
 import org.openmrs.module.kenyaemr.metadata.CommonMetadata;
@@ -473,7 +472,7 @@ public class EditPatientFragmentController {
 			PatientIdentifier openmrsId = toSave.getPatientIdentifier(openmrsIdType);
 
 			if (openmrsId == null) {
-				String generated = Context.getService(IdentifierSourceService.class).generateIdentifier(openmrsIdType, "Registration");
+				String generated = Context.getService(KenyaEmrService.class).getNextOpenmrsIdentifier("Registration");
 				openmrsId = new PatientIdentifier(generated, openmrsIdType, location);
 				toSave.addIdentifier(openmrsId);
 
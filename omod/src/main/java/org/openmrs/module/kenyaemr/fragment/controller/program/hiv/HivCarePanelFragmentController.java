@@ -15,13 +15,13 @@ import org.openmrs.api.AdministrationService;
 import org.openmrs.api.context.Context;
 import org.openmrs.calculation.result.CalculationResult;
 import org.openmrs.module.kenyaemr.Dictionary;
-import org.openmrs.module.kenyaemr.calculation.EmrCalculationUtils;
 import org.openmrs.module.kenyaemr.calculation.library.hiv.LastCd4CountCalculation;
 import org.openmrs.module.kenyaemr.calculation.library.hiv.LastCd4PercentageCalculation;
 import org.openmrs.module.kenyaemr.calculation.library.hiv.LastWhoStageCalculation;
 import org.openmrs.module.kenyaemr.calculation.library.hiv.art.ViralLoadAndLdlCalculation;
 import org.openmrs.module.kenyaemr.regimen.RegimenManager;
 import org.openmrs.module.kenyaemr.util.EncounterBasedRegimenUtils;
+import org.openmrs.module.kenyaemr.wrapper.PatientSnapshot;
 import org.openmrs.ui.framework.SimpleObject;
 import org.openmrs.ui.framework.annotation.FragmentParam;
 import org.openmrs.ui.framework.annotation.SpringBean;
@@ -45,13 +45,15 @@ public class HivCarePanelFragmentController {
 						   FragmentModel model,
 						   @SpringBean RegimenManager regimenManager) {
 
+		PatientSnapshot snapshot = PatientSnapshot.forPatient(patient);
+
 		Map<String, CalculationResult> calculationResults = new HashMap<String, CalculationResult>();
 
 		SimpleObject firstEncDetails = null;
 
 
 		if (complete != null && complete.booleanValue()) {
-			Encounter firstEnc = EncounterBasedRegimenUtils.getFirstEncounterForCategory(patient, "ARV");
+			Encounter firstEnc = snapshot.getFirstRegimenEncounter("ARV");
 
 			if (firstEnc != null) {
 				firstEncDetails = EncounterBasedRegimenUtils.buildRegimenChangeObject(firstEnc.getObs(), firstEnc);
@@ -60,10 +62,10 @@ public class HivCarePanelFragmentController {
 		}
 		model.put("firstEnc", firstEncDetails);
 
-		calculationResults.put("lastWHOStage", EmrCalculationUtils.evaluateForPatient(LastWhoStageCalculation.class, null, patient));
-		calculationResults.put("lastCD4Count", EmrCalculationUtils.evaluateForPatient(LastCd4CountCalculation.class, null, patient));
-		calculationResults.put("lastCD4Percent", EmrCalculationUtils.evaluateForPatient(LastCd4PercentageCalculation.class, null, patient));
-		CalculationResult lastViralLoad = EmrCalculationUtils.evaluateForPatient(ViralLoadAndLdlCalculation.class, null, patient);
+		calculationResults.put("lastWHOStage", snapshot.evaluate(LastWhoStageCalculation.class, null));
+		calculationResults.put("lastCD4Count", snapshot.evaluate(LastCd4CountCalculation.class, null));
+		calculationResults.put("lastCD4Percent", snapshot.evaluate(LastCd4PercentageCalculation.class, null));
+		CalculationResult lastViralLoad = snapshot.evaluate(ViralLoadAndLdlCalculation.class, null);
 		String valuesRequired = "None";
 		Date datesRequired = null;
 		if(!lastViralLoad.isEmpty()) {
@@ -105,9 +107,9 @@ public class HivCarePanelFragmentController {
 
 		model.addAttribute("graphingConcepts", Dictionary.getConcepts(Dictionary.WEIGHT_KG, Dictionary.CD4_COUNT, Dictionary.CD4_PERCENT, Dictionary.HIV_VIRAL_LOAD));
 
-		List<SimpleObject> obshistory = EncounterBasedRegimenUtils.getRegimenHistoryFromObservations(patient, "ARV");
+		List<SimpleObject> obshistory = snapshot.getRegimenHistory("ARV");
 		model.put("regimenFromObs", obshistory);
-		Encounter lastEnc = EncounterBasedRegimenUtils.getLastEncounterForCategory(patient, "ARV");
+		Encounter lastEnc = snapshot.getLastRegimenEncounter("ARV");
 		SimpleObject lastEncDetails = null;
 		if (lastEnc != null) {
 			lastEncDetails = EncounterBasedRegimenUtils.buildRegimenChangeObject(lastEnc.getObs(), lastEnc);
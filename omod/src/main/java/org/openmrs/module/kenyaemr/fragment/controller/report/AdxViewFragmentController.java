@@ -15,9 +15,7 @@ import org.apache.commons.logging.LogFactory;
 import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.node.ObjectNode;
 import org.openmrs.GlobalProperty;
-import org.openmrs.Location;
 import org.openmrs.api.AdministrationService;
-import org.openmrs.api.LocationService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.facilityreporting.api.FacilityreportingService;
 import org.openmrs.module.facilityreporting.api.models.FacilityReportDataset;
@@ -26,8 +24,8 @@ import org.openmrs.module.facilityreporting.api.restUtil.FacilityReporting;
 import org.openmrs.module.facilityreporting.api.restUtil.ReportDatasetValueEntryMapper;
 import org.openmrs.module.kenyacore.report.ReportDescriptor;
 import org.openmrs.module.kenyacore.report.ReportManager;
+import org.openmrs.module.kenyaemr.FacilityContext;
 import org.openmrs.module.kenyaemr.util.EmrUtils;
-import org.openmrs.module.kenyaemr.wrapper.Facility;
 import org.openmrs.module.kenyaui.KenyaUiUtils;
 import org.openmrs.module.reporting.dataset.DataSet;
 import org.openmrs.module.reporting.dataset.DataSetColumn;
@@ -76,7 +74,6 @@ public class AdxViewFragmentController {
     private final Integer MOH_731_ID = 1;
     protected final Log log = LogFactory.getLog(getClass());
 
-    private LocationService locationService;
     public String SERVER_ADDRESS = "http://41.204.187.152:9721/api/";
     public String KPIF_SERVER_ADDRESS = "https://il.kenyahmis.org:9721/api/3pm/";
     DateFormat isoDateTimeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mmZ");
@@ -128,12 +125,9 @@ public class AdxViewFragmentController {
         Date endDate = (Date) reportData.getContext().getParameterValue("endDate");
         administrationService = Context.getAdministrationService();
         facilityreportingService = Context.getService(FacilityreportingService.class);
-        locationService = Context.getLocationService();
         String reportName = reportData.getDefinition().getName();
 
-        Integer locationId = Integer.parseInt(administrationService.getGlobalProperty("kenyaemr.defaultLocation"));
-
-        Location location = locationService.getLocation(locationId);
+        FacilityContext.Details facility = Context.getRegisteredComponents(FacilityContext.class).get(0).getDetails();
         ObjectNode mappingDetails = null;
 
         if (reportName.equals(MOH_731)) {
@@ -147,8 +141,8 @@ public class AdxViewFragmentController {
         String datasetName = null;
         String indicatorName = null;
         String mappedIndicatorId = null;
-        if (location != null) {
-            mfl = new Facility(location).getMflCode();
+        if (facility.getLocationId() != null) {
+            mfl = facility.getMflCode();
         }
 
         StringBuilder w = new StringBuilder();
@@ -247,15 +241,12 @@ public class AdxViewFragmentController {
         String reportName = reportData.getDefinition().getName();
 
         administrationService = Context.getAdministrationService();
-        locationService = Context.getLocationService();
         facilityreportingService = Context.getService(FacilityreportingService.class);
 
         Date reportDate = (Date) reportData.getContext().getParameterValue("startDate");
         Date endDate = (Date) reportData.getContext().getParameterValue("endDate");
 
-        Integer locationId = Integer.parseInt(administrationService.getGlobalProperty("kenyaemr.defaultLocation"));
-
-        Location location = locationService.getLocation(locationId);
+        FacilityContext.Details facility = Context.getRegisteredComponents(FacilityContext.class).get(0).getDetails();
         ObjectNode mappingDetails = null;
         if (reportName.equals(MOH_731)) {
             mappingDetails = EmrUtils.getDatasetMappingForReport(reportName, administrationService.getGlobalProperty("kenyaemr.adxDatasetMapping"));
@@ -270,8 +261,8 @@ public class AdxViewFragmentController {
 
         columnPrefix = mappingDetails.get("prefix").getTextValue();
 
-        if (location != null) {
-            mfl = new Facility(location).getMflCode();
+        if (facility.getLocationId() != null) {
+            mfl = facility.getMflCode();
         }
 
         DocumentBuilderFactory documentFactory = DocumentBuilderFactory.newInstance();
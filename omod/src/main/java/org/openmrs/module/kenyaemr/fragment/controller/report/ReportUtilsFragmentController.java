@@ -18,10 +18,14 @@ import org.openmrs.module.kenyacore.CoreUtils;
 import org.openmrs.module.kenyacore.report.ReportDescriptor;
 import org.openmrs.module.kenyacore.report.ReportManager;
 import org.openmrs.module.kenyaemr.EmrConstants;
+import org.openmrs.module.kenyaemr.reporting.ReportExecutor;
+import org.openmrs.module.kenyaemr.reporting.ReportPrecomputer;
+import org.openmrs.module.kenyaemr.reporting.profiler.DefinitionProfile;
+import org.openmrs.module.kenyaemr.reporting.profiler.EvaluationProfile;
+import org.openmrs.module.kenyaemr.reporting.profiler.EvaluationProfiler;
 import org.openmrs.module.kenyaui.KenyaUiUtils;
 import org.openmrs.module.kenyaui.annotation.AppAction;
 import org.openmrs.module.kenyaui.annotation.SharedAction;
-import org.openmrs.module.reporting.evaluation.parameter.Mapped;
 import org.openmrs.module.reporting.evaluation.parameter.Parameter;
 import org.openmrs.module.reporting.report.ReportRequest;
 import org.openmrs.module.reporting.report.definition.ReportDefinition;
@@ -59,19 +63,28 @@ public class ReportUtilsFragmentController {
 
 	private static final DateFormat iso8601Formatter = new SimpleDateFormat("yyyy-MM-dd");
 
+	private static final int MAX_PROFILED_DEFINITIONS = 100;
+
 	/**
-	 * Requests a report evaluation
+	 * Requests a report evaluation. If the same report with the same parameters is already queued or running then
+	 * the id of that request is returned. If the report is pre-computed and its result for the same period is stored
+	 * then the id of that request is returned and marked as stored, unless a fresh evaluation is requested.
 	 * @param reportUuid the report definition UUID
+	 * @param fresh whether to evaluate the report even if a stored result exists
 	 * @param reportManager the report manager
+	 * @param reportExecutor the report executor
+	 * @param reportPrecomputer the report pre-computer
 	 * @return the report request id
 	 */
 	@SharedAction
 	public Object requestReport(@RequestParam("reportUuid") String reportUuid,
+							    @RequestParam(value = "fresh", required = false) Boolean fresh,
 							    UiUtils ui,
 							    @SpringBean KenyaUiUtils kenyaui,
 							    @SpringBean FragmentActionRequest actionRequest,
 							    @SpringBean ReportManager reportManager,
-							    @SpringBean ReportService reportService,
+							    @SpringBean ReportExecutor reportExecutor,
+							    @SpringBean ReportPrecomputer reportPrecomputer,
 							    @SpringBean ReportDefinitionService definitionService) throws ParseException {
 
 		ReportDefinition definition = definitionService.getDefinitionByUuid(reportUuid);
@@ -99,18 +112,19 @@ public class ReportUtilsFragmentController {
 			return new FailureResult("Missing report parameters");
 		}
 
-
-		Mapped<ReportDefinition> mappedDefinition = new Mapped<ReportDefinition>(definition, parameterValues);
+		if (!Boolean.TRUE.equals(fresh)) {
+			ReportRequest stored = reportPrecomputer.getStoredRequest(definition, parameterValues);
+			if (stored != null) {
+				SimpleObject ret = SimpleObject.fromObject(stored, ui, "id");
+				ret.put("stored", true);
+				return ret;
+			}
+		}
 
 		ReportRenderer renderer = new DefaultWebRenderer();
 		RenderingMode mode = renderer.getRenderingModes(definition).iterator().next();
 
-		ReportRequest request = new ReportRequest();
-		request.setReportDefinition(mappedDefinition);
-		request.setRenderingMode(mode);
-
-		request = reportService.queueReport(request);
-		reportService.processNextQueuedReports();
+		ReportRequest request = reportExecutor.request(report, definition, parameterValues, mode);
 
 		log.info("Requested report '" + definition.getName() + "' with params " + parameterValues);
 
@@ -180,6 +194,29 @@ public class ReportUtilsFragmentController {
 		return ui.simplifyCollection(requests);
 	}
 
+	/**
+	 * Gets the evaluation profile of the given report request
+	 * @param request the report request
+	 * @param ui the UI utils
+	 * @return the profile summary and its definitions ordered by self time
+	 */
+	@AppAction(EmrConstants.APP_ADMIN)
+	public Object getEvaluationProfile(@RequestParam("requestId") ReportRequest request, UiUtils ui) {
+		EvaluationProfile profile = EvaluationProfiler.load(request.getUuid());
+		if (profile == null) {
+			return new FailureResult(ui.message("No profile available for this report request"));
+		}
+
+		List<SimpleObject> definitions = new ArrayList<SimpleObject>();
+		for (DefinitionProfile definition : profile.getSlowestDefinitions(MAX_PROFILED_DEFINITIONS)) {
+			definitions.add(SimpleObject.fromObject(definition, ui, "name", "type", "evaluations", "cacheHits", "totalTime", "selfTime", "sqlTime", "maxTime", "rows"));
+		}
+
+		SimpleObject ret = SimpleObject.create("reportName", profile.getReportName(), "totalTime", profile.getTotalTime());
+		ret.put("definitions", definitions);
+		return ret;
+	}
+
 	/**
 	 * Helper method to fetch report requests
 	 * @param reportUuid the report definition UUID (optional)
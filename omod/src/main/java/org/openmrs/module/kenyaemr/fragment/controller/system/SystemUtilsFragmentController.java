@@ -12,6 +12,7 @@ package org.openmrs.module.kenyaemr.fragment.controller.system;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.kenyadq.DqConstants;
 import org.openmrs.module.kenyaemr.EmrConstants;
+import org.openmrs.module.kenyaemr.chore.ChoreMonitor;
 import org.openmrs.module.kenyaemr.util.ServerInformation;
 import org.openmrs.module.kenyaui.KenyaUiUtils;
 import org.openmrs.module.kenyaui.annotation.AppAction;
@@ -64,6 +65,17 @@ public class SystemUtilsFragmentController {
 		return points;
 	}
 
+	/**
+	 * Fetches the progress of batched chores and any checkpoints left by incomplete runs
+	 * @return the progress information
+	 */
+	@AppAction(EmrConstants.APP_ADMIN)
+	public SimpleObject getChoreProgress() {
+		SimpleObject ret = new SimpleObject();
+		ret.putAll(ChoreMonitor.getAllInformation());
+		return ret;
+	}
+
 	/**
 	 * Fetches a database summary
 	 * @return the summary
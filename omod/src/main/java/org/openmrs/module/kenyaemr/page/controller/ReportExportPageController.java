@@ -17,10 +17,9 @@ import org.openmrs.module.kenyacore.report.HybridReportDescriptor;
 import org.openmrs.module.kenyacore.report.IndicatorReportDescriptor;
 import org.openmrs.module.kenyacore.report.ReportDescriptor;
 import org.openmrs.module.kenyacore.report.ReportManager;
-import org.openmrs.module.kenyaemr.api.KenyaEmrService;
+import org.openmrs.module.kenyaemr.FacilityContext;
 import org.openmrs.module.kenyaemr.reporting.renderer.AdxReportRenderer;
 import org.openmrs.module.kenyaemr.reporting.renderer.MergedCsvReportRenderer;
-import org.openmrs.module.kenyaemr.wrapper.Facility;
 import org.openmrs.module.kenyaui.KenyaUiUtils;
 import org.openmrs.module.kenyaui.annotation.SharedPage;
 import org.openmrs.module.reporting.common.ContentType;
@@ -165,11 +164,11 @@ public class ReportExportPageController {
 	 * @param context the evaluation context
 	 */
 	protected void addExtraContextValues(ReportData data, EvaluationContext context) {
-		Facility facility = new Facility(Context.getService(KenyaEmrService.class).getDefaultLocation());
+		FacilityContext.Details facility = Context.getRegisteredComponents(FacilityContext.class).get(0).getDetails();
 		KenyaUiUtils kenyaui = Context.getRegisteredComponents(KenyaUiUtils.class).get(0);
 		ReportDefinition reportData = data.getDefinition();
 
-		context.addContextValue("facility.name", facility.getTarget().getName());
+		context.addContextValue("facility.name", facility.getName());
 		context.addContextValue("facility.code", facility.getMflCode());
 		context.addContextValue("report.name", reportData.getName());
 
@@ -13,36 +13,78 @@ import org.openmrs.module.kenyacore.CoreUtils;
 import org.openmrs.module.kenyacore.report.IndicatorReportDescriptor;
 import org.openmrs.module.kenyacore.report.ReportDescriptor;
 import org.openmrs.module.kenyacore.report.ReportManager;
+import org.openmrs.module.kenyaemr.EmrConstants;
+import org.openmrs.module.kenyaemr.reporting.ReportPrecomputer;
 import org.openmrs.module.kenyaui.KenyaUiUtils;
 import org.openmrs.module.kenyaui.annotation.SharedPage;
 import org.openmrs.module.reporting.report.ReportData;
 import org.openmrs.module.reporting.report.ReportRequest;
 import org.openmrs.module.reporting.report.definition.ReportDefinition;
+import org.openmrs.module.reporting.report.definition.service.ReportDefinitionService;
 import org.openmrs.module.reporting.report.service.ReportService;
+import org.openmrs.ui.framework.SimpleObject;
+import org.openmrs.ui.framework.UiUtils;
 import org.openmrs.ui.framework.annotation.SpringBean;
 import org.openmrs.ui.framework.page.PageModel;
 import org.openmrs.ui.framework.page.PageRequest;
 import org.springframework.web.bind.annotation.RequestParam;
 
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
- * Report view page
+ * Report view page. Shows either the given request, or the stored result of a pre-computed report for the given
+ * period, in which case the user can also request a fresh evaluation.
  */
 @SharedPage
 public class ReportViewPageController {
 	
-	public void get(@RequestParam("request") ReportRequest reportRequest,
+	public String get(@RequestParam(value = "request", required = false) ReportRequest reportRequest,
+					@RequestParam(value = "reportUuid", required = false) String reportUuid,
+					@RequestParam(value = "startDate", required = false) Date startDate,
+					@RequestParam(value = "endDate", required = false) Date endDate,
 					@RequestParam("returnUrl") String returnUrl,
 					PageRequest pageRequest,
 					PageModel model,
+					UiUtils ui,
 					@SpringBean ReportManager reportManager,
 					@SpringBean KenyaUiUtils kenyaUi,
-					@SpringBean ReportService reportService) throws Exception {
+					@SpringBean ReportService reportService,
+					@SpringBean ReportDefinitionService definitionService,
+					@SpringBean ReportPrecomputer reportPrecomputer) throws Exception {
 
-		ReportDefinition definition = reportRequest.getReportDefinition().getParameterizable();
+		ReportDefinition definition = (reportRequest != null)
+				? reportRequest.getReportDefinition().getParameterizable()
+				: definitionService.getDefinitionByUuid(reportUuid);
 		ReportDescriptor report = reportManager.getReportDescriptor(definition);
 
 		CoreUtils.checkAccess(report, kenyaUi.getCurrentApp(pageRequest));
 
+		boolean stored;
+		if (reportRequest != null) {
+			stored = reportRequest.equals(reportPrecomputer.getStoredRequest(definition, reportRequest.getReportDefinition().getParameterMappings()));
+		}
+		else {
+			Map<String, Object> parameterValues = new HashMap<String, Object>();
+			parameterValues.put("startDate", startDate);
+			if (endDate != null) {
+				parameterValues.put("endDate", endDate);
+			}
+
+			reportRequest = reportPrecomputer.getStoredRequest(definition, parameterValues);
+
+			// Nothing stored for this period so go to the report page where it can be requested
+			if (reportRequest == null) {
+				SimpleObject params = SimpleObject.create("appId", kenyaUi.getCurrentApp(pageRequest).getId(), "reportUuid", reportUuid, "returnUrl", returnUrl);
+				if (startDate != null) {
+					params.put("startDate", kenyaUi.formatDateParam(startDate));
+				}
+				return "redirect:" + ui.pageLink(EmrConstants.MODULE_ID, "report", params);
+			}
+			stored = true;
+		}
+
 		ReportData reportData = reportService.loadReportData(reportRequest);
 
 		model.addAttribute("reportRequest", reportRequest);
@@ -50,5 +92,23 @@ public class ReportViewPageController {
 		model.addAttribute("isIndicator", report instanceof IndicatorReportDescriptor);
 		model.addAttribute("reportData", reportData);
 		model.addAttribute("returnUrl", returnUrl);
+		model.addAttribute("stored", stored);
+		model.addAttribute("requestParams", getRequestParams(reportRequest, kenyaUi));
+		return null;
+	}
+
+	/**
+	 * Gets the parameters of a request in the format submitted by the request form, so it can be requested again
+	 * @param reportRequest the report request
+	 * @param kenyaUi the Kenya UI utils
+	 * @return the form parameters
+	 */
+	protected SimpleObject getRequestParams(ReportRequest reportRequest, KenyaUiUtils kenyaUi) {
+		SimpleObject params = new SimpleObject();
+		for (Map.Entry<String, Object> entry : reportRequest.getReportDefinition().getParameterMappings().entrySet()) {
+			Object value = entry.getValue();
+			params.put("param[" + entry.getKey() + "]", (value instanceof Date) ? kenyaUi.formatDateParam((Date) value) : value);
+		}
+		return params;
 	}
-}
\ No newline at end of file
+}
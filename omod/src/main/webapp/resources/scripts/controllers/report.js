@@ -16,6 +16,8 @@ kenyaemrApp.controller('ReportController', ['$scope', '$http', '$timeout', funct
 
 	$scope.queued = [];
 	$scope.finished = [];
+	$scope.profile = null;
+	$scope.profileOrder = '-selfTime';
 
 	/**
 	 * Initializes the controller
@@ -56,7 +58,14 @@ kenyaemrApp.controller('ReportController', ['$scope', '$http', '$timeout', funct
 		angular.extend(params, reportParams); // Add report parameters
 
 		$http.post(ui.fragmentActionLink('kenyaemr', 'report/reportUtils', 'requestReport', params))
-			.success(defaultSuccessHandler)
+			.success(function(data) {
+				if (data.stored) {
+					// Result for this period has already been pre-computed
+					$scope.viewReportData(data.id);
+				} else {
+					defaultSuccessHandler(data);
+				}
+			})
 			.error(defaultErrorHandler);
 
 	};
@@ -103,6 +112,30 @@ kenyaemrApp.controller('ReportController', ['$scope', '$http', '$timeout', funct
 		kenyaui.openDynamicDialog({ heading: 'View Error', url: contentUrl, width: 90, height: 90 });
 	};
 
+	/**
+	 * Loads the evaluation profile of a report request
+	 * @param requestId the request id
+	 */
+	$scope.viewProfile = function(requestId) {
+		$http.get(ui.fragmentActionLink('kenyaemr', 'report/reportUtils', 'getEvaluationProfile', { appId: $scope.appId, requestId: requestId }))
+			.success(function(data) {
+				if (data.definitions) {
+					$scope.profile = data;
+				} else {
+					defaultErrorHandler(data);
+				}
+			})
+			.error(defaultErrorHandler);
+	};
+
+	/**
+	 * Sorts the profiled definitions by the given property, reversing the order if already sorted by it
+	 * @param property the property name
+	 */
+	$scope.sortProfile = function(property) {
+		$scope.profileOrder = ($scope.profileOrder == '-' + property) ? property : '-' + property;
+	};
+
     $scope.viewAdxData = function(requestId) {
         ui.navigate('kenyaemr', 'reports/adxViewHome', { appId: $scope.appId, request: requestId, returnUrl: location.href });
     };
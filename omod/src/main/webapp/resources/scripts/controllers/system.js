@@ -16,6 +16,8 @@ kenyaemrApp.controller('ServerInformation', ['$scope', '$http', '$timeout', func
 
 	$scope.infos = [];
 
+	var refreshPromise = null;
+
 	/**
 	 * Initializes the controller
 	 */
@@ -23,6 +25,13 @@ kenyaemrApp.controller('ServerInformation', ['$scope', '$http', '$timeout', func
 		$scope.refresh();
 	};
 
+	/**
+	 * Stops refreshing when the controller is destroyed
+	 */
+	$scope.$on('$destroy', function() {
+		$timeout.cancel(refreshPromise);
+	});
+
 	/**
 	 * Refreshes the server information
 	 */
@@ -30,7 +39,8 @@ kenyaemrApp.controller('ServerInformation', ['$scope', '$http', '$timeout', func
 		$http.get(ui.fragmentActionLink('kenyaemr', 'system/systemUtils', 'getServerInformation')).
 			success(function(data) {
 				$scope.infos = data;
-				$timeout($scope.refresh, 5000);
+				$timeout.cancel(refreshPromise);
+				refreshPromise = $timeout($scope.refresh, 5000);
 			});
 	};
 }]);
@@ -51,4 +61,46 @@ kenyaemrApp.controller('DatabaseSummary', ['$scope', '$http', function($scope, $
 				$scope.infos = data;
 			});
 	};
-}]);
\ No newline at end of file
+}]);
+
+kenyaemrApp.controller('ChoreProgress', ['$scope', '$http', '$timeout', function($scope, $http, $timeout) {
+
+	$scope.runs = [];
+	$scope.checkpoints = {};
+
+	var refreshPromise = null;
+
+	/**
+	 * Initializes the controller
+	 */
+	$scope.init = function() {
+		$scope.refresh();
+	};
+
+	/**
+	 * Stops refreshing when the controller is destroyed
+	 */
+	$scope.$on('$destroy', function() {
+		$timeout.cancel(refreshPromise);
+	});
+
+	/**
+	 * Refreshes the chore progress
+	 */
+	$scope.refresh = function() {
+		$http.get(ui.fragmentActionLink('kenyaemr', 'system/systemUtils', 'getChoreProgress')).
+			success(function(data) {
+				$scope.runs = data.runs;
+				$scope.checkpoints = data.checkpoints;
+				$timeout.cancel(refreshPromise);
+				refreshPromise = $timeout($scope.refresh, 5000);
+			});
+	};
+
+	/**
+	 * Checks whether there are any checkpoints
+	 */
+	$scope.hasCheckpoints = function() {
+		return Object.keys($scope.checkpoints).length > 0;
+	};
+}]);
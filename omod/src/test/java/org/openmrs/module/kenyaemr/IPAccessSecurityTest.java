@@ -17,6 +17,10 @@ import org.openmrs.api.context.Context;
 import org.openmrs.web.WebConstants;
 import org.openmrs.web.test.BaseModuleWebContextSensitiveTest;
 
+import java.util.Map;
+
+import static org.hamcrest.Matchers.is;
+
 public class IPAccessSecurityTest extends BaseModuleWebContextSensitiveTest {
 
 	@Before
@@ -66,4 +70,101 @@ public class IPAccessSecurityTest extends BaseModuleWebContextSensitiveTest {
 		IPAccessSecurity.endLockOut(ipAddress1);
 		Assert.assertFalse(IPAccessSecurity.isLockedOut(ipAddress1));
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @see IPAccessSecurity#getAllInformation()
+	 */
+	@Test
+	public void getAllInformation_shouldCountLockedOutIPsAndFailures() throws Exception {
+		IPAccessSecurity.reset();
+
+		for (int i = 0; i < 11; ++i) {
+			IPAccessSecurity.registerFailedAccess("127.0.0.1");
+		}
+		IPAccessSecurity.registerFailedAccess("127.0.1.1");
+
+		Map<String, Object> info = IPAccessSecurity.getAllInformation();
+		Assert.assertThat((Integer) info.get("trackedIPs"), is(2));
+		Assert.assertThat((Integer) info.get("lockedOutIPs"), is(1));
+		Assert.assertThat((Long) info.get("failedAccessesTotal"), is(12L));
+
+		IPAccessSecurity.reset();
+	}
+
+	/**
+	 * @see IPAccessSecurity#registerFailedAccess(String, long)
+	 */
+	@Test
+	public void registerFailedAccess_shouldExpireIdleEntriesAndLockouts() throws Exception {
+		IPAccessSecurity.reset();
+		long start = System.currentTimeMillis();
+
+		for (int i = 0; i < 11; ++i) {
+			IPAccessSecurity.registerFailedAccess("127.0.0.1", start);
+		}
+		IPAccessSecurity.registerFailedAccess("127.0.1.1", start);
+		Assert.assertTrue(IPAccessSecurity.isLockedOut("127.0.0.1", start));
+
+		// Lockout ends after the lockout time
+		Assert.assertFalse(IPAccessSecurity.isLockedOut("127.0.0.1", start + EmrWebConstants.FAILED_LOGIN_LOCKOUT_TIME));
+
+		// Idle entries are purged after the expiry time
+		long later = start + IPAccessSecurity.ENTRY_EXPIRY_TIME + IPAccessSecurity.PURGE_INTERVAL;
+		IPAccessSecurity.registerFailedAccess("127.0.2.1", later);
+		Assert.assertThat((Integer) IPAccessSecurity.getAllInformation().get("trackedIPs"), is(1));
+
+		IPAccessSecurity.reset();
+	}
+
+	/**
+	 * @see IPAccessSecurity#registerFailedAccess(String, long)
+	 */
+	@Test
+	public void registerFailedAccess_shouldNotTrackMoreThanMaximumIPs() throws Exception {
+		IPAccessSecurity.reset();
+		long now = System.currentTimeMillis();
+
+		for (int i = 0; i < IPAccessSecurity.MAX_TRACKED_IPS + 100; ++i) {
+			IPAccessSecurity.registerFailedAccess(ipAddress(i), now);
+		}
+
+		Assert.assertThat((Integer) IPAccessSecurity.getAllInformation().get("trackedIPs"), is(IPAccessSecurity.MAX_TRACKED_IPS));
+
+		IPAccessSecurity.reset();
+	}
+
+	/**
+	 * @see IPAccessSecurity#registerFailedAccess(String, long)
+	 */
+	@Test
+	public void registerFailedAccess_shouldEvictLeastRecentlyUsedWhenAllTrackedIPsAreLockedOut() throws Exception {
+		IPAccessSecurity.reset();
+		long now = System.currentTimeMillis();
+
+		for (int i = 0; i < IPAccessSecurity.MAX_TRACKED_IPS; ++i) {
+			IPAccessSecurity.lockOut(ipAddress(i), now);
+		}
+		IPAccessSecurity.lockOut(ipAddress(0), now + 1); // Make the first the most recently used
+
+		// A new IP address is still tracked and locked out
+		for (int i = 0; i < 11; ++i) {
+			IPAccessSecurity.registerFailedAccess("127.0.0.1", now + 2);
+		}
+		Assert.assertTrue(IPAccessSecurity.isLockedOut("127.0.0.1", now + 2));
+
+		// ...by evicting the least recently used entry
+		Assert.assertTrue(IPAccessSecurity.isLockedOut(ipAddress(0), now + 2));
+		Assert.assertFalse(IPAccessSecurity.isLockedOut(ipAddress(1), now + 2));
+		Assert.assertTrue(IPAccessSecurity.isLockedOut(ipAddress(2), now + 2));
+		Assert.assertThat((Integer) IPAccessSecurity.getAllInformation().get("trackedIPs"), is(IPAccessSecurity.MAX_TRACKED_IPS));
+
+		IPAccessSecurity.reset();
+	}
+
+	/**
+	 * Creates a distinct IP address for the given index
+	 */
+	private static String ipAddress(int index) {
+		return "10.0." + (index / 256) + "." + (index % 256);
+	}
+}
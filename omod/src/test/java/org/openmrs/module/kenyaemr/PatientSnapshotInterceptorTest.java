@@ -0,0 +1,74 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.kenyaemr;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.module.kenyaemr.wrapper.PatientSnapshot;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Tests for {@link PatientSnapshotInterceptor}
+ */
+public class PatientSnapshotInterceptorTest {
+
+	private PatientSnapshotInterceptor interceptor = new PatientSnapshotInterceptor();
+
+	@After
+	public void cleanup() {
+		PatientSnapshot.endScope();
+	}
+
+	/**
+	 * @see PatientSnapshotInterceptor#preHandle(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse, Object)
+	 */
+	@Test
+	public void preHandle_shouldBeginScopeForViewPatientPages() throws Exception {
+		interceptor.preHandle(createRequest("GET", "/kenyaemr/chart/chartViewPatient.page"), new MockHttpServletResponse(), null);
+		Assert.assertThat(PatientSnapshot.isScopeActive(), is(true));
+
+		interceptor.afterCompletion(createRequest("GET", "/kenyaemr/chart/chartViewPatient.page"), new MockHttpServletResponse(), null, null);
+		Assert.assertThat(PatientSnapshot.isScopeActive(), is(false));
+
+		interceptor.preHandle(createRequest("GET", "/kenyaemr/clinician/clinicianViewPatient.page"), new MockHttpServletResponse(), null);
+		Assert.assertThat(PatientSnapshot.isScopeActive(), is(true));
+	}
+
+	/**
+	 * @see PatientSnapshotInterceptor#preHandle(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse, Object)
+	 */
+	@Test
+	public void preHandle_shouldNotBeginScopeForOtherRequests() throws Exception {
+		interceptor.preHandle(createRequest("GET", "/kenyaemr/userHome.page"), new MockHttpServletResponse(), null);
+		Assert.assertThat(PatientSnapshot.isScopeActive(), is(false));
+
+		interceptor.preHandle(createRequest("GET", "/kenyaemr/reports/reportsHome.page"), new MockHttpServletResponse(), null);
+		Assert.assertThat(PatientSnapshot.isScopeActive(), is(false));
+
+		interceptor.preHandle(createRequest("POST", "/kenyaemr/chart/chartViewPatient.page"), new MockHttpServletResponse(), null);
+		Assert.assertThat(PatientSnapshot.isScopeActive(), is(false));
+	}
+
+	/**
+	 * Creates a request for the given path in the /openmrs context
+	 * @param method the HTTP method
+	 * @param path the path
+	 * @return the request
+	 */
+	private static MockHttpServletRequest createRequest(String method, String path) {
+		MockHttpServletRequest request = new MockHttpServletRequest(method, "/openmrs" + path);
+		request.setContextPath("/openmrs");
+		return request;
+	}
+}
@@ -11,7 +11,12 @@ package org.openmrs.module.kenyaemr;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.openmrs.ui.framework.SimpleObject;
 import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 import static org.hamcrest.Matchers.is;
 
@@ -45,4 +50,41 @@ public class SystemMonitorControllerTest {
 
 		Assert.assertThat(controller.checkAccess(request), is(false));
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @see SystemMonitorController#getMetrics(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+	 */
+	@Test
+	public void getMetrics_shouldRejectNonLocalRequests() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setLocalAddr("5.6.7.8");
+		request.setRemoteAddr("1.2.3.4");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+
+		controller.getMetrics(request, response);
+
+		Assert.assertThat(response.getStatus(), is(403));
+	}
+
+	/**
+	 * @see SystemMonitorController#putSection(org.openmrs.ui.framework.SimpleObject, String, java.util.concurrent.Callable)
+	 */
+	@Test
+	public void putSection_shouldPutErrorForFailingSection() {
+		SimpleObject stats = new SimpleObject();
+
+		controller.putSection(stats, "working", new Callable<Object>() {
+			public Object call() {
+				return 123;
+			}
+		});
+		controller.putSection(stats, "failing", new Callable<Object>() {
+			public Object call() {
+				throw new IllegalStateException("Not ready");
+			}
+		});
+
+		Assert.assertThat(stats.get("working"), is((Object) 123));
+		Assert.assertThat(((Map) stats.get("failing")).get("error"), is((Object) "IllegalStateException: Not ready"));
+	}
+}